@@ -0,0 +1,185 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * What the index files have in common: the file, the schema of the
+ * entries, converting entry tuples to entries, and the operations that
+ * pin the pages they fetch. Subclasses create the empty file, read pages
+ * of their own kinds and lay out the entries over them.
+ *
+ * @param <P> the kind of page the file is made of
+ * @param <H> the kind of its header page, page 0
+ * @see IndexFile
+ */
+abstract class AbstractIndexFile<P extends Page, H extends P> implements IndexFile {
+
+    private final File f;
+    private final Class<P> pageType;
+    private final Class<H> headerType;
+    final int tableId;
+    final int keyField;
+    final Type keyType;
+    final TupleDesc td;
+    final PageIO io;
+
+    /**
+     * Open an index, creating an empty one with {@link #createEmpty} if
+     * the file is empty or does not exist.
+     *
+     * @param f the file that stores the index
+     * @param tableId the id of the heap table that is indexed
+     * @param keyField the index of the field of that table that is the key
+     * @param keyType the type of that field
+     */
+    AbstractIndexFile(File f, int tableId, int keyField, Type keyType,
+                      Class<P> pageType, Class<H> headerType) {
+        this.f = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.keyType = keyType;
+        this.pageType = pageType;
+        this.headerType = headerType;
+        this.td = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                                new String[] { "key", "page", "slot" });
+        this.io = new PageIO(f, BufferPool.getPageSize(), PageIO.Mode.getDefault());
+        try {
+            if (f.length() == 0)
+                createEmpty();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Write the pages of an empty index. */
+    abstract void createEmpty() throws IOException;
+
+    /** @return the id of page pageNo of this file */
+    abstract PageId pageId(int pageNo);
+
+    /** @return the file backing this index on disk */
+    public File getFile() {
+        return f;
+    }
+
+    /** @return an id for this index, the hash code of its absolute path */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * @return the schema of the entries: the key, then the page number and
+     *   slot of the tuple in the indexed table
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getIndexedTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the number of pages in the file, free ones included */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        io.write(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /** Force the pages written so far to disk. */
+    public void force() throws IOException {
+        io.force();
+    }
+
+    /** Close the underlying file. It is reopened if the file is used again. */
+    public void close() throws IOException {
+        io.close();
+    }
+
+    IndexEntry entry(Field key, RecordId rid) throws DbException {
+        if (key == null || key.getType() != keyType)
+            throw new DbException("key " + key + " is not of type " + keyType);
+        if (rid == null)
+            throw new DbException("entry for " + key + " has no record id");
+        return new IndexEntry(key, rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    IndexEntry entry(Tuple t) throws DbException {
+        if (t == null || !t.getTupleDesc().equals(td))
+            throw new DbException("not an entry of this index: " + t);
+        return new IndexEntry(t.getField(0), ((IntField) t.getField(1)).getValue(),
+                              ((IntField) t.getField(2)).getValue());
+    }
+
+    /** Append a new page with the given contents to the file. */
+    synchronized int appendPage(byte[] data) throws IOException {
+        int pageNo = numPages();
+        io.write(pageNo, data);
+        return pageNo;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        IndexEntry e = entry(t);
+        return insertEntry(tid, e.key, new RecordId(new HeapPageId(tableId, e.pageNo), e.slot));
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        IndexEntry e = entry(t);
+        return deleteEntry(tid, e.key, new RecordId(new HeapPageId(tableId, e.pageNo), e.slot));
+    }
+
+    /**
+     * One operation on the index, on behalf of a transaction: the pages it
+     * has fetched and the ones it has changed. Pages are pinned in the
+     * BufferPool until the operation is {@link #done}, so that none of them
+     * is evicted and read back as another copy while the operation still
+     * holds it.
+     */
+    final class Operation {
+        final TransactionId tid;
+        final ArrayList<Page> dirtied = new ArrayList<Page>();
+        private final ArrayList<PageId> pinned = new ArrayList<PageId>();
+
+        Operation(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        P page(int pageNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+            PageId pid = pageId(pageNo);
+            Page p = Database.getBufferPool().getPinnedPage(tid, pid, perm);
+            pinned.add(pid);
+            return pageType.cast(p);
+        }
+
+        H header(Permissions perm)
+            throws DbException, TransactionAbortedException {
+            return headerType.cast(page(0, perm));
+        }
+
+        /** Mark a page dirty now, so it is written out if it is stolen. */
+        void dirty(Page p) {
+            p.markDirty(true, tid);
+            if (!dirtied.contains(p))
+                dirtied.add(p);
+        }
+
+        void done() {
+            for (PageId pid : pinned)
+                Database.getBufferPool().unpinPage(pid);
+            pinned.clear();
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree secondary index on one field of a heap table. It
+ * is a DbFile of its own, whose pages are read and changed through the
+ * BufferPool, locked, logged and recovered like those of any other table.
+ * <p>
+ * Page 0 is a {@link BTreeHeaderPage} pointing to the root and to the free
+ * pages; the other pages are {@link BTreeInternalPage}s and
+ * {@link BTreeLeafPage}s. The entries of the tree are a key and the record
+ * id of the tuple that has it, ordered by both, so duplicate keys are just
+ * entries that differ in their record ids. The leaves are linked in order
+ * for range scans.
+ * <p>
+ * Pages do not point to their parents: inserts and deletes remember the
+ * path they came down by. A full page is split before an entry goes into
+ * it, and a page less than half full after a delete takes entries from a
+ * sibling or is merged into it, which may shrink the tree. Freed pages go
+ * on a free list in the header, one for each kind of page, and are reused
+ * before the file grows.
+ * <p>
+ * Inserts and deletes lock the header exclusively from the start, since
+ * any of them may change the root or a free list. Lookups lock it shared,
+ * so a transaction that changes the tree has it to itself until it
+ * completes, and the pages it reads with a shared lock on the way down
+ * and locks exclusively once they change are never locked by anyone else.
+ * Were writers to upgrade the header lock instead, two of them would each
+ * wait for the other's shared lock to go.
+ *
+ * @see IndexFile
+ */
+public class BTreeFile extends AbstractIndexFile<BTreePage, BTreeHeaderPage> {
+
+    /**
+     * Open an index, creating an empty one if the file is empty or does
+     * not exist.
+     *
+     * @param f the file that stores the index
+     * @param tableId the id of the heap table that is indexed
+     * @param keyField the index of the field of that table that is the key
+     * @param keyType the type of that field
+     */
+    public BTreeFile(File f, int tableId, int keyField, Type keyType) {
+        super(f, tableId, keyField, keyType, BTreePage.class, BTreeHeaderPage.class);
+    }
+
+    /** Write an empty header: no root yet and no free pages. */
+    void createEmpty() throws IOException {
+        io.write(0, BTreeHeaderPage.createEmptyPageData());
+    }
+
+    PageId pageId(int pageNo) {
+        return new BTreePageId(getId(), pageNo);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            byte[] data = io.read(pid.pageNumber());
+            return BTreePage.create(new BTreePageId(pid.getTableId(), pid.pageNumber()), data, keyType);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return the B+ tree can find the entries for all ops but NOT_EQUALS and LIKE */
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * A lookup reads a page on every level above the leaves, and as many
+     * leaves as the matching entries fill.
+     */
+    public double estimateLookupPages(int numEntries, int matches) {
+        double perLeaf = BTreeLeafPage.maxEntries(keyType);
+        double fanout = BTreeInternalPage.maxKeys(keyType) + 1;
+        double leaves = Math.max(1, Math.ceil(numEntries / perLeaf));
+        double levels = Math.ceil(Math.log(leaves) / Math.log(fanout));
+        return levels + Math.max(1, Math.ceil(matches / perLeaf));
+    }
+
+    /**
+     * Find the leaf an entry belongs in, remembering the internal pages on
+     * the way down.
+     *
+     * @param probe the entry, or null for the leftmost leaf
+     * @param path the page numbers of the internal pages passed, the
+     *   parent of the leaf on top; may be null
+     */
+    private BTreeLeafPage findLeaf(Operation op, int root, IndexEntry probe,
+                                   Permissions perm, LinkedList<Integer> path)
+        throws DbException, TransactionAbortedException {
+        int pageNo = root;
+        while (true) {
+            BTreePage p = op.page(pageNo, Permissions.READ_ONLY);
+            if (p instanceof BTreeLeafPage)
+                return (BTreeLeafPage) (perm == Permissions.READ_ONLY ? p : op.page(pageNo, perm));
+            if (path != null)
+                path.push(pageNo);
+            pageNo = ((BTreeInternalPage) p).childFor(probe);
+        }
+    }
+
+    private BTreeLeafPage allocLeaf(Operation op)
+        throws DbException, IOException, TransactionAbortedException {
+        BTreeHeaderPage header = op.header(Permissions.READ_WRITE);
+        BTreeLeafPage leaf;
+        if (header.getFreeLeaf() != 0) {
+            leaf = (BTreeLeafPage) op.page(header.getFreeLeaf(), Permissions.READ_WRITE);
+            header.setFreeLeaf(leaf.getNext());
+            leaf.setNext(0);
+            op.dirty(header);
+        } else {
+            int pageNo = appendPage(BTreeLeafPage.createEmptyPageData());
+            leaf = (BTreeLeafPage) op.page(pageNo, Permissions.READ_WRITE);
+        }
+        op.dirty(leaf);
+        return leaf;
+    }
+
+    private BTreeInternalPage allocInternal(Operation op)
+        throws DbException, IOException, TransactionAbortedException {
+        BTreeHeaderPage header = op.header(Permissions.READ_WRITE);
+        BTreeInternalPage node;
+        if (header.getFreeInternal() != 0) {
+            node = (BTreeInternalPage) op.page(header.getFreeInternal(), Permissions.READ_WRITE);
+            header.setFreeInternal(node.getChild(0));
+            op.dirty(header);
+        } else {
+            int pageNo = appendPage(BTreeInternalPage.createEmptyPageData());
+            node = (BTreeInternalPage) op.page(pageNo, Permissions.READ_WRITE);
+        }
+        op.dirty(node);
+        return node;
+    }
+
+    private void freeLeaf(Operation op, BTreeLeafPage leaf)
+        throws DbException, TransactionAbortedException {
+        BTreeHeaderPage header = op.header(Permissions.READ_WRITE);
+        leaf.setNext(header.getFreeLeaf());
+        header.setFreeLeaf(leaf.getId().pageNumber());
+        op.dirty(header);
+        op.dirty(leaf);
+    }
+
+    private void freeInternal(Operation op, BTreeInternalPage node)
+        throws DbException, TransactionAbortedException {
+        BTreeHeaderPage header = op.header(Permissions.READ_WRITE);
+        node.free(header.getFreeInternal());
+        header.setFreeInternal(node.getId().pageNumber());
+        op.dirty(header);
+        op.dirty(node);
+    }
+
+    // see IndexFile.java for javadocs
+    public ArrayList<Page> insertEntry(TransactionId tid, Field key, RecordId rid)
+        throws DbException, IOException, TransactionAbortedException {
+        IndexEntry e = entry(key, rid);
+        Operation op = new Operation(tid);
+        try {
+            BTreeHeaderPage header = op.header(Permissions.READ_WRITE);
+            if (header.getRoot() == 0) {
+                BTreeLeafPage root = allocLeaf(op);
+                header.setRoot(root.getId().pageNumber());
+                op.dirty(header);
+            }
+            LinkedList<Integer> path = new LinkedList<Integer>();
+            BTreeLeafPage leaf = findLeaf(op, header.getRoot(), e, Permissions.READ_WRITE, path);
+            if (leaf.isFull())
+                leaf = splitLeaf(op, leaf, path, e);
+            leaf.insert(e);
+            op.dirty(leaf);
+            return op.dirtied;
+        } finally {
+            op.done();
+        }
+    }
+
+    /**
+     * Split a full leaf in two, adding the separator to the parent.
+     *
+     * @return the half that e belongs in
+     */
+    private BTreeLeafPage splitLeaf(Operation op, BTreeLeafPage leaf, LinkedList<Integer> path,
+                                    IndexEntry e)
+        throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage right = allocLeaf(op);
+        leaf.moveUpperHalf(right);
+        right.setNext(leaf.getNext());
+        leaf.setNext(right.getId().pageNumber());
+        op.dirty(leaf);
+        IndexEntry separator = right.getEntry(0);
+        insertInParent(op, path, leaf.getId().pageNumber(), separator, right.getId().pageNumber());
+        return e.compareTo(separator) < 0 ? leaf : right;
+    }
+
+    /**
+     * Add the separator between a page that was split and its new right
+     * half to the parent, splitting the parent first if it is full, or
+     * growing a new root if the page was the root.
+     */
+    private void insertInParent(Operation op, LinkedList<Integer> path, int left,
+                                IndexEntry separator, int right)
+        throws DbException, IOException, TransactionAbortedException {
+        if (path.isEmpty()) {
+            BTreeInternalPage root = allocInternal(op);
+            root.init(left, separator, right);
+            BTreeHeaderPage header = op.header(Permissions.READ_WRITE);
+            header.setRoot(root.getId().pageNumber());
+            op.dirty(header);
+            return;
+        }
+        int parentNo = path.pop();
+        BTreeInternalPage parent = (BTreeInternalPage) op.page(parentNo, Permissions.READ_WRITE);
+        if (parent.isFull()) {
+            BTreeInternalPage sibling = allocInternal(op);
+            IndexEntry middle = parent.split(sibling);
+            op.dirty(parent);
+            insertInParent(op, path, parentNo, middle, sibling.getId().pageNumber());
+            if (separator.compareTo(middle) > 0)
+                parent = sibling;
+        }
+        parent.insert(separator, right);
+        op.dirty(parent);
+    }
+
+    // see IndexFile.java for javadocs
+    public ArrayList<Page> deleteEntry(TransactionId tid, Field key, RecordId rid)
+        throws DbException, IOException, TransactionAbortedException {
+        IndexEntry e = entry(key, rid);
+        Operation op = new Operation(tid);
+        try {
+            int root = op.header(Permissions.READ_WRITE).getRoot();
+            if (root == 0)
+                throw new DbException("entry " + e + " is not in the index");
+            LinkedList<Integer> path = new LinkedList<Integer>();
+            BTreeLeafPage leaf = findLeaf(op, root, e, Permissions.READ_WRITE, path);
+            if (!leaf.remove(e))
+                throw new DbException("entry " + e + " is not in the index");
+            op.dirty(leaf);
+            if (!path.isEmpty() && leaf.getNumEntries() < BTreeLeafPage.maxEntries(keyType) / 2)
+                rebalanceLeaf(op, leaf, path);
+            return op.dirtied;
+        } finally {
+            op.done();
+        }
+    }
+
+    /**
+     * A leaf that is not the root is less than half full: merge it with a
+     * sibling if they fit on one page, or even them out if not.
+     */
+    private void rebalanceLeaf(Operation op, BTreeLeafPage leaf, LinkedList<Integer> path)
+        throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent = (BTreeInternalPage) op.page(path.pop(), Permissions.READ_WRITE);
+        int i = parent.indexOfChild(leaf.getId().pageNumber());
+        // the separator between the pair is at the position of the left one
+        int sep = i > 0 ? i - 1 : i;
+        BTreeLeafPage left = (BTreeLeafPage) op.page(parent.getChild(sep), Permissions.READ_WRITE);
+        BTreeLeafPage right = (BTreeLeafPage) op.page(parent.getChild(sep + 1), Permissions.READ_WRITE);
+        op.dirty(left);
+        op.dirty(right);
+        op.dirty(parent);
+        int total = left.getNumEntries() + right.getNumEntries();
+        if (total <= BTreeLeafPage.maxEntries(keyType)) {
+            left.takeAll(right);
+            left.setNext(right.getNext());
+            parent.remove(sep);
+            freeLeaf(op, right);
+            rebalanceInternal(op, parent, path);
+            return;
+        }
+        while (left.getNumEntries() > total / 2)
+            right.insert(left.removeAt(left.getNumEntries() - 1));
+        while (right.getNumEntries() > total - total / 2)
+            left.insert(right.removeAt(0));
+        parent.setKey(sep, right.getEntry(0));
+    }
+
+    /**
+     * An internal page lost a child. If it is the root and has one child
+     * left, that child becomes the root; otherwise, if it is less than half
+     * full, merge it with a sibling or even them out through the parent.
+     */
+    private void rebalanceInternal(Operation op, BTreeInternalPage node, LinkedList<Integer> path)
+        throws DbException, IOException, TransactionAbortedException {
+        int maxKeys = BTreeInternalPage.maxKeys(keyType);
+        if (path.isEmpty()) {
+            if (node.getNumKeys() == 0) {
+                BTreeHeaderPage header = op.header(Permissions.READ_WRITE);
+                header.setRoot(node.getChild(0));
+                op.dirty(header);
+                freeInternal(op, node);
+            }
+            return;
+        }
+        if (node.getNumKeys() >= maxKeys / 2)
+            return;
+        BTreeInternalPage parent = (BTreeInternalPage) op.page(path.pop(), Permissions.READ_WRITE);
+        int i = parent.indexOfChild(node.getId().pageNumber());
+        int sep = i > 0 ? i - 1 : i;
+        BTreeInternalPage left = (BTreeInternalPage) op.page(parent.getChild(sep), Permissions.READ_WRITE);
+        BTreeInternalPage right = (BTreeInternalPage) op.page(parent.getChild(sep + 1), Permissions.READ_WRITE);
+        op.dirty(left);
+        op.dirty(right);
+        op.dirty(parent);
+        IndexEntry separator = parent.getKey(sep);
+        if (left.getNumKeys() + right.getNumKeys() + 1 <= maxKeys) {
+            left.takeAll(separator, right);
+            parent.remove(sep);
+            freeInternal(op, right);
+            rebalanceInternal(op, parent, path);
+            return;
+        }
+        while (left.getNumKeys() > right.getNumKeys() + 1)
+            separator = left.shiftRight(separator, right);
+        while (right.getNumKeys() > left.getNumKeys() + 1)
+            separator = left.shiftLeft(separator, right);
+        parent.setKey(sep, separator);
+    }
+
+    /** @return an iterator over all the entries, in order */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, null, null);
+    }
+
+    // see IndexFile.java for javadocs
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key) {
+        return new BTreeFileIterator(tid, op, key);
+    }
+
+    /**
+     * Iterates over the entries of the tree in order, starting at the leaf
+     * where the first entry that may match is and stopping as soon as no
+     * more can.
+     */
+    private class BTreeFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field key;
+        private Iterator<IndexEntry> entries;
+        private int nextLeaf;
+
+        /** @param op how entries compare to key, null for all entries */
+        BTreeFileIterator(TransactionId tid, Predicate.Op op, Field key) {
+            this.tid = tid;
+            this.op = op;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            entries = null;
+            nextLeaf = 0;
+            Operation descent = new Operation(tid);
+            try {
+                int root = descent.header(Permissions.READ_ONLY).getRoot();
+                if (root == 0)
+                    return;
+                IndexEntry probe = null;
+                if (op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                    || op == Predicate.Op.GREATER_THAN_OR_EQ)
+                    probe = IndexEntry.lowest(key);
+                load(findLeaf(descent, root, probe, Permissions.READ_ONLY, null));
+            } finally {
+                descent.done();
+            }
+        }
+
+        private void load(BTreeLeafPage leaf) {
+            // a copy, so the transaction may change the leaf meanwhile
+            entries = leaf.getEntries().iterator();
+            nextLeaf = leaf.getNext();
+        }
+
+        /** @return true if no entry from e on can match */
+        private boolean past(IndexEntry e) {
+            if (op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN_OR_EQ)
+                return IndexEntry.compareKeys(e.key, key) > 0;
+            if (op == Predicate.Op.LESS_THAN)
+                return IndexEntry.compareKeys(e.key, key) >= 0;
+            return false;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (entries != null) {
+                while (entries.hasNext()) {
+                    IndexEntry e = entries.next();
+                    if (op != null && past(e)) {
+                        entries = null;
+                        return null;
+                    }
+                    if (op == null || e.key.compare(op, key)) {
+                        Tuple t = new Tuple(td);
+                        t.setField(0, e.key);
+                        t.setField(1, new IntField(e.pageNo));
+                        t.setField(2, new IntField(e.slot));
+                        return t;
+                    }
+                }
+                if (nextLeaf == 0)
+                    entries = null;
+                else
+                    load((BTreeLeafPage) Database.getBufferPool().getPage(tid,
+                            new BTreePageId(getId(), nextLeaf), Permissions.READ_ONLY));
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            entries = null;
+        }
+    }
+}
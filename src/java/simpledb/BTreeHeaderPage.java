@@ -0,0 +1,73 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * The first page of a BTreeFile. It holds the page number of the root,
+ * 0 while the tree is empty, and the heads of the free lists of leaf and
+ * internal pages, 0 when a list is empty. Page 0 is the header itself, so
+ * 0 is never the number of any other page.
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    private int root;
+    private int freeLeaf;
+    private int freeInternal;
+
+    /**
+     * Create a header page from the bytes read from disk.
+     */
+    public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, data);
+        DataInputStream dis = body(data);
+        root = dis.readInt();
+        freeLeaf = dis.readInt();
+        freeInternal = dis.readInt();
+        setBeforeImage();
+    }
+
+    public static byte[] createEmptyPageData() {
+        return createEmptyPageData(HEADER);
+    }
+
+    public int getKind() {
+        return HEADER;
+    }
+
+    void writeBody(DataOutputStream dos) throws IOException {
+        dos.writeInt(root);
+        dos.writeInt(freeLeaf);
+        dos.writeInt(freeInternal);
+    }
+
+    BTreePage copy(byte[] data) throws IOException {
+        return new BTreeHeaderPage(pid, data);
+    }
+
+    /** @return the page number of the root, 0 if the tree is empty */
+    public synchronized int getRoot() {
+        return root;
+    }
+
+    synchronized void setRoot(int root) {
+        this.root = root;
+    }
+
+    /** @return the first free leaf page, 0 if there is none */
+    synchronized int getFreeLeaf() {
+        return freeLeaf;
+    }
+
+    synchronized void setFreeLeaf(int pageNo) {
+        freeLeaf = pageNo;
+    }
+
+    /** @return the first free internal page, 0 if there is none */
+    synchronized int getFreeInternal() {
+        return freeInternal;
+    }
+
+    synchronized void setFreeInternal(int pageNo) {
+        freeInternal = pageNo;
+    }
+}
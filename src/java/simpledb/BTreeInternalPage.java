@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * An internal page of a BTreeFile. After the kind and LSN, an internal page
+ * holds the number of separators n, the page number of its first child,
+ * and then n pairs of a separator (an entry, see IndexEntry) and the page
+ * number of the child to its right. Child i holds the entries that are at
+ * least separator i-1 and less than separator i.
+ * <p>
+ * A free internal page has no separators, and its first child links the
+ * free list.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private final Type keyType;
+    private final ArrayList<IndexEntry> keys = new ArrayList<IndexEntry>();
+    private final ArrayList<Integer> children = new ArrayList<Integer>();
+
+    /**
+     * Create an internal page from the bytes read from disk. The key type is
+     * that of the index, as registered in the catalog.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        this(id, data, keyType(id));
+    }
+
+    /**
+     * Create an internal page from the bytes read from disk.
+     *
+     * @param keyType the type of the keys of the index
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data, Type keyType) throws IOException {
+        super(id, data);
+        this.keyType = keyType;
+        DataInputStream dis = body(data);
+        int n = dis.readInt();
+        children.add(dis.readInt());
+        for (int i = 0; i < n; i++) {
+            keys.add(IndexEntry.parse(dis, keyType));
+            children.add(dis.readInt());
+        }
+        setBeforeImage();
+    }
+
+    public static byte[] createEmptyPageData() {
+        return createEmptyPageData(INTERNAL);
+    }
+
+    /** @return how many separators with keys of type keyType fit on a page */
+    public static int maxKeys(Type keyType) {
+        int room = BufferPool.getPageSize() - PREFIX_SIZE - 2 * Type.INT_TYPE.getLen();
+        return room / (IndexEntry.size(keyType) + Type.INT_TYPE.getLen());
+    }
+
+    public int getKind() {
+        return INTERNAL;
+    }
+
+    synchronized void writeBody(DataOutputStream dos) throws IOException {
+        dos.writeInt(keys.size());
+        dos.writeInt(children.get(0));
+        for (int i = 0; i < keys.size(); i++) {
+            keys.get(i).serialize(dos);
+            dos.writeInt(children.get(i + 1));
+        }
+    }
+
+    BTreePage copy(byte[] data) throws IOException {
+        return new BTreeInternalPage(pid, data, keyType);
+    }
+
+    public synchronized int getNumKeys() {
+        return keys.size();
+    }
+
+    public boolean isFull() {
+        return getNumKeys() >= maxKeys(keyType);
+    }
+
+    synchronized IndexEntry getKey(int i) {
+        return keys.get(i);
+    }
+
+    synchronized void setKey(int i, IndexEntry key) {
+        keys.set(i, key);
+    }
+
+    synchronized int getChild(int i) {
+        return children.get(i);
+    }
+
+    /** @return the position of a child among the children, -1 if absent */
+    synchronized int indexOfChild(int pageNo) {
+        return children.indexOf(pageNo);
+    }
+
+    /**
+     * @return the child that the given entry belongs in, the first child if
+     *   probe is null
+     */
+    synchronized int childFor(IndexEntry probe) {
+        if (probe == null)
+            return children.get(0);
+        int i = Collections.binarySearch(keys, probe);
+        return children.get(i >= 0 ? i + 1 : -i - 1);
+    }
+
+    /** Make this an empty page the root above two children. */
+    synchronized void init(int left, IndexEntry key, int right) {
+        keys.clear();
+        children.clear();
+        children.add(left);
+        keys.add(key);
+        children.add(right);
+    }
+
+    /** Empty the page, keeping only a link to the next free page. */
+    synchronized void free(int nextFree) {
+        keys.clear();
+        children.clear();
+        children.add(nextFree);
+    }
+
+    /**
+     * Add a separator and the child to its right, which was split off the
+     * child to its left.
+     *
+     * @throws DbException if the page is full
+     */
+    synchronized void insert(IndexEntry key, int right) throws DbException {
+        if (keys.size() >= maxKeys(keyType))
+            throw new DbException("internal page " + pid + " is full");
+        int i = Collections.binarySearch(keys, key);
+        if (i >= 0)
+            throw new DbException("separator " + key + " is already in the index");
+        keys.add(-i - 1, key);
+        children.add(-i, right);
+    }
+
+    /** Remove separator i and the child to its right. */
+    synchronized void remove(int i) {
+        keys.remove(i);
+        children.remove(i + 1);
+    }
+
+    /**
+     * Move the separators above the middle one, and their children, to an
+     * empty page.
+     *
+     * @return the middle separator, which is in neither page now
+     */
+    synchronized IndexEntry split(BTreeInternalPage right) {
+        int mid = keys.size() / 2;
+        IndexEntry key = keys.get(mid);
+        synchronized (right) {
+            right.keys.clear();
+            right.children.clear();
+            right.keys.addAll(keys.subList(mid + 1, keys.size()));
+            right.children.addAll(children.subList(mid + 1, children.size()));
+        }
+        keys.subList(mid, keys.size()).clear();
+        children.subList(mid + 1, children.size()).clear();
+        return key;
+    }
+
+    /**
+     * Move everything from the page to the right of this one here, with
+     * the separator between them from the parent.
+     */
+    synchronized void takeAll(IndexEntry separator, BTreeInternalPage right) {
+        synchronized (right) {
+            keys.add(separator);
+            keys.addAll(right.keys);
+            children.addAll(right.children);
+            right.keys.clear();
+            right.children.clear();
+            right.children.add(0);
+        }
+    }
+
+    /**
+     * Move the last child of this page to the front of the page to its
+     * right, through the separator between them in the parent.
+     *
+     * @return the new separator
+     */
+    synchronized IndexEntry shiftRight(IndexEntry separator, BTreeInternalPage right) {
+        synchronized (right) {
+            right.keys.add(0, separator);
+            right.children.add(0, children.remove(children.size() - 1));
+        }
+        return keys.remove(keys.size() - 1);
+    }
+
+    /**
+     * Move the first child of the page to the right of this one to the end
+     * of this page, through the separator between them in the parent.
+     *
+     * @return the new separator
+     */
+    synchronized IndexEntry shiftLeft(IndexEntry separator, BTreeInternalPage right) {
+        synchronized (right) {
+            keys.add(separator);
+            children.add(right.children.remove(0));
+            return right.keys.remove(0);
+        }
+    }
+}
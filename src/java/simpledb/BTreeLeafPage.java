@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * A leaf page of a BTreeFile. After the kind and LSN, a leaf holds the page
+ * number of the next leaf to the right (0 for the last leaf), the number of
+ * entries, and the entries in order (see IndexEntry). The leaves of a tree
+ * form a list in key order, which range scans follow.
+ * <p>
+ * A free leaf has no entries, and its next pointer links the free list.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private final Type keyType;
+    private final ArrayList<IndexEntry> entries = new ArrayList<IndexEntry>();
+    private int next;
+
+    /**
+     * Create a leaf page from the bytes read from disk. The key type is that
+     * of the index, as registered in the catalog.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        this(id, data, keyType(id));
+    }
+
+    /**
+     * Create a leaf page from the bytes read from disk.
+     *
+     * @param keyType the type of the keys of the index
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data, Type keyType) throws IOException {
+        super(id, data);
+        this.keyType = keyType;
+        DataInputStream dis = body(data);
+        next = dis.readInt();
+        int n = dis.readInt();
+        for (int i = 0; i < n; i++)
+            entries.add(IndexEntry.parse(dis, keyType));
+        setBeforeImage();
+    }
+
+    public static byte[] createEmptyPageData() {
+        return createEmptyPageData(LEAF);
+    }
+
+    /** @return how many entries with keys of type keyType fit on a leaf */
+    public static int maxEntries(Type keyType) {
+        int room = BufferPool.getPageSize() - PREFIX_SIZE - 2 * Type.INT_TYPE.getLen();
+        return room / IndexEntry.size(keyType);
+    }
+
+    public int getKind() {
+        return LEAF;
+    }
+
+    synchronized void writeBody(DataOutputStream dos) throws IOException {
+        dos.writeInt(next);
+        dos.writeInt(entries.size());
+        for (IndexEntry e : entries)
+            e.serialize(dos);
+    }
+
+    BTreePage copy(byte[] data) throws IOException {
+        return new BTreeLeafPage(pid, data, keyType);
+    }
+
+    /** @return the page number of the next leaf, 0 if this is the last */
+    public synchronized int getNext() {
+        return next;
+    }
+
+    synchronized void setNext(int next) {
+        this.next = next;
+    }
+
+    public synchronized int getNumEntries() {
+        return entries.size();
+    }
+
+    public boolean isFull() {
+        return getNumEntries() >= maxEntries(keyType);
+    }
+
+    synchronized IndexEntry getEntry(int i) {
+        return entries.get(i);
+    }
+
+    /** @return a copy of the entries of this leaf, in order */
+    synchronized ArrayList<IndexEntry> getEntries() {
+        return new ArrayList<IndexEntry>(entries);
+    }
+
+    /**
+     * Add an entry in its place.
+     *
+     * @throws DbException if the leaf is full or has the entry already
+     */
+    synchronized void insert(IndexEntry e) throws DbException {
+        if (entries.size() >= maxEntries(keyType))
+            throw new DbException("leaf " + pid + " is full");
+        int i = Collections.binarySearch(entries, e);
+        if (i >= 0)
+            throw new DbException("entry " + e + " is already in the index");
+        entries.add(-i - 1, e);
+    }
+
+    /** @return false if the leaf does not have the entry */
+    synchronized boolean remove(IndexEntry e) {
+        int i = Collections.binarySearch(entries, e);
+        if (i < 0)
+            return false;
+        entries.remove(i);
+        return true;
+    }
+
+    synchronized IndexEntry removeAt(int i) {
+        return entries.remove(i);
+    }
+
+    /** Move the upper half of the entries to an empty leaf. */
+    synchronized void moveUpperHalf(BTreeLeafPage right) {
+        int half = entries.size() / 2;
+        synchronized (right) {
+            right.entries.addAll(entries.subList(half, entries.size()));
+        }
+        entries.subList(half, entries.size()).clear();
+    }
+
+    /** Move all the entries of the leaf to the right of this one here. */
+    synchronized void takeAll(BTreeLeafPage right) {
+        synchronized (right) {
+            entries.addAll(right.entries);
+            right.entries.clear();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * The pages of a BTreeFile. Every page starts with a byte telling what
+ * kind of page it is, {@link #HEADER}, {@link #INTERNAL} or {@link #LEAF},
+ * followed by the page LSN, so a BTreeFile needs no sidecar for LSNs the
+ * way a HeapFile does. The rest of the page is laid out by the subclass.
+ * <p>
+ * A page that is freed keeps its kind: it goes on the free list for its
+ * kind in the header page, and is only ever reused as a page of the same
+ * kind. So a page is always read back, and rolled back, as the class it
+ * was logged as.
+ * <p>
+ * Like HeapPages, changes to a page and {@link #getPageData} synchronize
+ * on the page.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    /** The kind of the first page of a BTreeFile. */
+    public static final int HEADER = 1;
+    /** The kind of pages holding separators and child pointers. */
+    public static final int INTERNAL = 2;
+    /** The kind of pages holding entries. */
+    public static final int LEAF = 3;
+
+    /** Bytes at the start of every page: the kind and the page LSN. */
+    static final int PREFIX_SIZE = 1 + LogFile.LONG_SIZE;
+
+    protected final BTreePageId pid;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private boolean dirty;
+    private TransactionId dirtytid;
+    private volatile long lsn;
+
+    /**
+     * Read the kind and LSN of a page; the subclass reads the rest (see
+     * {@link #body}) and then calls {@link #setBeforeImage}.
+     */
+    BTreePage(BTreePageId pid, byte[] data) throws IOException {
+        this.pid = pid;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        int kind = dis.readByte();
+        if (kind != getKind())
+            throw new IOException("page " + pid + " is of kind " + kind + ", not " + getKind());
+        this.lsn = dis.readLong();
+    }
+
+    /** @return a stream over the part of data after the kind and LSN */
+    static DataInputStream body(byte[] data) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.skipBytes(PREFIX_SIZE);
+        return dis;
+    }
+
+    /**
+     * Create a page object of the right class for data read from a
+     * BTreeFile with keys of type keyType.
+     */
+    static BTreePage create(BTreePageId pid, byte[] data, Type keyType) throws IOException {
+        switch (data[0]) {
+        case HEADER:
+            return new BTreeHeaderPage(pid, data);
+        case INTERNAL:
+            return new BTreeInternalPage(pid, data, keyType);
+        case LEAF:
+            return new BTreeLeafPage(pid, data, keyType);
+        default:
+            throw new IOException("page " + pid + " is not a B+ tree page");
+        }
+    }
+
+    /** @return an empty page of the given kind, with LSN 0 */
+    static byte[] createEmptyPageData(int kind) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = (byte) kind;
+        return data;
+    }
+
+    /** @return the key type of the index that pid is a page of */
+    static Type keyType(BTreePageId pid) {
+        return Database.getCatalog().getTupleDesc(pid.getTableId()).getFieldType(0);
+    }
+
+    /** @return {@link #HEADER}, {@link #INTERNAL} or {@link #LEAF} */
+    public abstract int getKind();
+
+    /** Write what comes after the kind and LSN. */
+    abstract void writeBody(DataOutputStream dos) throws IOException;
+
+    /** @return a copy of this page as it was given by data */
+    abstract BTreePage copy(byte[] data) throws IOException;
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    public synchronized byte[] getPageData() {
+        int len = BufferPool.getPageSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(getKind());
+            dos.writeLong(lsn);
+            writeBody(dos);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] data = new byte[len];
+        System.arraycopy(baos.toByteArray(), 0, data, 0, baos.size());
+        return data;
+    }
+
+    public BTreePage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        try {
+            return copy(oldDataRef);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtytid = tid;
+    }
+
+    public synchronized TransactionId isDirty() {
+        return dirty ? dirtytid : null;
+    }
+}
@@ -0,0 +1,345 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A Batch holds up to a fixed number of rows of a TupleDesc column by
+ * column, to be passed between {@link BatchIterator}s. The values of an
+ * INT_TYPE field are kept in an <code>int[]</code>; those of a STRING_TYPE
+ * field are the bytes of all the rows one after the other, with the offset
+ * of each row's bytes in an <code>int[]</code>. A row may also have the
+ * record id of the tuple it was read from.
+ * <p>
+ * A selection vector says which of the rows are in the batch: operators
+ * such as {@link BatchFilter} narrow it down rather than copy the rows
+ * that are left. {@link #size} and {@link #row} walk the rows selected.
+ * <p>
+ * Rows are added at the end only. The STRING_TYPE fields of the rows must
+ * be set in the order the rows were added, each once.
+ */
+public class Batch {
+
+    /** Default number of rows in a batch. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+
+    // the values of each INT_TYPE field, null for the others
+    private final int[][] ints;
+    // the bytes of each STRING_TYPE field and where each row's start; the
+    // bytes of row r end where those of row r + 1 start
+    private final byte[][] chars;
+    private final int[][] starts;
+
+    // where each row was read from, if it was
+    private final PageId[] pids;
+    private final int[] slots;
+
+    private int rows;
+    private int[] sel;
+    private boolean selected;
+    private int size;
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td the schema of the rows
+     * @param capacity the number of rows the batch holds
+     */
+    public Batch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        ints = new int[n][];
+        chars = new byte[n][];
+        starts = new int[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                chars[i] = new byte[capacity * 16];
+                starts[i] = new int[capacity + 1];
+            }
+        }
+        pids = new PageId[capacity];
+        slots = new int[capacity];
+        sel = new int[capacity];
+    }
+
+    /**
+     * Create a batch of some fields of another one, sharing its columns;
+     * see {@link #project}.
+     */
+    private Batch(TupleDesc td, Batch from, int[] fields) {
+        this.td = td;
+        this.capacity = from.capacity;
+        int n = fields.length;
+        ints = new int[n][];
+        chars = new byte[n][];
+        starts = new int[n][];
+        pids = from.pids;
+        slots = from.slots;
+        project(from, fields);
+    }
+
+    /**
+     * @return a batch of the given fields of the rows of this one, sharing
+     *   its columns; see {@link #project}
+     * @param td the schema of the fields
+     */
+    public Batch view(TupleDesc td, int[] fields) {
+        return new Batch(td, this, fields);
+    }
+
+    /**
+     * Make this batch, a {@link #view} of from, the given fields of the rows
+     * from has now, with the same selection. It shares the columns of from,
+     * so it is only good as long as from is.
+     */
+    public void project(Batch from, int[] fields) {
+        for (int i = 0; i < fields.length; i++) {
+            ints[i] = from.ints[fields[i]];
+            chars[i] = from.chars[fields[i]];
+            starts[i] = from.starts[fields[i]];
+        }
+        rows = from.rows;
+        sel = from.sel;
+        selected = from.selected;
+        size = from.size;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows the batch holds */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return rows == capacity;
+    }
+
+    /** Remove all rows. */
+    public void clear() {
+        rows = 0;
+        size = 0;
+        selected = false;
+    }
+
+    /** @return the number of rows in the batch, selected or not */
+    public int rows() {
+        return rows;
+    }
+
+    /** @return the number of rows selected */
+    public int size() {
+        return size;
+    }
+
+    /** @return the index of the k-th row selected, k &lt; {@link #size} */
+    public int row(int k) {
+        return selected ? sel[k] : k;
+    }
+
+    /**
+     * @return the selection vector, to write the rows to keep to: rows
+     *   sel[0] to sel[n - 1] are kept by {@link #select select(n)}. It may
+     *   be written while the selection is read through {@link #row}, as
+     *   long as sel[j] is only written once row(j) has been read.
+     */
+    public int[] selection() {
+        return sel;
+    }
+
+    /** Keep the first n rows of the selection vector only. */
+    public void select(int n) {
+        selected = true;
+        size = n;
+    }
+
+    /**
+     * Add a row, whose fields are then set. It has no record id.
+     *
+     * @return the index of the row
+     */
+    public int addRow() {
+        return addRow(null, 0);
+    }
+
+    /**
+     * Add a row that was read from a slot of a page.
+     *
+     * @return the index of the row
+     */
+    public int addRow(PageId pid, int slot) {
+        if (rows == capacity)
+            throw new IllegalStateException("batch is full");
+        int r = rows++;
+        pids[r] = pid;
+        slots[r] = slot;
+        for (int i = 0; i < starts.length; i++) {
+            if (starts[i] != null)
+                starts[i][r + 1] = starts[i][r];
+        }
+        if (selected)
+            sel[size] = r;
+        size++;
+        return r;
+    }
+
+    /**
+     * @return the values of an INT_TYPE field, indexed by row; rows that
+     *   are not selected may hold anything
+     */
+    public int[] intColumn(int field) {
+        return ints[field];
+    }
+
+    public int getInt(int field, int row) {
+        return ints[field][row];
+    }
+
+    /** Set an INT_TYPE field of a row. */
+    public void setInt(int field, int row, int value) {
+        ints[field][row] = value;
+    }
+
+    /**
+     * Set a STRING_TYPE field of a row to len bytes of b.
+     */
+    public void setString(int field, int row, byte[] b, int off, int len) {
+        int start = starts[field][row];
+        if (start + len > chars[field].length)
+            chars[field] = Arrays.copyOf(chars[field], Math.max(chars[field].length * 2, start + len));
+        System.arraycopy(b, off, chars[field], start, len);
+        starts[field][row + 1] = start + len;
+    }
+
+    /**
+     * Set a field of a row to a value stored at offset in
+     * data, as written by {@link Field#serialize}.
+     */
+    public void read(int field, int row, byte[] data, int offset) {
+        if (ints[field] != null) {
+            ints[field][row] = readInt(data, offset);
+        } else {
+            setString(field, row, data, offset + 4, readInt(data, offset));
+        }
+    }
+
+    /** Set a field of a row to the value of f. */
+    public void set(int field, int row, Field f) {
+        if (ints[field] != null) {
+            ints[field][row] = ((IntField) f).getValue();
+        } else {
+            byte[] b = encode(((StringField) f).getValue());
+            setString(field, row, b, 0, b.length);
+        }
+    }
+
+    /**
+     * Set fields to..to + n - 1 of a row to the n fields of a
+     * row of another batch.
+     */
+    public void copy(Batch from, int fromRow, int row, int to) {
+        for (int i = 0; i < from.ints.length; i++) {
+            if (ints[to + i] != null) {
+                ints[to + i][row] = from.ints[i][fromRow];
+            } else {
+                int start = from.starts[i][fromRow];
+                setString(to + i, row, from.chars[i], start, from.starts[i][fromRow + 1] - start);
+            }
+        }
+    }
+
+    /** @return the value of a field of a row */
+    public Field getField(int field, int row) {
+        if (ints[field] != null)
+            return new IntField(ints[field][row]);
+        int start = starts[field][row];
+        return new StringField(new String(chars[field], start, starts[field][row + 1] - start),
+                Type.STRING_LEN);
+    }
+
+    /** @return a row as a tuple, with its record id if it has one */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++)
+            t.setField(i, getField(i, row));
+        if (pids[row] != null)
+            t.setRecordId(new RecordId(pids[row], slots[row]));
+        return t;
+    }
+
+    /** @return a hash of a field of a row */
+    public int hash(int field, int row) {
+        int h;
+        if (ints[field] != null) {
+            h = ints[field][row];
+        } else {
+            h = 1;
+            byte[] b = chars[field];
+            for (int i = starts[field][row]; i < starts[field][row + 1]; i++)
+                h = 31 * h + b[i];
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return whether a field of a row equals a field of the same type of a
+     *   row of another batch
+     */
+    public boolean equal(int field, int row, Batch other, int otherField, int otherRow) {
+        if (ints[field] != null)
+            return ints[field][row] == other.ints[otherField][otherRow];
+        int start = starts[field][row];
+        int len = starts[field][row + 1] - start;
+        int otherStart = other.starts[otherField][otherRow];
+        if (other.starts[otherField][otherRow + 1] - otherStart != len)
+            return false;
+        byte[] b = chars[field];
+        byte[] o = other.chars[otherField];
+        for (int i = 0; i < len; i++) {
+            if (b[start + i] != o[otherStart + i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether a STRING_TYPE field of a row holds the bytes of
+     *   {@link #encode encode(s)}
+     */
+    public boolean equalBytes(int field, int row, byte[] s) {
+        int start = starts[field][row];
+        if (starts[field][row + 1] - start != s.length)
+            return false;
+        byte[] b = chars[field];
+        for (int i = 0; i < s.length; i++) {
+            if (b[start + i] != s[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the bytes a StringField of s is stored as, which is cut to
+     *   {@link Type#STRING_LEN}
+     */
+    public static byte[] encode(String s) {
+        byte[] b = new byte[Math.min(s.length(), Type.STRING_LEN)];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) s.charAt(i);
+        return b;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+            | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+}
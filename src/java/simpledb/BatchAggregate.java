@@ -0,0 +1,216 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * BatchAggregate is the batch version of {@link Aggregate}, a hash
+ * aggregation: each batch of its child is first mapped to the groups of
+ * its rows, which are looked up in a {@link BatchHashTable} on the group
+ * by field, and the aggregate values of the groups are then updated in a
+ * loop over the aggregate column. The rows it returns are those of
+ * Aggregate, in no particular order.
+ * <p>
+ * MIN, MAX, SUM, AVG and COUNT are supported over INT_TYPE fields, and
+ * COUNT over STRING_TYPE fields. As in Aggregate, SUM and AVG add up ints,
+ * and AVG rounds towards zero.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    // the groups, as rows of their group by field; null without grouping
+    private transient BatchHashTable groups;
+    private int numGroups;
+    // the aggregate value (MIN, MAX, SUM and AVG) and count of each group
+    private int[] values;
+    private int[] counts;
+    private boolean done;
+    private int pos;
+    private transient Batch out;
+
+    /**
+     * @param child the iterator to read the rows from
+     * @param afield the field to compute an aggregate over
+     * @param gfield the field to group by, or
+     *   {@link Aggregator#NO_GROUPING}
+     * @param aop the aggregate to compute
+     * @throws IllegalArgumentException if the aggregate is not supported
+     *   for the type of afield
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc childtd = child.getTupleDesc();
+        if (!supports(aop, childtd.getFieldType(afield)))
+            throw new IllegalArgumentException(aop + " is not supported over " + childtd.getFieldType(afield));
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        String name = aop + " (" + childtd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING) {
+            td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { name });
+        } else {
+            td = new TupleDesc(new Type[] { childtd.getFieldType(gfield), Type.INT_TYPE },
+                    new String[] { childtd.getFieldName(gfield), name });
+        }
+    }
+
+    /** @return whether an aggregate over fields of a type is supported */
+    public static boolean supports(Aggregator.Op aop, Type type) {
+        switch (aop) {
+        case MIN:
+        case MAX:
+        case SUM:
+        case AVG:
+            return type == Type.INT_TYPE;
+        case COUNT:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** @return the iterator the rows are read from */
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        done = false;
+        pos = 0;
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        if (!done) {
+            aggregate();
+            done = true;
+            out = new Batch(td, Batch.DEFAULT_CAPACITY);
+        }
+        out.clear();
+        int value = td.numFields() - 1;
+        for (; pos < numGroups && !out.isFull(); pos++) {
+            if (counts[pos] == 0)
+                continue;
+            int r = out.addRow();
+            if (groups != null)
+                out.copy(groups.batch(pos), groups.row(pos), r, 0);
+            switch (aop) {
+            case COUNT:
+                out.setInt(value, r, counts[pos]);
+                break;
+            case AVG:
+                out.setInt(value, r, values[pos] / counts[pos]);
+                break;
+            default:
+                out.setInt(value, r, values[pos]);
+            }
+        }
+        return out.size() == 0 ? null : out;
+    }
+
+    /** Read all the rows of the child into the groups. */
+    private void aggregate() throws DbException, TransactionAbortedException {
+        int[] g = new int[Batch.DEFAULT_CAPACITY];
+        numGroups = 0;
+        values = new int[64];
+        counts = new int[64];
+        int[] key = { gfield };
+        TupleDesc keytd = null;
+        Batch keys = null;
+        if (gfield == Aggregator.NO_GROUPING) {
+            groups = null;
+            numGroups = 1;
+        } else {
+            keytd = PaxPage.project(child.getTupleDesc(), key);
+            groups = new BatchHashTable(keytd, 0);
+        }
+
+        Batch b;
+        while ((b = child.nextBatch()) != null) {
+            int size = b.size();
+            if (g.length < size)
+                g = new int[b.capacity()];
+            if (groups == null) {
+                Arrays.fill(g, 0, size, 0);
+            } else {
+                if (keys == null)
+                    keys = b.view(keytd, key);
+                else
+                    keys.project(b, key);
+                for (int k = 0; k < size; k++) {
+                    int r = b.row(k);
+                    int id = groups.find(b, gfield, r);
+                    if (id < 0) {
+                        id = groups.add(keys, r);
+                        numGroups = id + 1;
+                        if (numGroups > counts.length) {
+                            values = Arrays.copyOf(values, counts.length * 2);
+                            counts = Arrays.copyOf(counts, counts.length * 2);
+                        }
+                    }
+                    g[k] = id;
+                }
+            }
+            update(b, g);
+        }
+    }
+
+    /**
+     * Add the rows of a batch to their groups.
+     *
+     * @param g the group of each row selected
+     */
+    private void update(Batch b, int[] g) {
+        int size = b.size();
+        int[] col = aop == Aggregator.Op.COUNT ? null : b.intColumn(afield);
+        switch (aop) {
+        case MIN:
+            for (int k = 0; k < size; k++) {
+                int v = col[b.row(k)];
+                if (counts[g[k]]++ == 0 || v < values[g[k]])
+                    values[g[k]] = v;
+            }
+            break;
+        case MAX:
+            for (int k = 0; k < size; k++) {
+                int v = col[b.row(k)];
+                if (counts[g[k]]++ == 0 || v > values[g[k]])
+                    values[g[k]] = v;
+            }
+            break;
+        case SUM:
+        case AVG:
+            for (int k = 0; k < size; k++) {
+                values[g[k]] += col[b.row(k)];
+                counts[g[k]]++;
+            }
+            break;
+        default:
+            for (int k = 0; k < size; k++)
+                counts[g[k]]++;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = 0;
+    }
+
+    public void close() {
+        groups = null;
+        values = null;
+        counts = null;
+        out = null;
+        done = false;
+        child.close();
+    }
+}
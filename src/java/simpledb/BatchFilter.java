@@ -0,0 +1,154 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch version of {@link Filter}: it narrows the
+ * selection of each batch of its child down to the rows that pass the
+ * predicate, and skips batches with none. A predicate on an INT_TYPE
+ * field is a loop over the column; an equality on a STRING_TYPE field
+ * compares the bytes of the rows with those of the operand.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private final BatchIterator child;
+    // the bytes the operand is stored as, for string equalities
+    private final byte[] operandBytes;
+
+    /**
+     * @param p the predicate to filter rows with
+     * @param child the iterator to read the rows to filter from
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.p = p;
+        this.child = child;
+        Field operand = p.getOperand();
+        boolean bytes = operand.getType() == Type.STRING_TYPE
+            && (p.getOp() == Predicate.Op.EQUALS || p.getOp() == Predicate.Op.NOT_EQUALS)
+            && isShortAscii(((StringField) operand).getValue());
+        operandBytes = bytes ? Batch.encode(((StringField) operand).getValue()) : null;
+    }
+
+    /** @return whether s is stored as its own chars, so bytes compare as it */
+    private static boolean isShortAscii(String s) {
+        if (s.length() > Type.STRING_LEN)
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80)
+                return false;
+        }
+        return true;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    /** @return the iterator the rows are read from */
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        Batch b;
+        while ((b = child.nextBatch()) != null) {
+            b.select(select(b));
+            if (b.size() > 0)
+                return b;
+        }
+        return null;
+    }
+
+    /**
+     * Write the rows of b that pass to its selection vector.
+     *
+     * @return how many pass
+     */
+    private int select(Batch b) {
+        int field = p.getField();
+        int[] sel = b.selection();
+        int size = b.size();
+        int n = 0;
+        if (p.getOperand().getType() == Type.INT_TYPE) {
+            int[] col = b.intColumn(field);
+            int v = ((IntField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                for (int k = 0; k < size; k++) {
+                    int r = b.row(k);
+                    if (col[r] == v)
+                        sel[n++] = r;
+                }
+                return n;
+            case NOT_EQUALS:
+                for (int k = 0; k < size; k++) {
+                    int r = b.row(k);
+                    if (col[r] != v)
+                        sel[n++] = r;
+                }
+                return n;
+            case GREATER_THAN:
+                for (int k = 0; k < size; k++) {
+                    int r = b.row(k);
+                    if (col[r] > v)
+                        sel[n++] = r;
+                }
+                return n;
+            case GREATER_THAN_OR_EQ:
+                for (int k = 0; k < size; k++) {
+                    int r = b.row(k);
+                    if (col[r] >= v)
+                        sel[n++] = r;
+                }
+                return n;
+            case LESS_THAN:
+                for (int k = 0; k < size; k++) {
+                    int r = b.row(k);
+                    if (col[r] < v)
+                        sel[n++] = r;
+                }
+                return n;
+            case LESS_THAN_OR_EQ:
+                for (int k = 0; k < size; k++) {
+                    int r = b.row(k);
+                    if (col[r] <= v)
+                        sel[n++] = r;
+                }
+                return n;
+            }
+        }
+        if (operandBytes != null) {
+            boolean equals = p.getOp() == Predicate.Op.EQUALS;
+            for (int k = 0; k < size; k++) {
+                int r = b.row(k);
+                if (b.equalBytes(field, r, operandBytes) == equals)
+                    sel[n++] = r;
+            }
+            return n;
+        }
+        for (int k = 0; k < size; k++) {
+            int r = b.row(k);
+            if (b.getField(field, r).compare(p.getOp(), p.getOperand()))
+                sel[n++] = r;
+        }
+        return n;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+/**
+ * BatchHashJoin is the batch version of {@link HashJoin}, an equi-join. It
+ * loads child2, the build side, into a {@link BatchHashTable} on its join
+ * field, and looks up each row of the batches of child1, the probe side,
+ * in it; the rows that match are copied into the output batch column by
+ * column. The output rows are the fields of the row from child1 followed
+ * by those of the row from child2, in no particular order.
+ * <p>
+ * The build side is kept in memory. If it takes more than the memory
+ * budget, the join starts over as a HashJoin of its inputs (through
+ * {@link BatchToTuple}), which spills to disk.
+ */
+public class BatchHashJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private final BatchIterator child1;
+    private final BatchIterator child2;
+    private final int memoryBytes;
+    private final TupleDesc td;
+
+    private transient BatchHashTable table;
+    private boolean built;
+    // the join run as a HashJoin, if the build side did not fit
+    private transient TupleToBatch fallback;
+
+    private transient Batch out;
+    private transient Batch probe;
+    private boolean probeDone;
+    private int k;
+    private int match = -1;
+
+    /**
+     * Constructor with the default memory budget of HashJoin.
+     *
+     * @param p the predicate to join the children on; must be EQUALS
+     * @param child1 the rows of the probe side
+     * @param child2 the rows of the build side
+     */
+    public BatchHashJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        this(p, child1, child2, HashJoin.DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * @param memoryBytes how much memory the build side may take
+     */
+    public BatchHashJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2,
+            int memoryBytes) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("BatchHashJoin only supports EQUALS, not " + p.getOperator());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryBytes = memoryBytes;
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /** @return the iterators of the probe and the build side */
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[] { child1, child2 };
+    }
+
+    /** @return whether the join is being run as a HashJoin */
+    public boolean isFallback() {
+        return fallback != null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        table = new BatchHashTable(child2.getTupleDesc(), p.getField2());
+        built = false;
+        out = new Batch(td, Batch.DEFAULT_CAPACITY);
+        start();
+    }
+
+    private void start() {
+        probe = null;
+        probeDone = false;
+        match = -1;
+    }
+
+    /**
+     * Read the build side into the table, or start the fallback if it
+     * does not fit.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        Batch b;
+        while ((b = child2.nextBatch()) != null) {
+            for (int i = 0; i < b.size(); i++)
+                table.add(b, b.row(i));
+            if (table.bytes() > memoryBytes) {
+                table = null;
+                child1.close();
+                child2.close();
+                fallback = new TupleToBatch(new HashJoin(p, new BatchToTuple(child1),
+                        new BatchToTuple(child2), memoryBytes));
+                fallback.open();
+                return;
+            }
+        }
+        built = true;
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        if (fallback == null && !built)
+            build();
+        if (fallback != null)
+            return fallback.nextBatch();
+
+        int f1 = p.getField1();
+        int left = child1.getTupleDesc().numFields();
+        out.clear();
+        while (!out.isFull()) {
+            if (match >= 0) {
+                int r = out.addRow();
+                out.copy(probe, probe.row(k), r, 0);
+                out.copy(table.batch(match), table.row(match), r, left);
+                match = table.findNext(match, probe, f1, probe.row(k));
+                if (match < 0)
+                    k++;
+            } else if (probe != null && k < probe.size()) {
+                match = table.find(probe, f1, probe.row(k));
+                if (match < 0)
+                    k++;
+            } else if (probeDone || table.size() == 0) {
+                break;
+            } else {
+                probe = child1.nextBatch();
+                k = 0;
+                probeDone = probe == null;
+            }
+        }
+        return out.size() == 0 ? null : out;
+    }
+
+    /** Start over; the build side is only read again by a fallback. */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (fallback != null) {
+            fallback.rewind();
+            return;
+        }
+        child1.rewind();
+        start();
+    }
+
+    public void close() {
+        if (fallback != null) {
+            fallback.close();
+            fallback = null;
+        } else {
+            child1.close();
+            child2.close();
+        }
+        table = null;
+        out = null;
+        probe = null;
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A hash table of rows on one of their fields, the key, for the batch
+ * operators {@link BatchHashJoin} and {@link BatchAggregate}. The rows are
+ * copied into batches the table owns; a row is known by its id, the
+ * order it was added in. Rows with equal keys are chained together.
+ */
+class BatchHashTable {
+
+    private final TupleDesc td;
+    private final int key;
+    private final int capacity;
+
+    private final ArrayList<Batch> rows = new ArrayList<Batch>();
+    private int count;
+    // the first row of each bucket, and the next row of each row, or -1
+    private int[] heads;
+    private int[] next;
+    private int[] hashes;
+
+    /**
+     * @param td the schema of the rows
+     * @param key the field the rows are looked up on
+     */
+    BatchHashTable(TupleDesc td, int key) {
+        this.td = td;
+        this.key = key;
+        this.capacity = Batch.DEFAULT_CAPACITY;
+        clear();
+    }
+
+    /** Remove all rows. */
+    void clear() {
+        rows.clear();
+        count = 0;
+        heads = new int[64];
+        Arrays.fill(heads, -1);
+        next = new int[64];
+        hashes = new int[64];
+    }
+
+    /** @return the number of rows in the table */
+    int size() {
+        return count;
+    }
+
+    /** @return the approximate memory the rows of the table take */
+    long bytes() {
+        return (long) count * (td.getSize() + 16);
+    }
+
+    /**
+     * Add a row of a batch of the table's schema.
+     *
+     * @return the id of the row
+     */
+    int add(Batch from, int row) {
+        if (count % capacity == 0)
+            rows.add(new Batch(td, capacity));
+        Batch b = rows.get(rows.size() - 1);
+        int r = b.addRow();
+        b.copy(from, row, r, 0);
+        if (count == next.length) {
+            next = Arrays.copyOf(next, count * 2);
+            hashes = Arrays.copyOf(hashes, count * 2);
+        }
+        int id = count++;
+        hashes[id] = b.hash(key, r);
+        if (count > heads.length)
+            rehash(heads.length * 2);
+        int bucket = hashes[id] & (heads.length - 1);
+        next[id] = heads[bucket];
+        heads[bucket] = id;
+        return id;
+    }
+
+    private void rehash(int buckets) {
+        heads = new int[buckets];
+        Arrays.fill(heads, -1);
+        // all but the row being added, which add chains
+        for (int id = count - 2; id >= 0; id--) {
+            int bucket = hashes[id] & (buckets - 1);
+            next[id] = heads[bucket];
+            heads[bucket] = id;
+        }
+    }
+
+    /**
+     * @return the id of the first row whose key equals a field of a row of
+     *   another batch, or -1 if none does
+     */
+    int find(Batch probe, int field, int row) {
+        return match(heads[probe.hash(field, row) & (heads.length - 1)], probe, field, row);
+    }
+
+    /**
+     * @return the id of the next row after row id whose key equals a field
+     *   of a row of another batch, or -1 if none does
+     */
+    int findNext(int id, Batch probe, int field, int row) {
+        return match(next[id], probe, field, row);
+    }
+
+    private int match(int id, Batch probe, int field, int row) {
+        for (; id >= 0; id = next[id]) {
+            if (batch(id).equal(key, row(id), probe, field, row))
+                return id;
+        }
+        return -1;
+    }
+
+    /** @return the batch that holds row id, at row id % capacity */
+    Batch batch(int id) {
+        return rows.get(id / capacity);
+    }
+
+    /** @return the index of row id in {@link #batch batch(id)} */
+    int row(int id) {
+        return id % capacity;
+    }
+}
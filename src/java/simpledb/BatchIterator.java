@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of {@link DbIterator}:
+ * instead of a tuple per call, {@link #nextBatch} returns a {@link Batch} of
+ * up to a few thousand rows, column by column, so that the work of an
+ * operator is a loop over arrays rather than a virtual call per tuple.
+ * <p>
+ * {@link TupleToBatch} and {@link BatchToTuple} turn a DbIterator into a
+ * BatchIterator and back, so that operators without a batch version can
+ * be mixed with those that have one.
+ */
+public interface BatchIterator extends Serializable {
+
+  /**
+   * Opens the iterator. This must be called before any of the other methods.
+   * @throws DbException when there are problems opening/accessing the database.
+   */
+  public void open()
+      throws DbException, TransactionAbortedException;
+
+  /**
+   * Returns the next rows of the iterator. A batch is only good until the
+   * next call of nextBatch, rewind or close; the iterator may reuse it.
+   *
+   * @return a batch with at least one row selected, or null if there are
+   *   no more rows
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  public Batch nextBatch() throws DbException, TransactionAbortedException;
+
+  /**
+   * Resets the iterator to the start.
+   * @throws DbException when rewind is unsupported.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  public void rewind() throws DbException, TransactionAbortedException;
+
+  /**
+   * @return the TupleDesc of the rows of the batches returned
+   */
+  public TupleDesc getTupleDesc();
+
+  /**
+   * Closes the iterator.
+   */
+  public void close();
+
+}
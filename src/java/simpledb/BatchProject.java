@@ -0,0 +1,61 @@
+package simpledb;
+
+/**
+ * BatchProject is the batch version of {@link Project}. The batches it
+ * returns share the columns of those of its child, so a projection copies
+ * no values.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] fields;
+    private final BatchIterator child;
+    private final TupleDesc td;
+    private transient Batch view;
+
+    /**
+     * @param fields the indexes of the fields of the child's rows to
+     *   return, in order
+     * @param child the iterator to read the rows from
+     */
+    public BatchProject(int[] fields, BatchIterator child) {
+        this.fields = fields.clone();
+        this.child = child;
+        td = PaxPage.project(child.getTupleDesc(), fields);
+    }
+
+    /** @return the iterator the rows are read from */
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        view = null;
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        Batch b = child.nextBatch();
+        if (b == null)
+            return null;
+        if (view == null)
+            view = b.view(td, fields);
+        else
+            view.project(b, fields);
+        return view;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        view = null;
+        child.close();
+    }
+}
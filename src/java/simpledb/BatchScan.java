@@ -0,0 +1,111 @@
+package simpledb;
+
+/**
+ * BatchScan is the batch version of {@link SeqScan}: it returns the same
+ * rows, with the same TupleDesc, a batch at a time. The fields of the
+ * tuples of a HeapFile or PaxFile are copied from the pages into the
+ * columns of the batch without making a Tuple for each; other files are
+ * read through the SeqScan.
+ */
+public class BatchScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SeqScan scan;
+    private final int capacity;
+
+    // reads the pages of a HeapFile or PaxFile
+    private transient HeapFileIterator pages;
+    private int[] fields;
+    private transient TupleToBatch tuples;
+    private transient Batch batch;
+    private int pageNo;
+    private transient Page page;
+    private int slot;
+
+    /**
+     * @param scan the scan to return the rows of
+     */
+    public BatchScan(SeqScan scan) {
+        this(scan, Batch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of rows in a batch
+     */
+    public BatchScan(SeqScan scan, int capacity) {
+        this.scan = scan;
+        this.capacity = capacity;
+    }
+
+    /** @return the scan this one returns the rows of */
+    public SeqScan getScan() {
+        return scan;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return scan.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (file instanceof HeapFile || file instanceof PaxFile) {
+            pages = new HeapFileIterator(scan.getTransactionId(), file);
+            pages.open();
+            fields = scan.getFields();
+            batch = new Batch(getTupleDesc(), capacity);
+            start();
+        } else {
+            tuples = new TupleToBatch(scan, capacity);
+            tuples.open();
+        }
+    }
+
+    private void start() {
+        pageNo = -1;
+        page = null;
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        if (tuples != null)
+            return tuples.nextBatch();
+        if (pages == null)
+            throw new IllegalStateException("iterator is closed");
+        batch.clear();
+        while (!batch.isFull()) {
+            if (page == null) {
+                if (++pageNo >= pages.numPages)
+                    break;
+                page = pages.readPage(pageNo);
+                slot = 0;
+            }
+            if (page instanceof PaxPage)
+                slot = ((PaxPage) page).fill(batch, fields, slot);
+            else
+                slot = ((HeapPage) page).fill(batch, fields, slot);
+            if (slot < 0)
+                page = null;
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (tuples != null) {
+            tuples.rewind();
+        } else {
+            pages.rewind();
+            start();
+        }
+    }
+
+    public void close() {
+        if (tuples != null)
+            tuples.close();
+        if (pages != null)
+            pages.close();
+        tuples = null;
+        pages = null;
+        page = null;
+        batch = null;
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchToTuple returns the rows of the batches of a {@link BatchIterator}
+ * one tuple at a time, so that batch operators can feed operators without
+ * a batch version, and be the root of a plan. A row read from a table
+ * keeps its record id, so the tuples can be deleted.
+ *
+ * @see TupleToBatch
+ */
+public class BatchToTuple extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private transient Batch batch;
+    private int k;
+
+    /**
+     * @param child the iterator to read the batches of
+     */
+    public BatchToTuple(BatchIterator child) {
+        this.child = child;
+    }
+
+    /** @return the iterator the batches are read from */
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        batch = null;
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || k == batch.size()) {
+            batch = child.nextBatch();
+            k = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(batch.row(k++));
+    }
+
+    /**
+     * @return no children: the input of this operator is a BatchIterator,
+     *   see {@link #getChild}
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        throw new UnsupportedOperationException("the child of BatchToTuple is a BatchIterator");
+    }
+}
@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin joins two inputs on any predicate, like {@link Join},
+ * but reads the outer input (child1) a block of pages' worth of tuples at a
+ * time and scans the inner input (child2) once per block instead of once per
+ * outer tuple. Every inner tuple is compared with all of the outer tuples in
+ * the block, so the number of predicate evaluations is the same as for
+ * Join, but the inner input is read card1 / blockSize times rather than
+ * card1 times.
+ * <p>
+ * The output tuples are the fields of the tuple from child1 followed by the
+ * fields of the tuple from child2.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of pages of outer tuples held per block. */
+    public static final int DEFAULT_BLOCK_PAGES = 32;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final int blockPages;
+    private TupleDesc td;
+    private int blockTuples;
+
+    private final ArrayList<Tuple> block = new ArrayList<Tuple>();
+    private Tuple innerTuple;
+    private int outerIdx;
+
+    /**
+     * Constructor with the default block size.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * @param blockPages
+     *            how many pages' worth of outer tuples to hold per pass over
+     *            the inner relation
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int blockPages) {
+        if (blockPages < 1)
+            throw new IllegalArgumentException("blockPages must be positive");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockPages = blockPages;
+        init();
+    }
+
+    private void init() {
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        blockTuples = blockTuples(child1.getTupleDesc(), blockPages);
+    }
+
+    /** @return the number of tuples of the given schema in a block of pages */
+    static int blockTuples(TupleDesc td, int pages) {
+        return Math.max(1, pages * HeapPage.numSlots(td));
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        super.open();
+        loadBlock(false);
+    }
+
+    public void close() {
+        block.clear();
+        innerTuple = null;
+        child1.close();
+        child2.close();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        loadBlock(false);
+    }
+
+    /**
+     * Read the next block of outer tuples.
+     *
+     * @param rewindInner whether the inner relation has been read since it
+     *            was opened or rewound, and has to be rewound for the block
+     * @return false if the outer relation is exhausted
+     */
+    private boolean loadBlock(boolean rewindInner) throws DbException,
+            TransactionAbortedException {
+        block.clear();
+        innerTuple = null;
+        while (block.size() < blockTuples && child1.hasNext())
+            block.add(child1.next());
+        if (block.isEmpty())
+            return false;
+        if (rewindInner)
+            child2.rewind();
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (block.isEmpty())
+            return null;
+        while (true) {
+            if (innerTuple != null) {
+                while (outerIdx < block.size()) {
+                    Tuple outer = block.get(outerIdx++);
+                    if (p.filter(outer, innerTuple))
+                        return Tuple.merge(td, outer, innerTuple);
+                }
+            }
+            if (child2.hasNext()) {
+                innerTuple = child2.next();
+                outerIdx = 0;
+            } else if (!loadBlock(true)) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        init();
+    }
+}
@@ -3,6 +3,9 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import simpledb.Catalog.Table;
 
 /**
@@ -12,9 +15,23 @@ import simpledb.Catalog.Table;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. Locks are page-level shared/exclusive locks
+ * kept by a {@link LockManager} and held until the transaction completes
+ * (strict two-phase locking). A dirty page is written to disk when its
+ * transaction commits, and may be written before that if the pool needs
+ * its frame (STEAL / FORCE). Every write follows the write-ahead rule: the
+ * page is logged with an UPDATE record first, and written only once the
+ * log is durable up to that record, so an abort or recovery can undo it.
+ * Clean pages are preferred as eviction victims.
+ * <p>
+ * No method takes a pool-wide monitor. The page table is a concurrent map of
+ * frames, a page is read from disk at most once no matter how many
+ * transactions miss on it at the same time, and those transactions only wait
+ * for that one page. The number of frames never exceeds numPages: a miss
+ * reserves a frame before it loads, evicting a page if the pool is full.
  * 
- * @Threadsafe, all fields are final
+ * @Threadsafe, all fields are final except the scanResistant and
+ * prefetching switches, which are volatile and only read once per scan
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -27,19 +44,166 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Upper bound on the number of frames in a scan's private ring. */
+    public static final int SCAN_RING_PAGES = 16;
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * A slot in the page table. A frame is put into the table before its page
+     * is read, so concurrent requests for the same page find it and wait for
+     * that one read instead of starting their own. The pin count keeps a
+     * frame from being evicted while a getPage call is handing it out, or
+     * until the caller of getPinnedPage is done with it; it is
+     * set to -1 by the thread that evicts the frame, after which the frame
+     * can no longer be pinned and requests have to look the page up again.
+     */
+    private static final class Frame {
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        private final AtomicInteger pins = new AtomicInteger(1);
+        private volatile Page page;
+        private volatile DbException failure;
+        // LSN of the first logged change of the page that is not on disk
+        // yet, 0 if there is none; set holding the log, so a checkpoint
+        // sees it together with the record
+        private volatile long recLsn;
+        // when the page became dirty, 0 if it is clean
+        private volatile long dirtySince;
+
+        /** A frame that is still loading, pinned once by its loader. */
+        Frame() {
+        }
+
+        /** A frame for a page that is already in memory, not pinned. */
+        Frame(Page page) {
+            this.page = page;
+            pins.set(0);
+            loaded.countDown();
+        }
+
+        boolean pin() {
+            while (true) {
+                int n = pins.get();
+                if (n < 0)
+                    return false;
+                if (pins.compareAndSet(n, n + 1))
+                    return true;
+            }
+        }
+
+        void unpin() {
+            pins.decrementAndGet();
+        }
+
+        /** Claim an unpinned frame for eviction; fails if anyone pinned it. */
+        boolean claim() {
+            return pins.compareAndSet(0, -1);
+        }
+
+        /** Undo a claim on a frame that turned out not to be evictable. */
+        void unclaim() {
+            pins.set(0);
+        }
+
+        boolean isLoaded() {
+            return loaded.getCount() == 0 && failure == null;
+        }
+
+        void setPage(Page page) {
+            this.page = page;
+            loaded.countDown();
+        }
+
+        /** Swap in a newer copy of the page once the frame is loaded. */
+        void replace(Page page) throws DbException {
+            awaitPage();
+            this.page = page;
+        }
+
+        void fail(DbException e) {
+            failure = e;
+            loaded.countDown();
+        }
+
+        Page awaitPage() throws DbException {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    loaded.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (failure != null)
+                throw failure;
+            return page;
+        }
+    }
+
+    // the page table; each frame in it holds one of the numPages reservations
+    private final ConcurrentHashMap<PageId, Frame> frames =
+        new ConcurrentHashMap<PageId, Frame>();
+    private final AtomicInteger reserved = new AtomicInteger();
+    // pages that were loaded through a scan ring and are not (yet) known to
+    // the replacement policy, mapped to the ring that owns them
+    private final ConcurrentHashMap<PageId, BufferRing> ringOwner =
+        new ConcurrentHashMap<PageId, BufferRing>();
+    private volatile boolean scanResistant = true;
+    private volatile boolean prefetching = true;
+    private final Prefetcher prefetcher = new Prefetcher(this);
+    private final int numPages;
+    private final ReplacementPolicy policy;
+    private final LockManager lockManager = new LockManager();
+    private final PageCleaner cleaner = new PageCleaner(this);
+    // pages written to disk whose files have not been synced since, mapped
+    // to the LSN of the first change written; they stay in the dirty page
+    // table until then. Guarded by itself.
+    private final HashMap<PageId, Long> unsynced = new HashMap<PageId, Long>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong prefetches = new AtomicLong();
+
+    // Loaded, unpinned pages without changes can be evicted for free. Pages
+    // the policy still knows about but that are no longer in the table are
+    // offered too, so evictPage can clean them up.
+    private final ReplacementPolicy.Evictable evictable = new ReplacementPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            Frame f = frames.get(pid);
+            return f == null || isEvictable(f);
+        }
+    };
+
+    // when there are none of those, dirty pages are written out (STEAL)
+    private final ReplacementPolicy.Evictable stealable = new ReplacementPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            Frame f = frames.get(pid);
+            return f == null || (f.isLoaded() && f.pins.get() == 0);
+        }
+    };
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, using the
+     * default replacement policy (see {@link ReplacementPolicy.Kind#getDefault}).
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
-    
-    private ConcurrentHashMap<PageId, Page> PageId_to_Page;
-    private int numPages;
-    
     public BufferPool(int numPages) {
+        this(numPages, ReplacementPolicy.Kind.getDefault());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policyKind the replacement policy used to pick eviction victims
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policyKind) {
         // some code goes here
-    	PageId_to_Page = new ConcurrentHashMap<PageId, Page>();
         this.numPages = numPages;
+        this.policy = policyKind.create(numPages);
     }
     
     public static int getPageSize() {
@@ -51,6 +215,54 @@ public class BufferPool {
     	BufferPool.pageSize = pageSize;
     }
 
+    /** @return the replacement policy choosing this pool's eviction victims */
+    public ReplacementPolicy getReplacementPolicy() {
+        return policy;
+    }
+
+    /** @return the background writer of this pool's dirty pages */
+    public PageCleaner getPageCleaner() {
+        return cleaner;
+    }
+
+    /** @return the lock manager guarding this pool's pages */
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
+    /** @return the number of pages currently in the pool */
+    public int getNumResidentPages() {
+        return frames.size();
+    }
+
+    /** @return the number of getPage calls served from the pool */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return the number of getPage calls that had to read from disk */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** @return the number of pages evicted to make room for others */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /** @return the number of pages read ahead of a scan by the {@link Prefetcher} */
+    public long getPrefetchCount() {
+        return prefetches.get();
+    }
+
+    /** Zero the hit, miss, eviction and prefetch counters. */
+    public void resetStats() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        prefetches.set(0);
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -65,32 +277,404 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
+     * @throws TransactionAbortedException if waiting for the lock would
+     *   deadlock; the caller should abort the transaction
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
+        lockManager.acquire(tid, pid, perm);
+        return fetch(pid, null, false);
+    }
 
-        Page p;
-        //check if the page is in the bufferpool
-        if (!PageId_to_Page.containsKey(pid))
-        {
-        	//it is not in the bufferpool, must get from dbfile
-        	//check to see if the buffer is full. if it is then evict
-            if(PageId_to_Page.size() == numPages)
-            {
-                // Buffer is full, evict a page before adding
-                evictPage();
+    /**
+     * Retrieve the specified page on behalf of a large sequential scan. Works
+     * like {@link #getPage(TransactionId, PageId, Permissions)}, except that
+     * a page that has to be read from disk is placed in the scan's private
+     * ring and recycles the frame of the page the ring held before, rather
+     * than taking a frame the replacement policy would otherwise keep.
+     * Pages that are already resident are returned without counting as a
+     * use, so the scan does not make them look hot.
+     *
+     * @param ring the scan's ring, as returned by {@link #newScanRing}; if
+     *   null this is just {@link #getPage(TransactionId, PageId, Permissions)}
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        lockManager.acquire(tid, pid, perm);
+        return fetch(pid, ring, false);
+    }
+
+    /**
+     * Retrieve a page like {@link #getPage(TransactionId, PageId, Permissions)}
+     * and keep it in the pool, dirty or not, until {@link #unpinPage} is
+     * called. This is for operations that change several pages at once, such
+     * as a B+ tree split: none of the pages they hold may be written out and
+     * read back as another copy halfway through. Every call must be matched
+     * by a call to unpinPage.
+     */
+    public Page getPinnedPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        lockManager.acquire(tid, pid, perm);
+        return fetch(pid, null, true);
+    }
+
+    /** Let a page pinned by {@link #getPinnedPage} be evicted again. */
+    public void unpinPage(PageId pid) {
+        Frame f = frames.get(pid);
+        if (f != null && f.pins.get() > 0)
+            f.unpin();
+    }
+
+    /**
+     * Find a page in the table or load it, making sure only one thread
+     * reads any given page. Threads that ask for a page somebody else is
+     * loading wait for that load.
+     *
+     * @param keepPin leave the frame pinned for the caller
+     */
+    private Page fetch(PageId pid, BufferRing ring, boolean keepPin) throws DbException {
+        while (true) {
+            Frame f = frames.get(pid);
+            if (f == null) {
+                f = install(pid, ring, false);
+                if (f == null)
+                    continue; // another thread installed it first
+                boolean pinned = false;
+                try {
+                    Page p = f.awaitPage();
+                    pinned = keepPin;
+                    return p;
+                } finally {
+                    if (!pinned)
+                        f.unpin();
+                }
             }
-            
-            //now add from dbfile
+            if (!f.pin()) {
+                Thread.yield(); // being evicted, maybe written out; look again
+                continue;
+            }
+            boolean pinned = false;
+            try {
+                Page p = f.awaitPage();
+                hits.incrementAndGet();
+                BufferRing owner = ringOwner.get(pid);
+                if (ring == null) {
+                    if (owner != null)
+                        promote(pid);
+                    else
+                        policy.pageHit(pid);
+                } else if (owner != null && owner != ring) {
+                    promote(pid); // a second scan wants it too: it is shared now
+                }
+                pinned = keepPin;
+                return p;
+            } finally {
+                if (!pinned)
+                    f.unpin();
+            }
+        }
+    }
+
+    /**
+     * Read a page that is not in the table into a new frame. Returns the
+     * frame still pinned by the loader, or null if another thread installed
+     * a frame for the page first.
+     *
+     * @param prefetch true if the page is read ahead of a scan rather than
+     *   asked for; it then counts as a prefetch, not as a miss
+     */
+    private Frame install(PageId pid, BufferRing ring, boolean prefetch) throws DbException {
+        if (ring != null)
+            recycle(ring.add(pid), ring);
+        reserveFrame();
+        Frame fresh = new Frame();
+        if (frames.putIfAbsent(pid, fresh) != null) {
+            reserved.decrementAndGet();
+            if (ring != null)
+                ring.removeOnce(pid);
+            return null;
+        }
+        // owned before the read, so the ring can recycle the frame even if
+        // it comes round again while the page is still loading
+        if (ring != null)
+            ringOwner.put(pid, ring);
+        if (prefetch)
+            prefetches.incrementAndGet();
+        else
+            misses.incrementAndGet();
+        try {
             DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            p = dbfile.readPage(pid);
-            PageId_to_Page.put(pid, p);
-        } 
-        //if it is then simply get it
+            Page p = dbfile.readPage(pid);
+            fresh.setPage(p);
+            if (ring == null)
+                policy.pageLoaded(pid);
+        } catch (RuntimeException e) {
+            // the page never made it in: give the frame back and let
+            // everybody waiting for it see the failure
+            if (frames.remove(pid, fresh))
+                reserved.decrementAndGet();
+            ringOwner.remove(pid);
+            if (ring != null)
+                ring.remove(pid);
+            DbException failure = new DbException("could not read page " + pid + ": " + e);
+            fresh.fail(failure);
+            fresh.unpin();
+            throw failure;
+        }
+        return fresh;
+    }
+
+    /**
+     * Take one of the numPages frame reservations, evicting pages until one
+     * is free.
+     */
+    private void reserveFrame() throws DbException {
+        while (true) {
+            int n = reserved.get();
+            if (n < numPages) {
+                if (reserved.compareAndSet(n, n + 1))
+                    return;
+            } else {
+                evictPage();
+            }
+        }
+    }
+
+    /**
+     * The ring of a scan has moved on from a page. If nobody else has
+     * started using it, it leaves the pool.
+     */
+    private void recycle(PageId recycled, BufferRing ring) {
+        if (recycled == null || ringOwner.get(recycled) != ring)
+            return;
+        Frame f = frames.get(recycled);
+        if (f == null)
+            return;
+        if (tryEvict(recycled, f)) {
+            evictions.incrementAndGet();
+            return;
+        }
+        // still loading or pinned for a moment: it stays the ring's, and
+        // the next eviction picks it up (see ringVictim)
+        if (!f.isLoaded() || f.page.isDirty() == null)
+            return;
+        // holding changes that are not worth a log force in the middle of
+        // a scan; the page leaves the ring and stays in the pool
+        promote(recycled);
+    }
+
+    /**
+     * Read a page into the pool on behalf of the {@link Prefetcher}. No lock
+     * is taken and the page is left unpinned: the scan that wanted it locks
+     * it when it gets there, and until then it may be evicted. The disk may
+     * hold uncommitted changes that were stolen, but the scan cannot lock
+     * the page until their transaction is done, and an abort discards the
+     * pages it rolls back after writing them.
+     *
+     * @return true if the page was read, false if it was already resident
+     */
+    boolean prefetch(PageId pid, BufferRing ring) throws DbException {
+        if (frames.containsKey(pid))
+            return false;
+        Frame f = install(pid, ring, true);
+        if (f == null)
+            return false;
+        f.unpin();
+        return true;
+    }
+
+    /**
+     * Start read-ahead for a sequential scan of a table.
+     *
+     * @param tableId the table being scanned
+     * @param numPages the number of pages the scan will read
+     * @param ring the scan's ring, or null
+     * @return the scan's read-ahead, or null if prefetching is off or the
+     *   pool is too small for it
+     */
+    public Prefetcher.ReadAhead newReadAhead(int tableId, int numPages, BufferRing ring) {
+        if (!prefetching)
+            return null;
+        return prefetcher.newReadAhead(tableId, numPages, ring, this.numPages / 4);
+    }
+
+    /**
+     * Turn read-ahead for sequential scans on or off. When off,
+     * {@link #newReadAhead} returns null.
+     */
+    public void setPrefetching(boolean prefetching) {
+        this.prefetching = prefetching;
+    }
+
+    /** @return true if sequential scans read ahead */
+    public boolean isPrefetching() {
+        return prefetching;
+    }
+
+    /**
+     * Hand out a ring for a sequential scan over a file of the given size.
+     * Only scans that would not fit in the pool get one; smaller tables are
+     * better off cached in full.
+     *
+     * @param filePages the number of pages the scan will read
+     * @return a new ring, or null if the scan should use the shared pool
+     */
+    public BufferRing newScanRing(int filePages) {
+        if (!scanResistant || filePages <= numPages)
+            return null;
+        return new BufferRing(Math.max(1, Math.min(SCAN_RING_PAGES, numPages / 8)));
+    }
+
+    /**
+     * Give back a scan's ring. Clean pages still in the ring are dropped
+     * from the pool right away; dirty ones are handed to the replacement
+     * policy like any other page.
+     */
+    public void releaseRing(BufferRing ring) {
+        if (ring == null)
+            return;
+        for (PageId pid : ring.clear()) {
+            if (ringOwner.get(pid) != ring)
+                continue;
+            Frame f = frames.get(pid);
+            if (f == null || !tryEvict(pid, f))
+                promote(pid);
+        }
+    }
+
+    /**
+     * Turn scan resistance on or off. When off, {@link #newScanRing} never
+     * hands out rings and large scans go through the shared pool.
+     */
+    public void setScanResistant(boolean scanResistant) {
+        this.scanResistant = scanResistant;
+    }
+
+    /** @return true if large scans are given private rings */
+    public boolean isScanResistant() {
+        return scanResistant;
+    }
+
+    /**
+     * Puts a page into the page table, telling the replacement policy about
+     * it if it was not resident yet.
+     */
+    private void cachePage(Page p) throws DbException {
+        PageId pid = p.getId();
+        while (true) {
+            Frame f = frames.get(pid);
+            if (f != null) {
+                f.replace(p);
+                dirtied(f);
+                if (ringOwner.containsKey(pid))
+                    promote(pid);
+                return;
+            }
+            reserveFrame();
+            f = new Frame(p);
+            if (frames.putIfAbsent(pid, f) == null) {
+                dirtied(f);
+                policy.pageLoaded(pid);
+                return;
+            }
+            reserved.decrementAndGet();
+        }
+    }
+
+    /** Start the clock on a frame that may just have become dirty. */
+    private void dirtied(Frame f) {
+        if (f.dirtySince == 0 && f.page.isDirty() != null) {
+            f.dirtySince = System.nanoTime();
+            cleaner.dirtied();
+        }
+    }
+
+    /** Move a page out of its scan ring into the policy-managed pool. */
+    private void promote(PageId pid) {
+        BufferRing owner = ringOwner.remove(pid);
+        if (owner != null) {
+            owner.remove(pid);
+            policy.pageLoaded(pid);
+        }
+    }
+
+    /** Drop a page from the page table, whatever state it is in. */
+    private void removeFrame(PageId pid) {
+        if (frames.remove(pid) != null) {
+            reserved.decrementAndGet();
+            untrack(pid);
+        }
+    }
+
+    /** Tell whoever decides about a page's eviction that it is gone. */
+    private void untrack(PageId pid) {
+        BufferRing owner = ringOwner.remove(pid);
+        if (owner != null)
+            owner.remove(pid);
         else
-                p = PageId_to_Page.get(pid);
-        return p;
+            policy.pageRemoved(pid);
+    }
+
+    private static boolean isEvictable(Frame f) {
+        return f.isLoaded() && f.pins.get() == 0 && f.page.isDirty() == null;
+    }
+
+    /**
+     * Remove a frame from the table if it is loaded, clean, and nobody has
+     * it pinned.
+     *
+     * @return true if the frame was removed
+     */
+    private boolean tryEvict(PageId pid, Frame f) {
+        if (!f.isLoaded() || !f.claim())
+            return false;
+        if (f.page.isDirty() != null) {
+            f.unclaim();
+            return false;
+        }
+        return remove(pid, f);
+    }
+
+    /**
+     * Remove a frame from the table if it is loaded and nobody has it
+     * pinned. A dirty page is logged and written out first.
+     *
+     * @return true if the frame was removed
+     * @throws IOException if the page could not be written out; it stays
+     *   in the pool
+     */
+    private boolean trySteal(PageId pid, Frame f) throws IOException {
+        if (!f.isLoaded() || !f.claim())
+            return false;
+        if (f.page.isDirty() != null) {
+            try {
+                synchronized (f) {
+                    if (frames.get(pid) != f)
+                        return false; // discarded meanwhile
+                    Snapshot snap = logPage(pid, f);
+                    if (snap != null)
+                        writePage(snap);
+                    if (f.page.isDirty() != null) {
+                        f.unclaim(); // changed while it was written
+                        return false;
+                    }
+                }
+            } catch (IOException e) {
+                f.unclaim();
+                throw e;
+            }
+        }
+        return remove(pid, f);
+    }
+
+    /** Take a claimed frame out of the table, freeing its reservation. */
+    private boolean remove(PageId pid, Frame f) {
+        if (!frames.remove(pid, f))
+            return false; // discarded meanwhile
+        reserved.decrementAndGet();
+        untrack(pid);
+        return true;
     }
 
     /**
@@ -104,7 +688,7 @@ public class BufferPool {
      */
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
-        // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -114,14 +698,13 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -134,7 +717,31 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        LogFile log = Database.getLogFile();
+        try {
+            if (commit) {
+                flushPages(tid);
+                log.logCommit(tid);
+            } else {
+                // changes that never left the pool are undone by
+                // forgetting them...
+                for (PageId pid : lockManager.lockedPages(tid)) {
+                    Frame f = frames.get(pid);
+                    if (f == null || !f.isLoaded())
+                        continue;
+                    synchronized (f) {
+                        if (tid.equals(f.page.isDirty()) && frames.remove(pid, f)) {
+                            reserved.decrementAndGet();
+                            untrack(pid);
+                        }
+                    }
+                }
+                // ...and those that were written out through the log
+                log.logAbort(tid);
+            }
+        } finally {
+            lockManager.releaseAll(tid);
+        }
     }
 
     /**
@@ -146,6 +753,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have 
      * been dirtied so that future requests see up-to-date pages. 
+     * The indexes on the table (see {@link Catalog#addIndex}) get an entry
+     * for the tuple too.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -158,13 +767,10 @@ public class BufferPool {
     	
     	//add the tuple
     	DbFile Dbf = Database.getCatalog().getDatabaseFile(tableId);
-    	ArrayList<Page> pages = Dbf.insertTuple(tid, t);
-    	for(Page p : pages)
-    	{
-    		p.markDirty(true, tid);
-    		//now update the cache 
-    		PageId_to_Page.put(p.getId(),p);
-    	}
+    	cacheDirty(tid, Dbf.insertTuple(tid, t));
+    	//and its entries in the indexes on the table
+    	for (Catalog.Index index : Database.getCatalog().getIndexes(tableId))
+    		cacheDirty(tid, index.file.insertEntry(tid, t.getField(index.getField()), t.getRecordId()));
     }
 
     /**
@@ -175,6 +781,7 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have 
      * been dirtied so that future requests see up-to-date pages. 
+     * The entries for the tuple are removed from the indexes on its table.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
@@ -183,14 +790,22 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-    	int tableId = t.getRecordId().getPageId().getTableId();
+    	RecordId rid = t.getRecordId();
+    	int tableId = rid.getPageId().getTableId();
         DbFile Dbf = Database.getCatalog().getDatabaseFile(tableId);
-        ArrayList<Page> pages = Dbf.deleteTuple(tid, t);
-        for (Page p : pages) 
-        {
+        cacheDirty(tid, Dbf.deleteTuple(tid, t));
+        for (Catalog.Index index : Database.getCatalog().getIndexes(tableId))
+            cacheDirty(tid, index.file.deleteEntry(tid, t.getField(index.getField()), rid));
+    }
+
+    /**
+     * Mark the pages an insert or delete changed as dirty and update the
+     * cached versions of them.
+     */
+    private void cacheDirty(TransactionId tid, ArrayList<Page> pages) throws DbException {
+        for (Page p : pages) {
             p.markDirty(true, tid);
-            //now update the cache
-            PageId_to_Page.put(p.getId(),p);
+            cachePage(p);
         }
     }
 
@@ -199,14 +814,10 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-    	
-    	for(PageId pidIterator : PageId_to_Page.keySet())
-    	{
-    		flushPage(pidIterator);
-    	}
+        flush(new ArrayList<PageId>(frames.keySet()), null);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -214,62 +825,321 @@ public class BufferPool {
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // only necessary for lab5
+        removeFrame(pid);
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-    	Page page = PageId_to_Page.get(pid);
-    	if(page != null && page.isDirty() != null)
-    	{
-    		Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
-    		page.markDirty(false, page.isDirty());
-    	}
+        flush(Collections.singletonList(pid), null);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        flush(lockManager.lockedPages(tid), tid);
+    }
+
+    /**
+     * Write dirty pages to disk. They are all logged first, so that one log
+     * force covers them.
+     *
+     * @param tid if not null, only pages dirtied by tid are written
+     * @return the number of pages written
+     */
+    private int flush(Collection<PageId> pids, TransactionId tid) throws IOException {
+        ArrayList<Snapshot> logged = new ArrayList<Snapshot>();
+        long last = 0;
+        for (PageId pid : pids) {
+            Frame f = frames.get(pid);
+            if (f == null || !f.isLoaded())
+                continue;
+            // two flushes of the same page must not interleave; flushes of
+            // different pages do not wait for each other
+            synchronized (f) {
+                if (frames.get(pid) != f)
+                    continue;
+                if (tid != null && !tid.equals(f.page.isDirty()))
+                    continue;
+                Snapshot s = logPage(pid, f);
+                if (s != null) {
+                    logged.add(s);
+                    last = s.lsn;
+                }
+            }
+        }
+        if (logged.isEmpty())
+            return 0;
+        Database.getLogFile().flushTo(last);
+        int written = 0;
+        for (Snapshot s : logged) {
+            synchronized (s.frame) {
+                if (frames.get(s.pid) == s.frame && writePage(s))
+                    written++;
+            }
+        }
+        return written;
+    }
+
+    /** A copy of a dirty page taken to be written out, and its UPDATE record. */
+    private static final class Snapshot {
+        final PageId pid;
+        final Frame frame;
+        final Page image;
+        final long lsn;
+
+        Snapshot(PageId pid, Frame frame, Page image, long lsn) {
+            this.pid = pid;
+            this.frame = frame;
+            this.image = image;
+            this.lsn = lsn;
+        }
+    }
+
+    /**
+     * Copy a dirty page and append an UPDATE record for the changes in the
+     * copy since the page was read or last logged. The transaction holding
+     * the page may go on changing it; those changes go into the next
+     * record. Must be called holding f.
+     *
+     * @return the copy, or null if the page is clean
+     */
+    private Snapshot logPage(PageId pid, Frame f) throws IOException {
+        Page p = f.page;
+        TransactionId dirtier;
+        Page before, image;
+        synchronized (p) {
+            dirtier = p.isDirty();
+            if (dirtier == null)
+                return null;
+            before = p.getBeforeImage();
+            // the next record starts from this copy
+            p.setBeforeImage();
+            image = p.getBeforeImage();
+        }
+        LogFile log = Database.getLogFile();
+        long lsn;
+        synchronized (log) {
+            lsn = log.logWrite(dirtier, before, image);
+            if (f.recLsn == 0)
+                f.recLsn = lsn;
+        }
+        image.setLsn(lsn);
+        p.setLsn(lsn);
+        return new Snapshot(pid, f, image, lsn);
+    }
+
+    /**
+     * Write a logged copy of a page to disk once the log is durable up to
+     * it. The page is clean afterwards unless it was changed after the
+     * copy was taken. Must be called holding the frame.
+     *
+     * @return false if the page was logged again since, so that there is a
+     *   newer copy to write
+     */
+    private boolean writePage(Snapshot s) throws IOException {
+        Frame f = s.frame;
+        Page p = f.page;
+        if (p.getLsn() != s.lsn)
+            return false;
+        Database.getLogFile().flushTo(s.lsn);
+        Database.getCatalog().getDatabaseFile(s.pid.getTableId()).writePage(s.image);
+        pageWritten(s.pid, f.recLsn);
+        f.recLsn = 0;
+        synchronized (p) {
+            if (samePageData(p, s.image)) {
+                p.markDirty(false, null);
+                f.dirtySince = 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether a page holds the same bytes as a copy of it; heap
+     *   pages are compared in place
+     */
+    private static boolean samePageData(Page p, Page image) {
+        if (p instanceof HeapPage && image instanceof HeapPage)
+            return ((HeapPage) p).sameData((HeapPage) image);
+        return Arrays.equals(p.getPageData(), image.getPageData());
+    }
+
+    /**
+     * Note that a page was written to disk with changes logged from recLsn
+     * on. Until its file is synced, the page stays in the dirty page table.
+     */
+    void pageWritten(PageId pid, long recLsn) {
+        synchronized (unsynced) {
+            Long old = unsynced.get(pid);
+            if (old == null || recLsn < old)
+                unsynced.put(pid, recLsn);
+        }
+    }
+
+    /**
+     * Force the files of the pages written so far to disk, so that they
+     * leave the dirty page table.
+     */
+    public void syncWrittenPages() throws IOException {
+        HashMap<PageId, Long> written;
+        synchronized (unsynced) {
+            written = new HashMap<PageId, Long>(unsynced);
+        }
+        HashSet<Integer> tables = new HashSet<Integer>();
+        for (PageId pid : written.keySet())
+            tables.add(pid.getTableId());
+        for (int tableId : tables) {
+            DbFile file;
+            try {
+                file = Database.getCatalog().getDatabaseFile(tableId);
+            } catch (NoSuchElementException e) {
+                continue; // no longer in the catalog
+            }
+            if (file instanceof HeapFile)
+                ((HeapFile) file).force();
+            else if (file instanceof BTreeFile)
+                ((BTreeFile) file).force();
+            else if (file instanceof HashFile)
+                ((HashFile) file).force();
+            else if (file instanceof PaxFile)
+                ((PaxFile) file).force();
+        }
+        synchronized (unsynced) {
+            for (Map.Entry<PageId, Long> e : written.entrySet())
+                if (e.getValue().equals(unsynced.get(e.getKey())))
+                    unsynced.remove(e.getKey());
+        }
+    }
+
+    /**
+     * @return the dirty page table: the pages with logged changes that may
+     *   not be on disk yet, mapped to the LSN of the first such change.
+     *   Called holding the log, nothing can be logged while it is put
+     *   together.
+     */
+    public Map<PageId, Long> getDirtyPageTable() {
+        HashMap<PageId, Long> dpt;
+        synchronized (unsynced) {
+            dpt = new HashMap<PageId, Long>(unsynced);
+        }
+        for (Map.Entry<PageId, Frame> e : frames.entrySet()) {
+            long recLsn = e.getValue().recLsn;
+            Long old = dpt.get(e.getKey());
+            if (recLsn != 0 && (old == null || recLsn < old))
+                dpt.put(e.getKey(), recLsn);
+        }
+        return dpt;
+    }
+
+    /**
+     * Write out up to max of the pages that have been dirty the longest,
+     * on behalf of the {@link PageCleaner}.
+     *
+     * @param minAgeNanos how long a page has to have been dirty
+     * @return the number of pages written
+     */
+    int cleanPages(int max, long minAgeNanos) throws IOException {
+        long now = System.nanoTime();
+        final HashMap<PageId, Long> since = new HashMap<PageId, Long>();
+        for (Map.Entry<PageId, Frame> e : frames.entrySet()) {
+            long t = e.getValue().dirtySince;
+            if (t != 0 && now - t >= minAgeNanos)
+                since.put(e.getKey(), t);
+        }
+        if (since.isEmpty())
+            return 0;
+        ArrayList<PageId> pids = new ArrayList<PageId>(since.keySet());
+        Collections.sort(pids, new Comparator<PageId>() {
+            public int compare(PageId a, PageId b) {
+                return since.get(a).compareTo(since.get(b));
+            }
+        });
+        if (pids.size() > max)
+            pids.subList(max, pids.size()).clear();
+        return flush(pids, null);
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Clean pages are preferred, as nothing has to be written for them; if
+     * there are none, a dirty page is logged and written out (STEAL). The
+     * page to throw out is chosen by the pool's {@link ReplacementPolicy}.
+     *
+     * @throws DbException if no page could be evicted, or a dirty page
+     *   could not be written out
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-    	boolean evicted = false;
-        Page page;
-        for (PageId i : PageId_to_Page.keySet())
-        {
-        	//search for the page
-            page = PageId_to_Page.get(i);
-            try
-            {
-            	//flush to disk
-                flushPage(i);
-                //remove the page from buffer
-                PageId_to_Page.remove(i);
-                evicted = true;
-                break;
+        if (evictOne(evictable, false) || evictOne(stealable, true))
+            return;
+        if (reserved.get() < numPages)
+            return; // somebody else made room meanwhile
+        // loads and most pins only last for the length of a getPage call, so
+        // if any page is still loading or could be stolen, a victim turns up
+        // shortly
+        for (Map.Entry<PageId, Frame> e : frames.entrySet()) {
+            if (!e.getValue().isLoaded() || stealable.canEvict(e.getKey())) {
+                Thread.yield();
+                return;
             }
-            catch (IOException e) 
-            { 
-            	throw new RuntimeException();
+        }
+        throw new DbException("Error: Cannot evict page, all pages are in use");
+    }
+
+    /** Evict one page the given predicate accepts. */
+    private boolean evictOne(ReplacementPolicy.Evictable which, boolean steal)
+            throws DbException {
+        // bounded, so a victim that keeps getting pinned between being
+        // chosen and being claimed cannot keep us here forever; the caller
+        // retries
+        for (int attempt = 0; attempt <= numPages; attempt++) {
+            PageId victim = ringVictim(which);
+            if (victim == null)
+                victim = policy.chooseVictim(which);
+            if (victim == null)
+                return false;
+            Frame f = frames.get(victim);
+            if (f == null) {
+                policy.pageRemoved(victim); // stale entry
+                continue;
+            }
+            try {
+                if (steal ? trySteal(victim, f) : tryEvict(victim, f)) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+            } catch (IOException e) {
+                // the policy would pick the same page again, and the caller
+                // would retry forever
+                throw new DbException("Error: Cannot evict page, writing out " + victim
+                        + " failed: " + e.getMessage());
             }
         }
-        if (!evicted) {
-            throw new DbException("Error: Cannot evict page");
+        return false;
+    }
+
+    /**
+     * Any ring page the given predicate accepts: one its ring could not
+     * recycle when it came round, one of a scan that was never closed, or
+     * one that was pinned when its ring recycled it and has been dirtied
+     * since, which only the steal pass takes. Those go before the pages the
+     * replacement policy knows about.
+     */
+    private PageId ringVictim(ReplacementPolicy.Evictable which) {
+        for (PageId pid : ringOwner.keySet()) {
+            if (frames.containsKey(pid) && which.canEvict(pid))
+                return pid;
         }
+        return null;
     }
 }
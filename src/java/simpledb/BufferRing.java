@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A BufferRing is a small, private set of BufferPool frames that a large
+ * sequential scan cycles through instead of competing for the whole pool.
+ * Once the ring is full, every page the scan reads replaces the page the
+ * scan read ring-size pages ago, so the scan never occupies more than
+ * ring-size frames and the rest of the pool keeps its working set.
+ * <p>
+ * Rings are handed out by {@link BufferPool#newScanRing} and must be given
+ * back with {@link BufferPool#releaseRing} when the scan is done.
+ */
+public class BufferRing {
+
+    private final PageId[] slots;
+    private int next = 0;
+
+    /**
+     * @param size the number of frames in the ring
+     */
+    BufferRing(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("ring needs at least one frame");
+        slots = new PageId[size];
+    }
+
+    /** @return the number of frames in the ring */
+    public int size() {
+        return slots.length;
+    }
+
+    /**
+     * Put a page into the next frame of the ring.
+     *
+     * @return the page that previously occupied that frame, or null
+     */
+    synchronized PageId add(PageId pid) {
+        PageId old = slots[next];
+        slots[next] = pid;
+        next = (next + 1) % slots.length;
+        return old;
+    }
+
+    /**
+     * Forget about a page, e.g. because another transaction started using it
+     * and it now belongs to the shared part of the pool.
+     */
+    synchronized void remove(PageId pid) {
+        for (int i = 0; i < slots.length; i++) {
+            if (pid.equals(slots[i]))
+                slots[i] = null;
+        }
+    }
+
+    /**
+     * Undo one {@link #add} of a page that turned out to be installed by
+     * another thread, which may have added the page to the ring as well.
+     */
+    synchronized void removeOnce(PageId pid) {
+        for (int i = 0; i < slots.length; i++) {
+            if (pid.equals(slots[i])) {
+                slots[i] = null;
+                return;
+            }
+        }
+    }
+
+    /** Empty the ring, returning the pages it held. */
+    synchronized List<PageId> clear() {
+        List<PageId> pages = new ArrayList<PageId>(slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null)
+                pages.add(slots[i]);
+            slots[i] = null;
+        }
+        next = 0;
+        return pages;
+    }
+}
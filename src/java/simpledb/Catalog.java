@@ -6,6 +6,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -37,10 +38,31 @@ public class Catalog {
             }
 
     }
+
+    /**
+     * A secondary index on a field of a table. The index file is a table
+     * of the catalog as well, under the name of the index.
+     */
+    public static class Index
+    {
+            public String name;
+            public IndexFile file;
+
+            public Index(String name, IndexFile file) {
+                    this.name = name;
+                    this.file = file;
+            }
+
+            /** @return the index of the field of the table that is indexed */
+            public int getField() {
+                    return file.getKeyField();
+            }
+    }
     
     Map<String, Integer> nameToId;
     Map<Integer, Table> idToTable;
     List<Integer> ids;
+    Map<Integer, List<Index>> tableToIndexes;
 
     /**
      * Constructor.
@@ -51,6 +73,7 @@ public class Catalog {
         idToTable = new ConcurrentHashMap<Integer, Table>();
         nameToId = new ConcurrentHashMap<String, Integer>();
         ids = new ArrayList<Integer>();
+        tableToIndexes = new ConcurrentHashMap<Integer, List<Index>>();
     }
 
    /**
@@ -103,6 +126,103 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add a secondary index on a table that is in the catalog already. The
+     * index is filled with entries for the tuples the table has, in a
+     * transaction of its own, and from then on the BufferPool keeps it up
+     * to date as tuples are inserted into and deleted from the table.
+     * <p>
+     * The index is added as a table too, under the given name, so that its
+     * pages can be read through the BufferPool.
+     *
+     * @param index the index, which must be empty
+     * @param name the name of the index
+     * @throws DbException if the indexed table is not a heap table
+     * @throws NoSuchElementException if the indexed table doesn't exist
+     */
+    public void addIndex(IndexFile index, String name)
+        throws DbException, TransactionAbortedException, IOException {
+        int tableId = index.getIndexedTableId();
+        DbFile table = getDatabaseFile(tableId);
+        // IndexScan fetches the tuples from heap pages
+        if (!(table instanceof HeapFile))
+            throw new DbException("table " + getTableName(tableId) + " is not a heap file");
+        addTable(index, name);
+
+        Transaction t = new Transaction();
+        t.start();
+        boolean done = false;
+        try {
+            DbFileIterator it = table.iterator(t.getId());
+            it.open();
+            while (it.hasNext()) {
+                Tuple tup = it.next();
+                ArrayList<Page> pages = index.insertEntry(t.getId(),
+                        tup.getField(index.getKeyField()), tup.getRecordId());
+                for (Page p : pages)
+                    p.markDirty(true, t.getId());
+            }
+            it.close();
+            done = true;
+        } finally {
+            if (done) {
+                t.commit();
+            } else {
+                t.abort();
+                idToTable.remove(index.getId());
+                nameToId.remove(name);
+                ids.remove((Integer) index.getId());
+            }
+        }
+
+        List<Index> indexes = tableToIndexes.get(tableId);
+        if (indexes == null)
+            indexes = new CopyOnWriteArrayList<Index>();
+        indexes.add(new Index(name, index));
+        tableToIndexes.put(tableId, indexes);
+    }
+
+    /**
+     * Add a hash index on the primary key of a heap table (see
+     * {@link #getPrimaryKey}), for the equality lookups on it. The index is
+     * stored next to the table, in a file named after the table and the
+     * key, which is rebuilt if it exists, and is added with
+     * {@link #addIndex} under the same name.
+     *
+     * @return the index
+     * @throws DbException if the table is not a heap table or has no
+     *   primary key
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public HashFile addPrimaryKeyIndex(int tableid)
+        throws DbException, TransactionAbortedException, IOException {
+        DbFile table = getDatabaseFile(tableid);
+        String pkey = getPrimaryKey(tableid);
+        if (!(table instanceof HeapFile))
+            throw new DbException("table " + getTableName(tableid) + " is not a heap file");
+        if (pkey == null || pkey.length() == 0)
+            throw new DbException("table " + getTableName(tableid) + " has no primary key");
+        TupleDesc td = table.getTupleDesc();
+        int field = td.fieldNameToIndex(pkey);
+        String name = getTableName(tableid) + "_" + pkey;
+        File f = new File(((HeapFile) table).getFile().getAbsoluteFile().getParentFile(),
+                          name + ".hash");
+        f.delete();
+        HashFile index = new HashFile(f, tableid, field, td.getFieldType(field));
+        addIndex(index, name);
+        return index;
+    }
+
+    /**
+     * @return the secondary indexes on a table, an empty list if it has none
+     */
+    public List<Index> getIndexes(int tableid) {
+        List<Index> indexes = tableToIndexes.get(tableid);
+        if (indexes == null)
+            return Collections.emptyList();
+        return indexes;
+    }
+
     /**
      * Return the id of the table with a specified name,
      * @throws NoSuchElementException if the table doesn't exist
@@ -185,10 +305,13 @@ public class Catalog {
         nameToId.clear();
         idToTable.clear();
         ids.clear();
+        tableToIndexes.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A table is a heap file unless its line ends with "pax" after the
+     * field list, in which case it is a {@link PaxFile}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -202,6 +325,11 @@ public class Catalog {
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String format = line.substring(line.indexOf(")") + 1).trim();
+                if (format.length() > 0 && !format.toLowerCase().equals("pax")) {
+                    System.out.println("Unknown table format " + format);
+                    System.exit(0);
+                }
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
@@ -229,7 +357,8 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dat = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf = format.length() > 0 ? new PaxFile(dat, t) : new HeapFile(dat, t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
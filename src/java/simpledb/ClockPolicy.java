@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CLOCK (second chance) replacement. Frames sit on a circular list with a
+ * reference bit each; a hit only sets the bit, and the clock hand clears bits
+ * as it sweeps until it finds a frame whose bit is already clear.
+ * <p>
+ * The bits are volatile and set without a lock, so hits never wait for each
+ * other or for a sweep; loads, removals and sweeps lock the clock.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        final int index;
+        volatile boolean referenced = true;
+
+        Frame(PageId pid, int index) {
+            this.pid = pid;
+            this.index = index;
+        }
+    }
+
+    // the clock; a free slot is null
+    private final ArrayList<Frame> frames;
+    private final ConcurrentHashMap<PageId, Frame> frameOf = new ConcurrentHashMap<PageId, Frame>();
+    private final LinkedList<Integer> freeFrames = new LinkedList<Integer>();
+    private int hand = 0;
+
+    /**
+     * @param numPages the expected number of frames; the clock grows past
+     *   this if more pages are loaded
+     */
+    public ClockPolicy(int numPages) {
+        frames = new ArrayList<Frame>(numPages);
+    }
+
+    public void pageHit(PageId pid) {
+        Frame frame = frameOf.get(pid);
+        if (frame != null)
+            frame.referenced = true;
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            pageHit(pid);
+            return;
+        }
+        Frame frame;
+        if (freeFrames.isEmpty()) {
+            frame = new Frame(pid, frames.size());
+            frames.add(frame);
+        } else {
+            frame = new Frame(pid, freeFrames.removeFirst());
+            frames.set(frame.index, frame);
+        }
+        frameOf.put(pid, frame);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Frame frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames.set(frame.index, null);
+            freeFrames.add(frame.index);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable filter) {
+        int n = frames.size();
+        // two full sweeps: the first may only clear reference bits
+        for (int step = 0; step < 2 * n; step++) {
+            Frame frame = frames.get(hand);
+            hand = (hand + 1) % n;
+            if (frame == null)
+                continue;
+            if (frame.referenced) {
+                frame.referenced = false;
+                continue;
+            }
+            if (filter.canEvict(frame.pid))
+                return frame.pid;
+        }
+        return null;
+    }
+
+    public int size() {
+        return frameOf.size();
+    }
+}
@@ -20,10 +20,19 @@ public class Database {
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
+    private final ReplacementPolicy.Kind _policyKind;
 
     private Database() {
+        this(ReplacementPolicy.Kind.getDefault());
+    }
+
+    /**
+     * @param policyKind the replacement policy the buffer pool evicts pages with
+     */
+    private Database(ReplacementPolicy.Kind policyKind) {
         _catalog = new Catalog();
-        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _policyKind = policyKind;
+        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES, policyKind);
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -55,11 +64,19 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, _instance.get()._policyKind);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind policyKind) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, policyKind));
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -78,4 +95,9 @@ public class Database {
         _instance.set(new Database());
     }
 
+    // reset the database with a specific buffer pool replacement policy
+    public static void reset(ReplacementPolicy.Kind policyKind) {
+        _instance.set(new Database(policyKind));
+    }
+
 }
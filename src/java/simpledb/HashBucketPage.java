@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * A bucket page of a HashFile. After the kind and LSN, a bucket page holds
+ * the page number of the next, overflow, page of the bucket (0 for the
+ * last), the number of entries, and the entries in no particular order.
+ * The entries are those of a BTreeFile: a key, and the page number and
+ * slot of the tuple that has it.
+ * <p>
+ * A free bucket page has no entries, and its next pointer links the free
+ * list.
+ */
+public class HashBucketPage extends HashPage {
+
+    private final Type keyType;
+    private final ArrayList<IndexEntry> entries = new ArrayList<IndexEntry>();
+    private int next;
+
+    /**
+     * Create a bucket page from the bytes read from disk. The key type is
+     * that of the index, as registered in the catalog.
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(0));
+    }
+
+    /**
+     * Create a bucket page from the bytes read from disk.
+     *
+     * @param keyType the type of the keys of the index
+     */
+    public HashBucketPage(HashPageId id, byte[] data, Type keyType) throws IOException {
+        super(id, data);
+        this.keyType = keyType;
+        DataInputStream dis = body(data);
+        next = dis.readInt();
+        int n = dis.readInt();
+        for (int i = 0; i < n; i++)
+            entries.add(IndexEntry.parse(dis, keyType));
+        setBeforeImage();
+    }
+
+    public static byte[] createEmptyPageData() {
+        return createEmptyPageData(BUCKET);
+    }
+
+    /** @return how many entries with keys of type keyType fit on a page */
+    public static int maxEntries(Type keyType) {
+        int room = BufferPool.getPageSize() - PREFIX_SIZE - 2 * Type.INT_TYPE.getLen();
+        return room / IndexEntry.size(keyType);
+    }
+
+    public int getKind() {
+        return BUCKET;
+    }
+
+    synchronized void writeBody(DataOutputStream dos) throws IOException {
+        dos.writeInt(next);
+        dos.writeInt(entries.size());
+        for (IndexEntry e : entries)
+            e.serialize(dos);
+    }
+
+    HashPage copy(byte[] data) throws IOException {
+        return new HashBucketPage(pid, data, keyType);
+    }
+
+    /** @return the page number of the next page of the bucket, 0 if none */
+    public synchronized int getNext() {
+        return next;
+    }
+
+    synchronized void setNext(int next) {
+        this.next = next;
+    }
+
+    public synchronized int getNumEntries() {
+        return entries.size();
+    }
+
+    public boolean isFull() {
+        return getNumEntries() >= maxEntries(keyType);
+    }
+
+    synchronized boolean contains(IndexEntry e) {
+        return entries.contains(e);
+    }
+
+    /** @return a copy of the entries of this page */
+    synchronized ArrayList<IndexEntry> getEntries() {
+        return new ArrayList<IndexEntry>(entries);
+    }
+
+    /**
+     * Add an entry.
+     *
+     * @throws DbException if the page is full
+     */
+    synchronized void insert(IndexEntry e) throws DbException {
+        if (entries.size() >= maxEntries(keyType))
+            throw new DbException("bucket page " + pid + " is full");
+        entries.add(e);
+    }
+
+    /** @return false if the page does not have the entry */
+    synchronized boolean remove(IndexEntry e) {
+        return entries.remove(e);
+    }
+
+    /** Remove all the entries, returning them. */
+    synchronized ArrayList<IndexEntry> clear() {
+        ArrayList<IndexEntry> removed = new ArrayList<IndexEntry>(entries);
+        entries.clear();
+        return removed;
+    }
+}
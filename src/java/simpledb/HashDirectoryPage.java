@@ -0,0 +1,58 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A directory page of a HashFile: after the kind and LSN, the page numbers
+ * of the first pages of {@link #capacity} consecutive buckets, 0 for a
+ * bucket that does not exist yet. The i-th directory page covers buckets
+ * i * capacity() to (i + 1) * capacity() - 1, so the directory grows by a
+ * page at a time as buckets are split, and never has to be rebuilt.
+ */
+public class HashDirectoryPage extends HashPage {
+
+    private final int[] buckets;
+
+    /**
+     * Create a directory page from the bytes read from disk.
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+        super(id, data);
+        DataInputStream dis = body(data);
+        buckets = new int[capacity()];
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = dis.readInt();
+        setBeforeImage();
+    }
+
+    public static byte[] createEmptyPageData() {
+        return createEmptyPageData(DIRECTORY);
+    }
+
+    /** @return how many buckets a directory page covers */
+    public static int capacity() {
+        return (BufferPool.getPageSize() - PREFIX_SIZE) / Type.INT_TYPE.getLen();
+    }
+
+    public int getKind() {
+        return DIRECTORY;
+    }
+
+    synchronized void writeBody(DataOutputStream dos) throws IOException {
+        for (int pageNo : buckets)
+            dos.writeInt(pageNo);
+    }
+
+    HashPage copy(byte[] data) throws IOException {
+        return new HashDirectoryPage(pid, data);
+    }
+
+    /** @return the first page of the i-th bucket this page covers */
+    public synchronized int getBucketPage(int i) {
+        return buckets[i];
+    }
+
+    synchronized void setBucketPage(int i, int pageNo) {
+        buckets[i] = pageNo;
+    }
+}
@@ -0,0 +1,373 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is a linear hashing secondary index on one field of a heap
+ * table, for equality lookups such as those on a primary key (see
+ * {@link Catalog#getPrimaryKey}). Like a {@link BTreeFile}, it is a DbFile
+ * of its own whose pages are read and changed through the BufferPool,
+ * locked, logged and recovered like those of any other table.
+ * <p>
+ * Page 0 is a {@link HashHeaderPage}; it points to the
+ * {@link HashDirectoryPage}s, which map bucket numbers to the first
+ * {@link HashBucketPage} of each bucket. A bucket is a chain of bucket
+ * pages, which is more than one page long only while it has overflowed.
+ * An equality lookup reads the header and a directory page, which are
+ * shared by all lookups and so stay in the BufferPool, and the pages of
+ * one bucket.
+ * <p>
+ * The file grows a bucket at a time: whenever an insert has to put an
+ * entry on an overflow page of a bucket, the next bucket in turn is split
+ * in two, its entries divided between it and a new bucket at the end by
+ * one more bit of their hash. So no insert rehashes more than one bucket,
+ * and the directory grows by a page every
+ * {@link HashDirectoryPage#capacity} buckets. Deletes do not merge
+ * buckets; bucket pages freed when a bucket shrinks go on a free list in
+ * the header and are reused first.
+ * <p>
+ * Any insert may split a bucket and any delete may free a page, both of
+ * which change the header, so inserts and deletes lock the header
+ * exclusively from the start. Were they to read it under a shared lock
+ * and upgrade later, two of them would each wait for the other's shared
+ * lock to go. Lookups lock it shared, so a transaction that changes the
+ * index has it to itself until it completes.
+ *
+ * @see IndexFile
+ */
+public class HashFile extends AbstractIndexFile<HashPage, HashHeaderPage> {
+
+    /**
+     * Open an index, creating an empty one, with one bucket, if the file is
+     * empty or does not exist.
+     *
+     * @param f the file that stores the index
+     * @param tableId the id of the heap table that is indexed
+     * @param keyField the index of the field of that table that is the key
+     * @param keyType the type of that field
+     */
+    public HashFile(File f, int tableId, int keyField, Type keyType) {
+        super(f, tableId, keyField, keyType, HashPage.class, HashHeaderPage.class);
+    }
+
+    /** Write a header, a directory page and the first bucket. */
+    void createEmpty() throws IOException {
+        HashPageId hid = new HashPageId(getId(), 0);
+        HashHeaderPage header = new HashHeaderPage(hid, HashHeaderPage.createEmptyPageData());
+        header.addDirectoryPage(1);
+        HashDirectoryPage dir = new HashDirectoryPage(new HashPageId(getId(), 1),
+                                                      HashDirectoryPage.createEmptyPageData());
+        dir.setBucketPage(0, 2);
+        io.write(0, header.getPageData());
+        io.write(1, dir.getPageData());
+        io.write(2, HashBucketPage.createEmptyPageData());
+    }
+
+    PageId pageId(int pageNo) {
+        return new HashPageId(getId(), pageNo);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            byte[] data = io.read(pid.pageNumber());
+            return HashPage.create(new HashPageId(pid.getTableId(), pid.pageNumber()), data, keyType);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return a hash index can only find the entries for EQUALS */
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /**
+     * A lookup reads a directory page and the pages of one bucket, as many
+     * as the matching entries fill. The header is not counted, as every
+     * lookup reads it.
+     */
+    public double estimateLookupPages(int numEntries, int matches) {
+        return 1 + Math.max(1, Math.ceil((double) matches / HashBucketPage.maxEntries(keyType)));
+    }
+
+    /**
+     * @return the number of buckets, as seen by the given transaction
+     */
+    public int numBuckets(TransactionId tid) throws DbException, TransactionAbortedException {
+        Operation op = new Operation(tid);
+        try {
+            return op.header(Permissions.READ_ONLY).getNumBuckets();
+        } finally {
+            op.done();
+        }
+    }
+
+    /**
+     * @return a hash of the key that spreads keys differing in their high
+     *   bits, such as multiples of a power of two, over the low bits the
+     *   buckets are chosen by
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h & 0x7fffffff;
+    }
+
+    /** @return the bucket a key belongs in, given the state in the header */
+    private static int bucket(HashHeaderPage header, Field key) {
+        int h = hash(key);
+        int b = h & ((1 << header.getLevel()) - 1);
+        if (b < header.getNext())
+            b = h & ((1 << (header.getLevel() + 1)) - 1);
+        return b;
+    }
+
+    /** @return the page number of the first page of bucket b */
+    private int firstPage(Operation op, HashHeaderPage header, int b)
+        throws DbException, TransactionAbortedException {
+        int per = HashDirectoryPage.capacity();
+        HashDirectoryPage dir = (HashDirectoryPage) op.page(header.getDirectoryPage(b / per),
+                                                            Permissions.READ_ONLY);
+        return dir.getBucketPage(b % per);
+    }
+
+    private HashBucketPage allocBucketPage(Operation op)
+        throws DbException, IOException, TransactionAbortedException {
+        HashHeaderPage header = op.header(Permissions.READ_WRITE);
+        HashBucketPage page;
+        if (header.getFreeBucket() != 0) {
+            page = (HashBucketPage) op.page(header.getFreeBucket(), Permissions.READ_WRITE);
+            header.setFreeBucket(page.getNext());
+            page.setNext(0);
+            op.dirty(header);
+        } else {
+            int pageNo = appendPage(HashBucketPage.createEmptyPageData());
+            page = (HashBucketPage) op.page(pageNo, Permissions.READ_WRITE);
+        }
+        op.dirty(page);
+        return page;
+    }
+
+    private void freeBucketPage(Operation op, HashBucketPage page)
+        throws DbException, TransactionAbortedException {
+        HashHeaderPage header = op.header(Permissions.READ_WRITE);
+        page.clear();
+        page.setNext(header.getFreeBucket());
+        header.setFreeBucket(page.getId().pageNumber());
+        op.dirty(header);
+        op.dirty(page);
+    }
+
+    /**
+     * Add an entry to the bucket whose first page is given, on the first
+     * page with room, adding an overflow page if they are all full.
+     *
+     * @param unique whether to check that the bucket does not have e
+     * @return true if e went on an overflow page
+     */
+    private boolean addToBucket(Operation op, int firstPage, IndexEntry e, boolean unique)
+        throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage page = (HashBucketPage) op.page(firstPage, Permissions.READ_WRITE);
+        HashBucketPage room = null;
+        while (true) {
+            if (unique && page.contains(e))
+                throw new DbException("entry " + e + " is already in the index");
+            if (room == null && !page.isFull())
+                room = page;
+            if (page.getNext() == 0 || (room != null && !unique))
+                break;
+            page = (HashBucketPage) op.page(page.getNext(), Permissions.READ_WRITE);
+        }
+        if (room == null) {
+            room = allocBucketPage(op);
+            page.setNext(room.getId().pageNumber());
+            op.dirty(page);
+        }
+        room.insert(e);
+        op.dirty(room);
+        return room.getId().pageNumber() != firstPage;
+    }
+
+    // see IndexFile.java for javadocs
+    public ArrayList<Page> insertEntry(TransactionId tid, Field key, RecordId rid)
+        throws DbException, IOException, TransactionAbortedException {
+        IndexEntry e = entry(key, rid);
+        Operation op = new Operation(tid);
+        try {
+            HashHeaderPage header = op.header(Permissions.READ_WRITE);
+            if (addToBucket(op, firstPage(op, header, bucket(header, key)), e, true))
+                split(op);
+            return op.dirtied;
+        } finally {
+            op.done();
+        }
+    }
+
+    /**
+     * Split the next bucket in turn, moving the entries whose hash has the
+     * next bit set to a new bucket at the end. Nothing happens if the
+     * directory cannot grow any more; the buckets just get longer.
+     */
+    private void split(Operation op)
+        throws DbException, IOException, TransactionAbortedException {
+        HashHeaderPage header = op.header(Permissions.READ_WRITE);
+        int per = HashDirectoryPage.capacity();
+        int old = header.getNext();
+        int created = header.getNumBuckets();
+        HashDirectoryPage dir;
+        if (created / per < header.getNumDirectoryPages()) {
+            dir = (HashDirectoryPage) op.page(header.getDirectoryPage(created / per),
+                                              Permissions.READ_WRITE);
+        } else if (header.getNumDirectoryPages() < HashHeaderPage.maxDirectoryPages()) {
+            int pageNo = appendPage(HashDirectoryPage.createEmptyPageData());
+            header.addDirectoryPage(pageNo);
+            dir = (HashDirectoryPage) op.page(pageNo, Permissions.READ_WRITE);
+        } else {
+            return;
+        }
+        HashBucketPage first = allocBucketPage(op);
+        dir.setBucketPage(created % per, first.getId().pageNumber());
+        op.dirty(dir);
+        op.dirty(header);
+
+        // empty the bucket being split, keeping its first page
+        int oldFirst = firstPage(op, header, old);
+        HashBucketPage page = (HashBucketPage) op.page(oldFirst, Permissions.READ_WRITE);
+        ArrayList<IndexEntry> entries = page.clear();
+        int overflow = page.getNext();
+        page.setNext(0);
+        op.dirty(page);
+        while (overflow != 0) {
+            HashBucketPage p = (HashBucketPage) op.page(overflow, Permissions.READ_WRITE);
+            entries.addAll(p.clear());
+            overflow = p.getNext();
+            freeBucketPage(op, p);
+        }
+
+        header.advance();
+        int newFirst = first.getId().pageNumber();
+        for (IndexEntry e : entries)
+            addToBucket(op, bucket(header, e.key) == old ? oldFirst : newFirst, e, false);
+    }
+
+    // see IndexFile.java for javadocs
+    public ArrayList<Page> deleteEntry(TransactionId tid, Field key, RecordId rid)
+        throws DbException, IOException, TransactionAbortedException {
+        IndexEntry e = entry(key, rid);
+        Operation op = new Operation(tid);
+        try {
+            HashHeaderPage header = op.header(Permissions.READ_WRITE);
+            HashBucketPage prev = null;
+            int first = firstPage(op, header, bucket(header, key));
+            HashBucketPage page = (HashBucketPage) op.page(first, Permissions.READ_WRITE);
+            while (!page.remove(e)) {
+                if (page.getNext() == 0)
+                    throw new DbException("entry " + e + " is not in the index");
+                prev = page;
+                page = (HashBucketPage) op.page(page.getNext(), Permissions.READ_WRITE);
+            }
+            op.dirty(page);
+            if (prev != null && page.getNumEntries() == 0) {
+                // an overflow page that is empty now leaves the bucket
+                prev.setNext(page.getNext());
+                op.dirty(prev);
+                freeBucketPage(op, page);
+            }
+            return op.dirtied;
+        } finally {
+            op.done();
+        }
+    }
+
+    /** @return an iterator over all the entries, bucket by bucket */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(tid, null, null);
+    }
+
+    // see IndexFile.java for javadocs
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key) {
+        return new HashFileIterator(tid, op, key);
+    }
+
+    /**
+     * Iterates over the entries of the bucket a key is in for EQUALS, or of
+     * every bucket otherwise.
+     */
+    private class HashFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field key;
+        private Iterator<Integer> buckets;
+        private Iterator<IndexEntry> entries;
+        private int nextPage;
+
+        /** @param op how entries compare to key, null for all entries */
+        HashFileIterator(TransactionId tid, Predicate.Op op, Field key) {
+            this.tid = tid;
+            this.op = op;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            entries = null;
+            nextPage = 0;
+            ArrayList<Integer> firstPages = new ArrayList<Integer>();
+            Operation lookup = new Operation(tid);
+            try {
+                HashHeaderPage header = lookup.header(Permissions.READ_ONLY);
+                if (op == Predicate.Op.EQUALS) {
+                    firstPages.add(firstPage(lookup, header, bucket(header, key)));
+                } else {
+                    for (int b = 0; b < header.getNumBuckets(); b++)
+                        firstPages.add(firstPage(lookup, header, b));
+                }
+            } finally {
+                lookup.done();
+            }
+            buckets = firstPages.iterator();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (buckets == null)
+                return null;
+            while (true) {
+                while (entries != null && entries.hasNext()) {
+                    IndexEntry e = entries.next();
+                    if (op == null || e.key.compare(op, key)) {
+                        Tuple t = new Tuple(td);
+                        t.setField(0, e.key);
+                        t.setField(1, new IntField(e.pageNo));
+                        t.setField(2, new IntField(e.slot));
+                        return t;
+                    }
+                }
+                if (nextPage == 0) {
+                    if (!buckets.hasNext())
+                        return null;
+                    nextPage = buckets.next();
+                }
+                HashBucketPage page = (HashBucketPage) Database.getBufferPool().getPage(tid,
+                        new HashPageId(getId(), nextPage), Permissions.READ_ONLY);
+                // a copy, so the transaction may change the page meanwhile
+                entries = page.getEntries().iterator();
+                nextPage = page.getNext();
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            buckets = null;
+            entries = null;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * The first page of a HashFile. It holds the state of the linear hashing:
+ * the level, so that the file has between 2^level and 2^(level+1) buckets,
+ * and the next bucket to split; the head of the list of free bucket pages,
+ * 0 when it is empty; and the page numbers of the directory pages, in
+ * order. Page 0 is the header itself, so 0 is never the number of any
+ * other page.
+ */
+public class HashHeaderPage extends HashPage {
+
+    private int level;
+    private int next;
+    private int freeBucket;
+    private final ArrayList<Integer> directory = new ArrayList<Integer>();
+
+    /**
+     * Create a header page from the bytes read from disk.
+     */
+    public HashHeaderPage(HashPageId id, byte[] data) throws IOException {
+        super(id, data);
+        DataInputStream dis = body(data);
+        level = dis.readInt();
+        next = dis.readInt();
+        freeBucket = dis.readInt();
+        int n = dis.readInt();
+        for (int i = 0; i < n; i++)
+            directory.add(dis.readInt());
+        setBeforeImage();
+    }
+
+    public static byte[] createEmptyPageData() {
+        return createEmptyPageData(HEADER);
+    }
+
+    /** @return how many directory pages the header can point to */
+    public static int maxDirectoryPages() {
+        return (BufferPool.getPageSize() - PREFIX_SIZE - 4 * Type.INT_TYPE.getLen())
+            / Type.INT_TYPE.getLen();
+    }
+
+    public int getKind() {
+        return HEADER;
+    }
+
+    synchronized void writeBody(DataOutputStream dos) throws IOException {
+        dos.writeInt(level);
+        dos.writeInt(next);
+        dos.writeInt(freeBucket);
+        dos.writeInt(directory.size());
+        for (int pageNo : directory)
+            dos.writeInt(pageNo);
+    }
+
+    HashPage copy(byte[] data) throws IOException {
+        return new HashHeaderPage(pid, data);
+    }
+
+    public synchronized int getLevel() {
+        return level;
+    }
+
+    /** @return the next bucket to split */
+    public synchronized int getNext() {
+        return next;
+    }
+
+    /** @return the number of buckets, 2^level + next */
+    public synchronized int getNumBuckets() {
+        return (1 << level) + next;
+    }
+
+    /** Count a split of the next bucket, starting a new level after the last. */
+    synchronized void advance() {
+        next++;
+        if (next == 1 << level) {
+            level++;
+            next = 0;
+        }
+    }
+
+    /** @return the first free bucket page, 0 if there is none */
+    synchronized int getFreeBucket() {
+        return freeBucket;
+    }
+
+    synchronized void setFreeBucket(int pageNo) {
+        freeBucket = pageNo;
+    }
+
+    /** @return the number of directory pages */
+    public synchronized int getNumDirectoryPages() {
+        return directory.size();
+    }
+
+    /** @return the page number of the i-th directory page */
+    synchronized int getDirectoryPage(int i) {
+        return directory.get(i);
+    }
+
+    synchronized void addDirectoryPage(int pageNo) {
+        directory.add(pageNo);
+    }
+}
@@ -0,0 +1,569 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * HashJoin is an equi-join: it joins tuples whose join fields are equal
+ * (the predicate's operator must be {@link Predicate.Op#EQUALS}). It loads
+ * one input, the build side, into a hash table on the join field, and looks
+ * up every tuple of the other input, the probe side, in that table.
+ * <p>
+ * The smaller input is used as the build side. Since operators do not know
+ * how large their inputs are, HashJoin reads both inputs in lock step until
+ * one of them ends or the tuples read take the whole memory budget; if one
+ * ended, it becomes the build side and the tuples already read from the
+ * other one are probed first. Buffered tuples are dropped as they are
+ * probed or partitioned.
+ * <p>
+ * Otherwise the join falls back to a hybrid hash join: both inputs are
+ * split into partitions by a hash of the join field, partition 0 of the
+ * build side stays in memory, next to the probe tuples already read, and
+ * is probed while the probe side is being partitioned, and the other
+ * partitions are spilled to disk
+ * ({@link SpillFile}) and joined pairwise afterwards, each pair again
+ * building on its smaller half. A pair that still does not fit is
+ * partitioned again with a different hash, and if the keys are so skewed
+ * that this does not help, its build half is joined in memory-sized chunks.
+ * <p>
+ * Like {@link Join}, the output tuples are the fields of the tuple from
+ * child1 followed by the fields of the tuple from child2. The order of the
+ * output is not defined.
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the build side, in bytes. */
+    public static final int DEFAULT_MEMORY_BYTES = 4 << 20;
+
+    /**
+     * Rough number of bytes a tuple takes in memory on top of its fields'
+     * on-disk size (the Tuple, its field list and the Field objects).
+     */
+    static final int TUPLE_OVERHEAD = 64;
+
+    /** Number of partitions the inputs are split into when they spill. */
+    static final int FANOUT = 16;
+
+    /** How often a partition pair is split again before chunking it. */
+    static final int MAX_DEPTH = 3;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final int memoryBytes;
+    private TupleDesc td;
+
+    // work left to do: the pass being probed and partition pairs on disk
+    private Pass current;
+    private final LinkedList<Pass> pending = new LinkedList<Pass>();
+    private final ArrayList<SpillFile> spills = new ArrayList<SpillFile>();
+    private Tuple probeTuple;
+    private ArrayList<Tuple> matches;
+    private int matchIdx;
+    private int spilledPairs;
+
+    /**
+     * Constructor with the default memory budget.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * @param memoryBytes
+     *            how much memory the build side may use before the join
+     *            spills to disk
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int memoryBytes) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("HashJoin only supports EQUALS, not " + p.getOperator());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryBytes = memoryBytes;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return how much memory the build side may use before spilling */
+    public int getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of partition pairs that were joined from disk
+     *   since the join was last opened or rewound; 0 if it ran in memory
+     */
+    public int getSpilledPairs() {
+        return spilledPairs;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        super.open();
+        start();
+    }
+
+    public void close() {
+        reset();
+        child1.close();
+        child2.close();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        reset();
+        child1.rewind();
+        child2.rewind();
+        start();
+    }
+
+    /** Drop all state and delete the spill files. */
+    private void reset() {
+        if (current != null)
+            current.close();
+        current = null;
+        pending.clear();
+        for (SpillFile f : spills)
+            f.delete();
+        spills.clear();
+        matches = null;
+        probeTuple = null;
+        spilledPairs = 0;
+    }
+
+    /** @return the join field of a tuple from the given side (0 = child1) */
+    private Field key(Tuple t, int side) {
+        return t.getField(side == 0 ? p.getField1() : p.getField2());
+    }
+
+    private TupleDesc sideDesc(int side) {
+        return side == 0 ? child1.getTupleDesc() : child2.getTupleDesc();
+    }
+
+    /** @return the approximate memory a tuple of the side takes */
+    private int cost(int side) {
+        return sideDesc(side).getSize() + TUPLE_OVERHEAD;
+    }
+
+    private static int partition(Field key, int depth) {
+        int h = key.hashCode() ^ (depth * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h & 0x7fffffff) % FANOUT;
+    }
+
+    /**
+     * Read both inputs until one ends or together they exceed the budget,
+     * and set up the first pass accordingly.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        DbIterator[] in = new DbIterator[] { child1, child2 };
+        List<ArrayDeque<Tuple>> buf = new ArrayList<ArrayDeque<Tuple>>(2);
+        buf.add(new ArrayDeque<Tuple>());
+        buf.add(new ArrayDeque<Tuple>());
+        long[] bytes = new long[2];
+        boolean[] done = new boolean[2];
+
+        int build = -1;
+        while (build < 0) {
+            for (int side = 0; side < 2; side++) {
+                if (done[side])
+                    continue;
+                if (in[side].hasNext()) {
+                    buf.get(side).add(in[side].next());
+                    bytes[side] += cost(side);
+                } else {
+                    done[side] = true;
+                }
+            }
+            if (done[0] && bytes[0] <= memoryBytes)
+                build = 0;
+            else if (done[1] && bytes[1] <= memoryBytes)
+                build = 1;
+            else if (bytes[0] + bytes[1] > memoryBytes)
+                break;
+        }
+
+        if (build >= 0) {
+            HashMap<Field, ArrayList<Tuple>> table = new HashMap<Field, ArrayList<Tuple>>();
+            for (Tuple t : buf.get(build))
+                insert(table, t, build);
+            buf.set(build, null);
+            current = new Pass(build, table,
+                    chain(buf.get(1 - build), in[1 - build], done[1 - build]));
+            return;
+        }
+
+        // neither side fits: build on the one that ended, or else on the one
+        // with the narrower tuples
+        build = done[0] ? 0 : done[1] ? 1 : (cost(0) <= cost(1) ? 0 : 1);
+        try {
+            current = hybridPass(build, chain(buf.get(build), in[build], done[build]),
+                    chain(buf.get(1 - build), in[1 - build], done[1 - build]), bytes[1 - build]);
+        } catch (IOException e) {
+            throw new DbException("hash join could not spill: " + e);
+        }
+    }
+
+    /**
+     * Partition the build input, keeping partition 0 in memory as long as
+     * it fits, and return a pass that probes partition 0 while it
+     * partitions the probe input.
+     *
+     * @param probeBytes the memory the tuples probeIn has buffered take,
+     *   which partition 0 has to leave room for
+     */
+    private Pass hybridPass(final int build, DbFileIterator buildIn, final DbFileIterator probeIn,
+            long probeBytes) throws DbException, TransactionAbortedException, IOException {
+        final SpillFile[] buildParts = new SpillFile[FANOUT];
+        final SpillFile[] probeParts = new SpillFile[FANOUT];
+        HashMap<Field, ArrayList<Tuple>> table = new HashMap<Field, ArrayList<Tuple>>();
+        long residentBytes = probeBytes;
+        boolean resident = true;
+
+        buildIn.open();
+        while (buildIn.hasNext()) {
+            Tuple t = buildIn.next();
+            int part = partition(key(t, build), 0);
+            if (part == 0 && resident) {
+                insert(table, t, build);
+                residentBytes += cost(build);
+                if (residentBytes > memoryBytes) {
+                    // partition 0 does not fit either; it goes to disk too
+                    buildParts[0] = newSpill(build);
+                    for (ArrayList<Tuple> ts : table.values())
+                        buildParts[0].addAll(ts.iterator());
+                    table.clear();
+                    resident = false;
+                }
+            } else {
+                if (buildParts[part] == null)
+                    buildParts[part] = newSpill(build);
+                buildParts[part].add(t);
+            }
+        }
+        buildIn.close();
+
+        final boolean keep = resident;
+        DbFileIterator router = new AbstractDbFileIterator() {
+            private boolean finished = false;
+            // tuples read in this pass over probeIn, and the most read in
+            // any pass; those before the latter are spilled already
+            private long read, routed;
+
+            public void open() throws DbException, TransactionAbortedException {
+                probeIn.open();
+                read = 0;
+            }
+
+            /** Read probeIn again, for partition 0; it is spilled only once. */
+            public void rewind() throws DbException, TransactionAbortedException {
+                probeIn.rewind();
+                read = 0;
+                super.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                try {
+                    while (probeIn.hasNext()) {
+                        Tuple t = probeIn.next();
+                        int part = partition(key(t, 1 - build), 0);
+                        if (part == 0 && keep)
+                            return t;
+                        if (++read <= routed)
+                            continue;
+                        routed = read;
+                        if (buildParts[part] == null)
+                            continue; // nothing on the build side to match
+                        if (probeParts[part] == null)
+                            probeParts[part] = newSpill(1 - build);
+                        probeParts[part].add(t);
+                    }
+                    if (!finished) {
+                        finished = true;
+                        schedule(buildParts, probeParts, build, 1);
+                    }
+                } catch (IOException e) {
+                    throw new DbException("hash join could not spill: " + e);
+                }
+                return null;
+            }
+        };
+        return new Pass(build, table, router);
+    }
+
+    /** Queue the pairs of partitions that both have tuples. */
+    private void schedule(SpillFile[] buildParts, SpillFile[] probeParts, int build, int depth)
+        throws IOException {
+        for (int i = 0; i < FANOUT; i++) {
+            if (buildParts[i] != null)
+                buildParts[i].finish();
+            if (probeParts[i] != null)
+                probeParts[i].finish();
+            if (buildParts[i] != null && probeParts[i] != null) {
+                pending.add(new Pass(build, buildParts[i], probeParts[i], depth));
+            } else {
+                discard(buildParts[i]);
+                discard(probeParts[i]);
+            }
+        }
+    }
+
+    /**
+     * Get a pass over the next partition pair ready for probing, splitting
+     * pairs that are too large on the way.
+     */
+    private Pass nextPass() throws DbException, TransactionAbortedException {
+        try {
+            while (!pending.isEmpty()) {
+                Pass pair = pending.removeFirst();
+                SpillFile b = pair.buildFile, q = pair.probeFile;
+                int build = pair.build;
+                // build on the smaller half
+                if (q.numTuples() * cost(1 - build) < b.numTuples() * cost(build)) {
+                    SpillFile tmp = b;
+                    b = q;
+                    q = tmp;
+                    build = 1 - build;
+                }
+                if (b.numTuples() * cost(build) > memoryBytes && pair.depth < MAX_DEPTH) {
+                    SpillFile[] bParts = split(b, build, pair.depth);
+                    SpillFile[] qParts = split(q, 1 - build, pair.depth);
+                    schedule(bParts, qParts, build, pair.depth + 1);
+                    continue;
+                }
+                spilledPairs++;
+                Pass ready = new Pass(build, b, q, pair.depth);
+                ready.loadChunk();
+                ready.probe.open();
+                return ready;
+            }
+        } catch (IOException e) {
+            throw new DbException("hash join could not spill: " + e);
+        }
+        return null;
+    }
+
+    /** Partition a spill file with the hash for the given depth, and delete it. */
+    private SpillFile[] split(SpillFile f, int side, int depth)
+        throws IOException, DbException, TransactionAbortedException {
+        SpillFile[] parts = new SpillFile[FANOUT];
+        DbFileIterator it = f.iterator();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int part = partition(key(t, side), depth);
+            if (parts[part] == null)
+                parts[part] = newSpill(side);
+            parts[part].add(t);
+        }
+        it.close();
+        discard(f);
+        return parts;
+    }
+
+    private SpillFile newSpill(int side) throws IOException {
+        SpillFile f = new SpillFile(sideDesc(side));
+        spills.add(f);
+        return f;
+    }
+
+    private void discard(SpillFile f) {
+        if (f != null && spills.remove(f))
+            f.delete();
+    }
+
+    private void insert(HashMap<Field, ArrayList<Tuple>> table, Tuple t, int side) {
+        Field k = key(t, side);
+        ArrayList<Tuple> ts = table.get(k);
+        if (ts == null) {
+            ts = new ArrayList<Tuple>(1);
+            table.put(k, ts);
+        }
+        ts.add(t);
+    }
+
+    /**
+     * @param ended whether child has no tuples left after the buffered ones
+     * @return an iterator over the buffered tuples, which it removes as it
+     *   returns them, then the rest of child; once rewound, over child from
+     *   its start, which the buffered tuples were read from
+     */
+    private static DbFileIterator chain(final Queue<Tuple> buffered, final DbIterator child,
+            final boolean ended) {
+        return new AbstractDbFileIterator() {
+            private boolean more = !ended;
+
+            public void open() {
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                buffered.clear();
+                child.rewind();
+                more = true;
+                super.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                Tuple t = buffered.poll();
+                if (t != null)
+                    return t;
+                if (more && child.hasNext())
+                    return child.next();
+                more = false;
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null && matchIdx < matches.size()) {
+                Tuple b = matches.get(matchIdx++);
+                return current.build == 0 ? Tuple.merge(td, b, probeTuple)
+                        : Tuple.merge(td, probeTuple, b);
+            }
+            matches = null;
+            if (current == null) {
+                current = nextPass();
+                if (current == null)
+                    return null;
+            }
+            if (!current.probe.hasNext()) {
+                if (!current.nextChunk()) {
+                    current.close();
+                    current = null;
+                }
+                continue;
+            }
+            probeTuple = current.probe.next();
+            matches = current.table.get(key(probeTuple, 1 - current.build));
+            matchIdx = 0;
+        }
+    }
+
+    /**
+     * One hash table and the input probed against it. Passes over spilled
+     * partitions may load their build half in several chunks, probing the
+     * whole probe half once per chunk.
+     */
+    private class Pass {
+        final int build;
+        HashMap<Field, ArrayList<Tuple>> table;
+        DbFileIterator probe;
+        // for passes over partitions on disk
+        SpillFile buildFile, probeFile;
+        DbFileIterator buildIn;
+        final int depth;
+
+        /** A pass whose table is already built. */
+        Pass(int build, HashMap<Field, ArrayList<Tuple>> table, DbFileIterator probe)
+            throws DbException, TransactionAbortedException {
+            this.build = build;
+            this.table = table;
+            this.probe = probe;
+            this.depth = 0;
+            probe.open();
+        }
+
+        /** A pass over a pair of partitions on disk, not loaded yet. */
+        Pass(int build, SpillFile buildFile, SpillFile probeFile, int depth) {
+            this.build = build;
+            this.buildFile = buildFile;
+            this.probeFile = probeFile;
+            this.depth = depth;
+        }
+
+        /** Load as much of the build half as fits into the table. */
+        boolean loadChunk() throws DbException, TransactionAbortedException {
+            if (buildIn == null) {
+                buildIn = buildFile.iterator();
+                buildIn.open();
+                probe = probeFile.iterator();
+            }
+            if (!buildIn.hasNext())
+                return false;
+            table = new HashMap<Field, ArrayList<Tuple>>();
+            long bytes = 0;
+            while (bytes < memoryBytes && buildIn.hasNext()) {
+                insert(table, buildIn.next(), build);
+                bytes += cost(build);
+            }
+            return true;
+        }
+
+        /** Move on to the next chunk of the build half, if there is one. */
+        boolean nextChunk() throws DbException, TransactionAbortedException {
+            if (buildIn == null || !loadChunk())
+                return false;
+            probe.rewind();
+            return true;
+        }
+
+        void close() {
+            if (probe != null)
+                probe.close();
+            if (buildIn != null)
+                buildIn.close();
+            table = null;
+            discard(buildFile);
+            discard(probeFile);
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
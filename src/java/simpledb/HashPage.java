@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * The pages of a HashFile. As for {@link BTreePage}s, every page starts
+ * with a byte telling what kind of page it is, {@link #HEADER},
+ * {@link #DIRECTORY} or {@link #BUCKET}, followed by the page LSN; the
+ * rest of the page is laid out by the subclass. A page never changes kind,
+ * so it is always read back, and rolled back, as the class it was logged
+ * as.
+ * <p>
+ * Changes to a page and {@link #getPageData} synchronize on the page.
+ *
+ * @see HashFile
+ */
+public abstract class HashPage implements Page {
+
+    /** The kind of the first page of a HashFile. */
+    public static final int HEADER = 1;
+    /** The kind of pages mapping bucket numbers to pages. */
+    public static final int DIRECTORY = 2;
+    /** The kind of pages holding entries. */
+    public static final int BUCKET = 3;
+
+    /** Bytes at the start of every page: the kind and the page LSN. */
+    static final int PREFIX_SIZE = 1 + LogFile.LONG_SIZE;
+
+    protected final HashPageId pid;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private boolean dirty;
+    private TransactionId dirtytid;
+    private volatile long lsn;
+
+    /**
+     * Read the kind and LSN of a page; the subclass reads the rest (see
+     * {@link #body}) and then calls {@link #setBeforeImage}.
+     */
+    HashPage(HashPageId pid, byte[] data) throws IOException {
+        this.pid = pid;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        int kind = dis.readByte();
+        if (kind != getKind())
+            throw new IOException("page " + pid + " is of kind " + kind + ", not " + getKind());
+        this.lsn = dis.readLong();
+    }
+
+    /** @return a stream over the part of data after the kind and LSN */
+    static DataInputStream body(byte[] data) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.skipBytes(PREFIX_SIZE);
+        return dis;
+    }
+
+    /**
+     * Create a page object of the right class for data read from a
+     * HashFile with keys of type keyType.
+     */
+    static HashPage create(HashPageId pid, byte[] data, Type keyType) throws IOException {
+        switch (data[0]) {
+        case HEADER:
+            return new HashHeaderPage(pid, data);
+        case DIRECTORY:
+            return new HashDirectoryPage(pid, data);
+        case BUCKET:
+            return new HashBucketPage(pid, data, keyType);
+        default:
+            throw new IOException("page " + pid + " is not a hash index page");
+        }
+    }
+
+    /** @return an empty page of the given kind, with LSN 0 */
+    static byte[] createEmptyPageData(int kind) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = (byte) kind;
+        return data;
+    }
+
+    /** @return {@link #HEADER}, {@link #DIRECTORY} or {@link #BUCKET} */
+    public abstract int getKind();
+
+    /** Write what comes after the kind and LSN. */
+    abstract void writeBody(DataOutputStream dos) throws IOException;
+
+    /** @return a copy of this page as it was given by data */
+    abstract HashPage copy(byte[] data) throws IOException;
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public synchronized byte[] getPageData() {
+        int len = BufferPool.getPageSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(getKind());
+            dos.writeLong(lsn);
+            writeBody(dos);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] data = new byte[len];
+        System.arraycopy(baos.toByteArray(), 0, data, 0, baos.size());
+        return data;
+    }
+
+    public HashPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        try {
+            return copy(oldDataRef);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtytid = tid;
+    }
+
+    public synchronized TransactionId isDirty() {
+        return dirty ? dirtytid : null;
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+/** Unique identifier for the pages of a HashFile. */
+public class HashPageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific hash index file.
+     *
+     * @param tableId The index file that is being referenced
+     * @param pgNo The page number in that file.
+     */
+    public HashPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return a hash code for this page, the concatenation of the table
+     *   number and the page number, as for HeapPageIds
+     */
+    public int hashCode() {
+        return ((tableId << 16) | pgNo);
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @return true if o is a HashPageId with the same table and page number
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof HashPageId))
+            return false;
+        HashPageId other = (HashPageId) o;
+        return pgNo == other.pgNo && tableId == other.tableId;
+    }
+
+    public String toString() {
+        return "HashPageId(" + tableId + ", " + pgNo + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk: the table and the page number.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pgNo };
+    }
+}
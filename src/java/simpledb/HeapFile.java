@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -9,25 +10,149 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * The HeapPage format has no room for a page LSN, so the LSNs of a file's
+ * pages are kept in a sidecar file next to it, named after it with
+ * {@link #LSN_SUFFIX} appended, holding one long per page, and in memory
+ * once first needed. The sidecar is only created once a page with an LSN
+ * is written; until then every page has LSN 0. A page's LSN goes to the
+ * sidecar only in {@link #force}, after the page itself is on disk, so the
+ * sidecar never claims a change the page does not have. After a crash a
+ * page may be newer than its LSN, and recovery redoes changes it already
+ * has, which sets slots and pages to what they are anyway.
+ * <p>
+ * Inserts find a page with room through a free-space map: a bit per page,
+ * set if the page may have an empty slot. It is a hint, checked against the
+ * page itself before a tuple goes in, so it is not logged. Deletes set the
+ * bit of their page. A bit is only cleared once its page is full on disk:
+ * when a full page is written, or an insert finds a full page that is not
+ * dirty. A page filled by a transaction that aborts is never written, so it
+ * keeps its bit. The map is kept in a second sidecar, named after the file
+ * with {@link #FSM_SUFFIX} appended, holding a byte per page that is written
+ * along with the page, so that it survives restarts. Pages that are not in
+ * the sidecar, such as those of files written by HeapFileEncoder, are
+ * looked at once when the map is first needed.
+ * <p>
+ * A byte of the sidecar is not ordered with its page on disk, so after a
+ * crash a page with room may be marked full. Whenever an insert finds no
+ * page with room, it first looks at the pages marked full since it last
+ * looked (all of them, the first time after the map was read back from the
+ * sidecar) before it adds a page to the file.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
+        /** Appended to the name of a heap file to name its page LSN sidecar. */
+        public static final String LSN_SUFFIX = ".lsn";
+        /** Appended to the name of a heap file to name its free-space map. */
+        public static final String FSM_SUFFIX = ".fsm";
+
         private File f;
         private TupleDesc td;
+        private final PageIO io;
+        private final File lsnFile;
+        private final PageIO lsns;
+        /** the LSN of each page as last written, null until first needed */
+        private long[] pageLsns;
+        /** pages whose LSNs are not in the sidecar yet; guarded by this */
+        private final BitSet lsnsToSync = new BitSet();
+        /** held while forcing, so that LSNs reach the sidecar in order */
+        private final Object forceLock = new Object();
+        private final File fsmFile;
+        private final PageIO fsm;
+        /** pages that may have room, null until first needed */
+        private BitSet free;
+        /** whether the pages marked full were all looked at; guarded by this */
+        private boolean freeChecked;
+        /** pages marked full since they were last looked at; guarded by this */
+        private final BitSet fullSinceCheck = new BitSet();
 
     /**
-     * Constructs a heap file backed by the specified file.
+     * Constructs a heap file backed by the specified file, using the
+     * default page I/O mode (see {@link PageIO.Mode#getDefault}).
      * 
      * @param f
      *            the file that stores the on-disk backing store for this heap
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, PageIO.Mode.getDefault());
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param ioMode how pages are read from and written to f
+     */
+    public HeapFile(File f, TupleDesc td, PageIO.Mode ioMode) {
         // some code goes here
         this.f = f;
         this.td = td;
+        this.io = new PageIO(f, BufferPool.PAGE_SIZE, ioMode);
+        this.lsnFile = new File(f.getPath() + LSN_SUFFIX);
+        this.lsns = new PageIO(lsnFile, LogFile.LONG_SIZE, PageIO.Mode.CHANNEL);
+        this.fsmFile = new File(f.getPath() + FSM_SUFFIX);
+        this.fsm = new PageIO(fsmFile, 1, PageIO.Mode.CHANNEL);
+    }
+
+    /** @return how pages of this file are read and written */
+    public PageIO.Mode getIoMode() {
+        return io.getMode();
+    }
+
+    /**
+     * Switch this table to a different page I/O mode. Pages being read or
+     * written in the old mode are not disturbed.
+     */
+    public void setIoMode(PageIO.Mode ioMode) {
+        io.setMode(ioMode);
+    }
+
+    /** Close the underlying file. It is reopened if the file is used again. */
+    public void close() throws IOException {
+        io.close();
+        lsns.close();
+        fsm.close();
+    }
+
+    /**
+     * Force the pages written so far, and then their LSNs, to disk.
+     */
+    public void force() throws IOException {
+        synchronized (forceLock) {
+            int[] pages;
+            long[] values;
+            synchronized (this) {
+                pages = new int[lsnsToSync.cardinality()];
+                values = new long[pages.length];
+                for (int i = 0, p = lsnsToSync.nextSetBit(0); p >= 0; i++, p = lsnsToSync.nextSetBit(p + 1)) {
+                    pages[i] = p;
+                    values[i] = pageLsns[p];
+                }
+                lsnsToSync.clear();
+            }
+            // the pages go first: these LSNs were recorded after their
+            // pages were written
+            io.force();
+            try {
+                for (int i = 0; i < pages.length; i++)
+                    lsns.write(pages[i], ByteBuffer.allocate(LogFile.LONG_SIZE).putLong(values[i]).array());
+                if (lsnFile.exists())
+                    lsns.force();
+            } catch (IOException e) {
+                synchronized (this) {
+                    for (int p : pages)
+                        lsnsToSync.set(p);
+                }
+                throw e;
+            }
+            if (fsmFile.exists())
+                fsm.force();
+        }
     }
 
     /**
@@ -67,20 +192,11 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        int off = pid.pageNumber() * BufferPool.PAGE_SIZE;
-        byte[] data = new byte[BufferPool.PAGE_SIZE];
         try {
-                RandomAccessFile raf = new RandomAccessFile(this.f, "r");
-                raf.seek(off);
-
-                for (int i = 0; i < BufferPool.PAGE_SIZE; i++) {
-                        data[i] = raf.readByte();
-                }
-
-                raf.close();
-                return new HeapPage((HeapPageId)pid, data);
-        } catch (FileNotFoundException e) {
-                throw new RuntimeException(e);
+                byte[] data = io.read(pid.pageNumber());
+                HeapPage page = new HeapPage((HeapPageId)pid, data);
+                page.setLsn(lsnOf(pid.pageNumber()));
+                return page;
         } catch (IOException e) {
         	    throw new RuntimeException(e);
         }
@@ -90,15 +206,136 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        RandomAccessFile file = null;
-        byte[] bytes = page.getPageData();
-        try {
-                file = new RandomAccessFile(getFile(), "rw");
-                file.seek(page.getId().pageNumber() * BufferPool.PAGE_SIZE);
-                file.write(bytes);
-                file.close();
-        } catch (FileNotFoundException e) {
-                e.printStackTrace();
+        int pageNo = page.getId().pageNumber();
+        ByteBuffer buf = io.pageBuffer();
+        ((HeapPage) page).writePageData(buf);
+        buf.flip();
+        io.write(pageNo, buf);
+        recordLsn(pageNo, page.getLsn());
+        boolean room = ((HeapPage) page).getNumEmptySlots() > 0;
+        freeSpace();
+        fsm.write(pageNo, new byte[] { (byte) (room ? 1 : 0) });
+        setFree(pageNo, room);
+    }
+
+    /**
+     * @return the free-space map, read from the sidecar, and from the pages
+     *   themselves for those it does not have yet
+     */
+    private synchronized BitSet freeSpace() throws IOException {
+        if (free != null)
+            return free;
+        BitSet map = new BitSet();
+        int n = numPages();
+        int known = (int) Math.min(fsmFile.length(), n);
+        if (known > 0) {
+            byte[] bytes = new byte[known];
+            DataInputStream in = new DataInputStream(new FileInputStream(fsmFile));
+            try {
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+            for (int i = 0; i < known; i++)
+                if (bytes[i] != 0)
+                    map.set(i);
+        }
+        for (int i = known; i < n; i++)
+            map.set(i, readRoom(i));
+        free = map;
+        freeChecked = known == 0;
+        return free;
+    }
+
+    /**
+     * Look at a page on disk, and write whether it has room to the map's
+     * sidecar.
+     */
+    private boolean readRoom(int pageNo) throws IOException {
+        HeapPage page = new HeapPage(new HeapPageId(getId(), pageNo), io.read(pageNo));
+        boolean room = page.getNumEmptySlots() > 0;
+        fsm.write(pageNo, new byte[] { (byte) (room ? 1 : 0) });
+        return room;
+    }
+
+    /**
+     * Look at the pages the map marked full since they were last looked
+     * at, and at all the pages it marks full the first time, in case the
+     * sidecar lost their room in a crash or a page was written while it was
+     * being deleted from.
+     *
+     * @return whether a page was found to have room
+     */
+    private synchronized boolean checkFullPages() throws IOException {
+        BitSet map = freeSpace();
+        BitSet check;
+        if (freeChecked) {
+            check = (BitSet) fullSinceCheck.clone();
+            check.andNot(map);
+        } else {
+            check = new BitSet();
+            check.set(0, numPages());
+            check.andNot(map);
+            freeChecked = true;
+        }
+        fullSinceCheck.clear();
+        boolean found = false;
+        int n = numPages();
+        for (int i = check.nextSetBit(0); i >= 0 && i < n; i = check.nextSetBit(i + 1)) {
+            if (readRoom(i)) {
+                map.set(i);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    private synchronized void setFree(int pageNo, boolean room) throws IOException {
+        freeSpace().set(pageNo, room);
+        if (!room)
+            fullSinceCheck.set(pageNo);
+    }
+
+    /** @return the first page from pageNo on that may have room, or -1 */
+    private synchronized int nextFreePage(int pageNo) throws IOException {
+        return freeSpace().nextSetBit(pageNo);
+    }
+
+    /** @return the LSN of each page, read from the sidecar when first needed */
+    private synchronized long[] pageLsns() throws IOException {
+        if (pageLsns != null)
+            return pageLsns;
+        long[] l = new long[(int) (lsnFile.length() / LogFile.LONG_SIZE)];
+        if (l.length > 0) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(lsnFile)));
+            try {
+                for (int i = 0; i < l.length; i++)
+                    l[i] = in.readLong();
+            } finally {
+                in.close();
+            }
+        }
+        pageLsns = l;
+        return pageLsns;
+    }
+
+    /** @return the LSN of a page as last written, 0 if it never had one */
+    private synchronized long lsnOf(int pageNo) throws IOException {
+        long[] l = pageLsns();
+        return pageNo < l.length ? l[pageNo] : 0;
+    }
+
+    /** Note the LSN of a page just written, for the next force. */
+    private synchronized void recordLsn(int pageNo, long lsn) throws IOException {
+        long[] l = pageLsns();
+        if (pageNo >= l.length) {
+            if (lsn == 0)
+                return;
+            l = pageLsns = Arrays.copyOf(l, Math.max(pageNo + 1, 2 * l.length));
+        }
+        if (l[pageNo] != lsn) {
+            l[pageNo] = lsn;
+            lsnsToSync.set(pageNo);
         }
     }
 
@@ -123,30 +360,51 @@ public class HeapFile implements DbFile {
 
         ArrayList<Page> pages = new ArrayList<Page>();
 
-        //build list of pages
-        for (int i = 0; i < this.numPages(); i++) {
+        //visit the pages the free-space map says have room. Each is locked
+        //exclusively right away: taking a shared lock first and upgrading
+        //it would deadlock two inserters that pick the same page. The
+        //pages marked full are looked at once per insert, when none is left
+        boolean checked = false;
+        int i = nextFreePage(0);
+        if (i < 0) {
+                checked = true;
+                if (checkFullPages())
+                        i = nextFreePage(0);
+        }
+        while (i >= 0 && i < this.numPages()) {
                 PageId pid = new HeapPageId(getId(), i);
+                boolean wasLocked = pool.holdsLock(tid, pid);
                 HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+                //a page this insert fills keeps its bit until it is
+                //written full, so that an abort does not lose its room
                 if (page.getNumEmptySlots() != 0) {
                         page.insertTuple(t);
                         pages.add(page);
                         break;
                 }
+                //the map was out of date, unless the page is only full in
+                //the BufferPool
+                if (page.isDirty() == null)
+                        setFree(i, false);
+                //nothing was changed on a full page, so the lock can go
+                if (!wasLocked) {
+                        pool.releasePage(tid, pid);
+                }
+                i = nextFreePage(i + 1);
+                if (i < 0 && !checked) {
+                        checked = true;
+                        if (checkFullPages())
+                                i = nextFreePage(0);
+                }
         }
         //if there are no pages, create page data
         if (pages.isEmpty()) {
                 PageId pid = new HeapPageId(getId(), numPages());
-                try {
-                        byte[] b = HeapPage.createEmptyPageData();
-                        RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
-                        file.seek(pid.pageNumber() * BufferPool.PAGE_SIZE);
-                        file.write(b);
-                        file.close();
-                } catch (FileNotFoundException e) {
-                        e.printStackTrace();
-                }
+                io.write(pid.pageNumber(), HeapPage.createEmptyPageData());
                 HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
                 page.insertTuple(t);
+                //the page is empty on disk until it is written
+                setFree(pid.pageNumber(), true);
                 pages.add(page);
         }
         return pages;
@@ -164,6 +422,11 @@ public class HeapFile implements DbFile {
 
         HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
         page.deleteTuple(t);
+        try {
+                setFree(pid.pageNumber(), true);
+        } catch (IOException e) {
+                throw new DbException("cannot read the free-space map: " + e.getMessage());
+        }
         ArrayList<Page> retList = new ArrayList<Page>();
         //add deleted page to return list
         retList.add(page);
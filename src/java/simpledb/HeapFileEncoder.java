@@ -1,7 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -9,10 +11,21 @@ import java.util.ArrayList;
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
  * data file.
+ * <p>
+ * The pages may also be written in the column-wise format of PaxPages, to
+ * be read as a PaxFile (see {@link Format}).
  */
 
 public class HeapFileEncoder {
 
+  /** The page formats files can be written in. */
+  public enum Format {
+      /** HeapPages, for a HeapFile */
+      HEAP,
+      /** PaxPages, for a PaxFile */
+      PAX
+  }
+
   /** Convert the specified tuple list (with only integer fields) into a binary
    * page file. <br>
    *
@@ -29,6 +42,16 @@ public class HeapFileEncoder {
    * @throws IOException if the temporary/output file can't be opened
    */
   public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
+      convert(tuples, outFile, npagebytes, numFields, Format.HEAP);
+  }
+
+  /** Convert the specified tuple list (with only integer fields) into a binary
+   * page file in the given format.
+   *
+   * @see #convert(ArrayList, File, int, int)
+   */
+  public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes,
+                 int numFields, Format format) throws IOException {
       File tempInput = File.createTempFile("tempTable", ".txt");
       tempInput.deleteOnExit();
       BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
@@ -48,7 +71,11 @@ public class HeapFileEncoder {
           bw.write('\n');
       }
       bw.close();
-      convert(tempInput, outFile, npagebytes, numFields);
+      Type[] ts = new Type[numFields];
+      for (int i = 0; i < ts.length; i++) {
+          ts[i] = Type.INT_TYPE;
+      }
+      convert(tempInput, outFile, npagebytes, numFields, ts, ',', format);
   }
 
       public static void convert(File inFile, File outFile, int npagebytes,
@@ -90,6 +117,21 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, Format.HEAP);
+  }
+
+  /** Convert the specified input text file into a binary page file in the
+   * given format.
+   *
+   * @see #convert(File, File, int, int, Type[], char)
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, Format format)
+      throws IOException {
+      if (format == Format.PAX) {
+          convertPax(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+          return;
+      }
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -223,4 +265,61 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into PaxPages: a page is filled
+   * with as many records as fit, and then written out with the values of
+   * each field together.
+   *
+   * @see PaxPage
+   */
+  private static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+    TupleDesc td = new TupleDesc(typeAr);
+    int nrecords = PaxPage.numSlots(td, npagebytes);
+    int[] minipages = PaxPage.minipageOffsets(td, nrecords);
+    Pattern separator = Pattern.compile(Pattern.quote(String.valueOf(fieldSeparator)));
+
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    FileOutputStream os = new FileOutputStream(outFile);
+    byte[] page = new byte[npagebytes];
+    ByteBuffer buf = ByteBuffer.wrap(page);
+    int recordcount = 0;
+    int npages = 0;
+    String line;
+    while ((line = br.readLine()) != null) {
+        if (line.trim().length() == 0)
+            continue;
+        String[] values = separator.split(line, -1);
+        for (int j = 0; j < numFields; j++) {
+            String s = j < values.length ? values[j].trim() : "";
+            buf.position(minipages[j] + recordcount * typeAr[j].getLen());
+            if (typeAr[j] == Type.INT_TYPE) {
+                int v = 0;
+                try {
+                    v = Integer.parseInt(s);
+                } catch (NumberFormatException e) {
+                    System.out.println ("BAD LINE : " + s);
+                }
+                new IntField(v).serialize(buf);
+            } else {
+                new StringField(s, Type.STRING_LEN).serialize(buf);
+            }
+        }
+        page[PaxPage.PREFIX_SIZE + recordcount / 8] |= (byte) (1 << (recordcount % 8));
+        recordcount++;
+        if (recordcount >= nrecords) {
+            os.write(page);
+            page = new byte[npagebytes];
+            buf = ByteBuffer.wrap(page);
+            recordcount = 0;
+            npages++;
+        }
+    }
+    // the last page, which is written even if the file is empty
+    if (recordcount > 0 || npages == 0)
+        os.write(page);
+    br.close();
+    os.close();
+  }
 }
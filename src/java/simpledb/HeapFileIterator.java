@@ -6,6 +6,9 @@ import java.util.NoSuchElementException;
 /**
  * Iterator class to iterate through all tuples in a DbFile. For description of
  * methods, see DbFileIterator
+ * <p>
+ * Works for HeapFiles and PaxFiles, whose pages are read the same way; a
+ * PaxFile may also be read for some fields only.
  * 
  * @author RadhikaMalik
  * 
@@ -15,11 +18,18 @@ public class HeapFileIterator implements DbFileIterator {
 	TransactionId tid;
 	DbFile file;
 	int currentPageNumber;
-	HeapPage currentPage;
+	Page currentPage;
+	// the fields to read, null for all; PaxFiles only
+	int[] fields;
+	TupleDesc projected;
 	int numPages;
 	BufferPool pool;
 	Iterator<Tuple> pageIterator;
 	boolean open;
+	// private frames for scans of files larger than the buffer pool
+	BufferRing ring;
+	// reads pages ahead of this scan in the background
+	Prefetcher.ReadAhead readAhead;
 
 	/**
 	 * Create a new HeapFileIterator for a given DbFile and TransactionId
@@ -35,16 +45,48 @@ public class HeapFileIterator implements DbFileIterator {
 		this.file = file;
 		currentPageNumber = 0;
 		pool = Database.getBufferPool();
-		numPages = ((HeapFile) file).numPages();
+		numPages = numPages(file);
 
 	}
 
+	/**
+	 * Create an iterator over some fields of the tuples of a PaxFile
+	 * 
+	 * @param fields
+	 *            the fields to read, in the order the tuples returned have
+	 *            them
+	 */
+	public HeapFileIterator(TransactionId tid, PaxFile file, int[] fields) {
+		this(tid, file);
+		this.fields = fields;
+		this.projected = PaxPage.project(file.getTupleDesc(), fields);
+	}
+
+	/** @return the number of pages of a HeapFile or PaxFile */
+	static int numPages(DbFile file) {
+		if (file instanceof PaxFile)
+			return ((PaxFile) file).numPages();
+		return ((HeapFile) file).numPages();
+	}
+
+	/** @return an iterator over the tuples of a page of the file */
+	private Iterator<Tuple> tuples(Page page) {
+		if (page instanceof PaxPage) {
+			PaxPage p = (PaxPage) page;
+			return fields == null ? p.iterator() : p.iterator(fields, projected);
+		}
+		return ((HeapPage) page).iterator();
+	}
+
 	// See DbFileIterator.java
 	@Override
 	public void close() {
 		open = false;
 		currentPage = null;
 		pageIterator = null;
+		pool.releaseRing(ring);
+		ring = null;
+		readAhead = null;
 
 	}
 
@@ -58,20 +100,18 @@ public class HeapFileIterator implements DbFileIterator {
 		// if current page has tuples left, return true
 		try {
 
-			if (pageIterator.hasNext())
-				return true;
-
-			// otherwise increment currentPage
-			currentPageNumber++;
+			// otherwise move on to the next page that has tuples
+			while (!pageIterator.hasNext()) {
+				currentPageNumber++;
 
-			// check if pages have finished
-			if (currentPageNumber >= numPages) {
-				return false;
+				// check if pages have finished
+				if (currentPageNumber >= numPages) {
+					return false;
+				}
+				currentPage = readPage(currentPageNumber);
+				pageIterator = tuples(currentPage);
 			}
-			currentPage = (HeapPage) pool.getPage(this.tid, new HeapPageId(file
-					.getId(), currentPageNumber), Permissions.READ_ONLY);
-			pageIterator = currentPage.iterator();
-			return pageIterator.hasNext();
+			return true;
 
 		} catch (NullPointerException e) {
 			System.out.println("NullPointerException");
@@ -104,11 +144,13 @@ public class HeapFileIterator implements DbFileIterator {
 		if (open == true)
 			return;
 
-		// was closed earlier so re-read current page
-		currentPage = (HeapPage) pool.getPage(this.tid, new HeapPageId(file
-				.getId(), currentPageNumber), Permissions.READ_ONLY);
-		pageIterator = currentPage.iterator();
+		// (re)start from the first page; the file may have grown since
+		// this iterator was created
+		numPages = numPages(file);
+		ring = pool.newScanRing(numPages);
+		readAhead = pool.newReadAhead(file.getId(), numPages, ring);
 		open = true;
+		rewind();
 
 	}
 
@@ -125,10 +167,26 @@ public class HeapFileIterator implements DbFileIterator {
 
 		// iterator is open so rewind to page 0!
 		currentPageNumber = 0;
-		currentPage = (HeapPage) pool.getPage(this.tid, new HeapPageId(file
-				.getId(), currentPageNumber), Permissions.READ_ONLY);
-		pageIterator = currentPage.iterator();
+		if (numPages == 0) {
+			currentPage = null;
+			pageIterator = new java.util.ArrayList<Tuple>().iterator();
+			return;
+		}
+		currentPage = readPage(currentPageNumber);
+		pageIterator = tuples(currentPage);
 
 	}
 
+	/**
+	 * Fetch a page of the file through the buffer pool, using this scan's
+	 * ring if it has one, and let the read-ahead know where the scan is.
+	 */
+	Page readPage(int pageNumber) throws DbException,
+			TransactionAbortedException {
+		if (readAhead != null)
+			readAhead.access(pageNumber);
+		return pool.getPage(this.tid, new HeapPageId(file.getId(),
+				pageNumber), Permissions.READ_ONLY, ring);
+	}
+
 }
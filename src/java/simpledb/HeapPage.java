@@ -1,12 +1,30 @@
 package simpledb;
 
 import java.util.*;
-import java.math.BigInteger;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Changes to the page and {@link #getPageData} synchronize on the page, so
+ * the BufferPool can take a consistent copy of a page to write out while
+ * the transaction that holds it keeps changing it.
+ * <p>
+ * A page keeps the bytes it was read from, and does not decode them into
+ * tuples up front: the tuples it gives out are views of the bytes that
+ * decode their fields as they are asked for (see {@link Tuple}). The bytes
+ * are never written to, so that views stay valid; the tuples inserted into
+ * the page are kept as they are, and the page data is put together from
+ * both when it is written out. Each new before image becomes the bytes of
+ * the page, so that only the slots changed since it was taken have to be
+ * written over them.
+ * <p>
+ * In memory, the header is kept as words of 64 slots each, slot i being
+ * bit i % 64 of word i / 64, which is the order of the header bytes on
+ * disk read as little-endian longs. Free slots are found, counted and
+ * iterated over a word at a time.
  *
  * @see HeapFile
  * @see BufferPool
@@ -16,7 +34,13 @@ public class HeapPage implements Page {
 
     private final HeapPageId pid;
     private final TupleDesc td;
-    private final byte header[];
+    // the header, as words of 64 slots each
+    private final long used[];
+    private final int headerSize;
+    private volatile int numEmpty;
+    // the bytes the page was read from, or its last before image, holding
+    // the tuples of the slots for which tuples has no tuple yet
+    private byte data[];
     private final Tuple tuples[];
     private final int numSlots;
 
@@ -25,6 +49,8 @@ public class HeapPage implements Page {
 
     private boolean dirty;
     private TransactionId dirtytid;
+    // not part of the page data: HeapFile keeps it next to the page
+    private volatile long lsn;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -38,33 +64,46 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps data, which must not be changed afterwards.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage from a set of bytes, for pages whose tuples are not
+     * described by the catalog, such as the temporary files operators spill
+     * to.
+     *
+     * @param td the schema of the tuples on the page
+     */
+    public HeapPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
-
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        this.data = data;
+
+        // allocate and read the header slots of this page; the tuples are
+        // read when they are asked for
+        headerSize = getHeaderSize();
+        used = new long[(numSlots + 63) / 64];
+        for (int k = 0; k < headerSize; k++)
+            used[k >> 3] |= (data[k] & 0xffL) << ((k & 7) * 8);
+        // bits past the last slot are not slots
+        if (numSlots % 64 != 0)
+            used[used.length - 1] &= (1L << numSlots % 64) - 1;
+        int count = 0;
+        for (long w : used)
+            count += Long.bitCount(w);
+        numEmpty = numSlots - count;
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
-        setBeforeImage();
+        // the bytes are not changed, so they are the before image as well
+        oldData = data;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -72,6 +111,13 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
+    	return numSlots(td);
+    }
+
+    /**
+     * @return the number of tuple slots on a page holding tuples of td
+     */
+    public static int numSlots(TupleDesc td) {
     	int tupleSize = td.getSize();
     	return (int)Math.floor( (BufferPool.PAGE_SIZE * 8.0) / (tupleSize * 8.0 + 1) );
     }
@@ -95,7 +141,7 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,oldDataRef,td);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -104,11 +150,23 @@ public class HeapPage implements Page {
         return null;
     }
     
-    public void setBeforeImage() {
+    public synchronized void setBeforeImage() {
+        byte[] image = getPageData();
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = image;
         }
+        // read the tuples from the image from now on
+        data = image;
+        Arrays.fill(tuples, null);
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
     }
 
     /**
@@ -120,38 +178,47 @@ public class HeapPage implements Page {
     	return pid;
     }
 
+    /** @return the offset of slot i in the page data */
+    private int slotOffset(int i) {
+        return headerSize + i * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in slot i, which must be used, as a view of the page
+     *   data if it is still there
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private synchronized Tuple tuple(int i) {
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = new Tuple(td, data, slotOffset(i));
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    /** @return whether the bytes of the page hold the tuple in slot i */
+    private boolean isSlotClean(int i) {
+        Tuple t = tuples[i];
+        return t == null || t.isViewOf(data, slotOffset(i));
+    }
 
-        return t;
+    /** @return whether slot i is used according to the bytes of the page */
+    private boolean wasSlotUsed(int i) {
+        return (data[i / 8] & (1 << i % 8)) != 0;
+    }
+
+    /** Write the tuple in slot i, which must be used, to buf at its position. */
+    private void writeSlot(int i, ByteBuffer buf) {
+        Tuple t = tuples[i];
+        if (t == null) {
+            buf.put(data, slotOffset(i), td.getSize());
+            return;
+        }
+        if (t.copyTo(buf))
+            return;
+        for (int j=0; j<td.numFields(); j++)
+            t.getField(j).serialize(buf);
     }
 
     /**
@@ -165,65 +232,87 @@ public class HeapPage implements Page {
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+    public synchronized byte[] getPageData() {
+        byte[] out = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(out));
+        return out;
+    }
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+    /**
+     * Writes the bytes {@link #getPageData} returns to buf at its position,
+     * which is moved past them, without allocating anything: the bytes of
+     * the page are copied, and then only the slots changed since they were
+     * read are written over them.
+     *
+     * @param buf a buffer with room for a page
+     */
+    public synchronized void writePageData(ByteBuffer buf) {
+        int start = buf.position();
+        int len = BufferPool.getPageSize();
+        buf.put(data, 0, Math.min(data.length, len));
+        for (int i = data.length; i < len; i++)
+            buf.put((byte) 0);
 
-                }
-                continue;
-            }
+        // the header of the page
+        buf.position(start);
+        for (int k = 0; k < headerSize; k++)
+            buf.put((byte) (used[k >> 3] >>> ((k & 7) * 8)));
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
+        // the tuples that changed; emptied slots are cleared
+        for (int i=0; i<tuples.length; i++) {
+            if (isSlotUsed(i)) {
+                if (!isSlotClean(i)) {
+                    buf.position(start + slotOffset(i));
+                    writeSlot(i, buf);
                 }
+            } else if (wasSlotUsed(i)) {
+                int off = start + slotOffset(i);
+                for (int j=0; j<td.getSize(); j++)
+                    buf.put(off + j, (byte) 0);
             }
         }
+        buf.position(start + len);
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * @return whether this page holds the same bytes as other, a copy of it
+     *   no one else is changing, as {@link #getPageData} would return them
+     */
+    synchronized boolean sameData(HeapPage other) {
+        if (!Arrays.equals(used, other.used))
+            return false;
+        for (int w = 0; w < used.length; w++) {
+            for (long bits = used[w]; bits != 0; bits &= bits - 1) {
+                if (!sameSlot(w * 64 + Long.numberOfTrailingZeros(bits), other))
+                    return false;
+            }
         }
+        return true;
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * @return whether slot i of this page holds the same tuple, or is as
+     *   empty, as slot i of other. Used by the log to find the slots that
+     *   changed without copying them out; other must be a copy no one else
+     *   is changing, such as a before image.
+     */
+    synchronized boolean sameSlot(int i, HeapPage other) {
+        boolean used = isSlotUsed(i);
+        if (used != other.isSlotUsed(i))
+            return false;
+        if (!used)
+            return true;
+        if (isSlotClean(i) && other.isSlotClean(i)) {
+            int off = slotOffset(i);
+            if (data == other.data)
+                return true;
+            for (int j=0; j<td.getSize(); j++) {
+                if (data[off + j] != other.data[off + j])
+                    return false;
+            }
+            return true;
         }
-
-        return baos.toByteArray();
+        return Arrays.equals(getSlotData(i), other.getSlotData(i));
     }
 
     /**
@@ -247,7 +336,7 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
         if (!isSlotUsed(t.getRecordId().tupleno()) || !t.getRecordId().getPageId().equals(pid)) {
@@ -255,6 +344,7 @@ public class HeapPage implements Page {
         }
         //unmark slot and set to null
         markSlotUsed(t.getRecordId().tupleno(), false);
+        tuples[t.getRecordId().tupleno()] = null;
         t.setRecordId(new RecordId(null, 0));
     }
 
@@ -265,16 +355,21 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
         if (getNumEmptySlots() == 0 || !td.equals(t.getTupleDesc())) {
                 throw new DbException("Page is full or tuple is not compatible");
         }
-        for (int i = 0; i < numSlots; i++) {
-                //if slot isn't used
-                if (!isSlotUsed(i)) {
-                        RecordId newRecord = new RecordId(this.pid, 1);
+        //the first word with a free slot; the bits past the last slot
+        //count as used
+        for (int w = 0; w < used.length; w++) {
+                long free = ~used[w];
+                if (w == used.length - 1 && numSlots % 64 != 0)
+                        free &= (1L << numSlots % 64) - 1;
+                if (free != 0) {
+                        int i = w * 64 + Long.numberOfTrailingZeros(free);
+                        RecordId newRecord = new RecordId(this.pid, i);
                         //mark slot used and set the record
                         markSlotUsed(i, true);
                         t.setRecordId(newRecord);
@@ -284,11 +379,56 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * Returns slot i as it is stored in the page data, or null if the slot
+     * is empty. Used by the log to record changes slot by slot.
+     */
+    synchronized byte[] getSlotData(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        byte[] slot = new byte[td.getSize()];
+        writeSlot(i, ByteBuffer.wrap(slot));
+        return slot;
+    }
+
+    /**
+     * Fills slot i with a tuple stored as returned by {@link #getSlotData},
+     * or empties it if data is null. Used to redo and undo changes logged
+     * slot by slot.
+     */
+    synchronized void setSlotData(int i, byte[] data) {
+        if (data == null) {
+            markSlotUsed(i, false);
+            tuples[i] = null;
+            return;
+        }
+        markSlotUsed(i, true);
+        tuples[i] = new Tuple(td, data, 0);
+        tuples[i].setRecordId(new RecordId(pid, i));
+    }
+
+    /**
+     * Returns the tuple in slot i, or null if the slot is empty. Used to
+     * fetch the tuples an index points at.
+     */
+    public synchronized Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+            return null;
+        return tuple(i);
+    }
+
+    /**
+     * Returns the number of tuple slots on this page.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
      */
-    public void markDirty(boolean dirty, TransactionId tid) {
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
 	// not necessary for lab1
         this.dirty = dirty;
@@ -298,7 +438,7 @@ public class HeapPage implements Page {
     /**
      * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
      */
-    public TransactionId isDirty() {
+    public synchronized TransactionId isDirty() {
         // some code goes here
 	// Not necessary for lab1
         //return null;      
@@ -311,27 +451,7 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int bitCounter = 0;
-        int emptySlots = 0;
-        
-        //check the byte in the header
-        for(int i = 0; i < header.length; i++)
-        {
-        	byte[] byteToCheck = new byte[] {header[i]};
-        	BigInteger bi = new BigInteger(byteToCheck);
-        	
-        	//check the bits in the byte
-        	//8 represents the number of bits
-        	for(int k = 0; k < 8; k++)
-        	{
-        		if(bitCounter < numSlots && !bi.testBit(k))
-        		{
-        			emptySlots++;
-        			bitCounter++;
-        		}
-        	}
-        }
-        return emptySlots;
+        return numEmpty;
     }
 
     /**
@@ -339,19 +459,11 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        if(i < 0 || i > this.numSlots) {
+        if(i < 0 || i >= this.numSlots) {
         	//invalid index
         	throw new IllegalArgumentException("Slot checked is out of bound");
         }
-        
-        //index of byte in header
-        int byteIndex = (int)Math.floor(i/8.0);
-        int bitIndex = i % 8;
-        byte byteWithSlot = header[byteIndex];
-        byte[] b = new byte[] { byteWithSlot }; 
-        
-        BigInteger bi = new BigInteger(b);
-        return bi.testBit(bitIndex);
+        return (used[i >> 6] & (1L << i)) != 0;
     }
 
     /**
@@ -360,11 +472,15 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
-        
+        long bit = 1L << i;
+        if (((used[i >> 6] & bit) != 0) == value)
+                return;
         if (value) {
-                header[i/8] |= (byte)(1 << i % 8);
+                used[i >> 6] |= bit;
+                numEmpty--;
         } else {
-                header[i/8] &= (byte) ~(1 << i % 8);
+                used[i >> 6] &= ~bit;
+                numEmpty++;
         }
     }
 
@@ -374,39 +490,92 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> filledSlots = new ArrayList<Tuple>();
-        for(int i = 0; i < tuples.length; i++)
-        {
-        	if(isSlotUsed(i))
-        	{
-        		filledSlots.add(tuples[i]);
-        	}
+        return new HeapPageTupleIterator();
+    }
+
+    /**
+     * Adds the tuples in the used slots from slot on to a batch, until it
+     * is full, reading the fields of those still in the page bytes straight
+     * from there.
+     *
+     * @param fields the fields of the tuples to add, in the order the
+     *   batch has them, or null for all of them
+     * @return the slot to go on from, or -1 if all the tuples were added
+     */
+    synchronized int fill(Batch out, int[] fields, int slot) {
+        int n = out.getTupleDesc().numFields();
+        for (int w = slot >> 6; w < used.length; w++, slot = w << 6) {
+            long word = used[w] & (-1L << slot);
+            while (word != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                if (out.isFull())
+                    return i;
+                int row = out.addRow(pid, i);
+                if (isSlotClean(i)) {
+                    int off = slotOffset(i);
+                    for (int k = 0; k < n; k++)
+                        out.read(k, row, data, off + td.getOffset(fields == null ? k : fields[k]));
+                } else {
+                    Tuple t = tuples[i];
+                    for (int k = 0; k < n; k++)
+                        out.set(k, row, t.getField(fields == null ? k : fields[k]));
+                }
+            }
         }
-        return new HeapPageTupleIterator<Tuple>(filledSlots);
+        return -1;
     }
-    
-    private class HeapPageTupleIterator<Tuple> implements Iterator<Tuple>
+
+    /** @return the tuple in slot i, or null if the slot is not used now */
+    private synchronized Tuple tupleIfUsed(int i) {
+        return isSlotUsed(i) ? tuple(i) : null;
+    }
+
+    /**
+     * Walks the slots that were used when the iterator was made, skipping
+     * those empty by the time they are reached. Slots filled only after the
+     * iterator was made are not visited, so an operator that inserts into
+     * the page it reads does not see its own tuples.
+     */
+    private class HeapPageTupleIterator implements Iterator<Tuple>
     {
-    	//Tuples in the heap page
-    	private List<Tuple> filledSlots;
-    	private Iterator<Tuple> i;
-    	
-    	public HeapPageTupleIterator(List<Tuple> filledSlots)
+    	//slots left to visit, from a copy of the header
+    	private final long[] words;
+    	private int w = 0;
+    	private Tuple next;
+
+    	public HeapPageTupleIterator()
     	{
-    		this.filledSlots = filledSlots;
-    		i = filledSlots.iterator();
+    		synchronized (HeapPage.this) {
+    			words = used.clone();
+    		}
     	}
-    	
+
     	@Override
     	public boolean hasNext()
     	{
-    		return i.hasNext();
+    		while (next == null && w < words.length) {
+    			if (words[w] == 0) {
+    				w++;
+    				continue;
+    			}
+    			int i = w * 64 + Long.numberOfTrailingZeros(words[w]);
+    			words[w] &= words[w] - 1;
+    			next = tupleIfUsed(i);
+    		}
+    		return next != null;
     	}
+
     	@Override
     	public Tuple next()
     	{
-    		return i.next();
+    		if (!hasNext())
+    			throw new NoSuchElementException();
+    		Tuple t = next;
+    		next = null;
+    		return t;
     	}
+
     	@Override
     	public void remove()
     	{
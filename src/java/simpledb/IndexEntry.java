@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * An entry of an {@link IndexFile}: a key and where the tuple that has it
+ * is stored in the indexed table. Entries are ordered by key, then by page
+ * number and slot, so that every entry is unique even if keys are not. A
+ * BTreeFile keeps its leaves in that order, and the separators of its
+ * internal pages are entries too; the buckets of a HashFile hold the same
+ * entries, unordered.
+ */
+final class IndexEntry implements Comparable<IndexEntry> {
+
+    final Field key;
+    final int pageNo;
+    final int slot;
+
+    IndexEntry(Field key, int pageNo, int slot) {
+        this.key = key;
+        this.pageNo = pageNo;
+        this.slot = slot;
+    }
+
+    /** @return an entry that sorts before every other entry with key */
+    static IndexEntry lowest(Field key) {
+        return new IndexEntry(key, Integer.MIN_VALUE, Integer.MIN_VALUE);
+    }
+
+    /** @return the size in bytes of an entry with keys of type keyType */
+    static int size(Type keyType) {
+        return keyType.getLen() + 2 * Type.INT_TYPE.getLen();
+    }
+
+    /** @return -1, 0 or 1 as a is less than, equal to or greater than b */
+    static int compareKeys(Field a, Field b) {
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+    }
+
+    private static int compareInts(int a, int b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    public int compareTo(IndexEntry o) {
+        int c = compareKeys(key, o.key);
+        if (c != 0)
+            return c;
+        c = compareInts(pageNo, o.pageNo);
+        return c != 0 ? c : compareInts(slot, o.slot);
+    }
+
+    public boolean equals(Object o) {
+        return o instanceof IndexEntry && compareTo((IndexEntry) o) == 0;
+    }
+
+    public int hashCode() {
+        return key.hashCode() ^ (pageNo << 16) ^ slot;
+    }
+
+    public String toString() {
+        return key + "@" + pageNo + ":" + slot;
+    }
+
+    void serialize(DataOutputStream dos) throws IOException {
+        key.serialize(dos);
+        dos.writeInt(pageNo);
+        dos.writeInt(slot);
+    }
+
+    static IndexEntry parse(DataInputStream dis, Type keyType) throws IOException {
+        try {
+            Field key = keyType.parse(dis);
+            return new IndexEntry(key, dis.readInt(), dis.readInt());
+        } catch (ParseException e) {
+            throw new IOException("bad index key: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * The interface for secondary indexes on a field of a heap table. An index
+ * is a DbFile of its own whose tuples are its entries: the key, then the
+ * page number and slot of the tuple in the indexed table that has it (see
+ * {@link #getTupleDesc}). Its pages go through the {@link BufferPool} like
+ * those of any other file, so the index is registered in the
+ * {@link Catalog} as a table too (see {@link Catalog#addIndex}).
+ * <p>
+ * Inserting or deleting an entry tuple with {@link #insertTuple} or
+ * {@link #deleteTuple} is the same as calling {@link #insertEntry} or
+ * {@link #deleteEntry} with its fields.
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the id of the heap table this index is on */
+    public int getIndexedTableId();
+
+    /** @return the index of the field of the indexed table that is the key */
+    public int getKeyField();
+
+    /**
+     * Add an entry for a tuple of the indexed table.
+     *
+     * @param key the key field of the tuple
+     * @param rid where the tuple is stored
+     * @return the pages that were modified
+     */
+    public ArrayList<Page> insertEntry(TransactionId tid, Field key, RecordId rid)
+        throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Remove the entry for a tuple of the indexed table.
+     *
+     * @return the pages that were modified
+     * @throws DbException if there is no such entry
+     */
+    public ArrayList<Page> deleteEntry(TransactionId tid, Field key, RecordId rid)
+        throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * @return true if the index can find the entries whose key compares to
+     *   a value with op without looking at the others
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Estimate how many pages of the index a lookup reads.
+     *
+     * @param numEntries the number of entries in the index
+     * @param matches the number of them the lookup finds
+     */
+    public double estimateLookupPages(int numEntries, int matches);
+
+    /**
+     * Returns an iterator over the entries whose key compares to the given
+     * value with op, that is, for which <code>entryKey.compare(op, key)</code>
+     * is true. Ops the index does not {@link #supports support} are
+     * answered by looking at every entry.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key);
+}
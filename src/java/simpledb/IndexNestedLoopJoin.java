@@ -0,0 +1,174 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins an outer input (child1) to a table with an index
+ * on its join field. Instead of reading the whole inner input once per outer
+ * tuple as {@link Join} does, it looks the join field of each outer tuple up
+ * in the index, so only the inner tuples that match are read.
+ * <p>
+ * The inner input (child2) is an {@link IndexScan} of the inner table, or
+ * operators such as {@link Filter} over one. Before the inner input is
+ * rewound for an outer tuple, the constant of that scan is set to the join
+ * field of the outer tuple, with the join predicate turned around so that
+ * the inner field is on the left: <tt>outer &lt; inner</tt> looks up the
+ * entries with <tt>key &gt; outer</tt>.
+ * <p>
+ * The output tuples are the fields of the tuple from child1 followed by the
+ * fields of the tuple from child2.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final IndexScan probe;
+    private TupleDesc td;
+
+    private Tuple outerTuple;
+    private boolean innerOpen;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param probe
+     *            the scan of the index on the inner join field that child2
+     *            reads from; its op must be {@link #probeOp probeOp} of the
+     *            join predicate
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            IndexScan probe) {
+        if (probe.getOp() != probeOp(p.getOperator()))
+            throw new IllegalArgumentException("index scan compares with " + probe.getOp()
+                    + ", the join needs " + probeOp(p.getOperator()));
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.probe = probe;
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the op that finds the inner values v for which
+     *         <tt>outer op v</tt>, as <tt>v probeOp(op) outer</tt>
+     */
+    public static Predicate.Op probeOp(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /** @return the scan of the index the join probes */
+    public IndexScan getProbe() {
+        return probe;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        // the inner input is opened for the first outer tuple, when there
+        // is a key to look up
+        child1.open();
+        super.open();
+        outerTuple = null;
+    }
+
+    public void close() {
+        outerTuple = null;
+        child1.close();
+        if (innerOpen)
+            child2.close();
+        innerOpen = false;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        outerTuple = null;
+    }
+
+    /**
+     * Returns the next tuple of child1 joined with a tuple of child2 that
+     * satisfies the join predicate, or null if there are no more.
+     *
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outerTuple != null) {
+                while (child2.hasNext()) {
+                    Tuple inner = child2.next();
+                    // the index matches the predicate already; this checks
+                    // it for indexes that also return other entries
+                    if (p.filter(outerTuple, inner))
+                        return Tuple.merge(td, outerTuple, inner);
+                }
+            }
+            if (!child1.hasNext())
+                return null;
+            outerTuple = child1.next();
+            probe.setConstant(outerTuple.getField(p.getField1()));
+            if (innerOpen) {
+                child2.rewind();
+            } else {
+                child2.open();
+                innerOpen = true;
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
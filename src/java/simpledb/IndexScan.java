@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table that
+ * satisfy a predicate on an indexed field, <tt>field op constant</tt>,
+ * through a secondary index on it, rather than reading the whole table.
+ * The index finds the record ids of the matching tuples, and the tuples
+ * are fetched from their heap pages through the BufferPool.
+ * <p>
+ * Like a SeqScan, it returns the tuples of the table with field names
+ * prefixed with the table alias.
+ *
+ * @see IndexFile
+ * @see LogicalPlan#physicalPlan
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final IndexFile index;
+    private final Predicate.Op op;
+    private Field constant;
+    private final String alias;
+    private final TupleDesc td;
+    private transient DbFileIterator entries;
+    private boolean open = false;
+
+    // the heap page the last tuple came from; index entries for nearby
+    // keys are often on the same page
+    private transient HeapPage page;
+
+    /**
+     * Creates a scan of the tuples of the table an index is on whose key
+     * satisfies <tt>key op constant</tt>.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param index the index to look the tuples up in
+     * @param op how the key compares to constant
+     * @param constant the value compared to
+     * @param tableAlias the alias of the table, prefixed to the field names
+     *   as for {@link SeqScan}
+     */
+    public IndexScan(TransactionId tid, IndexFile index, Predicate.Op op, Field constant,
+                     String tableAlias) {
+        this.tid = tid;
+        this.index = index;
+        this.op = op;
+        this.constant = constant;
+        this.alias = tableAlias;
+        TupleDesc base = Database.getCatalog().getTupleDesc(index.getIndexedTableId());
+        String[] names = new String[base.numFields()];
+        Type[] types = new Type[base.numFields()];
+        for (int i = 0; i < base.numFields(); i++) {
+            names[i] = tableAlias + "." + base.getFieldName(i);
+            types[i] = base.getFieldType(i);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /** @return the index the scan reads */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /** @return how the key compares to the constant */
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /** @return the constant the key is compared to */
+    public Field getConstant() {
+        return constant;
+    }
+
+    /**
+     * Change the constant the key is compared to. The scan finds the tuples
+     * for it the next time it is opened or rewound, which is how an
+     * {@link IndexNestedLoopJoin} probes the index once per outer tuple.
+     */
+    public void setConstant(Field constant) {
+        this.constant = constant;
+    }
+
+    /** @return the transaction the scan runs as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /** @return the name of the table the scan reads in the catalog */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getIndexedTableId());
+    }
+
+    /** @return the alias of the table */
+    public String getAlias() {
+        return alias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (open)
+            throw new DbException("double open on one DbIterator.");
+        entries = index.indexIterator(tid, op, constant);
+        entries.open();
+        page = null;
+        open = true;
+    }
+
+    /**
+     * @return the TupleDesc of the table, with field names prefixed with
+     *   the table alias
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!open)
+            throw new IllegalStateException("iterator is closed");
+        return entries.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!open)
+            throw new IllegalStateException("iterator is closed");
+        Tuple entry = entries.next();
+        int pageNo = ((IntField) entry.getField(1)).getValue();
+        int slot = ((IntField) entry.getField(2)).getValue();
+        if (page == null || page.getId().pageNumber() != pageNo) {
+            HeapPageId pid = new HeapPageId(index.getIndexedTableId(), pageNo);
+            page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        }
+        Tuple t = page.getTuple(slot);
+        if (t == null)
+            throw new DbException("index entry " + entry + " points at an empty slot");
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        if (entries != null)
+            entries.close();
+        page = null;
+        open = false;
+    }
+}
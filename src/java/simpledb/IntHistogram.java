@@ -1,9 +1,20 @@
 package simpledb;
 
 /** A class to represent a fixed-width histogram over a single integer-based field.
+ * <p>
+ * Bucket i holds the values from left(i) up to (not including) left(i+1),
+ * where the bucket edges are spread as evenly as integers allow over
+ * [min, max]. Within a bucket, values are assumed to be uniformly
+ * distributed.
  */
 public class IntHistogram {
 
+    private final int min;
+    private final int max;
+    private final long range;
+    private final int[] counts;
+    private int total;
+
     /**
      * Create a new IntHistogram.
      * 
@@ -21,7 +32,35 @@ public class IntHistogram {
      * @param max The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
-    	// some code goes here
+        this.min = min;
+        this.max = Math.max(min, max);
+        this.range = (long) this.max - min + 1;
+        this.counts = new int[(int) Math.max(1, Math.min(buckets, range))];
+    }
+
+    /** @return the first value in bucket i; left(numBuckets) is one past max */
+    private long left(int i) {
+        return min + (i * range + counts.length - 1) / counts.length;
+    }
+
+    /** @return the number of distinct values bucket i covers */
+    private long width(int i) {
+        return left(i + 1) - left(i);
+    }
+
+    /** @return the bucket v falls into; v must be in [min, max] */
+    private int bucket(int v) {
+        return (int) (((long) v - min) * counts.length / range);
+    }
+
+    /** @return the number of buckets */
+    int numBuckets() {
+        return counts.length;
+    }
+
+    /** @return the number of values added */
+    public int totalValues() {
+        return total;
     }
 
     /**
@@ -29,7 +68,10 @@ public class IntHistogram {
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-    	// some code goes here
+        if (v < min || v > max)
+            return;
+        counts[bucket(v)]++;
+        total++;
     }
 
     /**
@@ -43,9 +85,89 @@ public class IntHistogram {
      * @return Predicted selectivity of this particular operator and value
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
+        if (total == 0)
+            return 0.0;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equal(v);
+        case NOT_EQUALS:
+            return 1.0 - equal(v);
+        case LESS_THAN:
+            return less(v);
+        case LESS_THAN_OR_EQ:
+            return less(v) + equal(v);
+        case GREATER_THAN:
+            return 1.0 - less(v) - equal(v);
+        case GREATER_THAN_OR_EQ:
+            return 1.0 - less(v);
+        default:
+            throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
 
-    	// some code goes here
-        return -1.0;
+    /** @return the fraction of values equal to v */
+    private double equal(long v) {
+        if (v < min || v > max)
+            return 0.0;
+        int b = bucket((int) v);
+        return (double) counts[b] / width(b) / total;
+    }
+
+    /** @return the fraction of values less than v */
+    private double less(long v) {
+        if (v <= min)
+            return 0.0;
+        if (v > max)
+            return 1.0;
+        int b = bucket((int) v);
+        double n = (double) counts[b] * (v - left(b)) / width(b);
+        for (int i = 0; i < b; i++)
+            n += counts[i];
+        return n / total;
+    }
+
+    /**
+     * Estimate the selectivity of a join predicate <tt>x op y</tt>, where x
+     * is drawn from this histogram and y from other: the fraction of all
+     * (x, y) pairs that satisfy it. Both histograms must be over the same
+     * domain of values (e.g. both over ints, or both over strings).
+     *
+     * @param op Operator
+     * @param other histogram of the right-hand side of the predicate
+     * @return Predicted selectivity of the join predicate
+     */
+    public double estimateJoinSelectivity(Predicate.Op op, IntHistogram other) {
+        if (total == 0 || other.total == 0)
+            return 0.0;
+        if (op == Predicate.Op.NOT_EQUALS)
+            return 1.0 - estimateJoinSelectivity(Predicate.Op.EQUALS, other);
+        double sel = 0.0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0)
+                continue;
+            double share = (double) counts[i] / total;
+            long lo = left(i), hi = left(i + 1);
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                // y falls into this bucket, and on the same value as x
+                sel += share * (other.less(hi) - other.less(lo)) / width(i);
+                break;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                // x < y: y is above the middle of the bucket
+                sel += share * (1.0 - other.less((lo + hi) / 2));
+                break;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                sel += share * other.less((lo + hi) / 2);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown operator " + op);
+            }
+        }
+        return Math.min(1.0, sel);
     }
     
     /**
@@ -58,15 +180,25 @@ public class IntHistogram {
      * */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+        // chance that two values drawn from the histogram are equal
+        if (total == 0)
+            return 1.0;
+        double sel = 0.0;
+        for (int i = 0; i < counts.length; i++) {
+            double share = (double) counts[i] / total;
+            sel += share * share / width(i);
+        }
+        return sel;
     }
     
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-        // some code goes here
-        return null;
+        StringBuilder sb = new StringBuilder("IntHistogram[" + min + ", " + max
+                + "], " + total + " values:");
+        for (int i = 0; i < counts.length; i++)
+            sb.append(" [" + left(i) + "," + left(i + 1) + "):" + counts[i]);
+        return sb.toString();
     }
 }
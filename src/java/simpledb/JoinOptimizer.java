@@ -14,6 +14,35 @@ public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
+    /** the statistics {@link #orderJoins} was given, by table name */
+    private Map<String, TableStats> stats;
+
+    /** The physical join operators the optimizer chooses between. */
+    public enum JoinAlgorithm {
+        /** {@link Join}: tuple-at-a-time nested loops, any predicate */
+        NESTED_LOOP,
+        /** {@link HashJoin}: equality predicates only */
+        HASH,
+        /** {@link BlockNestedLoopJoin}: nested loops over blocks of the outer, any predicate */
+        BLOCK_NESTED_LOOP,
+        /** {@link SortMergeJoin}: equality and range predicates */
+        SORT_MERGE,
+        /**
+         * {@link IndexNestedLoopJoin}: predicates an index on the inner
+         * join field supports, with a base table as the inner input
+         */
+        INDEX_NESTED_LOOP
+    }
+
+    /** Tuple width assumed for inputs that are not base tables. */
+    private static final int DEFAULT_TUPLE_WIDTH = 8;
+
+    /**
+     * Fraction of all pairs assumed to match a range predicate, used for the
+     * cost of producing a sort-merge join's output.
+     */
+    private static final double RANGE_MATCH_FRACTION = 0.3;
+
     /**
      * Constructor
      * 
@@ -34,6 +63,10 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * The operator is the one {@link #estimateJoinCost} found cheapest for
+     * lj. If lj was never costed, equality joins use a {@link HashJoin} and
+     * all others a {@link BlockNestedLoopJoin}.
      * 
      * @param lj
      *            The join being considered
@@ -68,12 +101,99 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        JoinAlgorithm algorithm = lj.algorithm;
+        if (algorithm == JoinAlgorithm.INDEX_NESTED_LOOP) {
+            j = instantiateIndexJoin(p, plan1, plan2);
+            if (j != null)
+                return j;
+            algorithm = null;
+        }
+        if (algorithm == null)
+            algorithm = lj.p == Predicate.Op.EQUALS ? JoinAlgorithm.HASH
+                    : JoinAlgorithm.BLOCK_NESTED_LOOP;
+        switch (algorithm) {
+        case HASH:
+            j = new HashJoin(p, plan1, plan2);
+            break;
+        case BLOCK_NESTED_LOOP:
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
+            break;
+        case SORT_MERGE:
+            j = new SortMergeJoin(p, plan1, plan2);
+            break;
+        default:
+            j = new Join(p, plan1, plan2);
+        }
 
         return j;
 
     }
 
+    /**
+     * Build an {@link IndexNestedLoopJoin} of plan1 to plan2, which must be a
+     * scan of a table with an index on the join field that supports the
+     * predicate, or filters over one. The scan is replaced by one of the
+     * index; if it was already an index scan for a filter, that filter is
+     * applied to the tuples the join finds instead.
+     *
+     * @return the join, or null if plan2 is not such a plan
+     */
+    private static DbIterator instantiateIndexJoin(JoinPredicate p,
+            DbIterator plan1, DbIterator plan2) {
+        Filter parent = null;
+        DbIterator leaf = plan2;
+        while (leaf instanceof Filter) {
+            parent = (Filter) leaf;
+            leaf = parent.getChildren()[0];
+        }
+        int tableId;
+        TransactionId tid;
+        String alias;
+        if (leaf instanceof SeqScan) {
+            SeqScan scan = (SeqScan) leaf;
+            tableId = Database.getCatalog().getTableId(scan.getTableName());
+            tid = scan.getTransactionId();
+            alias = scan.getAlias();
+        } else if (leaf instanceof IndexScan) {
+            IndexScan scan = (IndexScan) leaf;
+            tableId = scan.getIndex().getIndexedTableId();
+            tid = scan.getTransactionId();
+            alias = scan.getAlias();
+        } else {
+            return null;
+        }
+
+        Predicate.Op op = IndexNestedLoopJoin.probeOp(p.getOperator());
+        IndexFile index = findIndex(tableId, p.getField2(), op);
+        if (index == null)
+            return null;
+        IndexScan probe = new IndexScan(tid, index, op, null, alias);
+        DbIterator inner = probe;
+        if (leaf instanceof IndexScan) {
+            IndexScan scan = (IndexScan) leaf;
+            inner = new Filter(new Predicate(scan.getIndex().getKeyField(),
+                    scan.getOp(), scan.getConstant()), probe);
+        }
+        if (parent == null) {
+            plan2 = inner;
+        } else {
+            parent.setChildren(new DbIterator[] { inner });
+        }
+        return new IndexNestedLoopJoin(p, plan1, plan2, probe);
+    }
+
+    /**
+     * @return an index on the given field of the table that supports op, or
+     *         null if there is none
+     */
+    private static IndexFile findIndex(int tableId, int field, Predicate.Op op) {
+        for (Catalog.Index index : Database.getCatalog().getIndexes(tableId)) {
+            if (index.getField() == field && index.file.supports(op))
+                return index.file;
+        }
+        return null;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -82,6 +202,9 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
+     * <p>
+     * Every algorithm that can evaluate j is costed, and the cheapest one is
+     * recorded in j.algorithm for {@link #instantiateJoin}.
      * 
      * 
      * @param j
@@ -102,16 +225,164 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true);
+    }
+
+    /**
+     * Estimate the cost of a join, as {@link #estimateJoinCost(LogicalJoinNode,
+     * int, int, double, double)} does.
+     *
+     * @param innerIsTable
+     *            whether the right-hand side is the table j.t2Alias itself,
+     *            rather than a join it is part of; only a table can be
+     *            probed through an index
+     */
+    double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean innerIsTable) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 4.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // nested loops: one scan of the outer, one scan of the inner
+            // per outer tuple, and the predicate on every pair
+            double best = cost1 + card1 * cost2 + (double) card1 * card2;
+            j.algorithm = JoinAlgorithm.NESTED_LOOP;
+            int width1 = tupleWidth(j.t1Alias), width2 = tupleWidth(j.t2Alias);
+
+            double block = estimateBlockNestedLoopCost(card1, card2, cost1,
+                    cost2, width1);
+            if (block < best) {
+                best = block;
+                j.algorithm = JoinAlgorithm.BLOCK_NESTED_LOOP;
+            }
+            if (SortMergeJoin.supports(j.p)) {
+                double merge = estimateSortMergeCost(j.p, card1, card2, cost1,
+                        cost2, width2);
+                if (merge < best) {
+                    best = merge;
+                    j.algorithm = JoinAlgorithm.SORT_MERGE;
+                }
+            }
+            if (j.p == Predicate.Op.EQUALS) {
+                double hash = estimateHashJoinCost(card1, card2, cost1, cost2,
+                        width1, width2);
+                if (hash < best) {
+                    best = hash;
+                    j.algorithm = JoinAlgorithm.HASH;
+                }
+            }
+            if (innerIsTable) {
+                double index = estimateIndexJoinCost(j, card1, cost1);
+                if (index < best) {
+                    best = index;
+                    j.algorithm = JoinAlgorithm.INDEX_NESTED_LOOP;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Cost of an {@link IndexNestedLoopJoin}: the outer is read once, and
+     * for each outer tuple the index on the inner join field is probed for
+     * the tuples it matches on average (see {@link
+     * TableStats#estimateIndexScanCost}), and the predicate is applied to
+     * each of them.
+     *
+     * @return the cost, or {@link Double#MAX_VALUE} if the inner table has
+     *         no statistics or no index that supports the predicate
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1,
+            double cost1) {
+        Integer tableId = j.t2Alias == null || p == null ? null : p.getTableId(j.t2Alias);
+        if (tableId == null)
+            return Double.MAX_VALUE;
+        TableStats s;
+        int field;
+        try {
+            String name = Database.getCatalog().getTableName(tableId);
+            s = stats != null ? stats.get(name) : TableStats.getTableStats(name);
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return Double.MAX_VALUE;
+        }
+        Predicate.Op op = IndexNestedLoopJoin.probeOp(j.p);
+        IndexFile index = findIndex(tableId, field, op);
+        if (s == null || index == null)
+            return Double.MAX_VALUE;
+        double sel = s.avgSelectivity(field, op);
+        double probe = s.estimateIndexScanCost(index, sel);
+        return cost1 + card1 * (probe + s.estimateTableCardinality(sel));
+    }
+
+    /**
+     * Cost of a {@link HashJoin}: both inputs are read once and every tuple
+     * is hashed once. If the smaller input does not fit in the join's memory
+     * budget, all partitions but the one kept in memory are written out and
+     * read back once more.
+     */
+    static double estimateHashJoinCost(int card1, int card2, double cost1,
+            double cost2, int width1, int width2) {
+        double cost = cost1 + cost2 + card1 + card2;
+        double buildBytes = Math.min((double) card1 * (width1 + HashJoin.TUPLE_OVERHEAD),
+                (double) card2 * (width2 + HashJoin.TUPLE_OVERHEAD));
+        if (buildBytes > HashJoin.DEFAULT_MEMORY_BYTES) {
+            double spilled = 1.0 - 1.0 / HashJoin.FANOUT;
+            cost += 2 * spilled * (cost1 + cost2);
+        }
+        return cost;
+    }
+
+    /**
+     * Cost of a {@link BlockNestedLoopJoin}: the outer is read once, the
+     * inner once per block of outer tuples, and the predicate is applied to
+     * every pair.
+     */
+    static double estimateBlockNestedLoopCost(int card1, int card2,
+            double cost1, double cost2, int width1) {
+        int perPage = Math.max(1, (BufferPool.PAGE_SIZE * 8) / (width1 * 8 + 1));
+        double blocks = Math.ceil((double) card1
+                / (perPage * BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES));
+        return cost1 + Math.max(1, blocks) * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * Cost of a {@link SortMergeJoin}: both inputs are read and sorted once
+     * and merged in one pass. Equality joins only compare neighbouring keys,
+     * range joins also pay for every pair they produce. A range join may
+     * buffer all of the inner in memory, so one whose inner does not fit in
+     * {@link SortMergeJoin#RANGE_MEMORY_BYTES} is never chosen.
+     */
+    static double estimateSortMergeCost(Predicate.Op op, int card1, int card2,
+            double cost1, double cost2, int width2) {
+        double cost = cost1 + cost2 + sortCost(card1) + sortCost(card2)
+                + card1 + card2;
+        if (op != Predicate.Op.EQUALS) {
+            if ((double) card2 * (width2 + HashJoin.TUPLE_OVERHEAD) > SortMergeJoin.RANGE_MEMORY_BYTES)
+                return Double.MAX_VALUE;
+            cost += RANGE_MATCH_FRACTION * card1 * card2;
+        }
+        return cost;
+    }
+
+    /** @return the number of comparisons needed to sort card tuples */
+    private static double sortCost(int card) {
+        return card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * @return the width in bytes of the tuples of the table with the given
+     *         alias, or a default for inputs that are not base tables
+     */
+    private int tupleWidth(String alias) {
+        Integer id = alias == null || p == null ? null : p.getTableId(alias);
+        if (id == null)
+            return DEFAULT_TUPLE_WIDTH;
+        try {
+            return Database.getCatalog().getTupleDesc(id).getSize();
+        } catch (NoSuchElementException e) {
+            return DEFAULT_TUPLE_WIDTH;
         }
     }
 
@@ -149,15 +420,67 @@ public class JoinOptimizer {
 
     /**
      * Estimate the join cardinality of two tables.
+     * <p>
+     * The fraction of pairs that match is estimated from the histograms of
+     * the two join fields, if both tables have statistics; otherwise an
+     * equality join is assumed to match each tuple of the larger side once,
+     * and other joins a fixed fraction of all pairs. An equality join on a
+     * primary key never produces more tuples than the other side has.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
             String table1Alias, String table2Alias, String field1PureName,
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
-        return card <= 0 ? 1 : card;
+        double card;
+        double pairs = (double) card1 * card2;
+        TableStats s1 = statsFor(table1Alias, stats, tableAliasToId);
+        TableStats s2 = statsFor(table2Alias, stats, tableAliasToId);
+        int f1 = fieldIndex(s1, field1PureName), f2 = fieldIndex(s2, field2PureName);
+        if (f1 >= 0 && f2 >= 0
+                && s1.getTupleDesc().getFieldType(f1) == s2.getTupleDesc().getFieldType(f2)) {
+            card = pairs * s1.estimateJoinSelectivity(f1, joinOp, s2, f2);
+        } else if (joinOp == Predicate.Op.EQUALS) {
+            card = Math.max(card1, card2);
+        } else if (joinOp == Predicate.Op.NOT_EQUALS) {
+            card = pairs;
+        } else {
+            card = pairs * RANGE_MATCH_FRACTION;
+        }
+        if (joinOp == Predicate.Op.EQUALS) {
+            if (t1pkey)
+                card = Math.min(card, card2);
+            if (t2pkey)
+                card = Math.min(card, card1);
+        }
+        card = Math.min(card, Integer.MAX_VALUE);
+        return card < 1 ? 1 : (int) card;
+    }
+
+    /** @return the statistics of the table with the given alias, or null */
+    private static TableStats statsFor(String alias, Map<String, TableStats> stats,
+            Map<String, Integer> tableAliasToId) {
+        if (alias == null || stats == null || tableAliasToId == null)
+            return null;
+        Integer id = tableAliasToId.get(alias);
+        if (id == null)
+            return null;
+        try {
+            return stats.get(Database.getCatalog().getTableName(id));
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /** @return the index of the field in the table, or -1 */
+    private static int fieldIndex(TableStats s, String field) {
+        if (s == null || field == null)
+            return -1;
+        try {
+            return s.getTupleDesc().fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
     }
 
     /**
@@ -170,27 +493,28 @@ public class JoinOptimizer {
      *            The size of the subsets of interest
      * @return a set of all subsets of the specified size
      */
-    @SuppressWarnings("unchecked")
     public <T> Set<Set<T>> enumerateSubsets(Vector<T> v, int size) {
         Set<Set<T>> els = new HashSet<Set<T>>();
-        els.add(new HashSet<T>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<Set<T>>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = (Set<T>) (((HashSet<T>) s).clone());
-                    if (news.add(t))
-                        newels.add(news);
-                }
-            }
-            els = newels;
-        }
-
+        addSubsets(v, size, 0, new ArrayList<T>(), els);
         return els;
+    }
 
+    /**
+     * Add every subset of the given size that extends chosen with elements
+     * of v from position start on. Each subset is built once, instead of
+     * once per order of its elements.
+     */
+    private <T> void addSubsets(Vector<T> v, int size, int start,
+            ArrayList<T> chosen, Set<Set<T>> out) {
+        if (chosen.size() == size) {
+            out.add(new HashSet<T>(chosen));
+            return;
+        }
+        for (int i = start; i <= v.size() - (size - chosen.size()); i++) {
+            chosen.add(v.get(i));
+            addSubsets(v, size, i + 1, chosen, out);
+            chosen.remove(chosen.size() - 1);
+        }
     }
 
     /**
@@ -217,11 +541,46 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
-        //Not necessary for labs 1--3
+        this.stats = stats;
+        // joins with subqueries have no statistics to order them by; they
+        // go last, where their outer table has been joined to everything
+        Vector<LogicalJoinNode> tableJoins = new Vector<LogicalJoinNode>();
+        Vector<LogicalJoinNode> subplanJoins = new Vector<LogicalJoinNode>();
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode)
+                subplanJoins.add(j);
+            else
+                tableJoins.add(j);
+        }
+
+        // Selinger: the best left-deep plan for every set of i joins is the
+        // best plan for one of its subsets of i-1 joins plus the last join
+        PlanCache pc = new PlanCache();
+        for (int i = 1; i <= tableJoins.size(); i++) {
+            for (Set<LogicalJoinNode> s : enumerateSubsets(tableJoins, i)) {
+                CostCard best = null;
+                for (LogicalJoinNode j : s) {
+                    CostCard cc = computeCostAndCardOfSubplan(stats,
+                            filterSelectivities, j, s,
+                            best == null ? Double.MAX_VALUE : best.cost, pc);
+                    if (cc != null)
+                        best = cc;
+                }
+                if (best != null)
+                    pc.addPlan(s, best.cost, best.card, best.plan);
+            }
+        }
 
-        // some code goes here
-        //Replace the following
-        return joins;
+        Vector<LogicalJoinNode> order = pc.getOrder(new HashSet<LogicalJoinNode>(tableJoins));
+        if (order == null) {
+            // the tables cannot all be joined without a cross product
+            order = tableJoins;
+        } else if (explain) {
+            printJoins(order, pc, stats, filterSelectivities);
+        }
+        Vector<LogicalJoinNode> result = new Vector<LogicalJoinNode>(order);
+        result.addAll(subplanJoins);
+        return result;
     }
 
     // ===================== Private Methods =================================
@@ -286,6 +645,9 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // whether each side is a table by itself, which an index join can
+        // probe, rather than the joins before this one
+        boolean t1IsTable = true, t2IsTable = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -320,6 +682,7 @@ public class JoinOptimizer {
                                        // left
                 // subtree is
                 t1card = bestCard;
+                t1IsTable = false;
                 leftPkey = hasPkey(prevBest);
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
@@ -336,6 +699,7 @@ public class JoinOptimizer {
                                        // left
                 // subtree is
                 t2card = bestCard;
+                t2IsTable = false;
                 rightPkey = hasPkey(prevBest);
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
@@ -349,11 +713,13 @@ public class JoinOptimizer {
             }
         }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        // case where prevbest is left; the nodes in joins are costed again
+        // for other subsets, so the plan keeps a copy with this choice
+        j = j.copy();
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t2IsTable);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t1IsTable);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -0,0 +1,264 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager implements page-level shared/exclusive locking for the
+ * BufferPool under strict two-phase locking: locks are taken as pages are
+ * requested and held until the transaction completes.
+ * <p>
+ * There is no lock table monitor. Every page has its own lock object, and a
+ * transaction only ever synchronizes on the lock of the page it is asking
+ * for, so transactions working on different pages never wait for each other
+ * and readers of the same page only contend for the few instructions it
+ * takes to register as a sharer.
+ * <p>
+ * A transaction that has to wait records which transactions it is waiting
+ * for in the waits-for graph and checks the graph for a cycle through
+ * itself. If it finds one, the youngest transaction on the cycle is the
+ * victim: it gets a TransactionAbortedException the next time it checks,
+ * while the others keep waiting. Choosing by age rather than by who noticed
+ * the cycle first keeps two transactions that notice it at the same time
+ * from both giving up.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** How often a waiting transaction re-checks the waits-for graph, in ms. */
+    static final long DEADLOCK_RECHECK_MS = 100;
+
+    /** The lock on a single page. All fields are guarded by the object itself. */
+    private static class PageLock {
+        final Set<TransactionId> sharers = new HashSet<TransactionId>();
+        TransactionId exclusive = null;
+        int waiters = 0;
+        // set once the lock has been unlinked from the lock table; a
+        // transaction that finds a retired lock has to look it up again
+        boolean retired = false;
+
+        boolean isFree() {
+            return exclusive == null && sharers.isEmpty();
+        }
+
+        boolean canGrant(TransactionId tid, boolean exclusiveMode) {
+            if (exclusive != null)
+                return exclusive.equals(tid);
+            if (!exclusiveMode)
+                return true;
+            return sharers.isEmpty() || (sharers.size() == 1 && sharers.contains(tid));
+        }
+
+        List<TransactionId> holdersOtherThan(TransactionId tid) {
+            List<TransactionId> holders = new ArrayList<TransactionId>(sharers.size() + 1);
+            if (exclusive != null && !exclusive.equals(tid))
+                holders.add(exclusive);
+            for (TransactionId t : sharers) {
+                if (!t.equals(tid))
+                    holders.add(t);
+            }
+            return holders;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, PageLock> locks =
+        new ConcurrentHashMap<PageId, PageLock>();
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> lockedPages =
+        new ConcurrentHashMap<TransactionId, Set<PageId>>();
+    // waits-for graph: a waiting transaction -> the holders it waits for
+    private final ConcurrentHashMap<TransactionId, List<TransactionId>> waitsFor =
+        new ConcurrentHashMap<TransactionId, List<TransactionId>>();
+
+    /**
+     * Acquire a lock on a page, blocking until it can be granted. A shared
+     * lock is granted if no other transaction holds the page exclusively; an
+     * exclusive lock if no other transaction holds the page at all. A
+     * transaction that holds the only shared lock may upgrade it.
+     *
+     * @param tid the transaction asking for the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException if waiting would deadlock, or the
+     *   thread is interrupted while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        boolean exclusiveMode = perm == Permissions.READ_WRITE;
+        while (true) {
+            PageLock lock = lockFor(pid);
+            synchronized (lock) {
+                if (lock.retired)
+                    continue;
+                if (lock.canGrant(tid, exclusiveMode)) {
+                    grant(lock, tid, pid, exclusiveMode);
+                    return;
+                }
+                lock.waiters++;
+                try {
+                    waitFor(lock, tid, exclusiveMode);
+                } finally {
+                    lock.waiters--;
+                    waitsFor.remove(tid);
+                }
+                grant(lock, tid, pid, exclusiveMode);
+                return;
+            }
+        }
+    }
+
+    /** Wait on the lock until it can be granted; caller holds its monitor. */
+    private void waitFor(PageLock lock, TransactionId tid, boolean exclusiveMode)
+        throws TransactionAbortedException {
+        while (!lock.canGrant(tid, exclusiveMode)) {
+            waitsFor.put(tid, lock.holdersOtherThan(tid));
+            if (isDeadlockVictim(tid)) {
+                Debug.log("deadlock: aborting transaction %d", tid.getId());
+                throw new TransactionAbortedException();
+            }
+            try {
+                lock.wait(DEADLOCK_RECHECK_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionAbortedException();
+            }
+        }
+    }
+
+    private void grant(PageLock lock, TransactionId tid, PageId pid, boolean exclusiveMode) {
+        if (exclusiveMode) {
+            lock.sharers.remove(tid);
+            lock.exclusive = tid;
+        } else if (!tid.equals(lock.exclusive)) {
+            lock.sharers.add(tid);
+        }
+        pagesOf(tid).add(pid);
+    }
+
+    /**
+     * Look for a path in the waits-for graph that leads from tid back to
+     * itself, and decide whether tid is the one to abort. The graph is read
+     * while other transactions change it, so a cycle may be reported from
+     * edges that just went away; the worst that does is abort a transaction
+     * that could have waited.
+     *
+     * @return true if tid is on a cycle and is its youngest member
+     */
+    private boolean isDeadlockVictim(TransactionId tid) {
+        LinkedList<TransactionId> path = new LinkedList<TransactionId>();
+        if (!findCycle(tid, tid, path, new HashSet<TransactionId>()))
+            return false;
+        for (TransactionId t : path) {
+            if (t.getId() > tid.getId())
+                return false;
+        }
+        return true;
+    }
+
+    /** Depth-first search for target; path collects the nodes leading to it. */
+    private boolean findCycle(TransactionId from, TransactionId target,
+                              LinkedList<TransactionId> path, Set<TransactionId> visited) {
+        List<TransactionId> next = waitsFor.get(from);
+        if (next == null)
+            return false;
+        for (TransactionId t : next) {
+            if (t.equals(target))
+                return true;
+            if (!visited.add(t))
+                continue;
+            path.addLast(t);
+            if (findCycle(t, target, path, visited))
+                return true;
+            path.removeLast();
+        }
+        return false;
+    }
+
+    /**
+     * Release one lock. Other transactions waiting for the page are woken up.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        if (pages != null)
+            pages.remove(pid);
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return;
+        synchronized (lock) {
+            lock.sharers.remove(tid);
+            if (tid.equals(lock.exclusive))
+                lock.exclusive = null;
+            if (lock.isFree() && lock.waiters == 0) {
+                lock.retired = true;
+                locks.remove(pid, lock);
+            } else {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /** Release every lock held by a transaction. */
+    public void releaseAll(TransactionId tid) {
+        Set<PageId> pages = lockedPages.remove(tid);
+        waitsFor.remove(tid);
+        if (pages == null)
+            return;
+        for (PageId pid : pages)
+            release(tid, pid);
+    }
+
+    /** @return true if the transaction holds a (shared or exclusive) lock on the page */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return tid.equals(lock.exclusive) || lock.sharers.contains(tid);
+        }
+    }
+
+    /** @return true if the transaction holds an exclusive lock on the page */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return tid.equals(lock.exclusive);
+        }
+    }
+
+    /** @return the pages the transaction currently holds locks on */
+    public Set<PageId> lockedPages(TransactionId tid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        if (pages == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(pages);
+    }
+
+    private PageLock lockFor(PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null) {
+            PageLock fresh = new PageLock();
+            lock = locks.putIfAbsent(pid, fresh);
+            if (lock == null)
+                lock = fresh;
+        }
+        return lock;
+    }
+
+    private Set<PageId> pagesOf(TransactionId tid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        if (pages == null) {
+            Set<PageId> fresh = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            pages = lockedPages.putIfAbsent(tid, fresh);
+            if (pages == null)
+                pages = fresh;
+        }
+        return pages;
+    }
+}
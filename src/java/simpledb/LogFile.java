@@ -2,7 +2,11 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.lang.reflect.*;
 
 /**
@@ -15,65 +19,112 @@ two-phase locking discipline are followed.  <p>
 <p>
 
 Many of the methods here are synchronized (to prevent concurrent log
-writes from happening); many of the methods in BufferPool are also
-synchronized (for similar reasons.)  Problem is that BufferPool writes
-log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
-that reason, any LogFile operation that needs to access the BufferPool
-must not be declared synchronized and must begin with a block like:
-
-<p>
-<pre>
-    synchronized (Database.getBufferPool()) {
-       synchronized (this) {
-
-       ..
-
-       }
-    }
-</pre>
+writes from happening).  The BufferPool writes log records (on page
+flushes) while it holds the frame of the page, and the log file calls
+back into the BufferPool (to drop pages it rolled back or recovered, and
+to read the dirty page table on checkpoints).  The BufferPool has no
+pool-wide monitor, and the methods the log file calls take no frame
+monitors, so the log file may hold its own monitor while it calls them.
+Flushing pages must not happen while holding this, though, as it needs
+the frames first.
 */
 
 /**
-<p> The format of the log file is as follows:
+<p> The format of the log is as follows:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log file itself holds a header of two long integers: the LSN of
+the last written checkpoint, or -1 if there are no checkpoints, and the
+LSN of the first record still in the log.
+
+<li> The records are kept in segment files in a directory next to the
+log file (see {@link #SEGMENT_DIR_SUFFIX}). Each segment is named after
+the LSN of its offset 0, and begins with that LSN as a long integer.
+Records are appended to the last segment until it reaches the segment
+size (see {@link #setSegmentSize}), and then a new segment starts at the
+LSN where the old one ended. A record never spans two segments.
 
 <li> All additional data in the log consists of log records.  Log
 records are variable length.
 
-<li> Each log record begins with an integer type and a long integer
-transaction id.
+<li> Each log record begins with an integer length of the whole record,
+an integer type, a long integer transaction id and the LSN of the
+previous record of the same transaction (0 for its first record), which
+chains the records of a transaction together, latest first.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with its own LSN, so that a record torn by a
+crash, or left over in a segment file that was reused, is not mistaken
+for part of the log.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT and CLR
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
-<li>UPDATE RECORDS consist of two entries, a before image and an
-after image.  These images are serialized Page objects, and can be
-accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
-
-<li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+<li>UPDATE RECORDS begin with a byte that says how the change is
+described. PAGE_IMAGES updates consist of two entries, a before image
+and an after image.  These images are serialized Page objects, and can
+be accessed with the LogFile.readPageData() and LogFile.writePageData()
+methods.  See LogFile.print() for an example. HEAP_SLOTS updates, which
+are used for HeapPages, describe only the slots that changed: the page
+id, an integer count of slots, and for each of them the slot number,
+its contents before and its contents after (see writeSlot()). A slot's
+contents stand for its header bit as well, so redoing or undoing a
+HEAP_SLOTS update sets the slots to the logged contents whatever they
+held before, and can be repeated.
+
+<li> CLR (compensation log record) records describe the undo of an
+UPDATE record during rollback. They consist of the LSN of the next
+record of the transaction that is left to undo (the undone record's
+previous LSN), and the state the page was restored to, in the form of
+the undone record: either the page's image, or the page id and the
+contents of the slots that were restored. CLRs are redone but never
+undone, so a rollback that is interrupted by a crash picks up where it
+stopped.
+
+<li> CHECKPOINT records consist of the active transaction table and the
+dirty page table at the time the checkpoint was taken. The former is an
+integer count of transactions, followed by a long transaction id, the
+LSN of its first record and the LSN of its last record for each of
+them; the latter is an integer count of pages, followed by a serialized
+page id and the LSN of the first record whose change may not be on disk
+yet (the page's recLSN) for each of them.
 
 </ul>
 
+<p> Positions in the log are exposed as log sequence numbers (LSNs), which
+keep increasing when the log is truncated: the LSN of a record is the
+LSN of its segment plus the record's offset in the segment file. Truncating
+the log drops the segments that lie entirely before the oldest record
+recovery may still need; their files are deleted, or kept to be reused
+for later segments, so nothing is copied. Every
+page carries the LSN of the last record that changed it (see
+{@link Page#getLsn}), and a page may only be written to disk once the log
+is durable up to that record (write-ahead logging).
+
+<p> Commits use group commit: the COMMIT record is appended, and then the
+committing thread waits for the {@link LogFlusher} to force the log past
+it, so that one force can make many commits durable.
+
+<p> Recovery follows ARIES. The analysis pass reads the log from the last
+checkpoint on and rebuilds the transaction and dirty page tables as of
+the crash; the redo pass repeats history from the smallest recLSN in the
+dirty page table, skipping records whose page already has a newer LSN on
+disk; the undo pass rolls back the transactions that never finished,
+writing a CLR for every record it undoes. Only the log from the last
+checkpoint (or the oldest record it still needs) on is read, however
+large the database is. Checkpoints are fuzzy by default: they record the
+dirty page table without writing any pages (see {@link CheckpointMode}),
+while a {@link PageCleaner} keeps the number of dirty pages down in the
+background.
+
 */
 
 public class LogFile {
 
     final File logFile;
+    final File segmentDir;
     private RandomAccessFile raf;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
@@ -82,16 +133,82 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int CLR_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
+    /** An UPDATE or CLR holding whole page images. */
+    static final byte PAGE_IMAGES = 0;
+    /** An UPDATE or CLR holding the changed slots of a HeapPage. */
+    static final byte HEAP_SLOTS = 1;
+    /** The previous LSN of a transaction's first record. */
+    static final long NO_LSN = 0;
+
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
+    final static int HEADER_SIZE = 2 * LONG_SIZE;
+    /** Size of the header of a segment file: the LSN of its offset 0. */
+    final static int SEGMENT_HEADER_SIZE = LONG_SIZE;
+    /** Size of a record with no body: length, type, tid, previous LSN and LSN. */
+    final static int MIN_RECORD_SIZE = 2 * INT_SIZE + 3 * LONG_SIZE;
+
+    /** Appended to the log file's name to get the segment directory. */
+    public static final String SEGMENT_DIR_SUFFIX = ".segments";
+    static final String SEGMENT_SUFFIX = ".seg";
+    /** Default size of a segment file. */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+    /** The most segment files kept for reuse after truncation. */
+    static final int MAX_FREE_SEGMENTS = 4;
+
+    /** A segment file, holding the records from its base LSN on. */
+    static class Segment {
+        final long base;
+        final File file;
+        final RandomAccessFile raf;
+
+        Segment(long base, File file) throws IOException {
+            this.base = base;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+        }
+    }
 
-    long currentOffset = -1;//protected by this
+    // the segments still in the log by base LSN, and the last one, which
+    // records are appended to; protected by this
+    private final TreeMap<Long,Segment> segments = new TreeMap<Long,Segment>();
+    private Segment current;
+    private boolean segmentsOpened = false;
+    // files of truncated segments, to be reused; protected by this
+    private final LinkedList<File> freeSegments = new LinkedList<File>();
+    private volatile int segmentSize = DEFAULT_SEGMENT_SIZE;
+
+    long currentLsn = NO_LSN;//protected by this
+    long checkpointLsn = NO_CHECKPOINT_ID;//protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
-    HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
+    /** An entry of the active transaction table. */
+    static class TxnState {
+        long firstLsn;
+        long lastLsn;
+
+        TxnState(long firstLsn, long lastLsn) {
+            this.firstLsn = firstLsn;
+            this.lastLsn = lastLsn;
+        }
+    }
+
+    // the active transaction table: transactions that have written a record
+    // but no COMMIT or ABORT yet; protected by this
+    HashMap<Long,TxnState> activeTxns = new HashMap<Long,TxnState>();
+
+    private final LogFlusher flusher = new LogFlusher(this);
+
+    // the record being appended, serialized so it is written with one call;
+    // protected by this
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private int recordType;
+    private long recordTid;
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -102,10 +219,12 @@ public class LogFile {
         do it, while if someone starts adding log file entries, then first
         throw out the initial log file contents.
 
-        @param f The log file's name
+        @param f The log file's name; the segments go in a directory
+          next to it
     */
     public LogFile(File f) throws IOException {
 	this.logFile = f;
+        this.segmentDir = new File(f.getPath() + SEGMENT_DIR_SUFFIX);
         raf = new RandomAccessFile(f, "rw");
         recoveryUndecided = true;
 
@@ -127,101 +246,359 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            // pages on disk may carry LSNs of the old log, so the new one
+            // starts where the old one ended
+            long base = 0;
+            if (raf.length() >= HEADER_SIZE) {
+                raf.seek(LONG_SIZE);
+                base = raf.readLong();
+                if (base < 0 || base > Long.MAX_VALUE / 2)
+                    base = 0;
+                base += raf.length();
+            }
+            openSegments();
+            for (Segment s : segments.values()) {
+                base = Math.max(base, s.base + s.raf.length());
+                retire(s);
+            }
+            segments.clear();
+            startSegment(base);
+            checkpointLsn = NO_CHECKPOINT_ID;
+            writeHeader();
+        }
+    }
+
+    /**
+     * Find the segments a previous run left behind. Those that lie entirely
+     * before the first LSN in the header were truncated, and files whose
+     * header does not match their name were being reused when the system
+     * stopped; both hold no part of the log and are kept for reuse.
+     */
+    private void openSegments() throws IOException {
+        if (segmentsOpened)
+            return;
+        segmentsOpened = true;
+        long first = NO_LSN;
+        if (raf.length() >= HEADER_SIZE) {
+            raf.seek(LONG_SIZE);
+            first = raf.readLong();
         }
+        File[] files = segmentDir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(SEGMENT_SUFFIX))
+                continue;
+            long base;
+            try {
+                base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()), 16);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            Segment s = new Segment(base, file);
+            boolean valid = false;
+            if (s.raf.length() >= SEGMENT_HEADER_SIZE) {
+                s.raf.seek(0);
+                valid = s.raf.readLong() == base;
+            }
+            if (valid)
+                segments.put(base, s);
+            else
+                retire(s);
+        }
+        while (segments.size() > 1 && segments.higherKey(segments.firstKey()) <= first)
+            retire(segments.remove(segments.firstKey()));
+        if (!segments.isEmpty())
+            current = segments.lastEntry().getValue();
+    }
+
+    /**
+     * Start a new segment at the given LSN, in the file of a truncated
+     * segment if there is one. Must be called holding this.
+     */
+    private void startSegment(long base) throws IOException {
+        segmentDir.mkdirs();
+        File file = new File(segmentDir, String.format("%016x%s", base, SEGMENT_SUFFIX));
+        File free = freeSegments.poll();
+        if (free != null && !free.renameTo(file))
+            free.delete();
+        Segment s = new Segment(base, file);
+        s.raf.seek(0);
+        s.raf.writeLong(base);
+        segments.put(base, s);
+        current = s;
+        currentLsn = base + SEGMENT_HEADER_SIZE;
+    }
+
+    /**
+     * Close a segment that is no longer part of the log, keeping its file
+     * to be reused unless there are enough spare files already.
+     */
+    private void retire(Segment s) throws IOException {
+        s.raf.close();
+        if (freeSegments.size() < MAX_FREE_SEGMENTS)
+            freeSegments.add(s.file);
+        else
+            s.file.delete();
+    }
+
+    /**
+     * Write the header of the log file and force it to disk. Must be
+     * called holding this.
+     */
+    private void writeHeader() throws IOException {
+        raf.seek(0);
+        raf.writeLong(checkpointLsn);
+        raf.writeLong(getFirstLsn());
+        raf.getFD().sync();
+    }
+
+    /** @return the LSN of the first record still in the log */
+    public synchronized long getFirstLsn() {
+        return segments.isEmpty() ? NO_LSN : segments.firstKey() + SEGMENT_HEADER_SIZE;
+    }
+
+    /** @return the number of segment files the log consists of */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Set the size at which the log moves on to a new segment file. Only
+     * segments started afterwards are affected. A record larger than the
+     * size gets a segment of its own.
+     */
+    public void setSegmentSize(int bytes) {
+        segmentSize = Math.max(SEGMENT_HEADER_SIZE + MIN_RECORD_SIZE, bytes);
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
     }
 
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
-    
-    /** Write an abort record to the log for the specified tid, force
-        the log to disk, and perform a rollback
+
+    /** @return the group commit flusher of this log, for tuning and statistics */
+    public LogFlusher getFlusher() {
+        return flusher;
+    }
+
+    /** @return the LSN just past the last record appended to the log */
+    public synchronized long getCurrentLsn() {
+        return currentLsn;
+    }
+
+    /** @return the LSN up to which the log is known to be on disk */
+    public long getDurableLsn() {
+        return flusher.getDurableLsn();
+    }
+
+    /**
+     * Start appending a record of the given type. The caller writes the
+     * record's body to the returned stream and then calls
+     * {@link #endRecord}. Must be called holding this.
+     */
+    private DataOutputStream beginRecord(int type, long tid) throws IOException {
+        preAppend();
+        recordType = type;
+        recordTid = tid;
+        TxnState t = type == CHECKPOINT_RECORD ? null : activeTxns.get(tid);
+        recordBytes.reset();
+        record.writeInt(0); // the length, filled in by endRecord
+        record.writeInt(type);
+        record.writeLong(tid);
+        record.writeLong(t == null ? NO_LSN : t.lastLsn);
+        return record;
+    }
+
+    /**
+     * Finish the record with its length and LSN and append it to the log,
+     * making it the last record of its transaction. Must be called holding
+     * this.
+     *
+     * @return the LSN of the record
+     */
+    private long endRecord() throws IOException {
+        int length = recordBytes.size() + LONG_SIZE;
+        long offset = currentLsn - current.base;
+        if (offset + length > segmentSize && offset > SEGMENT_HEADER_SIZE) {
+            // the old segment is forced now, so forcing the log only ever
+            // has to force the last one
+            current.raf.getChannel().force(true);
+            startSegment(currentLsn);
+            offset = SEGMENT_HEADER_SIZE;
+        }
+        long lsn = currentLsn;
+        record.writeLong(lsn);
+        record.flush();
+        byte[] bytes = recordBytes.toByteArray();
+        ByteBuffer.wrap(bytes).putInt(0, length);
+        current.raf.seek(offset);
+        current.raf.write(bytes);
+        currentLsn += length;
+        if (recordType != CHECKPOINT_RECORD) {
+            TxnState t = activeTxns.get(recordTid);
+            if (t == null)
+                activeTxns.put(recordTid, new TxnState(lsn, lsn));
+            else
+                t.lastLsn = lsn;
+        }
+        return lsn;
+    }
+
+    /**
+     * Wait until the log is durable up to lsn, forcing it through the
+     * group commit flusher.
+     */
+    void awaitDurable(long lsn) throws IOException {
+        try {
+            flusher.requestFlush(lsn).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for the log to be forced");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause().toString());
+        }
+    }
+
+    /**
+     * Make sure the record with the given LSN, and every record before it,
+     * is on disk. A page whose LSN is lsn may be written out afterwards.
+     */
+    public void flushTo(long lsn) throws IOException {
+        if (lsn < getDurableLsn())
+            return;
+        if (Thread.holdsLock(this)) {
+            // the flusher thread would need this to force
+            force();
+            return;
+        }
+        awaitDurable(lsn + 1);
+    }
+
+    /** @return true if the transaction has written records to the log and
+        has not committed or aborted yet */
+    public synchronized boolean isActive(TransactionId tid) {
+        return activeTxns.containsKey(tid.getId());
+    }
+
+    /** Write an abort record to the log for the specified tid, after
+        rolling it back.  Does nothing if the transaction never wrote to
+        the log.
         @param tid The aborting transaction.
     */
     public void logAbort(TransactionId tid) throws IOException {
-        // must have buffer pool lock before proceeding, since this
-        // calls rollback
+        synchronized(this) {
+            //Debug.log("ABORT");
+            if (!activeTxns.containsKey(tid.getId()))
+                return;
 
-        synchronized (Database.getBufferPool()) {
+            rollback(tid);
 
-            synchronized(this) {
-                preAppend();
-                //Debug.log("ABORT");
-                //should we verify that this is a live transaction?
-
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
-
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
-                tidToFirstLogRecord.remove(tid.getId());
-            }
+            beginRecord(ABORT_RECORD, tid.getId());
+            endRecord();
+            activeTxns.remove(tid.getId());
         }
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and wait until the log has been forced past it.  The force is
+        shared with other transactions committing at the same time
+        (see {@link LogFlusher}).  Does nothing if the transaction never
+        wrote to the log.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long lsn;
+        synchronized (this) {
+            Debug.log("COMMIT " + tid.getId());
+            if (!activeTxns.containsKey(tid.getId()))
+                return;
+
+            beginRecord(COMMIT_RECORD, tid.getId());
+            endRecord();
+            activeTxns.remove(tid.getId());
+            lsn = currentLsn;
+        }
+        awaitDurable(lsn);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+        (with provided         before and after images.)  For HeapPages,
+        only the slots that differ between the images are logged.  The
+        caller sets the page's LSN to the returned one, and must not write
+        the page before the log is durable up to it (see {@link #flushTo}).
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the LSN of the record
 
         @see simpledb.Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
-        preAppend();
+        Debug.log("WRITE, LSN = " + currentLsn);
         /* update record conists of
 
+           record length
            record type
            transaction id
+           previous LSN
+           PAGE_IMAGES
            before page data (see writePageData)
            after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+           LSN
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+           or for HeapPages
 
-        Debug.log("WRITE OFFSET = " + currentOffset);
-    }
+           ...
+           HEAP_SLOTS
+           page id
+           number of slots
+           slot number, before slot, after slot (see writeSlot)
+           ...
+           LSN
+        */
+        DataOutputStream out = beginRecord(UPDATE_RECORD, tid.getId());
+        if (before instanceof HeapPage && after instanceof HeapPage) {
+            HeapPage b = (HeapPage) before, a = (HeapPage) after;
+            ArrayList<Integer> changed = new ArrayList<Integer>();
+            ArrayList<byte[]> befores = new ArrayList<byte[]>();
+            ArrayList<byte[]> afters = new ArrayList<byte[]>();
+            for (int i = 0; i < a.getNumSlots(); i++) {
+                if (!a.sameSlot(i, b)) {
+                    changed.add(i);
+                    befores.add(b.getSlotData(i));
+                    afters.add(a.getSlotData(i));
+                }
+            }
+            out.writeByte(HEAP_SLOTS);
+            writePageId(out, a.getId());
+            out.writeInt(changed.size());
+            for (int i = 0; i < changed.size(); i++) {
+                out.writeInt(changed.get(i));
+                writeSlot(out, befores.get(i));
+                writeSlot(out, afters.get(i));
+            }
+        } else {
+            out.writeByte(PAGE_IMAGES);
+            writePageData(out,before);
+            writePageData(out,after);
+        }
+        long lsn = endRecord();
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
+        Debug.log("WRITE END LSN = " + currentLsn);
+        return lsn;
+    }
 
+    void writePageData(DataOutput raf, Page p) throws IOException{
         //page data is:
         // page class name
         // id class name
@@ -231,51 +608,30 @@ public class LogFile {
         // page class data
 
         String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
         raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        writePageId(raf, p.getId());
 
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
-        }
         byte[] pageData = p.getPageData();
         raf.writeInt(pageData.length);
         raf.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
+    Page readPageData(DataInput raf) throws IOException {
         Page newPage = null;
 
         String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        PageId pid = readPageId(raf);
 
         try {
-            Class<?> idClass = Class.forName(idClassName);
             Class<?> pageClass = Class.forName(pageClassName);
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+            raf.readFully(pageData); //read before image
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)constructor(pageClass, 2).newInstance(pid, pageData);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -295,6 +651,67 @@ public class LogFile {
 
     }
 
+    /** Write the contents of a HeapPage slot, null for an empty one: its
+        length, or -1 if it is empty, and its bytes. */
+    void writeSlot(DataOutput out, byte[] slot) throws IOException {
+        if (slot == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(slot.length);
+        out.write(slot);
+    }
+
+    byte[] readSlot(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] slot = new byte[length];
+        in.readFully(slot);
+        return slot;
+    }
+
+    void writePageId(DataOutput out, PageId pid) throws IOException {
+        int pageInfo[] = pid.serialize();
+        out.writeUTF(pid.getClass().getName());
+        out.writeInt(pageInfo.length);
+        for (int i = 0; i < pageInfo.length; i++) {
+            out.writeInt(pageInfo[i]);
+        }
+    }
+
+    PageId readPageId(DataInput in) throws IOException {
+        String idClassName = in.readUTF();
+        int numIdArgs = in.readInt();
+        Object idArgs[] = new Object[numIdArgs];
+        for (int i = 0; i<numIdArgs;i++) {
+            idArgs[i] = new Integer(in.readInt());
+        }
+        try {
+            return (PageId)constructor(Class.forName(idClassName), numIdArgs).newInstance(idArgs);
+        } catch (ClassNotFoundException e){
+            e.printStackTrace();
+            throw new IOException();
+        } catch (InstantiationException e) {
+            e.printStackTrace();
+            throw new IOException();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+            throw new IOException();
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+            throw new IOException();
+        }
+    }
+
+    /** @return the constructor of c that takes the given number of arguments */
+    private static Constructor<?> constructor(Class<?> c, int numArgs) throws IOException {
+        for (Constructor<?> k : c.getDeclaredConstructors())
+            if (k.getParameterTypes().length == numArgs)
+                return k;
+        throw new IOException(c.getName() + " has no constructor taking " + numArgs + " arguments");
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -302,155 +719,145 @@ public class LogFile {
     public synchronized  void logXactionBegin(TransactionId tid)
         throws IOException {
         Debug.log("BEGIN");
-        if(tidToFirstLogRecord.get(tid.getId()) != null){
+        if(activeTxns.get(tid.getId()) != null){
             System.err.printf("logXactionBegin: already began this tid\n");
             throw new IOException("double logXactionBegin()");
         }
-        preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        beginRecord(BEGIN_RECORD, tid.getId());
+        endRecord();
 
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+        Debug.log("BEGIN END LSN = " + currentLsn);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
-    public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
-
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
-            }
+    /**
+     * How a checkpoint treats the dirty pages in the BufferPool. The default
+     * may be chosen on the command line with -Dsimpledb.Checkpoint=NAME.
+     */
+    public enum CheckpointMode {
+        /**
+         * Write every dirty page first, holding the BufferPool, so that
+         * recovery has nothing to redo from before the checkpoint; writes
+         * stall until it is done.
+         */
+        SHARP,
+        /**
+         * Write no pages: record the dirty page table as it is, and let
+         * recovery redo from the oldest change in it. Only the LogFile is
+         * held, for as long as it takes to write the record.
+         */
+        FUZZY;
+
+        /**
+         * @return the mode named by the simpledb.Checkpoint system
+         *   property, or FUZZY if the property is not set
+         * @throws IllegalArgumentException if the property names an unknown mode
+         */
+        public static CheckpointMode getDefault() {
+            String name = System.getProperty("simpledb.Checkpoint");
+            if (name == null || name.length() == 0)
+                return FUZZY;
+            return valueOf(name.trim().toUpperCase());
         }
-
-        logTruncate();
     }
 
-    /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
-    public synchronized void logTruncate() throws IOException {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
+    private volatile CheckpointMode checkpointMode = CheckpointMode.getDefault();
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+    /** Set how {@link #logCheckpoint()} treats dirty pages. */
+    public void setCheckpointMode(CheckpointMode mode) {
+        checkpointMode = mode;
+    }
 
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
+    public CheckpointMode getCheckpointMode() {
+        return checkpointMode;
+    }
 
-            int numOutstanding = raf.readInt();
+    /** Checkpoint the log and write a checkpoint record, in the mode set
+        with {@link #setCheckpointMode}. */
+    public void logCheckpoint() throws IOException {
+        logCheckpoint(checkpointMode);
+    }
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+    /** Checkpoint the log and write a checkpoint record.
+        @param mode whether dirty pages are written first
+    */
+    public void logCheckpoint(CheckpointMode mode) throws IOException {
+        BufferPool pool = Database.getBufferPool();
+        if (mode == CheckpointMode.SHARP) {
+            // flushing logs each dirty page, so it happens before this
+            // is locked: the BufferPool holds a page while it logs it
+            pool.flushAllPages();
         }
+        // pages written before the checkpoint leave the dirty page table
+        // only once they are surely on disk
+        pool.syncWrittenPages();
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            Map<PageId,Long> dirtyPages = pool.getDirtyPageTable();
+            DataOutputStream out = beginRecord(CHECKPOINT_RECORD, -1); //no tid , but leave space for convenience
+
+            //write the active transaction table
+            out.writeInt(activeTxns.size());
+            for (Map.Entry<Long,TxnState> e : activeTxns.entrySet()) {
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                out.writeLong(e.getKey());
+                out.writeLong(e.getValue().firstLsn);
+                out.writeLong(e.getValue().lastLsn);
+            }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+            //write the dirty page table
+            out.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId,Long> e : dirtyPages.entrySet()) {
+                writePageId(out, e.getKey());
+                out.writeLong(e.getValue());
+            }
+            long cpLsn = endRecord();
 
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
+            //once the CP is on disk, make sure the CP location at the
+            // beginning of the log file is updated
+            force();
+            checkpointLsn = cpLsn;
+            writeHeader();
+        }
 
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
+        logTruncate();
+    }
 
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+    /** Truncate any unneeded portion of the log to reduce its space
+        consumption: everything before the last checkpoint, the first
+        record of the transactions active at the checkpoint, and the
+        recLSN of the pages dirty at the checkpoint. Only whole segments
+        are dropped, so this takes time proportional to the number of
+        segments dropped, not to the size of the log. */
+    public synchronized void logTruncate() throws IOException {
+        preAppend();
+        if (checkpointLsn == NO_CHECKPOINT_ID)
+            return;
 
-            } catch (EOFException e) {
-                break;
-            }
+        LogRecord cp = readRecord(checkpointLsn);
+        if (cp.type != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+        long minLogRecord = checkpointLsn;
+        for (TxnState t : cp.txns.values())
+            minLogRecord = Math.min(minLogRecord, t.firstLsn);
+        for (long recLsn : cp.dirtyPages.values())
+            minLogRecord = Math.min(minLogRecord, recLsn);
+
+        // a segment can go once the next one starts at or before
+        // minLogRecord
+        ArrayList<Segment> dropped = new ArrayList<Segment>();
+        while (segments.size() > 1 && segments.higherKey(segments.firstKey()) <= minLogRecord)
+            dropped.add(segments.remove(segments.firstKey()));
+        if (dropped.isEmpty())
+            return;
+
+        Debug.log("TRUNCATING LOG; DROPPING " + dropped.size() + " SEGMENTS; NEW START: " + getFirstLsn());
+
+        // the header has to point past them before they are gone
+        writeHeader();
+        for (Segment seg : dropped)
+            retire(seg);
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -458,27 +865,166 @@ public class LogFile {
         transaction semantics, this should not be called on
         transactions that have already committed (though this may not
         be enforced by this method.)
+        <p>
+        The transaction's records are undone latest first by following
+        their previous LSNs; each undone UPDATE gets a CLR. Once the
+        CLRs are forced, with one force, the pages as they were before
+        are written to disk and discarded from the BufferPool.
 
         @param tid The transaction to rollback
+        @throws NoSuchElementException if the transaction is not active
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized(this) {
-                preAppend();
-                // some code goes here
+        synchronized(this) {
+            preAppend();
+            if (!activeTxns.containsKey(tid.getId()))
+                throw new NoSuchElementException("transaction " + tid.getId() + " is not active");
+            undo(Collections.singleton(tid.getId()));
+        }
+    }
+
+    /**
+     * Undo the given active transactions, latest record first across all
+     * of them, so that the log is read backwards only once. Must be called
+     * holding this.
+     */
+    private void undo(Collection<Long> tids) throws IOException {
+        // the next record to undo of each transaction: {lsn, tid}
+        PriorityQueue<long[]> todo = new PriorityQueue<long[]>(Math.max(1, tids.size()),
+                new Comparator<long[]>() {
+                    public int compare(long[] a, long[] b) {
+                        return a[0] > b[0] ? -1 : a[0] == b[0] ? 0 : 1;
+                    }
+                });
+        for (Long tid : tids)
+            todo.add(new long[] { activeTxns.get(tid).lastLsn, tid });
+        // the pages as restored so far, each with the LSN of its last CLR;
+        // they are written once all the CLRs are forced with one force
+        LinkedHashMap<PageId,Page> restoredPages = new LinkedHashMap<PageId,Page>();
+
+        while (!todo.isEmpty()) {
+            long[] next = todo.poll();
+            LogRecord r = readRecord(next[0]);
+            long undoNext;
+            switch (r.type) {
+            case UPDATE_RECORD:
+                DataOutputStream out = beginRecord(CLR_RECORD, r.tid);
+                out.writeLong(r.prevLsn);
+                Page restored;
+                if (r.slots == null) {
+                    out.writeByte(PAGE_IMAGES);
+                    writePageData(out, r.before);
+                    restored = r.before;
+                } else {
+                    out.writeByte(HEAP_SLOTS);
+                    writePageId(out, r.pid);
+                    out.writeInt(r.slots.length);
+                    for (int i = 0; i < r.slots.length; i++) {
+                        out.writeInt(r.slots[i]);
+                        writeSlot(out, r.beforeSlots[i]);
+                    }
+                    restored = restoredPages.get(r.pid);
+                    if (restored == null)
+                        restored = diskPage(r.pid);
+                    for (int i = 0; i < r.slots.length; i++)
+                        ((HeapPage) restored).setSlotData(r.slots[i], r.beforeSlots[i]);
+                }
+                restored.setLsn(endRecord());
+                restoredPages.put(restored.getId(), restored);
+                undoNext = r.prevLsn;
+                break;
+            case CLR_RECORD:
+                // already undone before a crash; skip what it undid
+                undoNext = r.undoNextLsn;
+                break;
+            default:
+                undoNext = r.prevLsn;
             }
+            if (undoNext != NO_LSN)
+                todo.add(new long[] { undoNext, next[1] });
         }
+        if (restoredPages.isEmpty())
+            return;
+        // the CLRs go first, so no page has an LSN the log does not have
+        force();
+        for (Page p : restoredPages.values())
+            installPage(p, p.getLsn());
+    }
+
+    /**
+     * Write a page image to disk with the given LSN, dropping any copy of
+     * the page the BufferPool has.
+     */
+    private void installPage(Page p, long lsn) throws IOException {
+        p.setLsn(lsn);
+        Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+        Database.getBufferPool().discardPage(p.getId());
+        Database.getBufferPool().pageWritten(p.getId(), lsn);
+    }
+
+    /**
+     * @return the page as it is on disk, or an empty HeapPage if it is
+     *   not on disk yet
+     */
+    private Page diskPage(PageId pid) throws IOException {
+        if (pastEnd(pid))
+            return new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData());
+        return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+    }
+
+    /**
+     * @return the page as it is after the change of an UPDATE or CLR
+     *   record, for redo
+     */
+    private Page redoPage(LogRecord r) throws IOException {
+        if (r.slots == null)
+            return r.after;
+        HeapPage p = (HeapPage) diskPage(r.pid);
+        for (int i = 0; i < r.slots.length; i++)
+            p.setSlotData(r.slots[i], r.afterSlots[i]);
+        return p;
+    }
+
+    /** @return the LSN of the page on disk, 0 if it is not on disk yet */
+    private long diskLsn(PageId pid) {
+        if (pastEnd(pid))
+            return 0;
+        return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid).getLsn();
+    }
+
+    /**
+     * @return whether a page lies past the end of its file, that is, it was
+     *   never written
+     */
+    private static boolean pastEnd(PageId pid) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        int numPages;
+        if (file instanceof HeapFile)
+            numPages = ((HeapFile) file).numPages();
+        else if (file instanceof BTreeFile)
+            numPages = ((BTreeFile) file).numPages();
+        else if (file instanceof HashFile)
+            numPages = ((HashFile) file).numPages();
+        else if (file instanceof PaxFile)
+            numPages = ((PaxFile) file).numPages();
+        else
+            return false;
+        return pid.pageNumber() >= numPages;
     }
 
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
-            logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            logCheckpoint(CheckpointMode.SHARP);  //simple way to shutdown is to write a checkpoint record
+            synchronized (this) {
+                for (Segment seg : segments.values())
+                    seg.raf.close();
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -488,23 +1034,286 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        The tables in the log have to be in the Catalog.
     */
     public void recover() throws IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                recoveryUndecided = false;
-                // some code goes here
+        synchronized (this) {
+            openSegments();
+            if (raf.length() < HEADER_SIZE || segments.isEmpty()) {
+                // nothing was ever logged
+                preAppend();
+                return;
+            }
+            recoveryUndecided = false;
+            raf.seek(0);
+            checkpointLsn = raf.readLong();
+            activeTxns.clear();
+            HashMap<PageId,Long> dirtyPages = new HashMap<PageId,Long>();
+
+            // analysis: rebuild the transaction and dirty page tables
+            // as of the crash from the last checkpoint on
+            long lsn = getFirstLsn();
+            if (checkpointLsn != NO_CHECKPOINT_ID) {
+                LogRecord cp = readRecord(checkpointLsn);
+                activeTxns.putAll(cp.txns);
+                dirtyPages.putAll(cp.dirtyPages);
+                lsn = cp.next;
+            }
+            while (true) {
+                LogRecord r;
+                try {
+                    r = readRecord(lsn);
+                } catch (EOFException e) {
+                    // the last record was only partly written, or
+                    // this is what a reused segment file held before
+                    break;
+                }
+                switch (r.type) {
+                case CHECKPOINT_RECORD:
+                    break;
+                case COMMIT_RECORD:
+                case ABORT_RECORD:
+                    activeTxns.remove(r.tid);
+                    break;
+                default:
+                    TxnState t = activeTxns.get(r.tid);
+                    if (t == null)
+                        activeTxns.put(r.tid, new TxnState(r.lsn, r.lsn));
+                    else
+                        t.lastLsn = r.lsn;
+                    if (r.pid != null && !dirtyPages.containsKey(r.pid))
+                        dirtyPages.put(r.pid, r.lsn);
+                }
+                lsn = r.next;
+            }
+            endLogAt(lsn);
+
+            // redo: repeat history from the oldest change that may
+            // not have reached the disk
+            if (!dirtyPages.isEmpty()) {
+                lsn = Collections.min(dirtyPages.values());
+                while (lsn < currentLsn) {
+                    LogRecord r = readRecord(lsn);
+                    if (r.pid != null) {
+                        Long recLsn = dirtyPages.get(r.pid);
+                        if (recLsn != null && r.lsn >= recLsn && diskLsn(r.pid) < r.lsn)
+                            installPage(redoPage(r), r.lsn);
+                    }
+                    lsn = r.next;
+                }
             }
-         }
+
+            // undo: roll back the transactions that never finished
+            ArrayList<Long> losers = new ArrayList<Long>(activeTxns.keySet());
+            undo(losers);
+            for (Long tid : losers) {
+                beginRecord(ABORT_RECORD, tid);
+                endRecord();
+                activeTxns.remove(tid);
+            }
+            force();
+        }
+    }
+
+    /**
+     * Make the log end at the given LSN, dropping whatever follows it.
+     * Must be called holding this.
+     */
+    private void endLogAt(long lsn) throws IOException {
+        while (segments.size() > 1 && segments.lastKey() >= lsn)
+            retire(segments.remove(segments.lastKey()));
+        current = segments.lastEntry().getValue();
+        current.raf.setLength(lsn - current.base);
+        currentLsn = lsn;
+    }
+
+    /** A record read back from the log. */
+    static class LogRecord {
+        int type;
+        long tid;
+        long prevLsn;
+        long lsn;
+        /** LSN of the record after this one, if there is one */
+        long next;
+        /** UPDATE, CLR: the page changed */
+        PageId pid;
+        /** PAGE_IMAGES UPDATE: the page before the change */
+        Page before;
+        /** PAGE_IMAGES UPDATE: the page after the change; CLR: the
+            restored page */
+        Page after;
+        /** HEAP_SLOTS UPDATE and CLR: the slots changed; null for
+            PAGE_IMAGES */
+        int[] slots;
+        /** HEAP_SLOTS UPDATE: the slots' contents before the change */
+        byte[][] beforeSlots;
+        /** HEAP_SLOTS UPDATE: the slots' contents after the change; CLR:
+            the restored contents */
+        byte[][] afterSlots;
+        /** CLR: the next record of the transaction to undo */
+        long undoNextLsn;
+        /** CHECKPOINT: the active transaction table */
+        HashMap<Long,TxnState> txns;
+        /** CHECKPOINT: the dirty page table */
+        HashMap<PageId,Long> dirtyPages;
+    }
+
+    /**
+     * Read the record with the given LSN. Must be called holding this.
+     *
+     * @throws EOFException if there is no complete record with that LSN,
+     *   e.g. because the log ends there
+     */
+    LogRecord readRecord(long lsn) throws IOException {
+        Map.Entry<Long,Segment> e = segments.floorEntry(lsn);
+        if (e == null)
+            throw new IOException("LSN " + lsn + " was truncated from the log");
+        RandomAccessFile file = e.getValue().raf;
+        long offset = lsn - e.getKey();
+        if (offset + MIN_RECORD_SIZE > file.length())
+            throw new EOFException("no log record at LSN " + lsn);
+        file.seek(offset);
+        int length = file.readInt();
+        if (length < MIN_RECORD_SIZE || offset + length > file.length())
+            throw new EOFException("no log record at LSN " + lsn);
+        byte[] bytes = new byte[length];
+        file.seek(offset);
+        file.readFully(bytes);
+        if (ByteBuffer.wrap(bytes).getLong(length - LONG_SIZE) != lsn)
+            throw new EOFException("no log record at LSN " + lsn);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                bytes, INT_SIZE, length - INT_SIZE - LONG_SIZE));
+        LogRecord r = new LogRecord();
+        r.lsn = lsn;
+        r.type = in.readInt();
+        r.tid = in.readLong();
+        r.prevLsn = in.readLong();
+        switch (r.type) {
+        case UPDATE_RECORD:
+            if (in.readByte() == HEAP_SLOTS) {
+                readSlots(in, r, true);
+            } else {
+                r.before = readPageData(in);
+                r.after = readPageData(in);
+                r.pid = r.after.getId();
+            }
+            break;
+        case CLR_RECORD:
+            r.undoNextLsn = in.readLong();
+            if (in.readByte() == HEAP_SLOTS) {
+                readSlots(in, r, false);
+            } else {
+                r.after = readPageData(in);
+                r.pid = r.after.getId();
+            }
+            break;
+        case CHECKPOINT_RECORD:
+            r.txns = new HashMap<Long,TxnState>();
+            int numXactions = in.readInt();
+            while (numXactions-- > 0) {
+                long tid = in.readLong();
+                long first = in.readLong();
+                r.txns.put(tid, new TxnState(first, in.readLong()));
+            }
+            r.dirtyPages = new HashMap<PageId,Long>();
+            int numPages = in.readInt();
+            while (numPages-- > 0) {
+                PageId pid = readPageId(in);
+                r.dirtyPages.put(pid, in.readLong());
+            }
+            break;
+        case ABORT_RECORD:
+        case COMMIT_RECORD:
+        case BEGIN_RECORD:
+            break;
+        default:
+            throw new IOException("unknown log record type " + r.type + " at LSN " + lsn);
+        }
+        // a record that ends a segment is followed by the first record of
+        // the next one
+        long end = lsn + length;
+        r.next = segments.containsKey(end) ? end + SEGMENT_HEADER_SIZE : end;
+        return r;
+    }
+
+    /** Read the body of a HEAP_SLOTS record, which has before contents
+        only if it is an UPDATE. */
+    private void readSlots(DataInput in, LogRecord r, boolean update) throws IOException {
+        r.pid = readPageId(in);
+        int n = in.readInt();
+        r.slots = new int[n];
+        r.beforeSlots = update ? new byte[n][] : null;
+        r.afterSlots = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            r.slots[i] = in.readInt();
+            if (update)
+                r.beforeSlots[i] = readSlot(in);
+            r.afterSlots[i] = readSlot(in);
+        }
     }
 
     /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
-        // some code goes here
+    public synchronized void print() throws IOException {
+        if (recoveryUndecided || segments.isEmpty()) {
+            System.out.println("(log not started)");
+            return;
+        }
+        System.out.println("checkpoint LSN " + checkpointLsn + ", " + segments.size()
+                + " segments from LSN " + getFirstLsn());
+        String[] names = { "?", "ABORT", "COMMIT", "UPDATE", "BEGIN", "CHECKPOINT", "CLR" };
+        for (long lsn = getFirstLsn(); lsn < currentLsn; ) {
+            LogRecord r = readRecord(lsn);
+            StringBuilder line = new StringBuilder();
+            line.append(r.lsn).append(' ').append(names[r.type]);
+            if (r.type != CHECKPOINT_RECORD)
+                line.append(" tid ").append(r.tid).append(" prev ").append(r.prevLsn);
+            if (r.pid != null)
+                line.append(" page ").append(r.pid.getTableId())
+                    .append(':').append(r.pid.pageNumber());
+            if (r.slots != null)
+                line.append(" slots ").append(Arrays.toString(r.slots));
+            if (r.type == CLR_RECORD)
+                line.append(" undoNext ").append(r.undoNextLsn);
+            if (r.type == CHECKPOINT_RECORD)
+                line.append(" txns ").append(r.txns.keySet())
+                    .append(" dirty pages ").append(r.dirtyPages.size());
+            System.out.println(line);
+            lsn = r.next;
+        }
     }
 
+    /** Force the whole log to disk now, without waiting for the flusher. */
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        if (current == null)
+            return; // nothing appended yet
+        current.raf.getChannel().force(true);
+        flusher.markDurable(currentLsn);
+    }
+
+    /**
+     * Force everything appended so far to disk; called by the flusher
+     * thread. Appends can go on while the force is in progress.
+     *
+     * @return the LSN up to which the log is now durable
+     */
+    long forceLog() throws IOException {
+        while (true) {
+            long lsn;
+            FileChannel channel;
+            synchronized (this) {
+                lsn = currentLsn;
+                if (current == null)
+                    return lsn;
+                channel = current.raf.getChannel();
+            }
+            try {
+                channel.force(true);
+                return lsn;
+            } catch (ClosedChannelException e) {
+                // the log was started over; force the new segment
+            }
+        }
     }
 
 }
@@ -0,0 +1,307 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * LogFlusher implements group commit for a {@link LogFile}. A committing
+ * transaction appends its COMMIT record and then asks for the log to be
+ * durable up to the end of that record; instead of forcing the log itself,
+ * it gets a {@link Future} that completes once a force has covered its
+ * record. A single background thread does the forcing: it waits for
+ * requests, optionally lingers for a short group window so that more
+ * commits can join, and then forces everything appended so far with one
+ * call, completing every request that the force covered.
+ * <p>
+ * Even with no window, commits that arrive while a force is in progress are
+ * batched into the next one. A window trades commit latency for fewer
+ * forces when commits arrive faster than forces complete; the statistics
+ * kept here (forces, batch sizes, commit latency) are meant for tuning it.
+ * <p>
+ * The thread is started on demand and exits after it has been idle for a
+ * while, so LogFiles that are never committed to cost nothing.
+ */
+public class LogFlusher {
+
+    /** Default group window, in microseconds. */
+    public static final int DEFAULT_WINDOW_MICROS = 0;
+
+    /** Default number of waiting commits that ends the window early. */
+    public static final int DEFAULT_MAX_BATCH = 64;
+
+    /** How long the thread waits for work before exiting. */
+    static final long IDLE_MILLIS = 1000;
+
+    private final LogFile log;
+    private final Object monitor = new Object();
+
+    // all protected by monitor
+    private final PriorityQueue<Request> waiting = new PriorityQueue<Request>();
+    private long durableLsn = 0;
+    private boolean running = false;
+    private long windowNanos = DEFAULT_WINDOW_MICROS * 1000L;
+    private int maxBatch = DEFAULT_MAX_BATCH;
+
+    private long forces;
+    private long commits;
+    private int maxBatchSize;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+
+    /**
+     * @param log the log to force; the flusher calls {@link LogFile#forceLog}
+     */
+    LogFlusher(LogFile log) {
+        this.log = log;
+    }
+
+    /**
+     * Ask for the log to be made durable up to lsn.
+     *
+     * @return a future that completes with the durable LSN once the log has
+     *         been forced at least up to lsn, or fails with the IOException
+     *         the force threw
+     */
+    public Future<Long> requestFlush(long lsn) {
+        Request r = new Request(lsn);
+        synchronized (monitor) {
+            if (lsn <= durableLsn) {
+                r.complete(durableLsn, null);
+                return r;
+            }
+            waiting.add(r);
+            if (!running) {
+                running = true;
+                Thread t = new Thread(new Runnable() {
+                    public void run() {
+                        flushLoop();
+                    }
+                }, "simpledb-log-flusher");
+                t.setDaemon(true);
+                t.start();
+            }
+            monitor.notifyAll();
+        }
+        return r;
+    }
+
+    /**
+     * Record that the log has been forced up to lsn by someone other than
+     * the flusher thread, completing the requests that force covered.
+     */
+    void markDurable(long lsn) {
+        complete(lsn);
+    }
+
+    /** @return the LSN up to which the log is known to be on disk */
+    public long getDurableLsn() {
+        synchronized (monitor) {
+            return durableLsn;
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            synchronized (monitor) {
+                try {
+                    long idleUntil = System.currentTimeMillis() + IDLE_MILLIS;
+                    while (waiting.isEmpty()) {
+                        long left = idleUntil - System.currentTimeMillis();
+                        if (left <= 0) {
+                            running = false;
+                            return;
+                        }
+                        monitor.wait(left);
+                    }
+                    // give other committers a chance to join this force
+                    long deadline = System.nanoTime() + windowNanos;
+                    long left;
+                    while (waiting.size() < maxBatch
+                            && (left = deadline - System.nanoTime()) > 0)
+                        monitor.wait(left / 1000000, (int) (left % 1000000));
+                } catch (InterruptedException e) {
+                    running = false;
+                    failAll(new IOException("log flusher interrupted"));
+                    return;
+                }
+            }
+
+            try {
+                complete(log.forceLog());
+            } catch (IOException e) {
+                failAll(e);
+            }
+        }
+    }
+
+    /** Complete the waiting requests that a force up to lsn covered. */
+    private void complete(long lsn) {
+        long now = System.nanoTime();
+        synchronized (monitor) {
+            if (lsn > durableLsn)
+                durableLsn = lsn;
+            int batch = 0;
+            while (!waiting.isEmpty() && waiting.peek().lsn <= durableLsn) {
+                Request r = waiting.poll();
+                r.complete(durableLsn, null);
+                long latency = now - r.started;
+                totalLatencyNanos += latency;
+                maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+                batch++;
+            }
+            if (batch > 0) {
+                forces++;
+                commits += batch;
+                maxBatchSize = Math.max(maxBatchSize, batch);
+            }
+        }
+    }
+
+    private void failAll(IOException e) {
+        synchronized (monitor) {
+            while (!waiting.isEmpty())
+                waiting.poll().complete(-1, e);
+        }
+    }
+
+    /**
+     * Set how long the flusher waits for more commits before forcing.
+     *
+     * @param micros the group window in microseconds; 0 forces as soon as
+     *            a commit is waiting
+     */
+    public void setGroupWindowMicros(int micros) {
+        synchronized (monitor) {
+            windowNanos = Math.max(0, micros) * 1000L;
+        }
+    }
+
+    public int getGroupWindowMicros() {
+        synchronized (monitor) {
+            return (int) (windowNanos / 1000);
+        }
+    }
+
+    /**
+     * Set the number of waiting commits that ends the group window early.
+     */
+    public void setMaxBatch(int commits) {
+        synchronized (monitor) {
+            maxBatch = Math.max(1, commits);
+        }
+    }
+
+    public int getMaxBatch() {
+        synchronized (monitor) {
+            return maxBatch;
+        }
+    }
+
+    /** @return the number of forces that made at least one commit durable */
+    public long getForceCount() {
+        synchronized (monitor) {
+            return forces;
+        }
+    }
+
+    /** @return the number of commits made durable */
+    public long getCommitCount() {
+        synchronized (monitor) {
+            return commits;
+        }
+    }
+
+    /** @return the average number of commits made durable per force */
+    public double getAverageBatchSize() {
+        synchronized (monitor) {
+            return forces == 0 ? 0 : (double) commits / forces;
+        }
+    }
+
+    /** @return the most commits made durable by one force */
+    public int getMaxBatchSize() {
+        synchronized (monitor) {
+            return maxBatchSize;
+        }
+    }
+
+    /** @return the average time a commit waited for its force, in microseconds */
+    public double getAverageLatencyMicros() {
+        synchronized (monitor) {
+            return commits == 0 ? 0 : totalLatencyNanos / 1000.0 / commits;
+        }
+    }
+
+    /** @return the longest time a commit waited for its force, in microseconds */
+    public double getMaxLatencyMicros() {
+        synchronized (monitor) {
+            return maxLatencyNanos / 1000.0;
+        }
+    }
+
+    /** Reset the statistics. */
+    public void resetStats() {
+        synchronized (monitor) {
+            forces = commits = totalLatencyNanos = maxLatencyNanos = 0;
+            maxBatchSize = 0;
+        }
+    }
+
+    /** A request to make the log durable up to an LSN. */
+    private static class Request implements Future<Long>, Comparable<Request> {
+        final long lsn;
+        final long started = System.nanoTime();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile long result;
+        private volatile IOException error;
+
+        Request(long lsn) {
+            this.lsn = lsn;
+        }
+
+        void complete(long durable, IOException e) {
+            result = durable;
+            error = e;
+            done.countDown();
+        }
+
+        public int compareTo(Request o) {
+            return lsn < o.lsn ? -1 : lsn == o.lsn ? 0 : 1;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        public Long get() throws InterruptedException, ExecutionException {
+            done.await();
+            return result();
+        }
+
+        public Long get(long timeout, TimeUnit unit) throws InterruptedException,
+                ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit))
+                throw new TimeoutException();
+            return result();
+        }
+
+        private Long result() throws ExecutionException {
+            if (error != null)
+                throw new ExecutionException(error);
+            return result;
+        }
+    }
+}
@@ -23,6 +23,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The algorithm chosen for this join by {@link JoinOptimizer#estimateJoinCost},
+     * or null if it has not been costed. */
+    public JoinOptimizer.JoinAlgorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -63,6 +67,13 @@ public class LogicalJoinNode {
         return j2;
     }
     
+    /** Return a copy of this node, including the algorithm chosen for it. */
+    public LogicalJoinNode copy() {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias, t2Alias, f1PureName, f2PureName, p);
+        j2.algorithm = algorithm;
+        return j2;
+    }
+
     @Override public boolean equals(Object o) {
         LogicalJoinNode j2 =(LogicalJoinNode)o;
         return (j2.t1Alias.equals(t1Alias)  || j2.t1Alias.equals(t2Alias)) && (j2.t2Alias.equals(t1Alias)  || j2.t2Alias.equals(t2Alias));
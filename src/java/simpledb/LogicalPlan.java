@@ -6,6 +6,7 @@ import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -36,6 +37,7 @@ public class LogicalPlan {
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    private boolean vectorized = false;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -59,6 +61,15 @@ public class LogicalPlan {
     public void setQuery(String query)  {
         this.query = query;
     }
+
+    /** Have {@link #physicalPlan} return plans that run a batch at a time
+        where they can (see {@link #vectorize}).
+
+        @param vectorized whether the plans should run a batch at a time
+    */
+    public void setVectorized(boolean vectorized) {
+        this.vectorized = vectorized;
+    }
       
     /** Get the query text associated with this plan via {@link #setQuery}.
      */
@@ -294,7 +305,14 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                 // a table in the PAX format is only read for the fields
+                 // the query uses
+                 int[] fields = file instanceof PaxFile ? usedFields(table) : null;
+                 if (fields != null && explain)
+                     System.out.println("Reading " + fields.length + " of "
+                             + file.getTupleDesc().numFields() + " fields of " + table.alias);
+                 ss = new SeqScan(t, file.getId(), table.alias, fields);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -306,6 +324,13 @@ public class LogicalPlan {
 
         }
 
+        // the cheapest index scan found for each table, and the filter it
+        // answers
+        HashMap<String,LogicalFilterNode> indexFilters = new HashMap<String,LogicalFilterNode>();
+        HashMap<String,IndexScan> indexScans = new HashMap<String,IndexScan>();
+        HashMap<String,Double> indexCosts = new HashMap<String,Double>();
+        HashMap<LogicalFilterNode,Predicate> predicates = new HashMap<LogicalFilterNode,Predicate>();
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -334,14 +359,53 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            predicates.put(lf, p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            double sel= s.estimateSelectivity(p.getField(), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
+
+            // an index on the field can find the tuples this filter keeps
+            // without reading the others
+            int tableId = this.getTableId(lf.tableAlias);
+            for (Catalog.Index index : Database.getCatalog().getIndexes(tableId)) {
+                if (index.getField() != p.getField() || !index.file.supports(lf.p))
+                    continue;
+                double cost = s.estimateIndexScanCost(index.file, sel);
+                Double best = indexCosts.get(lf.tableAlias);
+                if (best == null || cost < best) {
+                    indexCosts.put(lf.tableAlias, cost);
+                    indexFilters.put(lf.tableAlias, lf);
+                    indexScans.put(lf.tableAlias, new IndexScan(t, index.file, lf.p, f, lf.tableAlias));
+                }
+            }
+        }
+
+        // read a table through an index when that is cheaper than reading
+        // all of it
+        for (String alias : indexScans.keySet()) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(alias)));
+            double scanCost = s.estimateScanCost();
+            if (indexCosts.get(alias) < scanCost) {
+                subplanMap.put(alias, indexScans.get(alias));
+                if (explain)
+                    System.out.println("Reading " + alias + " through index on "
+                            + indexFilters.get(alias).fieldQuantifiedName + " (cost "
+                            + indexCosts.get(alias) + ", scan cost " + scanCost + ")");
+            } else {
+                indexFilters.remove(alias);
+            }
+        }
+
+        filterIt = filters.iterator();
+        while (filterIt.hasNext()) {
+            LogicalFilterNode lf = filterIt.next();
+            if (indexFilters.get(lf.tableAlias) == lf)
+                continue;
+            subplanMap.put(lf.tableAlias, new Filter(predicates.get(lf), subplanMap.get(lf.tableAlias)));
         }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
@@ -478,7 +542,113 @@ public class LogicalPlan {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        Project project = new Project(outFields, outTypes, node);
+        return vectorized ? new BatchToTuple(vectorize(project)) : project;
+    }
+
+    /**
+     * Turn a physical plan into one that runs a batch at a time where it
+     * can: scans, filters, projections, aggregates and hash joins are
+     * replaced by their batch versions. Other operators are kept, with
+     * their children turned into batch plans read through
+     * {@link BatchToTuple}, and read through {@link TupleToBatch} in turn;
+     * the inner input of an {@link IndexNestedLoopJoin}, which is rewound
+     * for each outer tuple, is kept as it is.
+     *
+     * @param plan the plan to turn into batches; its operators may be
+     *   changed
+     * @return a BatchIterator over the rows of plan
+     */
+    static BatchIterator vectorize(DbIterator plan) {
+        if (plan instanceof BatchToTuple)
+            return ((BatchToTuple) plan).getChild();
+        if (plan instanceof SeqScan)
+            return new BatchScan((SeqScan) plan);
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            return new BatchFilter(f.getPredicate(), vectorize(f.getChildren()[0]));
+        }
+        if (plan instanceof Project) {
+            Project p = (Project) plan;
+            int[] fields = new int[p.getFieldList().size()];
+            for (int i = 0; i < fields.length; i++)
+                fields[i] = p.getFieldList().get(i);
+            return new BatchProject(fields, vectorize(p.getChildren()[0]));
+        }
+        if (plan instanceof Aggregate) {
+            Aggregate a = (Aggregate) plan;
+            DbIterator child = a.getChildren()[0];
+            if (BatchAggregate.supports(a.aggregateOp(),
+                    child.getTupleDesc().getFieldType(a.aggregateField())))
+                return new BatchAggregate(vectorize(child), a.aggregateField(),
+                        a.groupField(), a.aggregateOp());
+        }
+        if (plan instanceof HashJoin) {
+            HashJoin j = (HashJoin) plan;
+            return new BatchHashJoin(j.getJoinPredicate(), vectorize(j.getChildren()[0]),
+                    vectorize(j.getChildren()[1]), j.getMemoryBytes());
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            DbIterator[] children = op.getChildren();
+            int n = op instanceof IndexNestedLoopJoin ? 1 : children.length;
+            for (int i = 0; i < n; i++) {
+                BatchIterator child = vectorize(children[i]);
+                children[i] = child instanceof TupleToBatch ? ((TupleToBatch) child).getChild()
+                    : new BatchToTuple(child);
+            }
+            op.setChildren(children);
+        }
+        return new TupleToBatch(plan);
+    }
+
+    /**
+     * @return the indexes of the fields of a table that the query refers
+     *   to, in order, or null if it needs all of them or refers to one it
+     *   does not have, which is reported later
+     */
+    private int[] usedFields(LogicalScanNode table) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.endsWith(".*"))
+                return null;
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2QuantifiedName);
+        }
+        if (hasAgg) {
+            names.add(aggField);
+            if (groupByField != null)
+                names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        TreeSet<Integer> fields = new TreeSet<Integer>();
+        String prefix = table.alias + ".";
+        for (String name : names) {
+            if (!name.startsWith(prefix))
+                continue;
+            try {
+                fields.add(td.fieldNameToIndex(name.substring(prefix.length())));
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+        }
+        // the tuples are still counted
+        if (fields.isEmpty())
+            fields.add(0);
+        int[] out = new int[fields.size()];
+        int i = 0;
+        for (int f : fields)
+            out[i++] = f;
+        return out;
     }
 
     public static void main(String argv[]) {
@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * LoserTree merges several sorted inputs into one sorted output. It is a
+ * tournament tree: every internal node remembers the input that lost the
+ * comparison there, and the overall winner is kept at the root. After the
+ * winner is taken, only the comparisons on the path from its input to the
+ * root are replayed, so each output tuple costs log2(k) comparisons for k
+ * inputs, against the losers that are already in place.
+ * <p>
+ * Ties are won by the input that comes first in the list, so merging runs
+ * that were cut from one input in order is stable.
+ */
+class LoserTree {
+
+    private final DbFileIterator[] inputs;
+    private final Tuple[] heads;
+    private final Comparator<Tuple> cmp;
+    private final int k;
+    // tree[0] is the winner; tree[1..k-1] are the losers of the internal
+    // nodes, whose children are 2n and 2n+1; leaves k..2k-1 are the inputs
+    private final int[] tree;
+
+    /**
+     * Open all of the inputs and play the first tournament.
+     *
+     * @param inputs the sorted inputs; they are opened here
+     * @param cmp the order the inputs are sorted in
+     */
+    LoserTree(List<DbFileIterator> inputs, Comparator<Tuple> cmp)
+            throws DbException, TransactionAbortedException {
+        this.k = Math.max(1, inputs.size());
+        this.inputs = inputs.toArray(new DbFileIterator[k]);
+        this.heads = new Tuple[k];
+        this.cmp = cmp;
+        this.tree = new int[k];
+        for (int i = 0; i < inputs.size(); i++) {
+            this.inputs[i].open();
+            heads[i] = read(i);
+        }
+        tree[0] = play(1);
+    }
+
+    private Tuple read(int i) throws DbException, TransactionAbortedException {
+        DbFileIterator in = inputs[i];
+        return in != null && in.hasNext() ? in.next() : null;
+    }
+
+    /** @return the winner of the subtree at node n, filling in its losers */
+    private int play(int n) {
+        if (n >= k)
+            return n - k;
+        int a = play(2 * n), b = play(2 * n + 1);
+        if (beats(a, b)) {
+            tree[n] = b;
+            return a;
+        }
+        tree[n] = a;
+        return b;
+    }
+
+    /** @return whether the head of input a comes before the head of input b */
+    private boolean beats(int a, int b) {
+        if (heads[a] == null)
+            return false;
+        if (heads[b] == null)
+            return true;
+        int c = cmp.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /** @return the next tuple in the merged order, or null at the end */
+    Tuple next() throws DbException, TransactionAbortedException {
+        int w = tree[0];
+        Tuple result = heads[w];
+        if (result == null)
+            return null;
+        heads[w] = read(w);
+        int s = w;
+        for (int n = (w + k) / 2; n >= 1; n /= 2) {
+            if (beats(tree[n], s)) {
+                int t = tree[n];
+                tree[n] = s;
+                s = t;
+            }
+        }
+        tree[0] = s;
+        return result;
+    }
+
+    /** Close all of the inputs. */
+    void close() {
+        for (DbFileIterator in : inputs)
+            if (in != null)
+                in.close();
+    }
+}
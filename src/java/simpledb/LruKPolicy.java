@@ -0,0 +1,142 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). Each page remembers the
+ * times of its last K requests; the victim is the page whose K-th most recent
+ * request is oldest. Pages seen fewer than K times have an infinite backward
+ * distance and go first, oldest last request first, so a one-shot scan
+ * cannot push out pages that are requested over and over.
+ * <p>
+ * The history of evicted pages is kept for a while (up to one pool's worth
+ * of pages) so a page that comes straight back is not treated as new.
+ * <p>
+ * A hit only updates the history of its own page, under that page's lock,
+ * so hits on different pages never wait for each other. The pages are put
+ * in order only when a victim is chosen.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private static class History {
+        final PageId pid;
+        // times of the last K requests, most recent first; 0 = never.
+        // Guarded by this
+        final long[] times;
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.times = new long[k];
+        }
+
+        synchronized void access(long now) {
+            System.arraycopy(times, 0, times, 1, times.length - 1);
+            times[0] = now;
+        }
+
+        /** @return the K-th and the last request, as of now */
+        synchronized Distance distance() {
+            return new Distance(pid, times[times.length - 1], times[0]);
+        }
+    }
+
+    /** The backward K-distance of a page at some moment. */
+    private static class Distance {
+        final PageId pid;
+        final long kth;
+        final long last;
+
+        Distance(PageId pid, long kth, long last) {
+            this.pid = pid;
+            this.kth = kth;
+            this.last = last;
+        }
+    }
+
+    private static final Comparator<Distance> BY_BACKWARD_K_DISTANCE = new Comparator<Distance>() {
+        public int compare(Distance a, Distance b) {
+            if (a.kth != b.kth)
+                return a.kth < b.kth ? -1 : 1;
+            if (a.last != b.last)
+                return a.last < b.last ? -1 : 1;
+            // ties are only possible for distinct pages loaded at the same
+            // instant, which the clock below rules out; keep the order total
+            return a.pid.hashCode() < b.pid.hashCode() ? -1
+                : (a.pid.hashCode() == b.pid.hashCode() ? 0 : 1);
+        }
+    };
+
+    private final int k;
+    private final int retainedHistory;
+    private final AtomicLong clock = new AtomicLong();
+    private final ConcurrentHashMap<PageId, History> resident = new ConcurrentHashMap<PageId, History>();
+    // guarded by this
+    private final LinkedHashMap<PageId, History> evicted = new LinkedHashMap<PageId, History>();
+
+    /**
+     * @param k the number of requests remembered per page
+     * @param numPages the BufferPool capacity, which bounds how much history
+     *   of evicted pages is retained
+     */
+    public LruKPolicy(int k, int numPages) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k = k;
+        this.retainedHistory = Math.max(numPages, 1);
+    }
+
+    public void pageHit(PageId pid) {
+        History h = resident.get(pid);
+        if (h != null)
+            h.access(clock.incrementAndGet());
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (resident.containsKey(pid)) {
+            pageHit(pid);
+            return;
+        }
+        History h = evicted.remove(pid);
+        if (h == null)
+            h = new History(pid, k);
+        h.access(clock.incrementAndGet());
+        resident.put(pid, h);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        History h = resident.remove(pid);
+        if (h == null)
+            return;
+        evicted.put(pid, h);
+        if (evicted.size() > retainedHistory) {
+            Iterator<Map.Entry<PageId, History>> it = evicted.entrySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable filter) {
+        ArrayList<Distance> order = new ArrayList<Distance>(resident.size());
+        for (History h : resident.values())
+            order.add(h.distance());
+        Collections.sort(order, BY_BACKWARD_K_DISTANCE);
+        for (Distance d : order) {
+            if (filter.canEvict(d.pid))
+                return d.pid;
+        }
+        return null;
+    }
+
+    public int size() {
+        return resident.size();
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least-recently-used replacement: the victim is the page whose last
+ * request is oldest.
+ * <p>
+ * Each page carries the time of its last request, and a hit only sets the
+ * stamp of its page, so hits never wait for each other. The pages are put
+ * in order only when a victim is chosen.
+ */
+public class LruPolicy implements ReplacementPolicy {
+
+    private final ConcurrentHashMap<PageId, AtomicLong> lastUse =
+        new ConcurrentHashMap<PageId, AtomicLong>();
+    private final AtomicLong clock = new AtomicLong();
+
+    public void pageHit(PageId pid) {
+        AtomicLong stamp = lastUse.get(pid);
+        if (stamp != null)
+            stamp.set(clock.incrementAndGet());
+    }
+
+    public void pageLoaded(PageId pid) {
+        AtomicLong stamp = lastUse.putIfAbsent(pid, new AtomicLong(clock.incrementAndGet()));
+        if (stamp != null)
+            stamp.set(clock.incrementAndGet());
+    }
+
+    public void pageRemoved(PageId pid) {
+        lastUse.remove(pid);
+    }
+
+    public PageId chooseVictim(Evictable filter) {
+        return leastRecentlyUsed(lastUse, filter);
+    }
+
+    public int size() {
+        return lastUse.size();
+    }
+
+    /** A page and the time of its last request, as of some moment. */
+    private static class Stamped implements Comparable<Stamped> {
+        final PageId pid;
+        final long stamp;
+
+        Stamped(PageId pid, long stamp) {
+            this.pid = pid;
+            this.stamp = stamp;
+        }
+
+        public int compareTo(Stamped o) {
+            return stamp < o.stamp ? -1 : (stamp == o.stamp ? 0 : 1);
+        }
+    }
+
+    /**
+     * @param lastUse pages mapped to the time they were last requested
+     * @return the evictable page whose stamp is oldest right now, or null
+     */
+    static PageId leastRecentlyUsed(Map<PageId, AtomicLong> lastUse, Evictable filter) {
+        ArrayList<Stamped> pages = new ArrayList<Stamped>(lastUse.size());
+        for (Map.Entry<PageId, AtomicLong> e : lastUse.entrySet())
+            pages.add(new Stamped(e.getKey(), e.getValue().get()));
+        Collections.sort(pages);
+        for (Stamped s : pages) {
+            if (filter.canEvict(s.pid))
+                return s.pid;
+        }
+        return null;
+    }
+}
@@ -1,20 +1,52 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * If the child's tuples fit in the memory budget they are sorted in memory.
+ * Otherwise OrderBy does an external merge sort: it sorts memory-sized
+ * chunks of the child, writes each one as a run to a {@link SpillFile}, and
+ * merges the runs with a {@link LoserTree}. If there are more runs than can
+ * be merged at once (one page of memory per run), groups of runs are merged
+ * into longer runs first. The last chunk stays in memory and takes part in
+ * the final merge. The sort is stable (except for the top-N case below).
+ * <p>
+ * If a limit is given, only the first limit tuples of the order are
+ * returned. When that many tuples fit in memory, OrderBy keeps just the
+ * best limit tuples seen so far in a heap and never spills; otherwise no
+ * run is longer than the limit.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for sorting, in bytes. */
+    public static final int DEFAULT_MEMORY_BYTES = 4 << 20;
+
+    /** Limit meaning all of the tuples are returned. */
+    public static final int NO_LIMIT = -1;
+
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     private int orderByField;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
     private boolean asc;
+    private final int limit;
+    private final int memoryBytes;
+    private final TupleComparator comparator;
+
+    // the sorted tuples if they fit in memory, otherwise the runs on disk
+    // and the last chunk, merged by merger
+    private ArrayList<Tuple> childTups;
+    private Iterator<Tuple> it;
+    private ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    private ArrayList<Tuple> tail;
+    private LoserTree merger;
+    private int spilledRuns;
+    private int returned;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,11 +59,35 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, NO_LIMIT);
+    }
+
+    /**
+     * Creates a new OrderBy node that returns only the first tuples of the
+     * order.
+     *
+     * @param limit
+     *            the most tuples to return, or {@link #NO_LIMIT}
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int limit) {
+        this(orderbyField, asc, child, limit, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * @param memoryBytes
+     *            how much memory the sort may use for tuples before it
+     *            spills runs to disk
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int limit,
+            int memoryBytes) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.limit = limit;
+        this.memoryBytes = memoryBytes;
+        this.comparator = new TupleComparator(orderbyField, asc);
     }
     
     public boolean isASC()
@@ -48,6 +104,19 @@ public class OrderBy extends Operator {
     {
 	return this.orderByFieldName;
     }
+
+    /** @return the most tuples returned, or {@link #NO_LIMIT} */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of runs written to disk when the operator was last
+     *         opened; 0 if the sort ran in memory
+     */
+    public int getSpilledRuns() {
+        return spilledRuns;
+    }
     
     public TupleDesc getTupleDesc() {
         return td;
@@ -56,21 +125,157 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
         super.open();
+        sort();
+        start();
     }
 
     public void close() {
         super.close();
-        it = null;
+        discard();
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (merger != null)
+            merger.close();
+        start();
+    }
+
+    /** @return the number of tuples that fit in the memory budget */
+    private int maxTuples() {
+        return Math.max(1, memoryBytes / (td.getSize() + HashJoin.TUPLE_OVERHEAD));
+    }
+
+    /** @return the number of runs that can be merged at once */
+    private int fanIn() {
+        return Math.max(2, memoryBytes / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Read the child and sort it, in memory if it fits, or else into sorted
+     * runs.
+     */
+    private void sort() throws DbException, TransactionAbortedException {
+        discard();
+        spilledRuns = 0;
+        int maxTuples = maxTuples();
+        if (limit >= 0 && limit <= maxTuples) {
+            topN();
+            return;
+        }
+        ArrayList<Tuple> chunk = new ArrayList<Tuple>();
+        while (child.hasNext()) {
+            chunk.add(child.next());
+            if (chunk.size() >= maxTuples) {
+                spill(chunk);
+                chunk = new ArrayList<Tuple>();
+            }
+        }
+        Collections.sort(chunk, comparator);
+        if (runs.isEmpty()) {
+            childTups = chunk;
+            return;
+        }
+        tail = chunk;
+        while (runs.size() + 1 > fanIn())
+            mergePass();
+    }
+
+    /** Keep the first limit tuples of the order in a bounded heap. */
+    private void topN() throws DbException, TransactionAbortedException {
+        PriorityQueue<Tuple> best = new PriorityQueue<Tuple>(limit + 1,
+                Collections.reverseOrder(comparator));
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (best.size() < limit) {
+                best.add(t);
+            } else if (limit > 0 && comparator.compare(t, best.peek()) < 0) {
+                best.poll();
+                best.add(t);
+            }
+        }
+        childTups = new ArrayList<Tuple>(best);
+        Collections.sort(childTups, comparator);
+    }
+
+    /** Sort a chunk and write it (up to the limit) to a new run. */
+    private void spill(ArrayList<Tuple> chunk) throws DbException {
+        Collections.sort(chunk, comparator);
+        List<Tuple> keep = limit >= 0 && limit < chunk.size()
+                ? chunk.subList(0, limit) : chunk;
+        try {
+            SpillFile run = new SpillFile(td);
+            runs.add(run);
+            run.addAll(keep.iterator());
+            run.finish();
+        } catch (IOException e) {
+            throw new DbException("could not write sort run: " + e);
+        }
+        spilledRuns++;
+    }
+
+    /**
+     * Merge consecutive groups of fanIn runs into single runs, keeping the
+     * runs in input order so the sort stays stable.
+     */
+    private void mergePass() throws DbException, TransactionAbortedException {
+        int fanIn = fanIn();
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        for (int i = 0; i < runs.size(); i += fanIn) {
+            List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            ArrayList<DbFileIterator> inputs = new ArrayList<DbFileIterator>();
+            for (SpillFile f : group)
+                inputs.add(f.iterator());
+            LoserTree tree = new LoserTree(inputs, comparator);
+            try {
+                SpillFile out = new SpillFile(td);
+                merged.add(out);
+                Tuple t;
+                int n = 0;
+                while ((limit < 0 || n++ < limit) && (t = tree.next()) != null)
+                    out.add(t);
+                out.finish();
+            } catch (IOException e) {
+                throw new DbException("could not write sort run: " + e);
+            } finally {
+                tree.close();
+            }
+            for (SpillFile f : group)
+                f.delete();
+        }
+        runs = merged;
+    }
+
+    /** Start returning tuples from the beginning of the sorted order. */
+    private void start() throws DbException, TransactionAbortedException {
+        returned = 0;
+        if (childTups != null) {
+            it = childTups.iterator();
+            return;
+        }
+        ArrayList<DbFileIterator> inputs = new ArrayList<DbFileIterator>();
+        for (SpillFile f : runs)
+            inputs.add(f.iterator());
+        inputs.add(new TupleListIterator(tail));
+        merger = new LoserTree(inputs, comparator);
+    }
+
+    /** Drop the sorted tuples and delete the runs. */
+    private void discard() {
+        if (merger != null)
+            merger.close();
+        merger = null;
+        for (SpillFile f : runs)
+            f.delete();
+        runs.clear();
+        childTups = null;
+        tail = null;
+        it = null;
     }
 
     /**
@@ -82,10 +287,18 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
+        if (limit >= 0 && returned >= limit)
             return null;
+        Tuple t = null;
+        if (it != null) {
+            if (it.hasNext())
+                t = it.next();
+        } else if (merger != null) {
+            t = merger.next();
+        }
+        if (t != null)
+            returned++;
+        return t;
     }
 
     @Override
@@ -98,6 +311,29 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
+    /** The last, in-memory chunk of an external sort, as a merge input. */
+    private static class TupleListIterator extends AbstractDbFileIterator {
+        private final List<Tuple> tuples;
+        private int pos;
+
+        TupleListIterator(List<Tuple> tuples) {
+            this.tuples = tuples;
+        }
+
+        public void open() {
+            pos = 0;
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        protected Tuple readNext() {
+            return pos < tuples.size() ? tuples.get(pos++) : null;
+        }
+    }
+
 }
 
 class TupleComparator implements Comparator<Tuple> {
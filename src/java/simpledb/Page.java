@@ -6,6 +6,10 @@
  * <p>
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
+ * <p>
+ * Changes to a page and {@link #getPageData} must synchronize on the page:
+ * the BufferPool takes a copy of a page to write out while holding its
+ * monitor, and the transaction that dirtied it may go on changing it.
  *
  * For recovery purposes, pages MUST have a single constructor of the form:
  *     Page(PageId id, byte[] data)
@@ -56,4 +60,15 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * Return the log sequence number of the last log record that describes
+     * a change to this page, or 0 if no logged change was ever made to it.
+     * Recovery compares it with the LSNs of log records to decide whether
+     * their changes still have to be redone.
+     */
+    public long getLsn();
+
+    /** Set the LSN of the last log record that describes a change to this page. */
+    public void setLsn(long lsn);
 }
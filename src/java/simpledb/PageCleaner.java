@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PageCleaner writes dirty pages of a {@link BufferPool} to disk in the
+ * background, a few at a time, so that commits, evictions and checkpoints
+ * find most pages clean and do not have to write them in the foreground.
+ * <p>
+ * Every round, the cleaner writes out the pages that have been dirty the
+ * longest, up to a fixed number per round, skipping pages that became
+ * dirty less than a round ago: those are likely still being changed. Pages
+ * are logged before they are written like any other page the pool writes,
+ * so a page with uncommitted changes can be cleaned too; an abort or
+ * recovery undoes it through the log.
+ * <p>
+ * The thread is started on demand when a page becomes dirty and exits
+ * after it has found nothing to do for a while.
+ */
+public class PageCleaner {
+
+    /** Default time between rounds, in milliseconds. */
+    public static final int DEFAULT_INTERVAL_MILLIS = 100;
+
+    /** Default number of pages written per round. */
+    public static final int DEFAULT_PAGES_PER_ROUND = 8;
+
+    /** How long the thread waits for dirty pages before exiting. */
+    static final long IDLE_MILLIS = 1000;
+
+    private final BufferPool pool;
+    private final Object monitor = new Object();
+
+    private volatile boolean running = false; // written holding monitor
+    private volatile boolean enabled = true;
+    private volatile int intervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private volatile int pagesPerRound = DEFAULT_PAGES_PER_ROUND;
+
+    // protected by monitor
+    private long rounds;
+    private long cleaned;
+
+    /**
+     * @param pool the pool whose pages are written
+     */
+    PageCleaner(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /** A page of the pool became dirty; make sure the thread is running. */
+    void dirtied() {
+        if (running || !enabled)
+            return;
+        synchronized (monitor) {
+            if (running)
+                return;
+            running = true;
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    cleanLoop();
+                }
+            }, "simpledb-page-cleaner");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private void cleanLoop() {
+        long idleSince = System.currentTimeMillis();
+        while (true) {
+            int interval = intervalMillis;
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                synchronized (monitor) {
+                    running = false;
+                }
+                return;
+            }
+            // a pool that was replaced (see Database#resetBufferPool) is
+            // left alone: its tables and log may be gone
+            boolean current = Database.getBufferPool() == pool;
+            int n = 0;
+            if (enabled && current) {
+                try {
+                    n = pool.cleanPages(pagesPerRound, interval * 1000000L);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            synchronized (monitor) {
+                rounds++;
+                cleaned += n;
+                if (n > 0) {
+                    idleSince = System.currentTimeMillis();
+                } else if (!enabled || !current
+                        || System.currentTimeMillis() - idleSince >= IDLE_MILLIS) {
+                    running = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Turn the cleaner on or off. When off, dirty pages are only written
+     * when their transaction commits, when they are evicted, or at a
+     * checkpoint.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Set the time between rounds; it is also how long a page has to
+        have been dirty to be written. */
+    public void setIntervalMillis(int millis) {
+        intervalMillis = Math.max(1, millis);
+    }
+
+    public int getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /** Set the most pages written per round. */
+    public void setPagesPerRound(int pages) {
+        pagesPerRound = Math.max(1, pages);
+    }
+
+    public int getPagesPerRound() {
+        return pagesPerRound;
+    }
+
+    /** @return the number of rounds the cleaner has run */
+    public long getRoundCount() {
+        synchronized (monitor) {
+            return rounds;
+        }
+    }
+
+    /** @return the number of pages the cleaner has written */
+    public long getCleanedCount() {
+        synchronized (monitor) {
+            return cleaned;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * PageIO reads and writes fixed-size pages of one file. A HeapFile owns one
+ * PageIO, which keeps the file open for as long as the HeapFile is in use
+ * instead of opening it for every page.
+ * <p>
+ * All methods may be called by many threads at once. Reads and writes are
+ * positional, so they never share a file pointer. A thread interrupted in
+ * the middle of an operation on a FileChannel closes it for all threads;
+ * PageIO then opens the file again and redoes the operations that found it
+ * closed, so a page is always read or written whole. The interrupt is kept
+ * for the interrupted thread to see afterwards.
+ *
+ * @see HeapFile#setIoMode
+ */
+public class PageIO {
+
+    /**
+     * How pages are moved between the file and memory. The default may be
+     * chosen on the command line with -Dsimpledb.PageIO=NAME.
+     */
+    public enum Mode {
+        /** Open the file for every page and copy it byte by byte; for comparison only. */
+        STREAM,
+        /** Positional reads and writes on one FileChannel through a reused direct buffer. */
+        CHANNEL,
+        /** Reads from a memory mapping of the file, writes through the FileChannel. */
+        MAPPED;
+
+        /**
+         * @return the mode named by the simpledb.PageIO system property, or
+         *   CHANNEL if the property is not set
+         * @throws IllegalArgumentException if the property names an unknown mode
+         */
+        public static Mode getDefault() {
+            String name = System.getProperty("simpledb.PageIO");
+            if (name == null || name.length() == 0)
+                return CHANNEL;
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    // one direct buffer per thread, shared by all files: direct buffers are
+    // expensive to allocate and only worth it if they are reused
+    private static final ThreadLocal<ByteBuffer> DIRECT = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE);
+        }
+    };
+
+    private final File f;
+    private final int pageSize;
+    private volatile Mode mode;
+    private RandomAccessFile raf;
+    private volatile FileChannel channel;
+    private volatile MappedByteBuffer map;
+
+    /**
+     * @param f the file to read pages from and write pages to
+     * @param pageSize the size of a page in bytes
+     * @param mode how pages are moved
+     */
+    public PageIO(File f, int pageSize, Mode mode) {
+        this.f = f;
+        this.pageSize = pageSize;
+        this.mode = mode;
+    }
+
+    /** @return how pages are moved now */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Move pages in a different mode from now on. Reads and writes already
+     * going on finish in the old mode; the file stays open, so nothing is
+     * closed under them.
+     */
+    public synchronized void setMode(Mode mode) {
+        this.mode = mode;
+        // a mapping in use is kept alive by its readers
+        map = null;
+    }
+
+    /**
+     * Read page pageNo of the file.
+     *
+     * @return a new array with the page's bytes
+     * @throws IOException if the page does not lie entirely within the file
+     */
+    public byte[] read(int pageNo) throws IOException {
+        long off = (long) pageNo * pageSize;
+        byte[] data = new byte[pageSize];
+        switch (mode) {
+        case STREAM:
+            RandomAccessFile in = new RandomAccessFile(f, "r");
+            try {
+                in.seek(off);
+                for (int i = 0; i < pageSize; i++)
+                    data[i] = in.readByte();
+            } finally {
+                in.close();
+            }
+            break;
+        case MAPPED:
+            ByteBuffer view = mapping(off + pageSize).duplicate();
+            view.position((int) off);
+            view.get(data);
+            break;
+        default:
+            ByteBuffer buf = buffer(pageSize);
+            readFully(buf, off);
+            buf.flip();
+            buf.get(data);
+        }
+        return data;
+    }
+
+    /** Write data as page pageNo of the file, growing the file if needed. */
+    public void write(int pageNo, byte[] data) throws IOException {
+        long off = (long) pageNo * pageSize;
+        if (mode == Mode.STREAM) {
+            RandomAccessFile out = new RandomAccessFile(f, "rw");
+            try {
+                out.seek(off);
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            return;
+        }
+        ByteBuffer buf;
+        if (data.length <= pageSize) {
+            buf = buffer(data.length);
+            buf.put(data);
+            buf.flip();
+        } else {
+            buf = ByteBuffer.wrap(data);
+        }
+        writeFully(buf, off);
+    }
+
+    /**
+     * @return a buffer with room for a page, which the calling thread may
+     *   fill and pass to {@link #write(int, ByteBuffer)}; it is the buffer
+     *   the thread's other reads and writes go through, so it must be
+     *   written before any of them
+     */
+    public ByteBuffer pageBuffer() {
+        return buffer(pageSize);
+    }
+
+    /**
+     * Write the bytes remaining in buf as page pageNo of the file, growing
+     * the file if needed.
+     */
+    public void write(int pageNo, ByteBuffer buf) throws IOException {
+        if (mode == Mode.STREAM) {
+            byte[] data = new byte[buf.remaining()];
+            buf.get(data);
+            write(pageNo, data);
+            return;
+        }
+        writeFully(buf, (long) pageNo * pageSize);
+    }
+
+    /** Force everything written to the file so far to disk. */
+    public void force() throws IOException {
+        if (mode == Mode.STREAM) {
+            RandomAccessFile out = new RandomAccessFile(f, "rw");
+            try {
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            return;
+        }
+        run(new ChannelOp() {
+            void run(FileChannel ch) throws IOException {
+                ch.force(false);
+            }
+        });
+    }
+
+    /** Close the file. It is opened again if the PageIO is used afterwards. */
+    public synchronized void close() throws IOException {
+        map = null;
+        channel = null;
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+
+    private void readFully(final ByteBuffer buf, final long off) throws IOException {
+        final int start = buf.position();
+        run(new ChannelOp() {
+            void run(FileChannel ch) throws IOException {
+                buf.position(start);
+                while (buf.hasRemaining()) {
+                    int n = ch.read(buf, off + buf.position() - start);
+                    if (n < 0)
+                        throw new EOFException("page at offset " + off + " is past the end of " + f);
+                }
+            }
+        });
+    }
+
+    private void writeFully(final ByteBuffer buf, final long off) throws IOException {
+        final int start = buf.position();
+        run(new ChannelOp() {
+            void run(FileChannel ch) throws IOException {
+                buf.position(start);
+                while (buf.hasRemaining())
+                    ch.write(buf, off + buf.position() - start);
+            }
+        });
+    }
+
+    /** An operation on the file's channel that can be redone from its start. */
+    private static abstract class ChannelOp {
+        abstract void run(FileChannel ch) throws IOException;
+    }
+
+    /**
+     * Run op on the channel, and again on a new one for as long as it finds
+     * the channel closed. The interrupt status of the thread is cleared
+     * while op is redone, since a channel operation in an interrupted thread
+     * closes the channel right away, and set again once it is done.
+     */
+    private void run(ChannelOp op) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                FileChannel ch = channel();
+                try {
+                    op.run(ch);
+                    return;
+                } catch (ClosedChannelException e) {
+                    // closed by an interrupt, of this thread or another
+                    // one, or by close()
+                    if (Thread.interrupted())
+                        interrupted = true;
+                    reopen(ch);
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Drop a channel found closed, if it was not replaced already. */
+    private synchronized void reopen(FileChannel closed) {
+        if (channel != closed)
+            return;
+        channel = null;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // it is closed already
+        }
+        raf = null;
+    }
+
+    private static ByteBuffer buffer(int size) {
+        ByteBuffer buf = DIRECT.get();
+        if (buf.capacity() < size) {
+            buf = ByteBuffer.allocateDirect(size);
+            DIRECT.set(buf);
+        }
+        buf.clear();
+        buf.limit(size);
+        return buf;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null)
+            return ch;
+        synchronized (this) {
+            if (channel == null) {
+                raf = new RandomAccessFile(f, "rw");
+                channel = raf.getChannel();
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * @return a mapping of the file that covers at least the first end
+     *   bytes; the file is mapped again when it has grown past the old one
+     */
+    private MappedByteBuffer mapping(final long end) throws IOException {
+        MappedByteBuffer m = map;
+        if (m != null && m.capacity() >= end)
+            return m;
+        synchronized (this) {
+            if (map == null || map.capacity() < end) {
+                run(new ChannelOp() {
+                    void run(FileChannel ch) throws IOException {
+                        long size = ch.size();
+                        if (size < end)
+                            throw new EOFException("page at offset " + (end - pageSize) + " is past the end of " + f);
+                        map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    }
+                });
+            }
+            return map;
+        }
+    }
+}
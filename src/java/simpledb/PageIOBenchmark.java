@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Measures how many pages per second each {@link PageIO.Mode} reads and
+ * writes. STREAM is how HeapFile used to do page I/O.
+ * <p>
+ * Usage: java simpledb.PageIOBenchmark [pages] [rounds]
+ * <p>
+ * The test file is written once and then read several times, so reads are
+ * served from the operating system's cache; the numbers measure the cost of
+ * getting a page into the JVM, not the disk.
+ */
+public class PageIOBenchmark {
+
+    public static void main(String args[]) throws IOException {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        File f = File.createTempFile("pageio", ".dat");
+        f.deleteOnExit();
+
+        Random r = new Random(0);
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        r.nextBytes(data);
+        int[] order = new int[pages];
+        for (int i = 0; i < pages; i++)
+            order[i] = i;
+        for (int i = pages - 1; i > 0; i--) {
+            int j = r.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+
+        System.out.println(pages + " pages of " + BufferPool.PAGE_SIZE + " bytes, best of " + rounds + " rounds");
+        System.out.println(String.format("%-8s %14s %14s %14s", "mode", "write pg/s", "seq read pg/s", "rand read pg/s"));
+        for (PageIO.Mode mode : PageIO.Mode.values()) {
+            PageIO io = new PageIO(f, BufferPool.PAGE_SIZE, mode);
+            double write = 0, seq = 0, rand = 0;
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < pages; i++)
+                    io.write(i, data);
+                write = Math.max(write, rate(pages, start));
+
+                start = System.nanoTime();
+                for (int i = 0; i < pages; i++)
+                    io.read(i);
+                seq = Math.max(seq, rate(pages, start));
+
+                start = System.nanoTime();
+                for (int i = 0; i < pages; i++)
+                    io.read(order[i]);
+                rand = Math.max(rand, rate(pages, start));
+            }
+            io.close();
+            System.out.println(String.format("%-8s %14.0f %14.0f %14.0f", mode, write, seq, rand));
+        }
+    }
+
+    private static double rate(int pages, long start) {
+        return pages / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PaxFile is a DbFile of tuples in no particular order, like a HeapFile,
+ * whose pages lay the tuples out by column (see {@link PaxPage}). It suits
+ * tables that are mostly scanned for a few of their fields: an
+ * {@link #iterator(TransactionId, int[])} over some fields only decodes
+ * the minipages of those fields.
+ * <p>
+ * The pages keep their LSN themselves, so a PaxFile has no sidecars.
+ * Inserts look for room from the first page that may have some, which is
+ * remembered while the file is open; files are meant to be written by
+ * {@link HeapFileEncoder} and then mostly read.
+ *
+ * @see PaxPage
+ */
+public class PaxFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final PageIO io;
+    // no page before this one had room on disk when last looked at
+    private volatile int firstFree = 0;
+
+    /**
+     * Open a table in the PAX format.
+     *
+     * @param f the file that stores the table
+     * @param td the schema of the table
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.io = new PageIO(f, BufferPool.getPageSize(), PageIO.Mode.getDefault());
+    }
+
+    /** @return the file backing this table on disk */
+    public File getFile() {
+        return f;
+    }
+
+    /** @return an id for this table, the hash code of its absolute path */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of pages in the file */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            byte[] data = io.read(pid.pageNumber());
+            return new PaxPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), data, td);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        io.write(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /** Force the pages written so far to disk. */
+    public void force() throws IOException {
+        io.force();
+    }
+
+    /** Close the underlying file. It is reopened if the file is used again. */
+    public void close() throws IOException {
+        io.close();
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        if (t == null)
+            throw new DbException("Tuple is null");
+        ArrayList<Page> pages = new ArrayList<Page>();
+
+        // lock each page that may have room exclusively right away, as
+        // HeapFile does, and let go of it again if it is full
+        for (int i = firstFree; i < numPages(); i++) {
+            PageId pid = new HeapPageId(getId(), i);
+            boolean wasLocked = pool.holdsLock(tid, pid);
+            PaxPage page = (PaxPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() != 0) {
+                page.insertTuple(t);
+                pages.add(page);
+                return pages;
+            }
+            // a page that is only full in the BufferPool gets its room back
+            // if the transaction that filled it aborts
+            if (firstFree == i && page.isDirty() == null)
+                firstFree = i + 1;
+            if (!wasLocked)
+                pool.releasePage(tid, pid);
+        }
+        PageId pid = new HeapPageId(getId(), numPages());
+        io.write(pid.pageNumber(), PaxPage.createEmptyPageData());
+        PaxPage page = (PaxPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        pages.add(page);
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        if (t.getRecordId() == null)
+            throw new DbException("Tuple is not stored in a table");
+        PageId pid = t.getRecordId().getPageId();
+        if (pid == null || pid.getTableId() != getId())
+            throw new DbException("Tuple is not in this table");
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        if (pid.pageNumber() < firstFree)
+            firstFree = pid.pageNumber();
+        ArrayList<Page> pages = new ArrayList<Page>();
+        pages.add(page);
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HeapFileIterator(tid, this);
+    }
+
+    /**
+     * @return an iterator over the tuples of the table that only reads the
+     *   given fields, in that order; the tuples it returns have just those
+     *   fields (see {@link PaxPage#project})
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields) {
+        return new HeapFileIterator(tid, this, fields);
+    }
+}
@@ -0,0 +1,353 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A page of a {@link PaxFile}, which holds the same tuples a HeapPage of
+ * the table would, laid out by column (PAX, "partition attributes across")
+ * instead of by row. The page starts with its LSN, then has a header with
+ * a bit per slot, as a HeapPage does, and then a minipage for each field of
+ * the table: the values of that field for all the slots, one after the
+ * other. A scan that needs a few fields of a wide table only reads their
+ * minipages (see {@link #iterator(int[], TupleDesc)}).
+ * <p>
+ * Changes to the page and {@link #getPageData} synchronize on the page.
+ *
+ * @see PaxFile
+ */
+public class PaxPage implements Page {
+
+    /** Bytes at the start of every page: the page LSN. */
+    static final int PREFIX_SIZE = LogFile.LONG_SIZE;
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final int numSlots;
+    private final int headerSize;
+    // where the minipage of each field starts
+    private final int[] minipages;
+    // the page as it is on disk, but for the LSN
+    private final byte[] data;
+    private int numEmpty;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private boolean dirty;
+    private TransactionId dirtytid;
+    private volatile long lsn;
+
+    /**
+     * Create a page from the bytes read from disk, for a table in the
+     * catalog.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a page from the bytes read from disk.
+     *
+     * @param td the schema of the tuples on the page
+     */
+    public PaxPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
+        this.pid = id;
+        this.td = td;
+        int pageSize = BufferPool.getPageSize();
+        if (data.length != pageSize)
+            throw new IOException("page " + id + " has " + data.length + " bytes, not " + pageSize);
+        this.numSlots = numSlots(td, pageSize);
+        this.headerSize = (numSlots + 7) / 8;
+        this.minipages = minipageOffsets(td, numSlots);
+        this.lsn = ByteBuffer.wrap(data).getLong(0);
+        this.data = data.clone();
+        int used = 0;
+        for (int i = 0; i < headerSize; i++)
+            used += Integer.bitCount(this.data[PREFIX_SIZE + i] & 0xff);
+        this.numEmpty = numSlots - used;
+        // the bytes given are not changed, so they are the before image
+        this.oldData = data;
+    }
+
+    /**
+     * @return the number of slots on a page of pageSize bytes holding
+     *   tuples of td: each takes its bytes and a bit of the header
+     */
+    public static int numSlots(TupleDesc td, int pageSize) {
+        return ((pageSize - PREFIX_SIZE) * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * @return the offsets in a page of the minipages of the fields of td,
+     *   for a page with numSlots slots
+     */
+    static int[] minipageOffsets(TupleDesc td, int numSlots) {
+        int[] offsets = new int[td.numFields()];
+        int off = PREFIX_SIZE + (numSlots + 7) / 8;
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = off;
+            off += numSlots * td.getFieldType(i).getLen();
+        }
+        return offsets;
+    }
+
+    /** @return the data of an empty page: no slots used and LSN 0 */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return a TupleDesc with the given fields of td, in that order, to
+     *   read the page with through {@link #iterator(int[], TupleDesc)}
+     */
+    public static TupleDesc project(TupleDesc td, int[] fields) {
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = td.getFieldType(fields[i]);
+            names[i] = td.getFieldName(fields[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public synchronized byte[] getPageData() {
+        byte[] out = data.clone();
+        ByteBuffer.wrap(out).putLong(0, lsn);
+        return out;
+    }
+
+    public PaxPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        try {
+            return new PaxPage(pid, oldDataRef, td);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        byte[] image = getPageData();
+        synchronized (oldDataLock) {
+            oldData = image;
+        }
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtytid = tid;
+    }
+
+    public synchronized TransactionId isDirty() {
+        return dirty ? dirtytid : null;
+    }
+
+    /** @return the number of tuple slots on this page */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /** @return the number of empty slots on this page */
+    public synchronized int getNumEmptySlots() {
+        return numEmpty;
+    }
+
+    /** @return true if slot i holds a tuple */
+    public synchronized boolean isSlotUsed(int i) {
+        if (i < 0 || i >= numSlots)
+            throw new IllegalArgumentException("slot " + i + " is out of bounds");
+        return (data[PREFIX_SIZE + i / 8] & (1 << i % 8)) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            data[PREFIX_SIZE + i / 8] |= (byte) (1 << i % 8);
+        else
+            data[PREFIX_SIZE + i / 8] &= (byte) ~(1 << i % 8);
+    }
+
+    /** @return the offset of field j of slot i */
+    private int fieldOffset(int i, int j) {
+        return minipages[j] + i * td.getFieldType(j).getLen();
+    }
+
+    /**
+     * Adds a tuple to the first empty slot of the page, and sets its record
+     * id.
+     *
+     * @throws DbException if the page is full or the tuple is of another
+     *   schema
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (numEmpty == 0 || !td.equals(t.getTupleDesc()))
+            throw new DbException("Page is full or tuple is not compatible");
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                continue;
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            for (int j = 0; j < td.numFields(); j++) {
+                buf.position(fieldOffset(i, j));
+                t.getField(j).serialize(buf);
+            }
+            markSlotUsed(i, true);
+            numEmpty--;
+            t.setRecordId(new RecordId(pid, i));
+            return;
+        }
+    }
+
+    /**
+     * Deletes a tuple from the page. Its values are cleared, so that the
+     * page data only depends on the tuples on it.
+     *
+     * @throws DbException if the tuple is not on this page
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())
+            || rid.tupleno() < 0 || rid.tupleno() >= numSlots || !isSlotUsed(rid.tupleno()))
+            throw new DbException("Tuple is not in the page");
+        int i = rid.tupleno();
+        for (int j = 0; j < td.numFields(); j++) {
+            int off = fieldOffset(i, j);
+            Arrays.fill(data, off, off + td.getFieldType(j).getLen(), (byte) 0);
+        }
+        markSlotUsed(i, false);
+        numEmpty++;
+        t.setRecordId(new RecordId(null, 0));
+    }
+
+    /** @return the tuple in slot i, or null if the slot is empty */
+    public synchronized Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+            return null;
+        return read(i, null, td);
+    }
+
+    /**
+     * @return the given fields of the tuple in slot i, all of them if
+     *   fields is null, as a tuple of schema out
+     */
+    private Tuple read(int i, int[] fields, TupleDesc out) {
+        Tuple t = new Tuple(out);
+        int n = fields == null ? td.numFields() : fields.length;
+        for (int k = 0; k < n; k++) {
+            int j = fields == null ? k : fields[k];
+            t.setField(k, td.getFieldType(j).parse(data, fieldOffset(i, j)));
+        }
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+
+    /**
+     * Adds the tuples in the used slots from slot on to a batch, until it
+     * is full, one minipage at a time.
+     *
+     * @param fields the fields of the tuples to add, in the order the
+     *   batch has them, or null for all of them
+     * @return the slot to go on from, or -1 if all the tuples were added
+     */
+    synchronized int fill(Batch out, int[] fields, int slot) {
+        int first = out.rows();
+        int end = slot;
+        for (; end < numSlots; end++) {
+            if ((data[PREFIX_SIZE + end / 8] & (1 << end % 8)) == 0)
+                continue;
+            if (out.isFull())
+                break;
+            out.addRow(pid, end);
+        }
+        int n = out.getTupleDesc().numFields();
+        for (int k = 0; k < n; k++) {
+            int j = fields == null ? k : fields[k];
+            int row = first;
+            for (int i = slot; i < end; i++) {
+                if ((data[PREFIX_SIZE + i / 8] & (1 << i % 8)) != 0)
+                    out.read(k, row++, data, fieldOffset(i, j));
+            }
+        }
+        return end == numSlots ? -1 : end;
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, with all their
+     *   fields
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null, td);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that only reads the
+     *   given fields of them, in that order
+     * @param fields the indexes of the fields in the schema of the page, or
+     *   null for all of them
+     * @param out the schema of the tuples returned (see {@link #project})
+     */
+    public Iterator<Tuple> iterator(int[] fields, TupleDesc out) {
+        return new PaxPageIterator(fields, out);
+    }
+
+    /**
+     * Walks the slots that were used when the iterator was made, skipping
+     * those empty by the time they are reached, as the iterator of a
+     * HeapPage does.
+     */
+    private class PaxPageIterator implements Iterator<Tuple> {
+        private final int[] fields;
+        private final TupleDesc out;
+        private final byte[] header;
+        private int slot = 0;
+        private Tuple next;
+
+        PaxPageIterator(int[] fields, TupleDesc out) {
+            this.fields = fields;
+            this.out = out;
+            synchronized (PaxPage.this) {
+                header = Arrays.copyOfRange(data, PREFIX_SIZE, PREFIX_SIZE + headerSize);
+            }
+        }
+
+        public boolean hasNext() {
+            while (next == null && slot < numSlots) {
+                int i = slot++;
+                if ((header[i / 8] & (1 << i % 8)) == 0)
+                    continue;
+                synchronized (PaxPage.this) {
+                    if (isSlotUsed(i))
+                        next = read(i, fields, out);
+                }
+            }
+            return next != null;
+        }
+
+        public Tuple next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
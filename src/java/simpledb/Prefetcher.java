@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Prefetcher reads pages into the BufferPool ahead of sequential scans, so a
+ * scan finds the next page already in memory instead of waiting for the
+ * disk. Reads are done by a small pool of background threads shared by all
+ * BufferPools.
+ * <p>
+ * Each scan gets a {@link ReadAhead} that watches the pages the scan asks
+ * for. Once it has seen a few pages in a row it keeps a window of pages
+ * ahead of the scan in flight. The window is sized from how long a page
+ * takes to load and how quickly the scan consumes pages: a scan that
+ * spends a long time on every page needs only a page or two ahead of it,
+ * while a fast one needs enough pages ahead to cover a whole load.
+ * <p>
+ * Prefetched pages are read without taking locks (the scan locks each page
+ * as usual when it gets to it) and are left unpinned, so they can be
+ * evicted like any other page if the scan never gets to them.
+ */
+public class Prefetcher {
+
+    /** Number of background threads reading pages. */
+    public static final int THREADS = 2;
+    /** Pages in a row a scan has to read before read-ahead starts. */
+    static final int SEQUENTIAL_RUN = 2;
+    /** Window used until the first prefetched page has been timed. */
+    static final int INITIAL_WINDOW = 4;
+    /** Upper bound on the window, whatever the timings say. */
+    public static final int MAX_WINDOW = 32;
+
+    private static final ExecutorService EXECUTOR =
+        Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-prefetch");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    private final BufferPool pool;
+
+    /**
+     * @param pool the BufferPool that prefetched pages are read into
+     */
+    Prefetcher(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Start tracking a scan.
+     *
+     * @param tableId the table being scanned
+     * @param numPages the number of pages in the table
+     * @param ring the scan's ring, if it has one; prefetched pages go into
+     *   the ring, and the window is kept small enough that the ring does not
+     *   recycle them before the scan gets to them
+     * @param maxWindow the most pages to keep ahead of the scan
+     */
+    ReadAhead newReadAhead(int tableId, int numPages, BufferRing ring, int maxWindow) {
+        if (ring != null)
+            maxWindow = Math.min(maxWindow, ring.size() / 2);
+        maxWindow = Math.min(maxWindow, MAX_WINDOW);
+        if (maxWindow < 1)
+            return null;
+        return new ReadAhead(tableId, numPages, ring, maxWindow);
+    }
+
+    /**
+     * The read-ahead state of one scan. Only the scan's own thread calls
+     * {@link #access}; the background threads report load times back.
+     */
+    public class ReadAhead {
+        private final int tableId;
+        private final int numPages;
+        private final BufferRing ring;
+        private final int maxWindow;
+
+        private int last = -2;
+        private int run = 0;
+        private int next = 0; // first page not yet handed to the background threads
+        private long lastAccess = 0;
+        // moving averages, in nanoseconds; 0 means nothing measured yet
+        private long consumeInterval = 0;
+        private long loadTime = 0;
+
+        ReadAhead(int tableId, int numPages, BufferRing ring, int maxWindow) {
+            this.tableId = tableId;
+            this.numPages = numPages;
+            this.ring = ring;
+            this.maxWindow = maxWindow;
+        }
+
+        /**
+         * Tell the read-ahead the scan is about to read a page. Jumping
+         * anywhere but to the next page (e.g. a rewind) restarts detection.
+         */
+        public synchronized void access(int pageNo) {
+            long now = System.nanoTime();
+            if (pageNo != last + 1) {
+                run = 0;
+                last = pageNo;
+                next = pageNo + 1;
+                lastAccess = now;
+                return;
+            }
+            consumeInterval = average(consumeInterval, now - lastAccess);
+            lastAccess = now;
+            last = pageNo;
+            if (++run < SEQUENTIAL_RUN)
+                return;
+
+            if (next <= pageNo)
+                next = pageNo + 1;
+            int end = Math.min(numPages, pageNo + 1 + window());
+            for (; next < end; next++)
+                submit(new HeapPageId(tableId, next));
+        }
+
+        /** @return the number of pages to keep ahead of the scan */
+        synchronized int window() {
+            if (loadTime == 0 || consumeInterval == 0)
+                return Math.min(INITIAL_WINDOW, maxWindow);
+            // enough pages to cover one load at the current pace, plus one
+            long pages = loadTime / consumeInterval + 2;
+            return (int) Math.max(1, Math.min(maxWindow, pages));
+        }
+
+        private synchronized void loaded(long nanos) {
+            loadTime = average(loadTime, nanos);
+        }
+
+        private void submit(final PageId pid) {
+            EXECUTOR.execute(new Runnable() {
+                public void run() {
+                    long start = System.nanoTime();
+                    try {
+                        if (pool.prefetch(pid, ring))
+                            loaded(System.nanoTime() - start);
+                    } catch (Exception e) {
+                        // the scan will read the page itself and report the error
+                        Debug.log("prefetch of %s failed: %s", pid, e);
+                    }
+                }
+            });
+        }
+    }
+
+    private static long average(long avg, long sample) {
+        return avg == 0 ? sample : (avg * 7 + sample) / 8;
+    }
+}
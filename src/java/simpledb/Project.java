@@ -41,6 +41,11 @@ public class Project extends Operator {
         td = new TupleDesc(types, fieldAr);
     }
 
+    /** @return the ids of the fields of the child's tuples projected out */
+    public ArrayList<Integer> getFieldList() {
+        return outFieldIds;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
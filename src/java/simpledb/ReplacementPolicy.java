@@ -0,0 +1,89 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs a free frame. The BufferPool reports every hit, load and removal
+ * to the policy; the policy only keeps bookkeeping about page ids and never
+ * reads, writes or flushes pages itself.
+ * <p>
+ * Implementations are called by many transactions at once and must be
+ * thread safe. {@link #pageHit} is called on every hit in the pool, so it
+ * should not wait for a lock all pages share.
+ *
+ * @see BufferPool#getPage
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * The policies that can be selected when the Database (and with it the
+     * BufferPool) is constructed. The default may be chosen on the command
+     * line with -Dsimpledb.ReplacementPolicy=NAME, e.g. -Dsimpledb.ReplacementPolicy=CLOCK.
+     */
+    public enum Kind {
+        LRU {
+            public ReplacementPolicy create(int numPages) {
+                return new LruPolicy();
+            }
+        }, CLOCK {
+            public ReplacementPolicy create(int numPages) {
+                return new ClockPolicy(numPages);
+            }
+        }, LRU_K {
+            public ReplacementPolicy create(int numPages) {
+                return new LruKPolicy(LruKPolicy.DEFAULT_K, numPages);
+            }
+        }, TWO_Q {
+            public ReplacementPolicy create(int numPages) {
+                return new TwoQueuePolicy(numPages);
+            }
+        };
+
+        /**
+         * @param numPages the capacity of the BufferPool the policy serves
+         * @return a new, empty policy of this kind
+         */
+        public abstract ReplacementPolicy create(int numPages);
+
+        /**
+         * @return the kind named by the simpledb.ReplacementPolicy system
+         *   property, or LRU if the property is not set
+         * @throws IllegalArgumentException if the property names an unknown policy
+         */
+        public static Kind getDefault() {
+            String name = System.getProperty("simpledb.ReplacementPolicy");
+            if (name == null || name.length() == 0)
+                return LRU;
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * Lets the BufferPool veto victims that cannot be thrown out right now
+     * (for example because the page is in use).
+     */
+    public interface Evictable {
+        /** @return true if the page may be evicted right now */
+        public boolean canEvict(PageId pid);
+    }
+
+    /** A resident page was requested again. */
+    public void pageHit(PageId pid);
+
+    /** A page was brought into the BufferPool. */
+    public void pageLoaded(PageId pid);
+
+    /** A page left the BufferPool, either by eviction or by discardPage. */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Pick the page that should be evicted next. The page stays tracked by
+     * the policy until {@link #pageRemoved} is called for it.
+     *
+     * @param filter the pages the caller is willing to evict
+     * @return the victim, or null if no tracked page passes the filter
+     */
+    public PageId chooseVictim(Evictable filter);
+
+    /** @return the number of pages the policy is currently tracking */
+    public int size();
+}
@@ -6,6 +6,10 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * A scan may be asked for some fields of the table only. It then returns
+ * tuples of just those fields; a {@link PaxFile} does not even read the
+ * others.
  */
 public class SeqScan implements DbIterator {
 
@@ -16,6 +20,11 @@ public class SeqScan implements DbIterator {
      */
     private boolean m_isOpen = false;
     private TransactionId m_tid;
+
+    /**
+     * The id of the table being scanned
+     */
+    private int m_tableid;
     
     /**
      * The tuple description of the tuples being returned by this scan.
@@ -36,6 +45,11 @@ public class SeqScan implements DbIterator {
      * The alias of the table.
      */
     private String m_alias;
+
+    /**
+     * The fields of the table returned, null for all of them.
+     */
+    private int[] m_fields;
     
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -59,6 +73,19 @@ public class SeqScan implements DbIterator {
         reset(tableid,tableAlias);
     }
 
+    /**
+     * Creates a sequential scan that returns some fields of the table only.
+     * 
+     * @param fields
+     *            the indexes of the fields of the table to return, in the
+     *            order the returned tuples have them
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
+        m_tid = tid;
+        reset(tableid, tableAlias, fields);
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -68,6 +95,20 @@ public class SeqScan implements DbIterator {
     	return m_tablename;
     }
     
+    /**
+     * @return the id of the table the operator scans
+     */
+    public int getTableId() {
+        return m_tableid;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return m_tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans. 
      * */
@@ -78,7 +119,16 @@ public class SeqScan implements DbIterator {
     }
 
     /**
-     * Reset the tableid, and tableAlias of this operator.
+     * @return the indexes of the fields of the table this scan returns, or
+     *         null if it returns all of them
+     */
+    public int[] getFields() {
+        return m_fields == null ? null : m_fields.clone();
+    }
+
+    /**
+     * Reset the tableid, and tableAlias of this operator. The scan returns
+     * all the fields of the table.
      * @param tableid
      *            the table to scan.
      * @param tableAlias
@@ -91,23 +141,80 @@ public class SeqScan implements DbIterator {
      */
     public void reset(int tableid, String tableAlias) {
         // some code goes here
+        reset(tableid, tableAlias, null);
+    }
+
+    private void reset(int tableid, String tableAlias, int[] fields) {
         m_isOpen=false;
+        m_tableid = tableid;
         m_alias = tableAlias;
+        m_fields = fields == null ? null : fields.clone();
         m_tablename = Database.getCatalog().getTableName(tableid);
-        m_it = Database.getCatalog().getDatabaseFile(tableid).iterator(m_tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
         m_td = Database.getCatalog().getTupleDesc(tableid);
+        if (fields == null) {
+            m_it = file.iterator(m_tid);
+        } else if (file instanceof PaxFile) {
+            m_it = ((PaxFile) file).iterator(m_tid, m_fields);
+        } else {
+            m_it = new Projection(file.iterator(m_tid), PaxPage.project(m_td, m_fields), m_fields);
+        }
         
         
         // Create TupleDesc using tableAlias 
-        String[] names = new String[m_td.numFields()];
-        Type[] types   = new Type[m_td.numFields()];
-        for (int i = 0; i < m_td.numFields(); i++) {                     
-            names[i] = tableAlias + "." + m_td.getFieldName(i);
-            types[i] = m_td.getFieldType(i);
+        int n = fields == null ? m_td.numFields() : fields.length;
+        String[] names = new String[n];
+        Type[] types   = new Type[n];
+        for (int i = 0; i < n; i++) {                     
+            int field = fields == null ? i : fields[i];
+            names[i] = tableAlias + "." + m_td.getFieldName(field);
+            types[i] = m_td.getFieldType(field);
         }
         m_td = new TupleDesc(types, names);
     }
 
+    /**
+     * Returns some fields of the tuples of a file that is read whole. The
+     * tuples of a HeapFile only decode the fields asked for.
+     */
+    private static class Projection implements DbFileIterator {
+        private final DbFileIterator it;
+        private final TupleDesc td;
+        private final int[] fields;
+
+        Projection(DbFileIterator it, TupleDesc td, int[] fields) {
+            this.it = it;
+            this.td = td;
+            this.fields = fields;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            it.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return it.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            Tuple t = it.next();
+            Tuple out = new Tuple(td);
+            for (int i = 0; i < fields.length; i++)
+                out.setField(i, t.getField(fields[i]));
+            out.setRecordId(t.getRecordId());
+            return out;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            it.rewind();
+        }
+
+        public void close() {
+            it.close();
+        }
+    }
+
     public SeqScan(TransactionId tid, int tableid) {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
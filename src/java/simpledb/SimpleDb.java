@@ -7,7 +7,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>6){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -16,6 +16,7 @@ public class SimpleDb {
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
             char fieldSeparator=',';
+            HeapFileEncoder.Format format = HeapFileEncoder.Format.HEAP;
 
             if (args.length == 3) 
                 for (int i=0;i<numOfAttributes;i++)
@@ -39,12 +40,20 @@ public class SimpleDb {
                                 return;
                             }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
+                if (args.length==6) {
+                    try {
+                        format = HeapFileEncoder.Format.valueOf(args[5].toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Unknown page format " + args[5]);
+                        return;
+                    }
+                }
             }
 
             HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator,format);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
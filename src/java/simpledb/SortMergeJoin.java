@@ -0,0 +1,249 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs that are sorted ascending on their join
+ * fields by walking through both of them in step. It supports EQUALS and
+ * the range predicates LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN and
+ * GREATER_THAN_OR_EQ.
+ * <p>
+ * An input that is already an ascending {@link OrderBy} on its join field is
+ * used as it is; any other input is wrapped in one. For every tuple of
+ * child1, the matching tuples of child2 form one contiguous range of the
+ * sorted child2, and both ends of that range only move forward as child1's
+ * key grows. The tuples of child2 that have been read are buffered until no
+ * later child1 tuple can match them, which for EQUALS is only the current
+ * group of equal keys. For GREATER_THAN and GREATER_THAN_OR_EQ every child2
+ * tuple read so far can still match, and for LESS_THAN and LESS_THAN_OR_EQ
+ * every remaining one can, so those may keep all of child2 in memory. The
+ * buffer is not spilled; {@link JoinOptimizer} only picks a range join for
+ * a child2 that fits in {@link #RANGE_MEMORY_BYTES}.
+ * <p>
+ * The output tuples are the fields of the tuple from child1 followed by the
+ * fields of the tuple from child2, in order of child1's join field.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** How much memory the child2 tuples a range join buffers may take. */
+    public static final int RANGE_MEMORY_BYTES = 4 << 20;
+
+    /** Number of dead tuples at the front of the buffer before it is compacted. */
+    private static final int COMPACT_THRESHOLD = 256;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private DbIterator sorted1;
+    private DbIterator sorted2;
+    private TupleDesc td;
+
+    // child2 tuples read so far; buf.get(0) is child2 tuple number bufStart
+    private final ArrayList<Tuple> buf = new ArrayList<Tuple>();
+    private int bufStart;
+    // first child2 tuple whose key is >= / > the current child1 key
+    private int ge, gt;
+    private Tuple outer;
+    private int pos, end;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; NOT_EQUALS and
+     *            LIKE are not supported
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("SortMergeJoin does not support "
+                    + p.getOperator());
+        this.p = p;
+        setChildren(new DbIterator[] { child1, child2 });
+    }
+
+    /** @return whether SortMergeJoin can evaluate the given operator */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return child, if it is already sorted ascending on field, or else an
+     *         OrderBy that sorts it
+     */
+    static DbIterator sorted(DbIterator child, int field) {
+        if (child instanceof OrderBy) {
+            OrderBy o = (OrderBy) child;
+            if (o.isASC() && o.getOrderByField() == field)
+                return o;
+        }
+        return new OrderBy(field, true, child);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        sorted1.open();
+        sorted2.open();
+        super.open();
+        reset();
+    }
+
+    public void close() {
+        reset();
+        sorted1.close();
+        sorted2.close();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        sorted1.rewind();
+        sorted2.rewind();
+        reset();
+    }
+
+    private void reset() {
+        buf.clear();
+        bufStart = 0;
+        ge = gt = 0;
+        outer = null;
+        pos = end = 0;
+    }
+
+    private Tuple inner(int idx) {
+        return buf.get(idx - bufStart);
+    }
+
+    /**
+     * Read child2 until tuple number idx is buffered.
+     *
+     * @return false if child2 ends first
+     */
+    private boolean fill(int idx) throws DbException, TransactionAbortedException {
+        while (idx >= bufStart + buf.size()) {
+            if (!sorted2.hasNext())
+                return false;
+            buf.add(sorted2.next());
+        }
+        return true;
+    }
+
+    private Field key2(int idx) {
+        return inner(idx).getField(p.getField2());
+    }
+
+    /** Move ge and gt forward to the first child2 keys >= and > k. */
+    private void advance(Field k) throws DbException, TransactionAbortedException {
+        while (fill(ge) && key2(ge).compare(Predicate.Op.LESS_THAN, k))
+            ge++;
+        if (gt < ge)
+            gt = ge;
+        while (fill(gt) && key2(gt).compare(Predicate.Op.LESS_THAN_OR_EQ, k))
+            gt++;
+    }
+
+    /** @return one past the last child2 tuple, reading all of child2 */
+    private int all() throws DbException, TransactionAbortedException {
+        fill(Integer.MAX_VALUE);
+        return bufStart + buf.size();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer != null && pos < end)
+                return Tuple.merge(td, outer, inner(pos++));
+            if (!sorted1.hasNext())
+                return null;
+            outer = sorted1.next();
+            advance(outer.getField(p.getField1()));
+            switch (p.getOperator()) {
+            case EQUALS:
+                pos = ge;
+                end = gt;
+                break;
+            case LESS_THAN:
+                pos = gt;
+                end = all();
+                break;
+            case LESS_THAN_OR_EQ:
+                pos = ge;
+                end = all();
+                break;
+            case GREATER_THAN:
+                pos = bufStart;
+                end = ge;
+                break;
+            case GREATER_THAN_OR_EQ:
+                pos = bufStart;
+                end = gt;
+                break;
+            default:
+                throw new DbException("unsupported join operator " + p.getOperator());
+            }
+            compact();
+        }
+    }
+
+    /**
+     * Drop buffered child2 tuples that no later child1 tuple can match:
+     * those before ge, unless the predicate matches everything below the key.
+     */
+    private void compact() {
+        Predicate.Op op = p.getOperator();
+        if (op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ)
+            return;
+        int dead = ge - bufStart;
+        if (dead >= COMPACT_THRESHOLD && dead * 2 >= buf.size()) {
+            buf.subList(0, dead).clear();
+            bufStart = ge;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        sorted1 = sorted(child1, p.getField1());
+        sorted2 = sorted(child2, p.getField2());
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Iterator;
+
+/**
+ * SpillFile is a temporary, append-only file of tuples that operators write
+ * to when their input does not fit in memory (partitions of a hash join,
+ * sorted runs of an external sort). Pages use the HeapPage format, so they
+ * are read back with {@link HeapPage}; the file is not in the catalog and
+ * its pages never go through the BufferPool.
+ * <p>
+ * A SpillFile is written once, then {@link #finish finished}, then read as
+ * often as needed, and finally {@link #delete deleted}.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private final PageIO io;
+    private final int slotsPerPage;
+    private final int headerSize;
+    private final int tupleSize;
+
+    // the page being filled, and a buffer to serialize one tuple into
+    private final byte[] page = new byte[BufferPool.PAGE_SIZE];
+    private final ByteArrayOutputStream tupleBytes;
+    private final DataOutputStream tupleOut;
+    private int slot = 0;
+    private int numPages = 0;
+    private long numTuples = 0;
+    private boolean finished = false;
+
+    /**
+     * Create an empty spill file in the default temporary directory.
+     *
+     * @param td the schema of the tuples that will be written
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".dat");
+        this.file.deleteOnExit();
+        this.io = new PageIO(file, BufferPool.PAGE_SIZE, PageIO.Mode.CHANNEL);
+        this.slotsPerPage = HeapPage.numSlots(td);
+        this.headerSize = (slotsPerPage + 7) / 8;
+        this.tupleSize = td.getSize();
+        this.tupleBytes = new ByteArrayOutputStream(tupleSize);
+        this.tupleOut = new DataOutputStream(tupleBytes);
+    }
+
+    /** @return the schema of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples written so far */
+    public long numTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of bytes of tuple data written so far */
+    public long numBytes() {
+        return numTuples * tupleSize;
+    }
+
+    /** @return the number of pages in the file */
+    public int numPages() {
+        return numPages + (slot > 0 ? 1 : 0);
+    }
+
+    /** Append a tuple to the file. */
+    public void add(Tuple t) throws IOException {
+        if (finished)
+            throw new IllegalStateException("spill file is already finished");
+        tupleBytes.reset();
+        for (int i = 0; i < td.numFields(); i++)
+            t.getField(i).serialize(tupleOut);
+        tupleOut.flush();
+        System.arraycopy(tupleBytes.toByteArray(), 0, page, headerSize + slot * tupleSize, tupleSize);
+        page[slot / 8] |= (byte) (1 << (slot % 8));
+        numTuples++;
+        if (++slot == slotsPerPage)
+            writePage();
+    }
+
+    /** Append all of the tuples. */
+    public void addAll(Iterator<Tuple> tuples) throws IOException {
+        while (tuples.hasNext())
+            add(tuples.next());
+    }
+
+    /**
+     * Write out the last, partly filled page. No tuples can be added
+     * afterwards.
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        if (slot > 0)
+            writePage();
+        finished = true;
+    }
+
+    private void writePage() throws IOException {
+        io.write(numPages++, page);
+        java.util.Arrays.fill(page, (byte) 0);
+        slot = 0;
+    }
+
+    /** Remove the file from disk. */
+    public void delete() {
+        try {
+            io.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        file.delete();
+    }
+
+    /**
+     * @return an iterator over the tuples in the order they were added;
+     *   the file has to be finished first
+     */
+    public DbFileIterator iterator() {
+        if (!finished)
+            throw new IllegalStateException("spill file is still being written");
+        return new AbstractDbFileIterator() {
+            private int pageNo;
+            private Iterator<Tuple> onPage;
+
+            public void open() {
+                pageNo = 0;
+                onPage = null;
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+
+            protected Tuple readNext() throws DbException {
+                while (onPage == null || !onPage.hasNext()) {
+                    if (pageNo >= numPages)
+                        return null;
+                    try {
+                        HeapPageId pid = new HeapPageId(file.getName().hashCode(), pageNo++);
+                        onPage = new HeapPage(pid, io.read(pid.pageNumber()), td).iterator();
+                    } catch (IOException e) {
+                        throw new DbException("could not read spill file " + file + ": " + e);
+                    }
+                }
+                return onPage.next();
+            }
+        };
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -53,6 +55,9 @@ public class TableStats {
         System.out.println("Computing table stats.");
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
+            // indexes are tables of the catalog too, but are not queried
+            if (Database.getCatalog().getDatabaseFile(tableid) instanceof IndexFile)
+                continue;
             TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
             setTableStats(Database.getCatalog().getTableName(tableid), s);
         }
@@ -66,6 +71,13 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final int ioCostPerPage;
+    private final int numPages;
+    private final TupleDesc td;
+    private int numTuples;
+    // an IntHistogram or StringHistogram per field
+    private final Object[] histograms;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -77,14 +89,67 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        this.numPages = HeapFileIterator.numPages(file);
+        this.td = file.getTupleDesc();
+        this.histograms = new Object[td.numFields()];
+
+        // the first scan finds the range of the int fields, which their
+        // histograms need up front; the second fills the histograms
+        int n = td.numFields();
+        int[] mins = new int[n], maxs = new int[n];
+        Arrays.fill(mins, Integer.MAX_VALUE);
+        Arrays.fill(maxs, Integer.MIN_VALUE);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                numTuples++;
+                for (int i = 0; i < n; i++) {
+                    if (td.getFieldType(i) != Type.INT_TYPE)
+                        continue;
+                    int v = ((IntField) t.getField(i)).getValue();
+                    mins[i] = Math.min(mins[i], v);
+                    maxs[i] = Math.max(maxs[i], v);
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    histograms[i] = new IntHistogram(NUM_HIST_BINS, mins[i], maxs[i]);
+                else
+                    histograms[i] = new StringHistogram(NUM_HIST_BINS);
+            }
+            it.rewind();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int i = 0; i < n; i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE)
+                        ((IntHistogram) histograms[i]).addValue(((IntField) t.getField(i)).getValue());
+                    else
+                        ((StringHistogram) histograms[i]).addValue(((StringField) t.getField(i)).getValue());
+                }
+            }
+        } catch (DbException e) {
+            throw new RuntimeException("could not scan table " + tableid + ": " + e);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException("could not scan table " + tableid + ": " + e);
+        } finally {
+            it.close();
+            try {
+                Database.getBufferPool().transactionComplete(tid);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** @return the histogram underlying the field's histogram */
+    private IntHistogram histogram(int field) {
+        Object h = histograms[field];
+        return h instanceof IntHistogram ? (IntHistogram) h : ((StringHistogram) h).hist;
     }
 
     /**
@@ -100,8 +165,27 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate
+     * through a secondary index on the table, given that the cost to read a
+     * page is costPerPageIO: the index pages the lookup reads, plus a heap
+     * page for every tuple found, as they are in no particular order, up
+     * to the number of pages in the table.
+     *
+     * @param index
+     *            the index the predicate is on
+     * @param selectivityFactor
+     *            the selectivity of the predicate (see
+     *            {@link #estimateSelectivity})
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(IndexFile index, double selectivityFactor) {
+        int matches = estimateTableCardinality(selectivityFactor);
+        double heapPages = Math.min(matches, numPages);
+        return (index.estimateLookupPages(numTuples, matches) + heapPages) * ioCostPerPage;
     }
 
     /**
@@ -114,8 +198,7 @@ public class TableStats {
      *         selectivityFactor
      */
     public int estimateTableCardinality(double selectivityFactor) {
-        // some code goes here
-        return 0;
+        return (int) Math.round(numTuples * selectivityFactor);
     }
 
     /**
@@ -129,8 +212,19 @@ public class TableStats {
      * expected selectivity. You may estimate this value from the histograms.
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+        double eq = histogram(field).avgSelectivity();
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return eq;
+        case NOT_EQUALS:
+            return 1.0 - eq;
+        case LESS_THAN:
+        case GREATER_THAN:
+            return (1.0 - eq) / 2;
+        default:
+            return (1.0 + eq) / 2;
+        }
     }
 
     /**
@@ -147,16 +241,41 @@ public class TableStats {
      *         predicate
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // some code goes here
-        return 1.0;
+        Object h = histograms[field];
+        if (h instanceof IntHistogram)
+            return ((IntHistogram) h).estimateSelectivity(op, ((IntField) constant).getValue());
+        return ((StringHistogram) h).estimateSelectivity(op, ((StringField) constant).getValue());
+    }
+
+    /**
+     * Estimate the selectivity of the join predicate <tt>field1 op field2</tt>
+     * between this table and another one: the fraction of all pairs of
+     * tuples that satisfy it.
+     *
+     * @param field1
+     *            The field of this table
+     * @param op
+     *            The join operator
+     * @param other
+     *            The statistics of the other table
+     * @param field2
+     *            The field of the other table
+     */
+    public double estimateJoinSelectivity(int field1, Predicate.Op op,
+            TableStats other, int field2) {
+        return histogram(field1).estimateJoinSelectivity(op, other.histogram(field2));
+    }
+
+    /** @return the schema of the table */
+    public TupleDesc getTupleDesc() {
+        return td;
     }
 
     /**
      * return the total number of tuples in this table
      * */
     public int totalTuples() {
-        // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
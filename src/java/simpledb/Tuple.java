@@ -1,21 +1,32 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
-import java.util.ArrayList;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The tuples a HeapPage gives out are views of the bytes of the page: each
+ * field is decoded from them the first time it is asked for, so an operator
+ * that looks at one field of a wide tuple does not pay for the others.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private TupleDesc td;
-    private List<Field> fields;
+    private Field[] fields;
     private RecordId rid = null;
+    // the bytes the fields not decoded yet are read from, null if none
+    private transient byte[] data;
+    private transient int offset;
+    // whether a field was set since the tuple was read from data
+    private transient boolean changed;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -27,10 +38,18 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         // some code goes here
         this.td = td;
-        fields = new ArrayList<Field>();
-        for (int i = 0; i < td.numFields(); i++) {
-                fields.add(null);
-        }
+        fields = new Field[td.numFields()];
+    }
+
+    /**
+     * Create a tuple whose fields are decoded on demand from data, where
+     * the tuple is stored at offset as laid out by {@link TupleDesc#getOffset}.
+     * The bytes must not change while the tuple is in use.
+     */
+    Tuple(TupleDesc td, byte[] data, int offset) {
+        this(td);
+        this.data = data;
+        this.offset = offset;
     }
 
     /**
@@ -71,7 +90,8 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        fields.set(i, f);
+        fields[i] = f;
+        changed = true;
     }
 
     /**
@@ -82,7 +102,48 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return fields.get(i);
+        Field f = fields[i];
+        byte[] d = data;
+        if (f == null && d != null) {
+                f = td.getFieldType(i).parse(d, offset + td.getOffset(i));
+                fields[i] = f;
+        }
+        return f;
+    }
+
+    /** Decode the fields not decoded yet. */
+    private void decodeAll() {
+        if (data == null)
+                return;
+        for (int i = 0; i < fields.length; i++)
+                getField(i);
+    }
+
+    /**
+     * Write this tuple as stored on a page to buf at its position, if it is
+     * a view of stored bytes that has not been changed since.
+     *
+     * @return false if the tuple has to be serialized field by field
+     */
+    boolean copyTo(ByteBuffer buf) {
+        byte[] d = data;
+        if (d == null || changed)
+                return false;
+        buf.put(d, offset, td.getSize());
+        return true;
+    }
+
+    /**
+     * @return whether this tuple is an unchanged view of the tuple stored
+     *   at offset in d
+     */
+    boolean isViewOf(byte[] d, int offset) {
+        return data == d && this.offset == offset && !changed;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
     }
 
     /**
@@ -96,14 +157,32 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         String outStr = new String();
-        for (int i = 0; i < fields.size(); i++) {
-                outStr += fields.get(i).toString();
+        for (int i = 0; i < fields.length; i++) {
+                outStr += getField(i).toString();
                 outStr += '\t';
         }
         outStr += '\n';
         return outStr;
     }
     
+    /**
+     * Merge two tuples into one of a join's schema, with the fields of left
+     * followed by those of right.
+     *
+     * @param td the schema of the merged tuple, as
+     *   {@link TupleDesc#merge TupleDesc.merge} makes it
+     * @return the new tuple
+     */
+    public static Tuple merge(TupleDesc td, Tuple left, Tuple right) {
+        Tuple merged = new Tuple(td);
+        int n1 = left.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            merged.setField(i, left.getField(i));
+        for (int i = 0; i < right.getTupleDesc().numFields(); i++)
+            merged.setField(n1 + i, right.getField(i));
+        return merged;
+    }
+
     /**
      * @return
      *        An iterator which iterates over all the fields of this tuple
@@ -111,7 +190,8 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return fields.iterator();
+        decodeAll();
+        return Arrays.asList(fields).iterator();
     }
     
     /**
@@ -120,6 +200,8 @@ public class Tuple implements Serializable {
     public void resetTupleDesc(TupleDesc td)
     {
         // some code goes here
+        decodeAll();
+        data = null;
         this.td = td;
     }
 }
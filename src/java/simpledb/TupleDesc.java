@@ -47,6 +47,8 @@ public class TupleDesc implements Serializable, Iterable<TupleDesc.TDItem> {
      * Collection (vector) to stores the Tuple Description Items.
      */
     private Vector<TDItem> m_tdItems;
+    // field offsets, computed when first needed
+    private transient volatile int[] offsets;
     
     /**
      * @return
@@ -176,6 +178,24 @@ public class TupleDesc implements Serializable, Iterable<TupleDesc.TDItem> {
     	throw new NoSuchElementException("No element with name " + name + " exists.");
     }
 
+    /**
+     * @return the offset in bytes of the ith field in a tuple of this
+     *         TupleDesc as stored on a page
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getOffset(int i) throws NoSuchElementException {
+    	checkElementExists(i);
+    	int[] offs = offsets;
+    	if (offs == null) {
+    		offs = new int[m_tdItems.size()];
+    		for (int j = 1; j < offs.length; j++)
+    			offs[j] = offs[j - 1] + m_tdItems.elementAt(j - 1).fieldType.getLen();
+    		offsets = offs;
+    	}
+    	return offs[i];
+    }
+
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
      *         Note that tuples from a given TupleDesc are of a fixed size.
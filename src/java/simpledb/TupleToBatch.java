@@ -0,0 +1,70 @@
+package simpledb;
+
+/**
+ * TupleToBatch reads the tuples of a DbIterator into batches, so that an
+ * operator without a batch version can feed a {@link BatchIterator}. The
+ * record ids of the tuples are kept.
+ *
+ * @see BatchToTuple
+ */
+public class TupleToBatch implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private final int capacity;
+    private transient Batch batch;
+
+    /**
+     * @param child the iterator to read the tuples of
+     */
+    public TupleToBatch(DbIterator child) {
+        this(child, Batch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of rows in a batch
+     */
+    public TupleToBatch(DbIterator child, int capacity) {
+        this.child = child;
+        this.capacity = capacity;
+    }
+
+    /** @return the iterator the tuples are read from */
+    public DbIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new Batch(child.getTupleDesc(), capacity);
+    }
+
+    public Batch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("iterator is closed");
+        batch.clear();
+        int n = batch.getTupleDesc().numFields();
+        while (!batch.isFull() && child.hasNext()) {
+            Tuple t = child.next();
+            RecordId rid = t.getRecordId();
+            int row = rid == null ? batch.addRow() : batch.addRow(rid.getPageId(), rid.tupleno());
+            for (int i = 0; i < n; i++)
+                batch.set(i, row, t.getField(i));
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        batch = null;
+        child.close();
+    }
+}
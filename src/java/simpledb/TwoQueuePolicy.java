@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha). A newly loaded page enters the
+ * FIFO queue A1in; when it is evicted from there only its id is remembered
+ * in the ghost queue A1out. A page that is loaded again while its id is in
+ * A1out has proven it is reused and goes to the LRU queue Am. Pages that are
+ * only touched once (scans) therefore never displace the Am working set.
+ * <p>
+ * A hit only sets the time stamp of its page in Am, without a lock, so hits
+ * never wait for each other; Am is put in LRU order only when a victim is
+ * chosen (see {@link LruPolicy}). The queues are locked for loads, removals
+ * and the choice of a victim.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final int kin;
+    private final int kout;
+
+    // guarded by this
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+    // the pages of Am, mapped to the time of their last request
+    private final ConcurrentHashMap<PageId, AtomicLong> am =
+        new ConcurrentHashMap<PageId, AtomicLong>();
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Sizes A1in at a quarter and A1out at half of the pool, the values
+     * recommended in the 2Q paper.
+     *
+     * @param numPages the BufferPool capacity
+     */
+    public TwoQueuePolicy(int numPages) {
+        this(Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    /**
+     * @param kin the target size of A1in
+     * @param kout the maximum number of ids remembered in A1out
+     */
+    public TwoQueuePolicy(int kin, int kout) {
+        this.kin = kin;
+        this.kout = kout;
+    }
+
+    public void pageHit(PageId pid) {
+        // hits in A1in are deliberately ignored: correlated references
+        // right after the load do not prove long term reuse
+        AtomicLong stamp = am.get(pid);
+        if (stamp != null)
+            stamp.set(clock.incrementAndGet());
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (a1in.contains(pid) || am.containsKey(pid)) {
+            pageHit(pid);
+            return;
+        }
+        if (a1out.remove(pid))
+            am.put(pid, new AtomicLong(clock.incrementAndGet()));
+        else
+            a1in.add(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable filter) {
+        PageId victim = null;
+        if (a1in.size() > kin || am.isEmpty())
+            victim = firstEvictable(a1in.iterator(), filter);
+        if (victim == null)
+            victim = LruPolicy.leastRecentlyUsed(am, filter);
+        if (victim == null)
+            victim = firstEvictable(a1in.iterator(), filter);
+        return victim;
+    }
+
+    private PageId firstEvictable(Iterator<PageId> it, Evictable filter) {
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (filter.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    public synchronized int size() {
+        return a1in.size() + am.size();
+    }
+}
@@ -0,0 +1,232 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class BTreeFileTest extends TestUtil.CreateIndex {
+
+  /** @return an empty index on a table that is not in the catalog */
+  private BTreeFile index(Type keyType, int pageSize) throws IOException {
+    BufferPool.setPageSize(pageSize);
+    BTreeFile index = new BTreeFile(tempFile("btree"), TABLE_ID, 0, keyType);
+    Database.getCatalog().addTable(index, "index");
+    return index;
+  }
+
+  /**
+   * Unit test: inserts in random order split leaves and internal pages,
+   * and a scan returns the entries in order
+   */
+  @Test public void insertSplits() throws Exception {
+    BTreeFile index = index(Type.INT_TYPE, SMALL_PAGE_SIZE);
+    Transaction t = begin();
+    for (int i : shuffled(1000, 1))
+      insert(t, index, new IntField(i), i);
+    t.commit();
+
+    assertEquals(range(1000), intKeys(index, null, 0));
+    int leaves = 1000 / BTreeLeafPage.maxEntries(Type.INT_TYPE);
+    int fanout = BTreeInternalPage.maxKeys(Type.INT_TYPE) + 1;
+    assertTrue(leaves > fanout); // so there is more than one internal page
+    assertTrue(index.numPages() > leaves + 1);
+
+    // the entries carry the record ids they were inserted with
+    TransactionId tid = new TransactionId();
+    for (Tuple e : entries(index.indexIterator(tid, Predicate.Op.EQUALS, new IntField(123)))) {
+      assertEquals(12, ((IntField) e.getField(1)).getValue());
+      assertEquals(3, ((IntField) e.getField(2)).getValue());
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test: duplicate keys, and the entries each predicate finds
+   */
+  @Test public void duplicatesAndRanges() throws Exception {
+    BTreeFile index = index(Type.INT_TYPE, SMALL_PAGE_SIZE);
+    Transaction t = begin();
+    for (int i : shuffled(1000, 2))
+      insert(t, index, new IntField(i % 50), i);
+    t.commit();
+
+    assertEquals(Collections.nCopies(20, 7), intKeys(index, Predicate.Op.EQUALS, 7));
+    assertEquals(0, intKeys(index, Predicate.Op.EQUALS, 50).size());
+    assertEquals(80, intKeys(index, Predicate.Op.GREATER_THAN, 45).size());
+    assertEquals(100, intKeys(index, Predicate.Op.GREATER_THAN_OR_EQ, 45).size());
+    assertEquals(60, intKeys(index, Predicate.Op.LESS_THAN, 3).size());
+    assertEquals(80, intKeys(index, Predicate.Op.LESS_THAN_OR_EQ, 3).size());
+    assertEquals(980, intKeys(index, Predicate.Op.NOT_EQUALS, 3).size());
+    assertEquals(1000, intKeys(index, Predicate.Op.GREATER_THAN, -1).size());
+    for (int key : intKeys(index, Predicate.Op.GREATER_THAN, 45))
+      assertTrue(key > 45);
+
+    // an entry goes in once only
+    Transaction t2 = begin();
+    try {
+      insert(t2, index, new IntField(0), 0);
+      fail("expected DbException");
+    } catch (DbException e) {
+      // expected
+    }
+    t2.abort();
+  }
+
+  /**
+   * Unit test: string keys, which are big enough to make a deep tree on
+   * pages of the usual size
+   */
+  @Test public void stringKeys() throws Exception {
+    BTreeFile index = index(Type.STRING_TYPE, BufferPool.PAGE_SIZE);
+    Transaction t = begin();
+    for (int i : shuffled(500, 3))
+      insert(t, index, new StringField(String.format("k%04d", i), Type.STRING_LEN), i);
+    t.commit();
+
+    TransactionId tid = new TransactionId();
+    ArrayList<Tuple> all = entries(index.iterator(tid));
+    assertEquals(500, all.size());
+    for (int i = 0; i < all.size(); i++)
+      assertEquals(String.format("k%04d", i), ((StringField) all.get(i).getField(0)).getValue());
+    ArrayList<Tuple> range = entries(index.indexIterator(tid, Predicate.Op.GREATER_THAN_OR_EQ,
+        new StringField("k0450", Type.STRING_LEN)));
+    assertEquals(50, range.size());
+    assertEquals(1, entries(index.indexIterator(tid, Predicate.Op.EQUALS,
+        new StringField("k0007", Type.STRING_LEN))).size());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test: deletes merge and even out pages until the tree is empty,
+   * and the pages they free are used again
+   */
+  @Test public void deleteMerges() throws Exception {
+    BTreeFile index = index(Type.INT_TYPE, SMALL_PAGE_SIZE);
+    Transaction t = begin();
+    for (int i : shuffled(1000, 4))
+      insert(t, index, new IntField(i), i);
+    t.commit();
+    int pages = index.numPages();
+
+    ArrayList<Integer> left = range(1000);
+    ArrayList<Integer> order = shuffled(1000, 5);
+    for (int round = 0; round < 4; round++) {
+      t = begin();
+      for (int i : order.subList(round * 250, (round + 1) * 250)) {
+        delete(t, index, new IntField(i), i);
+        left.remove((Integer) i);
+      }
+      t.commit();
+      assertEquals(left, intKeys(index, null, 0));
+    }
+
+    Transaction t2 = begin();
+    try {
+      delete(t2, index, new IntField(1), 1);
+      fail("expected DbException");
+    } catch (DbException e) {
+      // expected
+    }
+    t2.abort();
+
+    t = begin();
+    for (int i : shuffled(1000, 6))
+      insert(t, index, new IntField(i), i);
+    t.commit();
+    assertEquals(range(1000), intKeys(index, null, 0));
+    assertEquals(pages, index.numPages());
+  }
+
+  /**
+   * Unit test: an abort rolls back splits, including pages written out
+   * before it
+   */
+  @Test public void abortSplits() throws Exception {
+    BTreeFile index = index(Type.INT_TYPE, SMALL_PAGE_SIZE);
+    Transaction t1 = begin();
+    for (int i = 0; i < 300; i += 2)
+      insert(t1, index, new IntField(i), i);
+    t1.commit();
+
+    Transaction t2 = begin();
+    for (int i = 1; i < 300; i += 2)
+      insert(t2, index, new IntField(i), i);
+    Database.getBufferPool().flushPages(t2.getId());
+    for (int i = 300; i < 600; i++)
+      insert(t2, index, new IntField(i), i);
+    t2.abort();
+
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < 300; i += 2)
+      expected.add(i);
+    assertEquals(expected, intKeys(index, null, 0));
+  }
+
+  /**
+   * Unit test: transactions that insert at the same time wait for each
+   * other on the header instead of deadlocking when they split pages
+   */
+  @Test(timeout = 60000) public void concurrentInserts() throws Throwable {
+    insertConcurrently(index(Type.INT_TYPE, SMALL_PAGE_SIZE));
+  }
+
+  /**
+   * Unit test: an index registered on a heap table is built from the
+   * tuples it has and kept up to date by the BufferPool
+   */
+  @Test public void catalogIndex() throws Exception {
+    HeapFile hf = Utility.createEmptyHeapFile(tempFile("btree").getPath(), 2);
+    Transaction t = begin();
+    for (int i = 0; i < 100; i++)
+      Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+          Utility.getHeapTuple(new int[] { i, i % 10 }));
+    t.commit();
+
+    BTreeFile index = new BTreeFile(tempFile("btree"), hf.getId(), 1, Type.INT_TYPE);
+    Database.getCatalog().addIndex(index, "hf_1");
+    assertEquals(1, Database.getCatalog().getIndexes(hf.getId()).size());
+    assertSame(index, Database.getCatalog().getIndexes(hf.getId()).get(0).file);
+    assertEquals(0, Database.getCatalog().getIndexes(index.getId()).size());
+    assertEquals(10, intKeys(index, Predicate.Op.EQUALS, 3).size());
+
+    // inserts and deletes through the BufferPool change the index too
+    t = begin();
+    for (int i = 100; i < 110; i++)
+      Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+          Utility.getHeapTuple(new int[] { i, 3 }));
+    DbFileIterator it = hf.iterator(t.getId());
+    for (Tuple tup : entries(it))
+      if (((IntField) tup.getField(1)).getValue() == 4)
+        Database.getBufferPool().deleteTuple(t.getId(), tup);
+    t.commit();
+    assertEquals(20, intKeys(index, Predicate.Op.EQUALS, 3).size());
+    assertEquals(0, intKeys(index, Predicate.Op.EQUALS, 4).size());
+    assertEquals(100, intKeys(index, null, 0).size());
+
+    // every entry points at a tuple with its key
+    TransactionId tid = new TransactionId();
+    HashMap<RecordId, Tuple> tuples = new HashMap<RecordId, Tuple>();
+    for (Tuple tup : entries(hf.iterator(tid)))
+      tuples.put(tup.getRecordId(), tup);
+    for (Tuple e : entries(index.iterator(tid))) {
+      RecordId rid = new RecordId(new HeapPageId(hf.getId(), ((IntField) e.getField(1)).getValue()),
+                                  ((IntField) e.getField(2)).getValue());
+      assertEquals(e.getField(0), tuples.get(rid).getField(1));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BTreeFileTest.class);
+  }
+}
@@ -0,0 +1,236 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchTest extends SimpleDbTestBase {
+
+  /** Batches smaller than a page, so that pages are read over several */
+  private static final int CAPACITY = 100;
+
+  private ArrayList<ArrayList<Integer>> tuples;
+  private HeapFile hf;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    tuples = new ArrayList<ArrayList<Integer>>();
+    hf = SystemTestUtil.createRandomHeapFile(4, 3000, 100, null, tuples, "c");
+    Database.getCatalog().addTable(hf, "t");
+    tid = new TransactionId();
+  }
+
+  /** @return the tuples of an iterator as strings, sorted */
+  private static ArrayList<String> rows(DbIterator it) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    it.open();
+    while (it.hasNext())
+      rows.add(it.next().toString());
+    it.close();
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /** @return the rows of a batch iterator as strings, sorted */
+  private static ArrayList<String> rows(BatchIterator it) throws Exception {
+    return rows(new BatchToTuple(it));
+  }
+
+  private SeqScan scan() {
+    return new SeqScan(tid, hf.getId(), "t");
+  }
+
+  private BatchIterator batches() {
+    return new BatchScan(scan(), CAPACITY);
+  }
+
+  /**
+   * Unit test: a batch scan returns the tuples of a scan, with their
+   * record ids, also for some fields only
+   */
+  @Test public void batchScan() throws Exception {
+    assertEquals(rows(scan()), rows(batches()));
+    BatchToTuple it = new BatchToTuple(batches());
+    it.open();
+    Tuple t = it.next();
+    it.close();
+    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+        t.getRecordId().getPageId(), Permissions.READ_ONLY);
+    assertEquals(t.toString(), page.getTuple(t.getRecordId().tupleno()).toString());
+
+    int[] fields = { 3, 0 };
+    assertEquals(rows(new SeqScan(tid, hf.getId(), "t", fields)),
+        rows(new BatchScan(new SeqScan(tid, hf.getId(), "t", fields), CAPACITY)));
+
+    // tuples changed in the buffer pool are read from the page's tuples
+    Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -1, -2, -3, -4 }));
+    assertEquals(rows(scan()), rows(batches()));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test: filters narrow the selection down, and a projection of the
+   * rows selected keeps them
+   */
+  @Test public void filterProject() throws Exception {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate p = new Predicate(2, op, new IntField(50));
+      assertEquals(rows(new Filter(p, scan())), rows(new BatchFilter(p, batches())));
+    }
+    Predicate p1 = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30));
+    Predicate p2 = new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(60));
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(3);
+    fields.add(1);
+    Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+    DbIterator expected = new Project(fields, types, new Filter(p2, new Filter(p1, scan())));
+    BatchIterator actual = new BatchProject(new int[] { 3, 1 },
+        new BatchFilter(p2, new BatchFilter(p1, batches())));
+    assertEquals(rows(expected), rows(actual));
+    assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** @return tuples of a string and an int, of few distinct strings */
+  private static TupleIterator strings(int n, long seed) {
+    Random r = new Random(seed);
+    Object[] data = new Object[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = "s" + r.nextInt(20);
+      data[2 * i + 1] = r.nextInt(1000);
+    }
+    TupleIterator it = TestUtil.createTupleList(2, data);
+    it.close();
+    return it;
+  }
+
+  /**
+   * Unit test: string fields are filtered, grouped on and joined on as
+   * their tuple versions do
+   */
+  @Test public void strings() throws Exception {
+    Predicate eq = new Predicate(0, Predicate.Op.EQUALS, new StringField("s7", Type.STRING_LEN));
+    Predicate like = new Predicate(0, Predicate.Op.LIKE, new StringField("1", Type.STRING_LEN));
+    for (Predicate p : new Predicate[] { eq, like })
+      assertEquals(rows(new Filter(p, strings(500, 1))),
+          rows(new BatchFilter(p, new TupleToBatch(strings(500, 1), CAPACITY))));
+
+    assertEquals(rows(new Aggregate(strings(500, 2), 1, 0, Aggregator.Op.SUM)),
+        rows(new BatchAggregate(new TupleToBatch(strings(500, 2), CAPACITY), 1, 0, Aggregator.Op.SUM)));
+    assertEquals(rows(new Aggregate(strings(500, 2), 0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT)),
+        rows(new BatchAggregate(new TupleToBatch(strings(500, 2), CAPACITY), 0,
+            Aggregator.NO_GROUPING, Aggregator.Op.COUNT)));
+
+    JoinPredicate jp = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    assertEquals(rows(new HashJoin(jp, strings(200, 3), strings(100, 4))),
+        rows(new BatchHashJoin(jp, new TupleToBatch(strings(200, 3), CAPACITY),
+            new TupleToBatch(strings(100, 4), CAPACITY))));
+  }
+
+  /**
+   * Unit test: hash aggregation computes what Aggregate does, grouped and
+   * not
+   */
+  @Test public void aggregate() throws Exception {
+    Aggregator.Op[] ops = { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+        Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    for (Aggregator.Op op : ops) {
+      for (int gfield : new int[] { Aggregator.NO_GROUPING, 1 }) {
+        Aggregate expected = new Aggregate(scan(), 3, gfield, op);
+        BatchAggregate actual = new BatchAggregate(batches(), 3, gfield, op);
+        assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+        assertEquals(rows(expected), rows(actual));
+      }
+    }
+    try {
+      new BatchAggregate(new TupleToBatch(strings(10, 5)), 0, Aggregator.NO_GROUPING, Aggregator.Op.MAX);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test: the hash join returns what HashJoin does, and runs as one
+   * when the build side does not fit its budget
+   */
+  @Test public void hashJoin() throws Exception {
+    ArrayList<ArrayList<Integer>> small = new ArrayList<ArrayList<Integer>>();
+    HeapFile hf2 = SystemTestUtil.createRandomHeapFile(2, 500, 200, null, small, "d");
+    Database.getCatalog().addTable(hf2, "u");
+    JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    ArrayList<String> expected = rows(new HashJoin(p, scan(), new SeqScan(tid, hf2.getId(), "u")));
+    assertTrue(expected.size() > 0);
+
+    BatchHashJoin join = new BatchHashJoin(p, batches(),
+        new BatchScan(new SeqScan(tid, hf2.getId(), "u"), CAPACITY));
+    assertEquals(expected, rows(join));
+
+    join = new BatchHashJoin(p, batches(),
+        new BatchScan(new SeqScan(tid, hf2.getId(), "u"), CAPACITY), 1000);
+    BatchToTuple it = new BatchToTuple(join);
+    it.open();
+    assertTrue(it.hasNext());
+    assertTrue(join.isFallback());
+    it.close();
+    assertEquals(expected, rows(join));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test: a vectorized plan returns what the plan does, with the
+   * operators that have no batch version read through adapters
+   */
+  @Test public void plan() throws Exception {
+    ArrayList<ArrayList<Integer>> small = new ArrayList<ArrayList<Integer>>();
+    HeapFile hf2 = SystemTestUtil.createRandomHeapFile(2, 500, 200, null, small, "d");
+    Database.getCatalog().addTable(hf2, "u");
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("t", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+    stats.put("u", new TableStats(hf2.getId(), TableStats.IOCOSTPERPAGE));
+
+    ArrayList<ArrayList<String>> results = new ArrayList<ArrayList<String>>();
+    for (int i = 0; i < 2; i++) {
+      LogicalPlan lp = new LogicalPlan();
+      lp.addScan(hf.getId(), "t");
+      lp.addScan(hf2.getId(), "u");
+      lp.addJoin("t.c1", "u.d0", Predicate.Op.EQUALS);
+      lp.addFilter("t.c2", Predicate.Op.LESS_THAN, "40");
+      lp.addProjectField("u.d1", null);
+      lp.addProjectField("t.c0", "SUM");
+      lp.addAggregate("SUM", "t.c0", "u.d1");
+      lp.addOrderBy("u.d1", true);
+      lp.setVectorized(i == 1);
+      DbIterator plan = lp.physicalPlan(tid, stats, false);
+      if (i == 1) {
+        assertTrue(plan instanceof BatchToTuple);
+        BatchProject project = (BatchProject) ((BatchToTuple) plan).getChild();
+        // OrderBy has no batch version
+        assertTrue(project.getChild() instanceof TupleToBatch);
+      }
+      results.add(rows(plan));
+    }
+    assertTrue(results.get(0).size() > 0);
+    assertEquals(results.get(0), results.get(1));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchTest.class);
+  }
+}
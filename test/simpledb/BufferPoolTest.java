@@ -0,0 +1,159 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+
+    /**
+     * Run the same body in THREADS threads at once and rethrow the first
+     * thing that went wrong in any of them.
+     */
+    private static void runConcurrently(final Runnable body) throws Throwable {
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        body.run();
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads)
+            t.join();
+        if (error.get() != null)
+            throw error.get();
+    }
+
+    /**
+     * Unit test: a page that many transactions miss on at the same time is
+     * read from disk once.
+     */
+    @Test public void loadOnce() throws Throwable {
+        final HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        final BufferPool bp = Database.resetBufferPool(2 * hf.numPages());
+        runConcurrently(new Runnable() {
+            public void run() {
+                TransactionId tid = new TransactionId();
+                try {
+                    for (int round = 0; round < 50; round++) {
+                        for (int i = 0; i < hf.numPages(); i++)
+                            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+                    }
+                    bp.transactionComplete(tid);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        assertEquals(hf.numPages(), bp.getMissCount());
+        assertEquals(hf.numPages(), bp.getNumResidentPages());
+    }
+
+    /**
+     * Unit test: concurrent misses on a full pool never push it past its
+     * capacity.
+     */
+    @Test public void capacityUnderContention() throws Throwable {
+        final HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        final int capacity = 8;
+        final BufferPool bp = Database.resetBufferPool(capacity);
+        final AtomicInteger maxResident = new AtomicInteger();
+        assertTrue(hf.numPages() > 2 * capacity);
+        runConcurrently(new Runnable() {
+            public void run() {
+                TransactionId tid = new TransactionId();
+                Random r = new Random();
+                try {
+                    for (int i = 0; i < 150; i++) {
+                        PageId pid = new HeapPageId(hf.getId(), r.nextInt(hf.numPages()));
+                        Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                        assertEquals(pid, p.getId());
+                        int resident = bp.getNumResidentPages();
+                        if (resident > maxResident.get())
+                            maxResident.set(resident);
+                    }
+                    bp.transactionComplete(tid);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        assertTrue(maxResident.get() <= capacity);
+        assertTrue(bp.getEvictionCount() > 0);
+    }
+
+    /**
+     * Unit test: when the only pages eviction could steal cannot be written
+     * out, the miss fails instead of retrying forever.
+     */
+    @Test(timeout = 20000) public void failedSteal() throws Exception {
+        HeapFile data = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        HeapFile hf = new HeapFile(data.getFile(), data.getTupleDesc()) {
+            public void writePage(Page page) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        Database.getCatalog().addTable(hf, "broken");
+        assertTrue(hf.numPages() > 2);
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE).markDirty(true, tid);
+        try {
+            bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(2, bp.getNumResidentPages());
+    }
+
+    /**
+     * Unit test: a page a scan ring owns that was dirtied without being
+     * promoted is stolen when nothing else can be evicted, instead of the
+     * miss waiting for its transaction to end.
+     */
+    @Test(timeout = 20000) public void dirtyRingPage() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        assertTrue(hf.numPages() > 2);
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        BufferRing ring = bp.newScanRing(hf.numPages());
+        assertNotNull(ring);
+        PageId p0 = new HeapPageId(hf.getId(), 0), p1 = new HeapPageId(hf.getId(), 1);
+        bp.getPage(tid, p0, Permissions.READ_WRITE, ring).markDirty(true, tid);
+        bp.getPinnedPage(tid, p1, Permissions.READ_WRITE).markDirty(true, tid);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        assertEquals(2, bp.getNumResidentPages());
+        bp.unpinPage(p1);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
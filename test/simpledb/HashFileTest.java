@@ -0,0 +1,261 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class HashFileTest extends TestUtil.CreateIndex {
+
+  /** @return an empty index on a table that is not in the catalog */
+  private HashFile index(Type keyType, int pageSize) throws IOException {
+    BufferPool.setPageSize(pageSize);
+    HashFile index = new HashFile(tempFile("hash"), TABLE_ID, 0, keyType);
+    Database.getCatalog().addTable(index, "index");
+    return index;
+  }
+
+  /** @return the keys of the entries found, sorted */
+  @Override protected ArrayList<Integer> intKeys(IndexFile index, Predicate.Op op, int key)
+      throws Exception {
+    ArrayList<Integer> keys = super.intKeys(index, op, key);
+    Collections.sort(keys);
+    return keys;
+  }
+
+  /**
+   * Unit test: inserts split one bucket at a time, growing the directory
+   * past a page, and every key is found in its bucket
+   */
+  @Test public void insertSplits() throws Exception {
+    HashFile index = index(Type.INT_TYPE, SMALL_PAGE_SIZE);
+    Transaction t = begin();
+    int buckets = index.numBuckets(t.getId());
+    assertEquals(1, buckets);
+    for (int i : shuffled(1000, 1)) {
+      insert(t, index, new IntField(i), i);
+      int now = index.numBuckets(t.getId());
+      assertTrue(now == buckets || now == buckets + 1);
+      buckets = now;
+    }
+    t.commit();
+
+    assertTrue(buckets > HashDirectoryPage.capacity());
+    assertTrue(buckets > 1000 / HashBucketPage.maxEntries(Type.INT_TYPE));
+    assertEquals(range(1000), intKeys(index, null, 0));
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 1000; i++) {
+      ArrayList<Tuple> found = entries(index.indexIterator(tid, Predicate.Op.EQUALS, new IntField(i)));
+      assertEquals(1, found.size());
+      assertEquals(i / 10, ((IntField) found.get(0).getField(1)).getValue());
+      assertEquals(i % 10, ((IntField) found.get(0).getField(2)).getValue());
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test: duplicate keys, and the entries each predicate finds
+   */
+  @Test public void duplicatesAndScans() throws Exception {
+    HashFile index = index(Type.INT_TYPE, SMALL_PAGE_SIZE);
+    Transaction t = begin();
+    for (int i : shuffled(1000, 2))
+      insert(t, index, new IntField(i % 50), i);
+    t.commit();
+
+    assertEquals(Collections.nCopies(20, 7), intKeys(index, Predicate.Op.EQUALS, 7));
+    assertEquals(0, intKeys(index, Predicate.Op.EQUALS, 50).size());
+    // only EQUALS is supported, the others look at every entry
+    assertTrue(index.supports(Predicate.Op.EQUALS));
+    assertFalse(index.supports(Predicate.Op.LESS_THAN));
+    assertEquals(80, intKeys(index, Predicate.Op.GREATER_THAN, 45).size());
+    assertEquals(980, intKeys(index, Predicate.Op.NOT_EQUALS, 3).size());
+
+    // an entry goes in once only
+    Transaction t2 = begin();
+    try {
+      insert(t2, index, new IntField(0), 0);
+      fail("expected DbException");
+    } catch (DbException e) {
+      // expected
+    }
+    t2.abort();
+  }
+
+  /**
+   * Unit test: string keys on pages of the usual size
+   */
+  @Test public void stringKeys() throws Exception {
+    HashFile index = index(Type.STRING_TYPE, BufferPool.PAGE_SIZE);
+    Transaction t = begin();
+    for (int i : shuffled(500, 3))
+      insert(t, index, new StringField(String.format("k%04d", i), Type.STRING_LEN), i);
+    t.commit();
+
+    TransactionId tid = new TransactionId();
+    assertEquals(500, entries(index.iterator(tid)).size());
+    for (int i = 0; i < 500; i += 7) {
+      ArrayList<Tuple> found = entries(index.indexIterator(tid, Predicate.Op.EQUALS,
+          new StringField(String.format("k%04d", i), Type.STRING_LEN)));
+      assertEquals(1, found.size());
+      assertEquals(String.format("k%04d", i), ((StringField) found.get(0).getField(0)).getValue());
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test: deletes empty the buckets, and the overflow pages they free
+   * are used again
+   */
+  @Test public void deletes() throws Exception {
+    HashFile index = index(Type.INT_TYPE, SMALL_PAGE_SIZE);
+    Transaction t = begin();
+    for (int i : shuffled(1000, 4))
+      insert(t, index, new IntField(i % 100), i);
+    t.commit();
+    int pages = index.numPages();
+
+    ArrayList<Integer> left = new ArrayList<Integer>();
+    for (int i = 0; i < 1000; i++)
+      left.add(i % 100);
+    Collections.sort(left);
+    t = begin();
+    for (int i : shuffled(1000, 5).subList(0, 700)) {
+      delete(t, index, new IntField(i % 100), i);
+      left.remove((Integer) (i % 100));
+    }
+    t.commit();
+    assertEquals(left, intKeys(index, null, 0));
+
+    Transaction t2 = begin();
+    try {
+      delete(t2, index, new IntField(1000), 1000);
+      fail("expected DbException");
+    } catch (DbException e) {
+      // expected
+    }
+    t2.abort();
+
+    t = begin();
+    for (int i : shuffled(1000, 5).subList(700, 1000))
+      delete(t, index, new IntField(i % 100), i);
+    t.commit();
+    assertEquals(0, intKeys(index, null, 0).size());
+
+    // the overflow pages are free now, and are all the room the same keys
+    // need again
+    t = begin();
+    for (int i = 1000; i < 1300; i++)
+      insert(t, index, new IntField(i % 100), i);
+    t.commit();
+    assertEquals(300, intKeys(index, null, 0).size());
+    assertEquals(3, intKeys(index, Predicate.Op.EQUALS, 42).size());
+    assertEquals(pages, index.numPages());
+  }
+
+  /**
+   * Unit test: an abort rolls back splits, including pages written out
+   * before it
+   */
+  @Test public void abortSplits() throws Exception {
+    HashFile index = index(Type.INT_TYPE, SMALL_PAGE_SIZE);
+    Transaction t1 = begin();
+    for (int i = 0; i < 300; i += 2)
+      insert(t1, index, new IntField(i), i);
+    t1.commit();
+    TransactionId tid = new TransactionId();
+    int buckets = index.numBuckets(tid);
+    Database.getBufferPool().transactionComplete(tid);
+
+    Transaction t2 = begin();
+    for (int i = 1; i < 300; i += 2)
+      insert(t2, index, new IntField(i), i);
+    Database.getBufferPool().flushPages(t2.getId());
+    for (int i = 300; i < 600; i++)
+      insert(t2, index, new IntField(i), i);
+    t2.abort();
+
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < 300; i += 2)
+      expected.add(i);
+    assertEquals(expected, intKeys(index, null, 0));
+    tid = new TransactionId();
+    assertEquals(buckets, index.numBuckets(tid));
+    assertEquals(1, entries(index.indexIterator(tid, Predicate.Op.EQUALS, new IntField(42))).size());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test: transactions that insert at the same time wait for each
+   * other on the header instead of deadlocking when they split buckets
+   */
+  @Test(timeout = 60000) public void concurrentInserts() throws Throwable {
+    insertConcurrently(index(Type.INT_TYPE, SMALL_PAGE_SIZE));
+  }
+
+  /**
+   * Unit test: a hash index on the primary key of a table is kept up to
+   * date, and the planner reads the table through it for an equality
+   */
+  @Test public void primaryKeyIndex() throws Exception {
+    HeapFile hf = Utility.openHeapFile(2, "c", tempFile("hash"));
+    Database.getCatalog().addTable(hf, "t", hf.getTupleDesc().getFieldName(0));
+    Transaction t = begin();
+    for (int i = 0; i < 3000; i++)
+      Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+          Utility.getHeapTuple(new int[] { i, i % 10 }));
+    t.commit();
+
+    HashFile index = Database.getCatalog().addPrimaryKeyIndex(hf.getId());
+    index.getFile().deleteOnExit();
+    assertSame(index, Database.getCatalog().getIndexes(hf.getId()).get(0).file);
+    assertEquals(0, index.getKeyField());
+    assertEquals(Collections.singletonList(1234), intKeys(index, Predicate.Op.EQUALS, 1234));
+
+    t = begin();
+    Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+        Utility.getHeapTuple(new int[] { 5000, 0 }));
+    t.commit();
+    assertEquals(Collections.singletonList(5000), intKeys(index, Predicate.Op.EQUALS, 5000));
+
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(hf.getId(), "t");
+    lp.addFilter("t." + hf.getTupleDesc().getFieldName(0), Predicate.Op.EQUALS, "1234");
+    lp.addProjectField("*", null);
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("t", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+    TransactionId tid = new TransactionId();
+    Project p = (Project) lp.physicalPlan(tid, stats, false);
+    DbIterator scan = p.getChildren()[0];
+    assertTrue(scan instanceof IndexScan);
+    assertSame(index, ((IndexScan) scan).getIndex());
+    scan.open();
+    assertTrue(scan.hasNext());
+    assertEquals(new IntField(1234), scan.next().getField(0));
+    assertFalse(scan.hasNext());
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+
+    Database.getCatalog().addTable(new HeapFile(tempFile("hash"), hf.getTupleDesc()), "nokey");
+    try {
+      Database.getCatalog().addPrimaryKeyIndex(Database.getCatalog().getTableId("nokey"));
+      fail("expected DbException");
+    } catch (DbException e) {
+      // expected
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashFileTest.class);
+  }
+}
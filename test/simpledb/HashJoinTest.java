@@ -0,0 +1,179 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /** @return a two column tuple list whose first column is drawn from [0, keys) */
+  private static TupleIterator randomTuples(Random r, int rows, int keys) {
+    int[] data = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = r.nextInt(keys);
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /**
+   * @return the output of an open iterator as sorted strings, for comparing
+   *   multisets
+   */
+  private static ArrayList<String> drain(DbIterator it) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    while (it.hasNext())
+      out.add(it.next().toString());
+    Collections.sort(out);
+    return out;
+  }
+
+  /**
+   * Unit test for HashJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    assertEquals(expected, op.getTupleDesc());
+  }
+
+  /**
+   * Unit test: only equality predicates are accepted
+   */
+  @Test(expected = IllegalArgumentException.class) public void rejectsRangePredicate() {
+    new HashJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), scan1, scan2);
+  }
+
+  /**
+   * Unit test for HashJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    assertEquals(0, op.getSpilledPairs());
+  }
+
+  /**
+   * Unit test for HashJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test: with a memory budget much smaller than either input the join
+   * spills partitions and still produces exactly what Join produces.
+   */
+  @Test public void spill() throws Exception {
+    Random r = new Random(42);
+    TupleIterator left = randomTuples(r, 3000, 1000);
+    TupleIterator right = randomTuples(r, 2000, 1000);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    Join nl = new Join(pred, left, right);
+    nl.open();
+    ArrayList<String> expected = drain(nl);
+    nl.close();
+
+    HashJoin op = new HashJoin(pred, left, right, 8 * 1024);
+    op.open();
+    assertEquals(expected, drain(op));
+    assertTrue(op.getSpilledPairs() > 0);
+    op.rewind();
+    assertEquals(expected, drain(op));
+    op.close();
+  }
+
+  /**
+   * Unit test: two inputs that each fit in the budget but not together
+   * are not both held in memory; the join spills instead.
+   */
+  @Test public void combinedBudget() throws Exception {
+    Random r = new Random(7);
+    TupleIterator left = randomTuples(r, 100, 50);
+    TupleIterator right = randomTuples(r, 100, 50);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    Join nl = new Join(pred, left, right);
+    nl.open();
+    ArrayList<String> expected = drain(nl);
+    nl.close();
+
+    int tuple = 2 * Type.INT_TYPE.getLen() + HashJoin.TUPLE_OVERHEAD;
+    HashJoin op = new HashJoin(pred, left, right, 150 * tuple);
+    op.open();
+    assertEquals(expected, drain(op));
+    assertTrue(op.getSpilledPairs() > 0);
+    op.close();
+  }
+
+  /**
+   * Unit test: if every tuple has the same key, repartitioning cannot make
+   * the build side fit and the join falls back to chunks.
+   */
+  @Test public void skew() throws Exception {
+    TupleIterator left = randomTuples(new Random(1), 400, 1);
+    TupleIterator right = randomTuples(new Random(2), 300, 1);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, left, right, 2 * 1024);
+    op.open();
+    assertEquals(400 * 300, drain(op).size());
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashJoinTest.class);
+  }
+}
@@ -0,0 +1,180 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileFreeSpaceTest extends SimpleDbTestBase {
+
+  /** 504 two-column tuples fit on a page, so the last of 10 pages has room */
+  private static final int ROWS = 9 * 504 + 100;
+
+  private HeapFile hf;
+
+  @Before public void setUp() throws Exception {
+    hf = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+    fsmFile(hf).deleteOnExit();
+    new File(hf.getFile().getPath() + HeapFile.LSN_SUFFIX).deleteOnExit();
+  }
+
+  private static File fsmFile(HeapFile f) {
+    return new File(f.getFile().getPath() + HeapFile.FSM_SUFFIX);
+  }
+
+  /** @return a heap file on the same file, with nothing in memory */
+  private HeapFile reopen() {
+    HeapFile f = Utility.openHeapFile(2, hf.getFile());
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    return f;
+  }
+
+  private Transaction begin() {
+    Transaction t = new Transaction();
+    t.start();
+    return t;
+  }
+
+  /** @return the page an inserted tuple went to */
+  private int insert(HeapFile f) throws Exception {
+    Transaction t = begin();
+    Tuple tup = Utility.getHeapTuple(new int[] { -1, -1 });
+    Database.getBufferPool().insertTuple(t.getId(), f.getId(), tup);
+    t.commit();
+    return tup.getRecordId().getPageId().pageNumber();
+  }
+
+  /** Delete n tuples of a page of a file. */
+  private void delete(HeapFile f, int pageNo, int n) throws Exception {
+    Transaction t = begin();
+    DbFileIterator it = f.iterator(t.getId());
+    it.open();
+    ArrayList<Tuple> victims = new ArrayList<Tuple>();
+    while (it.hasNext() && victims.size() < n) {
+      Tuple tup = it.next();
+      if (tup.getRecordId().getPageId().pageNumber() == pageNo)
+        victims.add(tup);
+    }
+    it.close();
+    for (Tuple tup : victims)
+      Database.getBufferPool().deleteTuple(t.getId(), tup);
+    t.commit();
+  }
+
+  /**
+   * Unit test: a file written by HeapFileEncoder gets a map on its first
+   * insert, which goes to the only page with room
+   */
+  @Test public void firstInsert() throws Exception {
+    assertFalse(fsmFile(hf).exists());
+    assertEquals(9, insert(hf));
+    assertEquals(10, hf.numPages());
+    assertEquals(10, fsmFile(hf).length());
+    byte[] map = TestUtil.readFileBytes(fsmFile(hf).getPath());
+    for (int i = 0; i < 9; i++)
+      assertEquals(0, map[i]);
+    assertEquals(1, map[9]);
+  }
+
+  /**
+   * Unit test: slots freed by deletes are used again before pages with room
+   * further on, and a page that fills up is left out of the map
+   */
+  @Test public void deletesMakeRoom() throws Exception {
+    delete(hf, 3, 2);
+    assertEquals(3, insert(hf));
+    assertEquals(3, insert(hf));
+    assertEquals(9, insert(hf));
+    assertEquals(10, hf.numPages());
+  }
+
+  /**
+   * Unit test: the map is read back from its sidecar by a new heap file on
+   * the same file
+   */
+  @Test public void survivesReopen() throws Exception {
+    delete(hf, 5, 1);
+    HeapFile f = reopen();
+    assertEquals(5, insert(f));
+    assertEquals(9, insert(f));
+
+    // fill the last page, and the next insert has to go to a new page
+    f = reopen();
+    for (int i = 0; i < 504 - 101; i++)
+      assertEquals(9, insert(f));
+    f = reopen();
+    assertEquals(10, insert(f));
+    assertEquals(11, f.numPages());
+  }
+
+  /**
+   * Unit test: a map that says full pages have room is checked against the
+   * pages, and only costs the time to look at them
+   */
+  @Test public void staleMap() throws Exception {
+    assertEquals(9, insert(hf));
+    FileOutputStream out = new FileOutputStream(fsmFile(hf));
+    out.write(new byte[] { 1, 1, 1, 1, 1, 1, 1, 1, 1, 1 });
+    out.close();
+
+    HeapFile f = reopen();
+    assertEquals(9, insert(f));
+    assertEquals(10, f.numPages());
+    // the pages found full are left out from then on
+    assertEquals(9, insert(f));
+  }
+
+  /**
+   * Unit test: a page with room that a map read back marks full, as a
+   * crash may leave it, is found before the file grows
+   */
+  @Test public void lostRoom() throws Exception {
+    assertEquals(9, insert(hf));
+    FileOutputStream out = new FileOutputStream(fsmFile(hf));
+    out.write(new byte[10]);
+    out.close();
+
+    HeapFile f = reopen();
+    assertEquals(9, insert(f));
+    assertEquals(10, f.numPages());
+    assertEquals(1, TestUtil.readFileBytes(fsmFile(hf).getPath())[9]);
+
+    // once looked at, the full pages are not looked at again
+    for (int i = 0; i < 504 - 102; i++)
+      assertEquals(9, insert(f));
+    assertEquals(10, insert(f));
+    assertEquals(11, f.numPages());
+  }
+
+  /**
+   * Unit test: a page filled by a transaction that aborts keeps its room
+   * for the next insert, and the file does not grow
+   */
+  @Test public void abortedFill() throws Exception {
+    Transaction t = begin();
+    for (int i = 0; i < 504 - 100; i++) {
+      Tuple tup = Utility.getHeapTuple(new int[] { -1, -1 });
+      Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tup);
+      assertEquals(9, tup.getRecordId().getPageId().pageNumber());
+    }
+    t.abort();
+    assertEquals(9, insert(hf));
+    assertEquals(10, hf.numPages());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HeapFileFreeSpaceTest.class);
+  }
+}
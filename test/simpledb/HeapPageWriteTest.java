@@ -1,9 +1,13 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +130,114 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test: the tuples a page gives out are views of its bytes, which
+     * stay as they were when their slots are changed, and the page data is
+     * put together from the views, changed tuples and inserted tuples
+     */
+    @Test public void tupleViews() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        Tuple second = it.next();
+        Field a = first.getField(0);
+        Field b = first.getField(1);
+        page.deleteTuple(first);
+        Tuple addition = Utility.getHeapTuple(new int[] { 7, 8 });
+        page.insertTuple(addition);
+        assertEquals(0, addition.getRecordId().tupleno());
+        assertEquals(a, first.getField(0));
+        assertEquals(b, first.getField(1));
+
+        second.setField(1, new IntField(9));
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        it = copy.iterator();
+        Tuple t = it.next();
+        assertEquals(new IntField(7), t.getField(0));
+        assertEquals(new IntField(8), t.getField(1));
+        t = it.next();
+        assertEquals(second.getField(0), t.getField(0));
+        assertEquals(new IntField(9), t.getField(1));
+        assertEquals(page.getTuple(5).getField(0), copy.getTuple(5).getField(0));
+    }
+
+    /**
+     * Unit test: a page writes the same bytes into a buffer as getPageData
+     * returns, and is compared with its before image slot by slot
+     */
+    @Test public void writePageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        page.deleteTuple(it.next());
+        Tuple changed = it.next();
+        changed.setField(0, new IntField(-5));
+        page.insertTuple(Utility.getHeapTuple(new int[] { 1, 2 }));
+        page.insertTuple(Utility.getHeapTuple(new int[] { 3, 4 }));
+
+        int len = BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.allocate(len + 10);
+        buf.position(3);
+        page.writePageData(buf);
+        assertEquals(len + 3, buf.position());
+        byte[] data = page.getPageData();
+        assertArrayEquals(data, Arrays.copyOfRange(buf.array(), 3, len + 3));
+
+        HeapPage before = page.getBeforeImage();
+        assertFalse(page.sameData(before));
+        assertTrue(page.sameSlot(2, before));
+        assertFalse(page.sameSlot(1, before));
+        page.setBeforeImage();
+        assertTrue(page.sameData(page.getBeforeImage()));
+        assertArrayEquals(data, page.getPageData());
+        assertEquals(new IntField(-5), page.getTuple(changed.getRecordId().tupleno()).getField(0));
+    }
+
+    /**
+     * Unit test: slots are taken lowest first up to the last one, and an
+     * iterator visits the slots that were used when it was made and still
+     * are
+     */
+    @Test public void slotWords() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumSlots();
+        assertEquals(slots, page.getNumEmptySlots());
+        for (int i = 0; i < slots; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, i });
+            page.insertTuple(t);
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertEquals(0, page.getNumEmptySlots());
+        try {
+            page.insertTuple(Utility.getHeapTuple(new int[] { 0, 0 }));
+            throw new Exception("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+
+        Iterator<Tuple> it = page.iterator();
+        page.deleteTuple(page.getTuple(70));
+        page.deleteTuple(page.getTuple(slots - 1));
+        assertEquals(2, page.getNumEmptySlots());
+        Tuple t = Utility.getHeapTuple(new int[] { -1, -1 });
+        page.insertTuple(t);
+        assertEquals(70, t.getRecordId().tupleno());
+        // slot 70 was used when the iterator was made, and is again
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple next = it.next();
+            assertEquals(n, next.getRecordId().tupleno());
+            n++;
+        }
+        assertEquals(slots - 1, n);
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(1, copy.getNumEmptySlots());
+        assertFalse(copy.isSlotUsed(slots - 1));
+        assertTrue(copy.isSlotUsed(70));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,148 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  HeapFile inner;
+  BTreeFile index;
+  TransactionId tid;
+
+  /**
+   * Initialize each unit test: a table with an index on its first field
+   */
+  @Before public void createTable() throws Exception {
+    inner = SystemTestUtil.createRandomHeapFile(2, 10000, 5000, null, null, "c");
+    Database.getCatalog().addTable(inner, "inner");
+    index = new BTreeFile(tempFile(), inner.getId(), 0, Type.INT_TYPE);
+    Database.getCatalog().addIndex(index, "inner_c0");
+    tid = new TransactionId();
+  }
+
+  private static File tempFile() throws Exception {
+    File f = File.createTempFile("index", ".dat");
+    f.delete();
+    f.deleteOnExit();
+    return f;
+  }
+
+  private DbIterator outer() {
+    return TestUtil.createTupleList(2,
+        new int[] { 5, 0,
+                    17, 1,
+                    5, 2,
+                    999, 3,
+                    4999, 4 });
+  }
+
+  private IndexNestedLoopJoin indexJoin(Predicate.Op op) {
+    IndexScan probe = new IndexScan(tid, index, IndexNestedLoopJoin.probeOp(op), null, "inner");
+    return new IndexNestedLoopJoin(new JoinPredicate(0, op, 0), outer(), probe, probe);
+  }
+
+  /** @return the output of a plain nested loops join of the same inputs */
+  private ArrayList<String> expected(Predicate.Op op) throws Exception {
+    return BlockNestedLoopJoinTest.drain(new Join(new JoinPredicate(0, op, 0), outer(),
+        new SeqScan(tid, inner.getId(), "inner")));
+  }
+
+  /**
+   * Unit test: the join finds the same tuples as a nested loops join
+   */
+  @Test public void sameTuples() throws Exception {
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ };
+    for (Predicate.Op op : ops) {
+      ArrayList<String> expected = expected(op);
+      assertFalse(expected.isEmpty());
+      assertEquals(expected, BlockNestedLoopJoinTest.drain(indexJoin(op)));
+    }
+  }
+
+  /**
+   * Unit test: filters between the join and the index scan still apply
+   */
+  @Test public void filteredInner() throws Exception {
+    Predicate filter = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100));
+    IndexScan probe = new IndexScan(tid, index, Predicate.Op.EQUALS, null, "inner");
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    DbIterator join = new IndexNestedLoopJoin(p, outer(), new Filter(filter, probe), probe);
+    DbIterator nested = new Join(p, outer(),
+        new Filter(filter, new SeqScan(tid, inner.getId(), "inner")));
+    assertEquals(BlockNestedLoopJoinTest.drain(nested), BlockNestedLoopJoinTest.drain(join));
+  }
+
+  /**
+   * Unit test: rewind
+   */
+  @Test public void rewind() throws Exception {
+    DbIterator join = indexJoin(Predicate.Op.EQUALS);
+    join.open();
+    int n = 0;
+    while (join.hasNext()) {
+      join.next();
+      n++;
+    }
+    assertTrue(n > 0);
+    join.rewind();
+    while (join.hasNext()) {
+      join.next();
+      n--;
+    }
+    join.close();
+    assertEquals(0, n);
+  }
+
+  /** @return the iterator under the projection a plan returns */
+  private DbIterator plan(int outerRows) throws Exception {
+    HeapFile outer = SystemTestUtil.createRandomHeapFile(2, outerRows, 5000, null, null, "c");
+    Database.getCatalog().addTable(outer, "outer");
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("outer", new TableStats(outer.getId(), TableStats.IOCOSTPERPAGE));
+    stats.put("inner", new TableStats(inner.getId(), TableStats.IOCOSTPERPAGE));
+
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(outer.getId(), "outer");
+    lp.addScan(inner.getId(), "inner");
+    lp.addJoin("outer.c0", "inner.c0", Predicate.Op.EQUALS);
+    lp.addProjectField("*", null);
+    Project p = (Project) lp.physicalPlan(tid, stats, false);
+    return p.getChildren()[0];
+  }
+
+  /**
+   * Unit test: the optimizer probes the index for a small outer input, and
+   * does not for one as big as the indexed table
+   */
+  @Test public void optimizer() throws Exception {
+    DbIterator join = plan(3);
+    assertTrue(join instanceof IndexNestedLoopJoin);
+    IndexNestedLoopJoin indexJoin = (IndexNestedLoopJoin) join;
+    assertEquals("outer.c0", indexJoin.getJoinField1Name());
+    assertSame(index, indexJoin.getProbe().getIndex());
+    assertEquals(BlockNestedLoopJoinTest.drain(new Join(indexJoin.getJoinPredicate(),
+        indexJoin.getChildren()[0], new SeqScan(tid, inner.getId(), "inner"))),
+        BlockNestedLoopJoinTest.drain(join));
+
+    assertFalse(plan(10000) instanceof IndexNestedLoopJoin);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
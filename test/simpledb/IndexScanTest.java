@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexScanTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 5000;
+  private static final int MAX_VALUE = 5000;
+
+  HeapFile hf;
+  ArrayList<ArrayList<Integer>> tuples;
+  BTreeFile index;
+
+  /**
+   * Initialize each unit test: a table of several pages with an index on
+   * its first field
+   */
+  @Before public void createTable() throws Exception {
+    tuples = new ArrayList<ArrayList<Integer>>();
+    hf = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples, "c");
+    Database.getCatalog().addTable(hf, "t");
+    File f = File.createTempFile("index", ".dat");
+    f.delete();
+    f.deleteOnExit();
+    index = new BTreeFile(f, hf.getId(), 0, Type.INT_TYPE);
+    Database.getCatalog().addIndex(index, "t_c0");
+  }
+
+  /** @return the tuples of the table whose first field compares to v with op */
+  private ArrayList<ArrayList<Integer>> matching(Predicate.Op op, int v) {
+    ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples)
+      if (new IntField(t.get(0)).compare(op, new IntField(v)))
+        result.add(t);
+    return result;
+  }
+
+  private void checkScan(Predicate.Op op, int v) throws Exception {
+    TransactionId tid = new TransactionId();
+    IndexScan scan = new IndexScan(tid, index, op, new IntField(v), "t");
+    SystemTestUtil.matchTuples(scan, matching(op, v));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test: an index scan returns the tuples that satisfy the predicate
+   */
+  @Test public void scan() throws Exception {
+    int v = tuples.get(17).get(0);
+    checkScan(Predicate.Op.EQUALS, v);
+    checkScan(Predicate.Op.EQUALS, MAX_VALUE + 1);
+    checkScan(Predicate.Op.LESS_THAN, 100);
+    checkScan(Predicate.Op.GREATER_THAN_OR_EQ, 4900);
+
+    TransactionId tid = new TransactionId();
+    IndexScan scan = new IndexScan(tid, index, Predicate.Op.EQUALS, new IntField(v), "t");
+    assertEquals("t.c0", scan.getTupleDesc().getFieldName(0));
+    assertEquals("t", scan.getTableName());
+    scan.open();
+    int n = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      n++;
+    }
+    scan.rewind();
+    while (scan.hasNext()) {
+      scan.next();
+      n--;
+    }
+    scan.close();
+    assertEquals(0, n);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** @return the iterator under the projection a plan returns */
+  private DbIterator plan(String field, Predicate.Op op, String c) throws Exception {
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(hf.getId(), "t");
+    lp.addFilter(field, op, c);
+    lp.addProjectField("*", null);
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("t", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+    Project p = (Project) lp.physicalPlan(new TransactionId(), stats, false);
+    return p.getChildren()[0];
+  }
+
+  /**
+   * Unit test: the plan reads the table through the index when the filter
+   * keeps few tuples, and scans it otherwise
+   */
+  @Test public void accessPath() throws Exception {
+    assertTrue(hf.numPages() > 5);
+
+    DbIterator it = plan("t.c0", Predicate.Op.EQUALS, "42");
+    assertTrue(it instanceof IndexScan);
+    assertEquals(Predicate.Op.EQUALS, ((IndexScan) it).getOp());
+    assertEquals(new IntField(42), ((IndexScan) it).getConstant());
+
+    it = plan("t.c0", Predicate.Op.GREATER_THAN, "10");
+    assertTrue(it instanceof Filter);
+    assertTrue(((Filter) it).getChildren()[0] instanceof SeqScan);
+
+    // there is no index on the second field
+    it = plan("t.c1", Predicate.Op.EQUALS, "42");
+    assertTrue(it instanceof Filter);
+    assertTrue(((Filter) it).getChildren()[0] instanceof SeqScan);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexScanTest.class);
+  }
+}
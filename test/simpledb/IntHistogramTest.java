@@ -0,0 +1,85 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class IntHistogramTest {
+
+  static final double EPSILON = 0.01;
+
+  /** @return a histogram over [1, 100] holding each of those values once */
+  private static IntHistogram uniform(int buckets) {
+    IntHistogram h = new IntHistogram(buckets, 1, 100);
+    for (int v = 1; v <= 100; v++)
+      h.addValue(v);
+    return h;
+  }
+
+  /**
+   * Unit test: selectivities of every operator over a uniform distribution
+   */
+  @Test public void uniformSelectivity() {
+    IntHistogram h = uniform(10);
+    assertEquals(0.01, h.estimateSelectivity(Predicate.Op.EQUALS, 50), EPSILON / 10);
+    assertEquals(0.99, h.estimateSelectivity(Predicate.Op.NOT_EQUALS, 50), EPSILON);
+    assertEquals(0.49, h.estimateSelectivity(Predicate.Op.LESS_THAN, 50), EPSILON);
+    assertEquals(0.50, h.estimateSelectivity(Predicate.Op.LESS_THAN_OR_EQ, 50), EPSILON);
+    assertEquals(0.50, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 50), EPSILON);
+    assertEquals(0.51, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 50), EPSILON);
+    assertEquals(0.01, h.avgSelectivity(), EPSILON / 10);
+  }
+
+  /**
+   * Unit test: constants outside of [min, max]
+   */
+  @Test public void outOfRange() {
+    IntHistogram h = uniform(10);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, -5), 0);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.LESS_THAN, 1), 0);
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 1), 0);
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.LESS_THAN, 500), 0);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 100), EPSILON);
+  }
+
+  /**
+   * Unit test: more buckets than values, and a narrow skewed distribution
+   */
+  @Test public void skew() {
+    IntHistogram h = new IntHistogram(100, 0, 9);
+    for (int i = 0; i < 90; i++)
+      h.addValue(3);
+    for (int v = 0; v < 10; v++)
+      h.addValue(v);
+    assertEquals(10, h.numBuckets());
+    assertEquals(0.91, h.estimateSelectivity(Predicate.Op.EQUALS, 3), EPSILON);
+    assertEquals(0.01, h.estimateSelectivity(Predicate.Op.EQUALS, 7), EPSILON);
+    assertEquals(0.03, h.estimateSelectivity(Predicate.Op.LESS_THAN, 3), EPSILON);
+  }
+
+  /**
+   * Unit test: selectivity of joining two histograms
+   */
+  @Test public void joinSelectivity() {
+    IntHistogram a = uniform(10);
+    IntHistogram b = uniform(7);
+    assertEquals(0.01, a.estimateJoinSelectivity(Predicate.Op.EQUALS, b), EPSILON / 10);
+    assertEquals(0.5, a.estimateJoinSelectivity(Predicate.Op.LESS_THAN, b), 0.05);
+
+    // disjoint ranges never match on equality
+    IntHistogram c = new IntHistogram(10, 200, 300);
+    for (int v = 200; v <= 300; v++)
+      c.addValue(v);
+    assertEquals(0.0, a.estimateJoinSelectivity(Predicate.Op.EQUALS, c), 0);
+    assertEquals(1.0, a.estimateJoinSelectivity(Predicate.Op.LESS_THAN, c), EPSILON);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntHistogramTest.class);
+  }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+
+  LogicalPlan plan;
+  HashMap<String, TableStats> stats;
+  HashMap<String, Double> selectivities;
+
+  private void addTable(String name, int rows, int maxValue) throws Exception {
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rows, maxValue, null, null, "c");
+    Database.getCatalog().addTable(hf, name);
+    plan.addScan(hf.getId(), name);
+    stats.put(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+    selectivities.put(name, 1.0);
+  }
+
+  /**
+   * Initialize each unit test: two large tables and a small one
+   */
+  @Before public void createTables() throws Exception {
+    plan = new LogicalPlan();
+    stats = new HashMap<String, TableStats>();
+    selectivities = new HashMap<String, Double>();
+    addTable("big1", 3000, 100);
+    addTable("big2", 3000, 100);
+    addTable("small", 10, 100);
+  }
+
+  /**
+   * Unit test: join cardinality comes from the histograms, and is capped
+   * by the other side on a primary key
+   */
+  @Test public void cardinality() {
+    int card = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+        "big1", "big2", "c0", "c0", 3000, 3000, false, false, stats,
+        plan.getTableAliasToIdMapping());
+    // about 3000 * 3000 / 100 pairs match
+    assertTrue("card " + card, card > 60000 && card < 120000);
+
+    card = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+        "big1", "small", "c0", "c0", 3000, 10, false, true, stats,
+        plan.getTableAliasToIdMapping());
+    assertTrue("card " + card, card <= 3000);
+
+    card = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.LESS_THAN,
+        "big1", "big2", "c0", "c0", 3000, 3000, false, false, stats,
+        plan.getTableAliasToIdMapping());
+    assertEquals(0.5, card / 9000000.0, 0.1);
+  }
+
+  /**
+   * Unit test: with the joins listed big-table first, the optimizer still
+   * joins the small table first, and every join is in the plan once
+   */
+  @Test public void orderJoins() throws Exception {
+    Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+    joins.add(new LogicalJoinNode("big1", "big2", "c0", "c0", Predicate.Op.EQUALS));
+    joins.add(new LogicalJoinNode("big2", "small", "c1", "c1", Predicate.Op.EQUALS));
+    JoinOptimizer jo = new JoinOptimizer(plan, joins);
+    Vector<LogicalJoinNode> order = jo.orderJoins(stats, selectivities, false);
+
+    assertEquals(2, order.size());
+    assertEquals(new HashSet<LogicalJoinNode>(joins), new HashSet<LogicalJoinNode>(order));
+    LogicalJoinNode first = order.get(0);
+    assertTrue(first.toString(), "small".equals(first.t1Alias) || "small".equals(first.t2Alias));
+    for (LogicalJoinNode j : order)
+      assertEquals(JoinOptimizer.JoinAlgorithm.HASH, j.algorithm);
+  }
+
+  /**
+   * Unit test: a sort-merge join on a range predicate, which may buffer
+   * its whole inner in memory, is not chosen for an inner that does not fit
+   */
+  @Test public void sortMergeMemory() {
+    int small = 1000, large = 10 * SortMergeJoin.RANGE_MEMORY_BYTES / 8;
+    assertTrue(JoinOptimizer.estimateSortMergeCost(Predicate.Op.LESS_THAN,
+        large, small, 100, 100, 8) < Double.MAX_VALUE);
+    assertEquals(Double.MAX_VALUE, JoinOptimizer.estimateSortMergeCost(Predicate.Op.LESS_THAN,
+        small, large, 100, 100, 8), 0);
+    assertTrue(JoinOptimizer.estimateSortMergeCost(Predicate.Op.EQUALS,
+        small, large, 100, 100, 8) < Double.MAX_VALUE);
+  }
+
+  /**
+   * Unit test: enumerateSubsets builds each subset once
+   */
+  @Test public void enumerateSubsets() {
+    Vector<Integer> v = new Vector<Integer>();
+    for (int i = 0; i < 6; i++)
+      v.add(i);
+    JoinOptimizer jo = new JoinOptimizer(plan, new Vector<LogicalJoinNode>());
+    assertEquals(20, jo.enumerateSubsets(v, 3).size());
+    assertEquals(1, jo.enumerateSubsets(v, 6).size());
+    for (java.util.Set<Integer> s : jo.enumerateSubsets(v, 2))
+      assertEquals(2, s.size());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(JoinOptimizerTest.class);
+  }
+}
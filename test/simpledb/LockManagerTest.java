@@ -0,0 +1,139 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest extends TestUtil.CreateHeapFile {
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+    private BufferPool bp;
+
+    /** Time to wait before checking whether a LockGrabber got its lock. */
+    private static final int TIMEOUT = 200;
+
+    /**
+     * Set up initial resources for each unit test: a table with two pages.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 505; ++i)
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        bp.transactionComplete(tid);
+        assertEquals(2, empty.numPages());
+
+        p0 = new HeapPageId(empty.getId(), 0);
+        p1 = new HeapPageId(empty.getId(), 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    /**
+     * Start a thread that asks for a lock and report whether it got it
+     * within TIMEOUT.
+     */
+    private TestUtil.LockGrabber grab(TransactionId tid, PageId pid, Permissions perm)
+        throws Exception {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        return t;
+    }
+
+    /**
+     * Unit test: any number of transactions may share a page.
+     */
+    @Test public void sharedLocks() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        assertTrue(grab(tid2, p0, Permissions.READ_ONLY).acquired());
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertTrue(bp.holdsLock(tid2, p0));
+        assertFalse(bp.holdsLock(tid1, p1));
+    }
+
+    /**
+     * Unit test: an exclusive lock excludes readers and writers until it
+     * is released.
+     */
+    @Test public void exclusiveLocks() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber reader = grab(tid2, p0, Permissions.READ_ONLY);
+        assertFalse(reader.acquired());
+        // other pages are not affected
+        assertTrue(grab(tid2, p1, Permissions.READ_WRITE).acquired());
+
+        bp.transactionComplete(tid1);
+        reader.join(TIMEOUT * 5);
+        assertTrue(reader.acquired());
+        assertFalse(bp.holdsLock(tid1, p0));
+    }
+
+    /**
+     * Unit test: the only reader of a page may upgrade, but not while
+     * someone else reads it too.
+     */
+    @Test public void upgrade() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(bp.getLockManager().holdsExclusive(tid1, p0));
+        // asking for less than what is held keeps the exclusive lock
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        assertTrue(bp.getLockManager().holdsExclusive(tid1, p0));
+
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber writer = grab(tid1, p1, Permissions.READ_WRITE);
+        assertFalse(writer.acquired());
+        bp.releasePage(tid2, p1);
+        writer.join(TIMEOUT * 5);
+        assertTrue(writer.acquired());
+    }
+
+    /**
+     * Unit test: two transactions waiting for each other's pages are
+     * resolved by aborting one of them.
+     */
+    @Test public void deadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber g1 = grab(tid1, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber g2 = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+        g2.start();
+        g1.join(TIMEOUT * 10);
+        g2.join(TIMEOUT * 10);
+
+        // exactly one of them gets aborted, which frees the other
+        assertTrue(g1.acquired() != g2.acquired());
+        TestUtil.LockGrabber loser = g1.acquired() ? g2 : g1;
+        assertTrue(loser.getError() instanceof TransactionAbortedException);
+    }
+
+    /**
+     * Unit test: committed changes reach the disk, aborted ones are
+     * thrown away.
+     */
+    @Test public void commitAndAbort() throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(tid1, p1, Permissions.READ_WRITE);
+        int empty1 = page.getNumEmptySlots();
+        bp.insertTuple(tid1, empty.getId(), Utility.getHeapTuple(7, 2));
+        bp.transactionComplete(tid1, false);
+        page = (HeapPage) bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        assertEquals(empty1, page.getNumEmptySlots());
+
+        bp.insertTuple(tid2, empty.getId(), Utility.getHeapTuple(7, 2));
+        bp.transactionComplete(tid2, true);
+        assertEquals(empty1 - 1,
+                ((HeapPage) empty.readPage(p1)).getNumEmptySlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
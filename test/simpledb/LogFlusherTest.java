@@ -0,0 +1,113 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LogFlusherTest extends SimpleDbTestBase {
+
+  LogFile log;
+
+  /**
+   * Initialize each unit test with an empty log
+   */
+  @Before public void createLog() throws Exception {
+    File f = File.createTempFile("grouplog", ".dat");
+    f.deleteOnExit();
+    log = new LogFile(f);
+  }
+
+  /**
+   * Begin and commit a transaction.
+   *
+   * @return an LSN inside the transaction's commit record
+   */
+  private long commit() throws Exception {
+    TransactionId tid = new TransactionId();
+    log.logXactionBegin(tid);
+    long lsn = log.getCurrentLsn() + 1;
+    log.logCommit(tid);
+    return lsn;
+  }
+
+  /**
+   * Unit test: logCommit returns only once the log is durable past the
+   * commit record
+   */
+  @Test public void commitIsDurable() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      long lsn = commit();
+      assertTrue(log.getDurableLsn() >= lsn);
+    }
+    assertEquals(5, log.getFlusher().getCommitCount());
+    assertEquals(10, log.getTotalRecords());
+  }
+
+  /**
+   * Unit test: with a group window, concurrent commits share forces
+   */
+  @Test public void groupCommit() throws Exception {
+    final LogFlusher flusher = log.getFlusher();
+    flusher.setGroupWindowMicros(2000);
+    flusher.resetStats();
+    final int threads = 8, perThread = 10;
+    final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+    Thread[] ts = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      ts[i] = new Thread() {
+        public void run() {
+          try {
+            for (int j = 0; j < perThread; j++) {
+              long lsn = commit();
+              if (flusher.getDurableLsn() < lsn)
+                throw new AssertionError("commit returned before it was durable");
+            }
+          } catch (Throwable t) {
+            synchronized (errors) {
+              errors.add(t);
+            }
+          }
+        }
+      };
+      ts[i].start();
+    }
+    for (Thread t : ts)
+      t.join();
+    assertTrue(errors.toString(), errors.isEmpty());
+
+    assertEquals(threads * perThread, flusher.getCommitCount());
+    assertTrue("forces: " + flusher.getForceCount(),
+        flusher.getForceCount() < threads * perThread);
+    assertTrue(flusher.getAverageBatchSize() > 1.0);
+    assertTrue(flusher.getMaxBatchSize() > 1);
+    assertTrue(flusher.getAverageLatencyMicros() > 0);
+    assertTrue(flusher.getDurableLsn() >= log.getCurrentLsn());
+  }
+
+  /**
+   * Unit test: forces made outside the flusher complete waiting commits,
+   * and LSNs keep increasing across a checkpoint that truncates the log
+   */
+  @Test public void lsnsSurviveTruncation() throws Exception {
+    long lsn = commit();
+    log.logCheckpoint();
+    assertTrue(log.getDurableLsn() >= log.getCurrentLsn());
+    long after = commit();
+    assertTrue(after > lsn);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LogFlusherTest.class);
+  }
+}
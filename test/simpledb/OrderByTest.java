@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  /** Enough memory for about 50 two-field tuples and a merge fan-in of 2. */
+  static final int SMALL_MEMORY = 4096;
+
+  TupleIterator input;
+  int[] keys;
+
+  /**
+   * Initialize each unit test: 5000 tuples of (random key, position)
+   */
+  @Before public void createTupleList() throws Exception {
+    Random r = new Random(3);
+    keys = new int[5000];
+    int[] data = new int[keys.length * 2];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = r.nextInt(500);
+      data[2 * i] = keys[i];
+      data[2 * i + 1] = i;
+    }
+    input = TestUtil.createTupleList(2, data);
+  }
+
+  private static ArrayList<Tuple> drain(DbIterator it) throws Exception {
+    ArrayList<Tuple> out = new ArrayList<Tuple>();
+    while (it.hasNext())
+      out.add(it.next());
+    return out;
+  }
+
+  private static int field(Tuple t, int i) {
+    return ((IntField) t.getField(i)).getValue();
+  }
+
+  /**
+   * Check that tuples are in order of their first field and, for equal
+   * keys, in input order (the second field).
+   */
+  private static void assertSorted(ArrayList<Tuple> tuples, boolean asc) {
+    for (int i = 1; i < tuples.size(); i++) {
+      int a = field(tuples.get(i - 1), 0), b = field(tuples.get(i), 0);
+      assertTrue(asc ? a <= b : a >= b);
+      if (a == b)
+        assertTrue(field(tuples.get(i - 1), 1) < field(tuples.get(i), 1));
+    }
+  }
+
+  /**
+   * Unit test: a sort that fits in memory writes no runs
+   */
+  @Test public void inMemory() throws Exception {
+    OrderBy op = new OrderBy(0, true, input);
+    op.open();
+    ArrayList<Tuple> out = drain(op);
+    assertEquals(keys.length, out.size());
+    assertSorted(out, true);
+    assertEquals(0, op.getSpilledRuns());
+    op.close();
+  }
+
+  /**
+   * Unit test: with a tiny memory budget the sort spills many runs, merges
+   * them in several passes and is still complete, ordered and stable
+   */
+  @Test public void external() throws Exception {
+    OrderBy op = new OrderBy(0, false, input, OrderBy.NO_LIMIT, SMALL_MEMORY);
+    op.open();
+    ArrayList<Tuple> out = drain(op);
+    assertTrue(op.getSpilledRuns() > 2);
+    assertEquals(keys.length, out.size());
+    assertSorted(out, false);
+
+    op.rewind();
+    ArrayList<Tuple> again = drain(op);
+    assertEquals(out.size(), again.size());
+    for (int i = 0; i < out.size(); i++)
+      assertTrue(TestUtil.compareTuples(out.get(i), again.get(i)));
+    op.close();
+  }
+
+  /**
+   * Unit test: a limit that fits in memory returns the first tuples of the
+   * order without spilling, even with a small budget
+   */
+  @Test public void topN() throws Exception {
+    OrderBy full = new OrderBy(0, true, input);
+    full.open();
+    ArrayList<Tuple> expected = drain(full);
+    full.close();
+
+    OrderBy op = new OrderBy(0, true, input, 20, SMALL_MEMORY);
+    op.open();
+    ArrayList<Tuple> out = drain(op);
+    assertEquals(0, op.getSpilledRuns());
+    assertEquals(20, out.size());
+    for (int i = 0; i < out.size(); i++)
+      assertEquals(field(expected.get(i), 0), field(out.get(i), 0));
+    op.close();
+  }
+
+  /**
+   * Unit test: a limit larger than memory still spills, but returns only
+   * the first tuples of the order
+   */
+  @Test public void limitWithSpill() throws Exception {
+    OrderBy op = new OrderBy(0, true, input, 300, SMALL_MEMORY);
+    op.open();
+    ArrayList<Tuple> out = drain(op);
+    assertTrue(op.getSpilledRuns() > 0);
+    assertEquals(300, out.size());
+    assertSorted(out, true);
+
+    int[] sorted = keys.clone();
+    java.util.Arrays.sort(sorted);
+    assertEquals(sorted[299], field(out.get(299), 0));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,100 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+  File file;
+  HeapFile hf;
+  HeapPageId pid;
+  PageCleaner cleaner;
+
+  /**
+   * Initialize each unit test with an empty table and a fast cleaner
+   */
+  @Before public void createTable() throws Exception {
+    file = File.createTempFile("cleaner", ".dat");
+    file.deleteOnExit();
+    new File(file.getPath() + HeapFile.LSN_SUFFIX).deleteOnExit();
+    hf = Utility.createEmptyHeapFile(file.getPath(), 2);
+    pid = new HeapPageId(hf.getId(), 0);
+    cleaner = Database.getBufferPool().getPageCleaner();
+    cleaner.setIntervalMillis(5);
+  }
+
+  private int tuplesOnDisk() {
+    HeapPage p = (HeapPage) hf.readPage(pid);
+    return HeapPage.numSlots(hf.getTupleDesc()) - p.getNumEmptySlots();
+  }
+
+  /** Wait for the cleaner to write pages; fails after a few seconds. */
+  private void awaitCleaned(long count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (cleaner.getCleanedCount() < count) {
+      assertTrue("cleaner did not run", System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+  }
+
+  /**
+   * Unit test: the cleaner writes out a dirty page in the background, and
+   * the page is clean afterwards
+   */
+  @Test public void cleansDirtyPage() throws Exception {
+    Transaction t = new Transaction();
+    t.start();
+    Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(1, 2));
+    awaitCleaned(1);
+    assertEquals(1, tuplesOnDisk());
+    Page p = Database.getBufferPool().getPage(t.getId(), pid, Permissions.READ_ONLY);
+    assertNull(p.isDirty());
+    assertTrue(p.getLsn() > 0);
+    t.commit();
+    assertEquals(1, tuplesOnDisk());
+  }
+
+  /**
+   * Unit test: an uncommitted page the cleaner wrote is rolled back by
+   * an abort
+   */
+  @Test public void abortAfterClean() throws Exception {
+    Transaction t = new Transaction();
+    t.start();
+    Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(1, 2));
+    awaitCleaned(1);
+    Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(2, 2));
+    t.abort();
+    assertEquals(0, tuplesOnDisk());
+  }
+
+  /**
+   * Unit test: a disabled cleaner leaves dirty pages alone
+   */
+  @Test public void disabled() throws Exception {
+    cleaner.setEnabled(false);
+    Transaction t = new Transaction();
+    t.start();
+    Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(1, 2));
+    Thread.sleep(50);
+    assertEquals(0, cleaner.getCleanedCount());
+    assertEquals(0, tuplesOnDisk());
+    t.commit();
+    assertEquals(1, tuplesOnDisk());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PageCleanerTest.class);
+  }
+}
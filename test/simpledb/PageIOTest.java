@@ -0,0 +1,115 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageIOTest extends SimpleDbTestBase {
+
+    private static byte[] page(int fill) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        Arrays.fill(data, (byte) fill);
+        return data;
+    }
+
+    /**
+     * Unit test: pages written in one mode read back the same in every
+     * mode, including pages appended after the file was first read.
+     */
+    @Test public void roundTrip() throws IOException {
+        for (PageIO.Mode writer : PageIO.Mode.values()) {
+            File f = File.createTempFile("pageio", ".dat");
+            f.deleteOnExit();
+            PageIO out = new PageIO(f, BufferPool.PAGE_SIZE, writer);
+            PageIO[] readers = new PageIO[PageIO.Mode.values().length];
+            for (int i = 0; i < readers.length; i++)
+                readers[i] = new PageIO(f, BufferPool.PAGE_SIZE, PageIO.Mode.values()[i]);
+
+            out.write(0, page(1));
+            out.write(1, page(2));
+            for (PageIO in : readers)
+                assertArrayEquals(in.getMode().toString(), page(2), in.read(1));
+            // growing the file has to be seen by readers that mapped it before
+            out.write(2, page(3));
+            out.write(0, page(4));
+            for (PageIO in : readers) {
+                assertArrayEquals(in.getMode().toString(), page(3), in.read(2));
+                assertArrayEquals(in.getMode().toString(), page(4), in.read(0));
+                in.close();
+            }
+            out.close();
+            assertEquals(3 * BufferPool.PAGE_SIZE, f.length());
+        }
+    }
+
+    /**
+     * Unit test: reading past the end of the file is an error in every mode.
+     */
+    @Test public void readPastEnd() throws IOException {
+        for (PageIO.Mode mode : PageIO.Mode.values()) {
+            File f = File.createTempFile("pageio", ".dat");
+            f.deleteOnExit();
+            PageIO io = new PageIO(f, BufferPool.PAGE_SIZE, mode);
+            io.write(0, page(1));
+            try {
+                io.read(1);
+                fail(mode + " read a page that does not exist");
+            } catch (IOException e) {
+                // expected
+            }
+            io.close();
+        }
+    }
+
+    /**
+     * Unit test: an interrupted thread reads and writes whole pages, and
+     * the channel its interrupt closed is opened again for the next reader.
+     */
+    @Test public void interrupted() throws IOException {
+        for (PageIO.Mode mode : PageIO.Mode.values()) {
+            File f = File.createTempFile("pageio", ".dat");
+            f.deleteOnExit();
+            PageIO io = new PageIO(f, BufferPool.PAGE_SIZE, mode);
+            io.write(0, page(1));
+            Thread.currentThread().interrupt();
+            io.write(1, page(2));
+            assertTrue(mode.toString(), Thread.interrupted());
+            Thread.currentThread().interrupt();
+            assertArrayEquals(mode.toString(), page(2), io.read(1));
+            io.force();
+            assertTrue(mode.toString(), Thread.interrupted());
+            assertArrayEquals(mode.toString(), page(1), io.read(0));
+            io.close();
+        }
+    }
+
+    /**
+     * Unit test: a table can change I/O mode while in use.
+     */
+    @Test public void switchMode() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        PageId pid = new HeapPageId(hf.getId(), 1);
+        byte[] before = hf.readPage(pid).getPageData();
+        for (PageIO.Mode mode : PageIO.Mode.values()) {
+            hf.setIoMode(mode);
+            assertEquals(mode, hf.getIoMode());
+            assertArrayEquals(before, hf.readPage(pid).getPageData());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageIOTest.class);
+    }
+}
@@ -0,0 +1,222 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxFileTest extends SimpleDbTestBase {
+
+  private static final int COLUMNS = 20;
+  private static final int ROWS = 2000;
+
+  ArrayList<ArrayList<Integer>> tuples;
+  File file;
+  PaxFile pf;
+
+  /**
+   * Initialize each unit test: a wide table of several pages written by
+   * HeapFileEncoder in the PAX format
+   */
+  @Before public void createTable() throws Exception {
+    tuples = new ArrayList<ArrayList<Integer>>();
+    Random r = new Random(1);
+    for (int i = 0; i < ROWS; i++) {
+      ArrayList<Integer> t = new ArrayList<Integer>();
+      for (int j = 0; j < COLUMNS; j++)
+        t.add(r.nextInt(1000));
+      tuples.add(t);
+    }
+    file = File.createTempFile("pax", ".dat");
+    file.deleteOnExit();
+    HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), COLUMNS,
+        HeapFileEncoder.Format.PAX);
+    pf = open();
+  }
+
+  private PaxFile open() {
+    PaxFile f = new PaxFile(file, Utility.getTupleDesc(COLUMNS, "c"));
+    Database.getCatalog().addTable(f, "t");
+    return f;
+  }
+
+  /** @return the given fields of the expected tuples */
+  private ArrayList<ArrayList<Integer>> project(ArrayList<ArrayList<Integer>> from, int... fields) {
+    ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : from) {
+      ArrayList<Integer> p = new ArrayList<Integer>();
+      for (int f : fields)
+        p.add(t.get(f));
+      result.add(p);
+    }
+    return result;
+  }
+
+  private Transaction begin() {
+    Transaction t = new Transaction();
+    t.start();
+    return t;
+  }
+
+  /**
+   * Unit test: the encoded file holds the tuples, on as many pages as the
+   * slots of a page take
+   */
+  @Test public void encode() throws Exception {
+    int slots = PaxPage.numSlots(pf.getTupleDesc(), BufferPool.getPageSize());
+    assertEquals((ROWS + slots - 1) / slots, pf.numPages());
+    SystemTestUtil.matchTuples(pf, tuples);
+
+    TransactionId tid = new TransactionId();
+    PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid,
+        new HeapPageId(pf.getId(), 1), Permissions.READ_ONLY);
+    assertEquals(0, page.getNumEmptySlots());
+    assertEquals(tuples.get(slots + 3), SystemTestUtil.tupleToList(page.getTuple(3)));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test: a scan of some fields returns just those, for PAX and heap
+   * tables alike
+   */
+  @Test public void projectedScan() throws Exception {
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, pf.getId(), "t", new int[] { 17, 3 });
+    assertEquals(2, scan.getTupleDesc().numFields());
+    assertEquals("t.c17", scan.getTupleDesc().getFieldName(0));
+    assertTrue(Arrays.equals(new int[] { 17, 3 }, scan.getFields()));
+    SystemTestUtil.matchTuples(scan, project(tuples, 17, 3));
+    scan.close();
+
+    ArrayList<ArrayList<Integer>> heapTuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(5, 1000, null, heapTuples, "c");
+    scan = new SeqScan(tid, hf.getId(), "h", new int[] { 4 });
+    SystemTestUtil.matchTuples(scan, project(heapTuples, 4));
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test: inserts and deletes go through the BufferPool, are undone
+   * by an abort, and are on disk for the next file opened on it
+   */
+  @Test public void insertDelete() throws Exception {
+    Transaction t = begin();
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+    int[] values = new int[COLUMNS];
+    for (int i = 0; i < 300; i++) {
+      Arrays.fill(values, -i);
+      Database.getBufferPool().insertTuple(t.getId(), pf.getId(), Utility.getHeapTuple(values));
+      ArrayList<Integer> row = new ArrayList<Integer>();
+      for (int v : values)
+        row.add(v);
+      expected.add(row);
+    }
+    t.commit();
+
+    t = begin();
+    SeqScan scan = new SeqScan(t.getId(), pf.getId(), "t");
+    scan.open();
+    for (int i = 0; i < 100 && scan.hasNext(); i++) {
+      Tuple tup = scan.next();
+      expected.remove(SystemTestUtil.tupleToList(tup));
+      Database.getBufferPool().deleteTuple(t.getId(), tup);
+    }
+    scan.close();
+    t.commit();
+
+    t = begin();
+    scan = new SeqScan(t.getId(), pf.getId(), "t");
+    scan.open();
+    while (scan.hasNext())
+      Database.getBufferPool().deleteTuple(t.getId(), scan.next());
+    scan.close();
+    t.abort();
+
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    pf = open();
+    SystemTestUtil.matchTuples(pf, expected);
+
+    // the room the deletes made is used before the file grows
+    int pages = pf.numPages();
+    t = begin();
+    for (int i = 0; i < 100; i++)
+      Database.getBufferPool().insertTuple(t.getId(), pf.getId(), Utility.getHeapTuple(values));
+    t.commit();
+    assertEquals(pages, pf.numPages());
+  }
+
+  /**
+   * Unit test: a page filled by a transaction that aborts keeps its room
+   * for the next insert
+   */
+  @Test public void abortedFill() throws Exception {
+    int last = pf.numPages() - 1;
+    TransactionId tid = new TransactionId();
+    int room = ((PaxPage) Database.getBufferPool().getPage(tid,
+        new HeapPageId(pf.getId(), last), Permissions.READ_ONLY)).getNumEmptySlots();
+    Database.getBufferPool().transactionComplete(tid);
+    assertTrue(room > 0);
+
+    Transaction t = begin();
+    int[] values = new int[COLUMNS];
+    Tuple tup = null;
+    for (int i = 0; i <= room; i++) {
+      tup = Utility.getHeapTuple(values);
+      Database.getBufferPool().insertTuple(t.getId(), pf.getId(), tup);
+    }
+    // the last one did not fit
+    assertEquals(last + 1, tup.getRecordId().getPageId().pageNumber());
+    t.abort();
+
+    t = begin();
+    tup = Utility.getHeapTuple(values);
+    Database.getBufferPool().insertTuple(t.getId(), pf.getId(), tup);
+    t.commit();
+    assertEquals(last, tup.getRecordId().getPageId().pageNumber());
+  }
+
+  /**
+   * Unit test: the planner reads a PAX table for the fields a query uses
+   * only
+   */
+  @Test public void plan() throws Exception {
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(pf.getId(), "t");
+    lp.addFilter("t.c5", Predicate.Op.LESS_THAN, "100");
+    lp.addProjectField("t.c12", null);
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("t", new TableStats(pf.getId(), TableStats.IOCOSTPERPAGE));
+    TransactionId tid = new TransactionId();
+    DbIterator plan = lp.physicalPlan(tid, stats, false);
+    DbIterator leaf = plan;
+    while (!(leaf instanceof SeqScan))
+      leaf = ((Operator) leaf).getChildren()[0];
+    assertTrue(Arrays.equals(new int[] { 5, 12 }, ((SeqScan) leaf).getFields()));
+
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples)
+      if (t.get(5) < 100)
+        expected.add(new ArrayList<Integer>(Arrays.asList(t.get(12))));
+    SystemTestUtil.matchTuples(plan, expected);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PaxFileTest.class);
+  }
+}
@@ -0,0 +1,76 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PrefetcherTest extends SimpleDbTestBase {
+
+    /**
+     * Scan a table, sleeping a little on every page, and return the buffer
+     * pool that did the work.
+     */
+    private static BufferPool slowScan(HeapFile hf, int poolPages, boolean prefetching)
+        throws Exception {
+        BufferPool bp = Database.resetBufferPool(poolPages);
+        bp.setPrefetching(prefetching);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int tuples = 0;
+        while (it.hasNext()) {
+            it.next();
+            if (++tuples % 100 == 0)
+                Thread.sleep(2);
+        }
+        it.close();
+        bp.transactionComplete(tid);
+        return bp;
+    }
+
+    /**
+     * Unit test: once a scan is found to be sequential, its pages are read
+     * by the prefetcher and the scan finds them in the pool. No page is
+     * read twice.
+     */
+    @Test public void readAhead() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10000, null, null);
+        int pages = hf.numPages();
+        BufferPool bp = slowScan(hf, 50, true);
+        assertEquals(pages, bp.getMissCount() + bp.getPrefetchCount());
+        assertTrue(bp.getMissCount() <= Prefetcher.SEQUENTIAL_RUN + 1);
+
+        bp = slowScan(hf, 50, false);
+        assertEquals(pages, bp.getMissCount());
+        assertEquals(0, bp.getPrefetchCount());
+    }
+
+    /**
+     * Unit test: a scan that goes through a ring reads ahead no further than
+     * half the ring, so prefetched pages are not recycled before use.
+     */
+    @Test public void ringWindow() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10000, null, null);
+        BufferPool bp = Database.resetBufferPool(16);
+        BufferRing ring = bp.newScanRing(hf.numPages());
+        assertNotNull(ring);
+        Prefetcher.ReadAhead ra = bp.newReadAhead(hf.getId(), hf.numPages(), ring);
+        assertEquals(ring.size() / 2, ra.window());
+        bp.releaseRing(ring);
+
+        bp.setPrefetching(false);
+        assertNull(bp.newReadAhead(hf.getId(), hf.numPages(), null));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetcherTest.class);
+    }
+}
@@ -0,0 +1,329 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class RecoveryTest extends SimpleDbTestBase {
+
+  File file1, file2;
+  HeapFile hf1, hf2;
+
+  /**
+   * Initialize each unit test with two empty tables
+   */
+  @Before public void createTables() throws Exception {
+    file1 = tempFile();
+    file2 = tempFile();
+    hf1 = Utility.createEmptyHeapFile(file1.getPath(), 2);
+    hf2 = Utility.createEmptyHeapFile(file2.getPath(), 2);
+  }
+
+  private static File tempFile() throws IOException {
+    File f = File.createTempFile("recovery", ".dat");
+    f.deleteOnExit();
+    new File(f.getPath() + HeapFile.LSN_SUFFIX).deleteOnExit();
+    return f;
+  }
+
+  private Transaction begin() {
+    Transaction t = new Transaction();
+    t.start();
+    return t;
+  }
+
+  private void insert(Transaction t, HeapFile hf, int v) throws Exception {
+    Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(v, 2));
+  }
+
+  /**
+   * Simulate a crash and restart: everything in memory is lost, and the
+   * log is recovered with the tables reopened.
+   */
+  private void crashAndRecover() throws Exception {
+    Database.reset();
+    hf1 = Utility.openHeapFile(2, file1);
+    hf2 = Utility.openHeapFile(2, file2);
+    Database.getLogFile().recover();
+  }
+
+  /** @return the sorted first fields of the tuples in the table */
+  private ArrayList<Integer> values(HeapFile hf) throws Exception {
+    ArrayList<Integer> vals = new ArrayList<Integer>();
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = hf.iterator(tid);
+    it.open();
+    while (it.hasNext())
+      vals.add(((IntField) it.next().getField(0)).getValue());
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+    Collections.sort(vals);
+    return vals;
+  }
+
+  /** @return the number of tuples on the first page of the table on disk */
+  private int tuplesOnDisk(HeapFile hf) {
+    HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+    return HeapPage.numSlots(hf.getTupleDesc()) - p.getNumEmptySlots();
+  }
+
+  /**
+   * Unit test: pages carry the LSN of the record that last changed them,
+   * on disk too
+   */
+  @Test public void pageLsns() throws Exception {
+    Transaction t = begin();
+    insert(t, hf1, 1);
+    t.commit();
+    long lsn = hf1.readPage(new HeapPageId(hf1.getId(), 0)).getLsn();
+    assertTrue(lsn > 0);
+    assertTrue(lsn < Database.getLogFile().getDurableLsn());
+    assertEquals(0, hf2.readPage(new HeapPageId(hf2.getId(), 0)).getLsn());
+  }
+
+  /**
+   * Unit test: a page's LSN reaches the sidecar only once the page is
+   * forced, and a page newer than its LSN on disk is recovered as it is
+   */
+  @Test public void lsnAfterPage() throws Exception {
+    Transaction t = begin();
+    insert(t, hf1, 1);
+    insert(t, hf1, 2);
+    t.commit();
+    HeapPageId pid = new HeapPageId(hf1.getId(), 0);
+    long lsn = hf1.readPage(pid).getLsn();
+    assertTrue(lsn > 0);
+    assertEquals(2, tuplesOnDisk(hf1));
+    assertEquals(0, new HeapFile(file1, hf1.getTupleDesc()).readPage(pid).getLsn());
+
+    crashAndRecover();
+    assertEquals(Arrays.asList(1, 2), values(hf1));
+    hf1.force();
+    assertEquals(hf1.readPage(pid).getLsn(), new HeapFile(file1, hf1.getTupleDesc()).readPage(pid).getLsn());
+    assertTrue(hf1.readPage(pid).getLsn() >= lsn);
+  }
+
+  /**
+   * Unit test: a committed change whose page write was lost is redone
+   */
+  @Test public void redoCommitted() throws Exception {
+    Transaction t = begin();
+    insert(t, hf1, 1);
+    insert(t, hf1, 2);
+    t.commit();
+
+    // the write of the page never made it
+    HeapPageId pid = new HeapPageId(hf1.getId(), 0);
+    hf1.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+    assertEquals(0, tuplesOnDisk(hf1));
+
+    crashAndRecover();
+    assertEquals(Arrays.asList(1, 2), values(hf1));
+  }
+
+  /**
+   * Unit test: an uncommitted change that was written out before the
+   * crash is undone
+   */
+  @Test public void undoStolen() throws Exception {
+    Transaction t1 = begin();
+    insert(t1, hf1, 1);
+    t1.commit();
+
+    Transaction t2 = begin();
+    insert(t2, hf1, 2);
+    Database.getBufferPool().flushPages(t2.getId());
+    assertEquals(2, tuplesOnDisk(hf1));
+
+    crashAndRecover();
+    assertEquals(Arrays.asList(1), values(hf1));
+    assertEquals(1, tuplesOnDisk(hf1));
+  }
+
+  /**
+   * Unit test: an abort rolls back changes that were written out as well
+   * as those that were not
+   */
+  @Test public void abortStolen() throws Exception {
+    Transaction t1 = begin();
+    insert(t1, hf1, 1);
+    t1.commit();
+
+    Transaction t2 = begin();
+    insert(t2, hf1, 2);
+    Database.getBufferPool().flushPages(t2.getId());
+    insert(t2, hf1, 3);
+    t2.abort();
+    assertEquals(1, tuplesOnDisk(hf1));
+    assertEquals(Arrays.asList(1), values(hf1));
+
+    // the rollback was logged, so recovery leaves it alone
+    crashAndRecover();
+    assertEquals(Arrays.asList(1), values(hf1));
+  }
+
+  /**
+   * Unit test: recovery starts from the last checkpoint, which remembers
+   * the transactions that were active, and can be repeated
+   */
+  @Test public void recoverFromCheckpoint() throws Exception {
+    Transaction t1 = begin();
+    insert(t1, hf1, 1);
+    t1.commit();
+
+    Transaction t2 = begin();
+    insert(t2, hf1, 2);
+    Database.getBufferPool().flushPages(t2.getId());
+    Database.getLogFile().logCheckpoint();
+
+    Transaction t3 = begin();
+    insert(t3, hf2, 3);
+    t3.commit();
+    // lose t3's write as well
+    hf2.writePage(new HeapPage(new HeapPageId(hf2.getId(), 0), HeapPage.createEmptyPageData()));
+
+    crashAndRecover();
+    assertEquals(Arrays.asList(1), values(hf1));
+    assertEquals(Arrays.asList(3), values(hf2));
+
+    crashAndRecover();
+    assertEquals(Arrays.asList(1), values(hf1));
+    assertEquals(Arrays.asList(3), values(hf2));
+  }
+
+  /**
+   * Unit test: a fuzzy checkpoint writes no pages but records the ones
+   * whose writes may not be on disk, and recovery redoes them
+   */
+  @Test public void fuzzyCheckpoint() throws Exception {
+    Database.getBufferPool().getPageCleaner().setEnabled(false);
+    HeapPageId pid = new HeapPageId(hf1.getId(), 0);
+    Transaction t1 = begin();
+    insert(t1, hf1, 1);
+    Database.getLogFile().logCheckpoint(LogFile.CheckpointMode.FUZZY);
+    assertEquals(0, tuplesOnDisk(hf1));
+    assertNotNull(Database.getBufferPool().getPage(t1.getId(), pid, Permissions.READ_ONLY).isDirty());
+
+    // written but not synced: still in the dirty page table
+    t1.commit();
+    assertTrue(Database.getBufferPool().getDirtyPageTable().containsKey(pid));
+    Database.getLogFile().logCheckpoint(LogFile.CheckpointMode.FUZZY);
+    assertFalse(Database.getBufferPool().getDirtyPageTable().containsKey(pid));
+
+    // t2 and t4 are active across the checkpoint; t4's stolen page is
+    // synced by it and rolled back afterwards
+    Transaction t2 = begin();
+    insert(t2, hf2, 2);
+    Transaction t4 = begin();
+    insert(t4, hf1, 4);
+    Database.getBufferPool().flushPages(t4.getId());
+    Database.getLogFile().logCheckpoint(LogFile.CheckpointMode.FUZZY);
+    Page synced = hf1.readPage(pid);
+    t2.commit();
+    t4.abort();
+    Transaction t3 = begin();
+    insert(t3, hf1, 3);
+    t3.commit();
+    // neither write was synced before the crash
+    hf1.writePage(synced);
+    hf2.writePage(new HeapPage(new HeapPageId(hf2.getId(), 0), HeapPage.createEmptyPageData()));
+
+    crashAndRecover();
+    assertEquals(Arrays.asList(1, 3), values(hf1));
+    assertEquals(Arrays.asList(2), values(hf2));
+  }
+
+  /**
+   * Unit test: the log moves on to new segments as it grows, a checkpoint
+   * drops the ones recovery no longer needs, and recovery stops at the end
+   * of the log in a segment file that was reused
+   */
+  @Test public void logSegments() throws Exception {
+    LogFile log = Database.getLogFile();
+    log.setSegmentSize(512);
+    for (int i = 0; i < 10; i++) {
+      Transaction t = begin();
+      insert(t, hf1, i);
+      t.commit();
+    }
+    assertTrue(log.getSegmentCount() > 2);
+    long first = log.getFirstLsn();
+    log.logCheckpoint();
+    assertTrue(log.getSegmentCount() <= 2);
+    assertTrue(log.getFirstLsn() > first);
+
+    // what is on disk as of the checkpoint
+    HeapPageId pid = new HeapPageId(hf1.getId(), 0);
+    Page synced = hf1.readPage(pid);
+    for (int i = 10; i < 20; i++) {
+      Transaction t = begin();
+      insert(t, hf1, i);
+      t.commit();
+    }
+    File dir = new File(log.logFile.getPath() + LogFile.SEGMENT_DIR_SUFFIX);
+    assertTrue(dir.list().length <= log.getSegmentCount() + LogFile.MAX_FREE_SEGMENTS);
+
+    // none of the writes since were synced
+    hf1.writePage(synced);
+    crashAndRecover();
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < 20; i++)
+      expected.add(i);
+    assertEquals(expected, values(hf1));
+  }
+
+  /**
+   * Unit test: changes to a HeapPage are logged slot by slot, and are
+   * redone and undone that way, deletes as well as inserts
+   */
+  @Test public void slotRecords() throws Exception {
+    LogFile log = Database.getLogFile();
+    Transaction t1 = begin();
+    insert(t1, hf1, 1);
+    insert(t1, hf1, 2);
+    t1.commit();
+
+    // one slot changed: nowhere near a page image
+    Transaction t2 = begin();
+    long start = log.getCurrentLsn();
+    insert(t2, hf1, 3);
+    Database.getBufferPool().flushPages(t2.getId());
+    assertTrue(log.getCurrentLsn() - start < BufferPool.getPageSize() / 8);
+
+    // t2 also deletes a committed tuple before the page is stolen again
+    DbFileIterator it = hf1.iterator(t2.getId());
+    it.open();
+    Tuple one = null;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (((IntField) t.getField(0)).getValue() == 1)
+        one = t;
+    }
+    it.close();
+    Database.getBufferPool().deleteTuple(t2.getId(), one);
+    Database.getBufferPool().flushPages(t2.getId());
+    assertEquals(2, tuplesOnDisk(hf1));
+
+    crashAndRecover();
+    assertEquals(Arrays.asList(1, 2), values(hf1));
+    assertEquals(2, tuplesOnDisk(hf1));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(RecoveryTest.class);
+  }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final ReplacementPolicy.Evictable ANY = new ReplacementPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private static PageId pid(int n) {
+        return new HeapPageId(-1, n);
+    }
+
+    /**
+     * Unit test for LruPolicy: the least recently requested page goes first.
+     */
+    @Test public void lru() {
+        ReplacementPolicy p = new LruPolicy();
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        p.pageHit(pid(0));
+        assertEquals(pid(1), p.chooseVictim(ANY));
+        p.pageRemoved(pid(1));
+        assertEquals(pid(2), p.chooseVictim(ANY));
+        assertEquals(2, p.size());
+    }
+
+    /**
+     * Unit test for ClockPolicy: referenced pages get a second chance.
+     */
+    @Test public void clock() {
+        ReplacementPolicy p = new ClockPolicy(3);
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        // first sweep clears every bit, so frame 0 is found on the second
+        assertEquals(pid(0), p.chooseVictim(ANY));
+        p.pageRemoved(pid(0));
+        p.pageLoaded(pid(3));
+        p.pageHit(pid(1));
+        // hand is past frame 0; frame 1 was referenced again, frame 2 was not
+        assertEquals(pid(2), p.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for LruKPolicy: pages requested once lose to pages requested
+     * K times, even if the latter were requested longer ago.
+     */
+    @Test public void lruK() {
+        ReplacementPolicy p = new LruKPolicy(2, 10);
+        p.pageLoaded(pid(0));
+        p.pageHit(pid(0));
+        for (int i = 1; i <= 5; i++)
+            p.pageLoaded(pid(i));
+        assertEquals(pid(1), p.chooseVictim(ANY));
+        for (int i = 1; i <= 5; i++)
+            p.pageRemoved(pid(i));
+        assertEquals(pid(0), p.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: a scan through A1in does not displace
+     * pages that were promoted to Am.
+     */
+    @Test public void twoQueue() {
+        ReplacementPolicy p = new TwoQueuePolicy(1, 4);
+        p.pageLoaded(pid(0));
+        p.pageRemoved(pid(0));
+        p.pageLoaded(pid(0)); // back from A1out, so it is hot
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        assertEquals(pid(1), p.chooseVictim(ANY));
+        p.pageRemoved(pid(1));
+        p.pageRemoved(pid(2));
+        assertEquals(pid(0), p.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for the filter passed to chooseVictim.
+     */
+    @Test public void vetoedVictims() {
+        ReplacementPolicy.Evictable none = new ReplacementPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                return false;
+            }
+        };
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy p = kind.create(4);
+            p.pageLoaded(pid(0));
+            p.pageLoaded(pid(1));
+            assertNull(kind.toString(), p.chooseVictim(none));
+        }
+    }
+
+    /**
+     * Unit test for the BufferPool hit/miss/eviction counters, run once per policy.
+     */
+    @Test public void bufferPoolCounters() throws Exception {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            Database.reset(kind);
+            HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3000, null, null);
+            int pages = hf.numPages();
+            BufferPool bp = Database.resetBufferPool(pages - 1, kind);
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < pages; i++)
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            bp.getPage(tid, new HeapPageId(hf.getId(), pages - 1), Permissions.READ_ONLY);
+            assertEquals(kind.toString(), pages, bp.getMissCount());
+            assertEquals(kind.toString(), 1, bp.getHitCount());
+            assertEquals(kind.toString(), 1, bp.getEvictionCount());
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -2,9 +2,16 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
+import org.junit.After;
+import org.junit.Before;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
 public class TestUtil {
     /**
      * @return an IntField with value n
@@ -393,4 +400,135 @@ public class TestUtil {
         protected HeapFile empty;
         private final File emptyFile;
     }
+
+    /**
+     * JUnit fixture for the tests of an IndexFile: indexes of small pages
+     * over a table that is not in the catalog, in a small BufferPool, and
+     * helpers to change and read them.
+     */
+    public static abstract class CreateIndex extends SimpleDbTestBase {
+
+        /** Small pages, so that a few hundred entries fill many pages */
+        protected static final int SMALL_PAGE_SIZE = 256;
+
+        /** The id of the table the entries point into */
+        protected static final int TABLE_ID = 42;
+
+        /** A pool much smaller than the indexes, so pages are stolen mid-split */
+        @Before public void smallPool() {
+            Database.resetBufferPool(20);
+        }
+
+        @After public void restorePageSize() {
+            BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+        }
+
+        /** @return a file name for an index, deleted on exit */
+        protected static File tempFile(String prefix) throws IOException {
+            File f = File.createTempFile(prefix, ".dat");
+            f.delete();
+            f.deleteOnExit();
+            return f;
+        }
+
+        /** @return the record id the entry numbered i points to */
+        protected static RecordId rid(int i) {
+            return new RecordId(new HeapPageId(TABLE_ID, i / 10), i % 10);
+        }
+
+        protected Transaction begin() {
+            Transaction t = new Transaction();
+            t.start();
+            return t;
+        }
+
+        protected void insert(Transaction t, IndexFile index, Field key, int i) throws Exception {
+            for (Page p : index.insertEntry(t.getId(), key, rid(i)))
+                p.markDirty(true, t.getId());
+        }
+
+        protected void delete(Transaction t, IndexFile index, Field key, int i) throws Exception {
+            for (Page p : index.deleteEntry(t.getId(), key, rid(i)))
+                p.markDirty(true, t.getId());
+        }
+
+        /** @return the entries an iterator returns, in its order */
+        protected ArrayList<Tuple> entries(DbFileIterator it) throws Exception {
+            ArrayList<Tuple> entries = new ArrayList<Tuple>();
+            it.open();
+            while (it.hasNext())
+                entries.add(it.next());
+            it.close();
+            return entries;
+        }
+
+        /**
+         * @param op the predicate to look the key up with, or null for all
+         *   the entries
+         * @return the keys of the entries found, in the iterator's order
+         */
+        protected ArrayList<Integer> intKeys(IndexFile index, Predicate.Op op, int key)
+            throws Exception {
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = op == null ? index.iterator(tid)
+                : index.indexIterator(tid, op, new IntField(key));
+            ArrayList<Integer> keys = new ArrayList<Integer>();
+            for (Tuple t : entries(it))
+                keys.add(((IntField) t.getField(0)).getValue());
+            Database.getBufferPool().transactionComplete(tid);
+            return keys;
+        }
+
+        /** @return 0 to n-1 in order */
+        protected static ArrayList<Integer> range(int n) {
+            ArrayList<Integer> values = new ArrayList<Integer>();
+            for (int i = 0; i < n; i++)
+                values.add(i);
+            return values;
+        }
+
+        protected static ArrayList<Integer> shuffled(int n, long seed) {
+            ArrayList<Integer> values = range(n);
+            Collections.shuffle(values, new Random(seed));
+            return values;
+        }
+
+        /**
+         * Insert keys 0 to 799 into an empty int index from four
+         * transactions at once, which all start once the index has a
+         * header and a first page, and check that they all got in.
+         */
+        protected void insertConcurrently(final IndexFile index) throws Throwable {
+            Transaction t0 = begin();
+            insert(t0, index, new IntField(800), 800);
+            t0.commit();
+            final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+            Thread[] threads = new Thread[4];
+            final CyclicBarrier start = new CyclicBarrier(threads.length);
+            for (int n = 0; n < threads.length; n++) {
+                final int first = 200 * n;
+                threads[n] = new Thread() {
+                    public void run() {
+                        try {
+                            Transaction t = begin();
+                            start.await();
+                            for (int i = first; i < first + 200; i++)
+                                insert(t, index, new IntField(i), i);
+                            t.commit();
+                        } catch (Throwable e) {
+                            error.compareAndSet(null, e);
+                        }
+                    }
+                };
+                threads[n].start();
+            }
+            for (Thread t : threads)
+                t.join();
+            if (error.get() != null)
+                throw error.get();
+            ArrayList<Integer> keys = intKeys(index, null, 0);
+            Collections.sort(keys);
+            assertEquals(range(801), keys);
+        }
+    }
 }
@@ -40,6 +40,41 @@ public class EvictionTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Reads a small table into the pool, then scans a table much larger than
+     * the pool. With scan resistance the small table must still be resident
+     * afterwards; without it the scan flushes it out.
+     */
+    @Test public void testScanResistance() throws IOException, DbException, TransactionAbortedException {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 1024*40, null, null);
+        assertTrue(big.numPages() > 4 * BUFFER_PAGES);
+
+        assertEquals(0, rereadMisses(hot, big, true));
+        assertEquals(hot.numPages(), rereadMisses(hot, big, false));
+    }
+
+    private long rereadMisses(HeapFile hot, HeapFile big, boolean scanResistant)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        bp.setScanResistant(scanResistant);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hot.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+
+        SeqScan scan = new SeqScan(tid, big.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+
+        long before = bp.getMissCount();
+        for (int i = 0; i < hot.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        return bp.getMissCount() - before;
+    }
+
     public static void insertRow(HeapFile f, Transaction t) throws DbException,
             TransactionAbortedException {
         // Create a row to insert